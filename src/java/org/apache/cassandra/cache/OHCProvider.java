@@ -46,14 +46,14 @@ public class OHCProvider implements CacheProvider<RowCacheKey, IRowCacheEntry>
                .valueSerializer(new ValueSerializer())
                .throwOOME(true);
 
-        return new OHCacheAdapter(builder.build());
+        return new OHCacheAdapter<>(builder.build());
     }
 
-    private static class OHCacheAdapter implements ICache<RowCacheKey, IRowCacheEntry>
+    static class OHCacheAdapter<K, V> implements ICache<K, V>
     {
-        private final OHCache<RowCacheKey, IRowCacheEntry> ohCache;
+        private final OHCache<K, V> ohCache;
 
-        public OHCacheAdapter(OHCache<RowCacheKey, IRowCacheEntry> ohCache)
+        public OHCacheAdapter(OHCache<K, V> ohCache)
         {
             this.ohCache = ohCache;
         }
@@ -68,27 +68,27 @@ public class OHCProvider implements CacheProvider<RowCacheKey, IRowCacheEntry>
             ohCache.setCapacity(capacity);
         }
 
-        public void put(RowCacheKey key, IRowCacheEntry value)
+        public void put(K key, V value)
         {
             ohCache.put(key, value);
         }
 
-        public boolean putIfAbsent(RowCacheKey key, IRowCacheEntry value)
+        public boolean putIfAbsent(K key, V value)
         {
             return ohCache.putIfAbsent(key, value);
         }
 
-        public boolean replace(RowCacheKey key, IRowCacheEntry old, IRowCacheEntry value)
+        public boolean replace(K key, V old, V value)
         {
             return ohCache.addOrReplace(key, old, value);
         }
 
-        public IRowCacheEntry get(RowCacheKey key)
+        public V get(K key)
         {
             return ohCache.get(key);
         }
 
-        public void remove(RowCacheKey key)
+        public void remove(K key)
         {
             ohCache.remove(key);
         }
@@ -108,17 +108,17 @@ public class OHCProvider implements CacheProvider<RowCacheKey, IRowCacheEntry>
             ohCache.clear();
         }
 
-        public Iterator<RowCacheKey> hotKeyIterator(int n)
+        public Iterator<K> hotKeyIterator(int n)
         {
             return ohCache.hotKeyIterator(n);
         }
 
-        public Iterator<RowCacheKey> keyIterator()
+        public Iterator<K> keyIterator()
         {
             return ohCache.keyIterator();
         }
 
-        public boolean containsKey(RowCacheKey key)
+        public boolean containsKey(K key)
         {
             return ohCache.containsKey(key);
         }
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.codahale.metrics.Meter;
+
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.metrics.CacheMetrics;
+import org.apache.cassandra.metrics.DefaultNameFactory;
+import org.apache.cassandra.service.CacheService;
+import org.apache.cassandra.utils.Pair;
+
+import static org.apache.cassandra.metrics.CassandraMetricsRegistry.Metrics;
+
+/**
+ * Caches the neighbours found for similarity queries.
+ *
+ * An entry only depends on the content of the buckets probed for it, so it is invalidated by the writes to these
+ * buckets only. Rather than indexing the entries by bucket, every bucket of every table maps to one of a fixed
+ * number of version slots, bumped by the writes to the buckets mapping to it. An entry records the slots of its
+ * buckets and the sum of their versions when the search started, and is dropped when it is next looked up if the
+ * sum has changed since. Buckets sharing a slot can only cause spurious invalidations, never stale results.
+ */
+public class SimilarityCache extends InstrumentingCache<SimilarityCacheKey, SimilarityCacheEntry>
+{
+    static final int SLOTS = 1 << 16;
+
+    private final AtomicLongArray versions = new AtomicLongArray(SLOTS);
+
+    /** Number of entries dropped because a bucket they probed was written to */
+    public final Meter invalidations;
+
+    public SimilarityCache(ICache<SimilarityCacheKey, SimilarityCacheEntry> cache)
+    {
+        super(CacheService.CacheType.SIMILARITY_CACHE.toString(), cache);
+        invalidations = Metrics.meter(new DefaultNameFactory("Cache", CacheService.CacheType.SIMILARITY_CACHE.toString()).createMetricName("Invalidations"));
+    }
+
+    public boolean isEnabled()
+    {
+        return getCapacity() > 0;
+    }
+
+    /**
+     * @param probes the signatures of the buckets probed for a query
+     * @return the version slots of the buckets
+     */
+    public int[] slots(Pair<String, String> ksAndCFName, Collection<long[]> probes)
+    {
+        int[] slots = new int[probes.size()];
+        int i = 0;
+        for (long[] probe : probes)
+            slots[i++] = slot(ksAndCFName, new SimilarityPartitioner.BinaryToken(probe, probe.length));
+        return slots;
+    }
+
+    /**
+     * @return the version of the buckets mapping to {@code slots}, which changes whenever one of them is written to
+     */
+    public long version(int[] slots)
+    {
+        long version = 0;
+        for (int slot : slots)
+            version += versions.get(slot);
+        return version;
+    }
+
+    /**
+     * Caches the neighbours of a query.
+     *
+     * @param slots the slots of the buckets probed, as returned by {@link #slots}
+     * @param version the version of the slots before the buckets were read
+     */
+    public void put(SimilarityCacheKey key, List<ByteBuffer> neighbours, int[] slots, long version)
+    {
+        put(key, new SimilarityCacheEntry(neighbours, slots, version));
+    }
+
+    /**
+     * @return the cached neighbours of a query, nearest first, or null if they are not cached or if one of the
+     * buckets probed for them was written to since
+     */
+    public List<ByteBuffer> getNeighbours(SimilarityCacheKey key)
+    {
+        CacheMetrics metrics = getMetrics();
+        metrics.requests.mark();
+
+        SimilarityCacheEntry entry = getInternal(key);
+        if (entry == null)
+            return null;
+
+        if (version(entry.slots) != entry.version)
+        {
+            remove(key);
+            invalidations.mark();
+            return null;
+        }
+
+        metrics.hits.mark();
+        return entry.neighbours;
+    }
+
+    /**
+     * Invalidates the cached queries that probed the bucket of {@code token}.
+     */
+    public void invalidate(Pair<String, String> ksAndCFName, Token token)
+    {
+        versions.incrementAndGet(slot(ksAndCFName, token));
+    }
+
+    /**
+     * Drops the cached queries of a table.
+     */
+    public void invalidate(Pair<String, String> ksAndCFName)
+    {
+        Iterator<SimilarityCacheKey> iterator = keyIterator();
+        while (iterator.hasNext())
+        {
+            if (iterator.next().ksAndCFName.equals(ksAndCFName))
+            {
+                iterator.remove();
+                invalidations.mark();
+            }
+        }
+    }
+
+    private static int slot(Pair<String, String> ksAndCFName, Token token)
+    {
+        int hash = 31 * ksAndCFName.hashCode() + token.hashCode();
+        // spread the bits of the hash over the slots
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash & (SLOTS - 1);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.ObjectSizes;
+import org.apache.cassandra.utils.Pair;
+
+/**
+ * The key of the search of a replica in the {@link SimilarityCache}: the query vector, the number of neighbours
+ * wanted and the signatures of the buckets probed.
+ */
+public final class SimilarityCacheKey extends CacheKey
+{
+    public final byte[] query;
+    public final int limit;
+    public final long[][] probes;
+
+    private static final long EMPTY_SIZE = ObjectSizes.measure(new SimilarityCacheKey(null, new byte[0], 0, new long[0][]));
+
+    public SimilarityCacheKey(Pair<String, String> ksAndCFName, byte[] query, int limit, long[][] probes)
+    {
+        super(ksAndCFName);
+        this.query = query;
+        this.limit = limit;
+        this.probes = probes;
+    }
+
+    public SimilarityCacheKey(Pair<String, String> ksAndCFName, ByteBuffer query, int limit, List<long[]> probes)
+    {
+        this(ksAndCFName, ByteBufferUtil.getArray(query), limit, probes.toArray(new long[probes.size()][]));
+    }
+
+    public long unsharedHeapSize()
+    {
+        long size = EMPTY_SIZE + ObjectSizes.sizeOfArray(query) + ObjectSizes.sizeOfReferenceArray(probes.length);
+        for (long[] probe : probes)
+            size += ObjectSizes.sizeOfArray(probe);
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        SimilarityCacheKey that = (SimilarityCacheKey) o;
+
+        return limit == that.limit
+               && ksAndCFName.equals(that.ksAndCFName)
+               && Arrays.equals(query, that.query)
+               && Arrays.deepEquals(probes, that.probes);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = ksAndCFName.hashCode();
+        result = 31 * result + Arrays.hashCode(query);
+        result = 31 * result + limit;
+        result = 31 * result + Arrays.deepHashCode(probes);
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("SimilarityCacheKey(ksAndCFName:%s, query:%s, limit:%d, probes:%s)",
+                             ksAndCFName, Arrays.toString(query), limit, Arrays.deepToString(probes));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.Pair;
+import org.caffinitas.ohc.OHCacheBuilder;
+
+/**
+ * Creates the off-heap similarity cache, or a no-op one if similarity_cache_size_in_mb is 0.
+ */
+public class SimilarityCacheProvider implements CacheProvider<SimilarityCacheKey, SimilarityCacheEntry>
+{
+    public ICache<SimilarityCacheKey, SimilarityCacheEntry> create()
+    {
+        return create(DatabaseDescriptor.getSimilarityCacheSizeInMB());
+    }
+
+    @VisibleForTesting
+    ICache<SimilarityCacheKey, SimilarityCacheEntry> create(long capacityInMB)
+    {
+        if (capacityInMB <= 0)
+            return new NopCacheProvider.NopCache<>();
+
+        OHCacheBuilder<SimilarityCacheKey, SimilarityCacheEntry> builder = OHCacheBuilder.newBuilder();
+        builder.capacity(capacityInMB * 1024 * 1024)
+               .keySerializer(new KeySerializer())
+               .valueSerializer(new ValueSerializer())
+               .throwOOME(true);
+
+        return new OHCProvider.OHCacheAdapter<>(builder.build());
+    }
+
+    private static class KeySerializer implements org.caffinitas.ohc.CacheSerializer<SimilarityCacheKey>
+    {
+        public void serialize(SimilarityCacheKey key, DataOutput out) throws IOException
+        {
+            out.writeUTF(key.ksAndCFName.left);
+            out.writeUTF(key.ksAndCFName.right);
+            out.writeInt(key.query.length);
+            out.write(key.query);
+            out.writeInt(key.limit);
+            out.writeInt(key.probes.length);
+            for (long[] probe : key.probes)
+            {
+                out.writeByte(probe.length);
+                for (long word : probe)
+                    out.writeLong(word);
+            }
+        }
+
+        public SimilarityCacheKey deserialize(DataInput in) throws IOException
+        {
+            String ksName = in.readUTF();
+            String cfName = in.readUTF();
+            byte[] query = new byte[in.readInt()];
+            in.readFully(query);
+            int limit = in.readInt();
+            long[][] probes = new long[in.readInt()][];
+            for (int i = 0; i < probes.length; i++)
+            {
+                probes[i] = new long[in.readUnsignedByte()];
+                for (int w = 0; w < probes[i].length; w++)
+                    probes[i][w] = in.readLong();
+            }
+            return new SimilarityCacheKey(Pair.create(ksName, cfName), query, limit, probes);
+        }
+
+        public int serializedSize(SimilarityCacheKey key)
+        {
+            TypeSizes typeSizes = TypeSizes.NATIVE;
+            int size = typeSizes.sizeof(key.ksAndCFName.left)
+                       + typeSizes.sizeof(key.ksAndCFName.right)
+                       + typeSizes.sizeof(key.query.length) + key.query.length
+                       + typeSizes.sizeof(key.limit)
+                       + typeSizes.sizeof(key.probes.length);
+            for (long[] probe : key.probes)
+                size += 1 + probe.length * typeSizes.sizeof(0L);
+            return size;
+        }
+    }
+
+    private static class ValueSerializer implements org.caffinitas.ohc.CacheSerializer<SimilarityCacheEntry>
+    {
+        public void serialize(SimilarityCacheEntry entry, DataOutput out) throws IOException
+        {
+            out.writeInt(entry.neighbours.size());
+            for (ByteBuffer neighbour : entry.neighbours)
+                ByteBufferUtil.writeWithLength(ByteBufferUtil.getArray(neighbour), out);
+            out.writeInt(entry.slots.length);
+            for (int slot : entry.slots)
+                out.writeInt(slot);
+            out.writeLong(entry.version);
+        }
+
+        public SimilarityCacheEntry deserialize(DataInput in) throws IOException
+        {
+            int size = in.readInt();
+            List<ByteBuffer> neighbours = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                neighbours.add(ByteBufferUtil.readWithLength(in));
+            int[] slots = new int[in.readInt()];
+            for (int i = 0; i < slots.length; i++)
+                slots[i] = in.readInt();
+            return new SimilarityCacheEntry(neighbours, slots, in.readLong());
+        }
+
+        public int serializedSize(SimilarityCacheEntry entry)
+        {
+            TypeSizes typeSizes = TypeSizes.NATIVE;
+            int size = typeSizes.sizeof(entry.neighbours.size());
+            for (ByteBuffer neighbour : entry.neighbours)
+                size += typeSizes.sizeof(neighbour.remaining()) + neighbour.remaining();
+            size += typeSizes.sizeof(entry.slots.length) + entry.slots.length * typeSizes.sizeof(0);
+            return size + typeSizes.sizeof(entry.version);
+        }
+    }
+}
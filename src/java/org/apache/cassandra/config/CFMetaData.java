@@ -44,6 +44,8 @@ import org.apache.cassandra.db.compaction.*;
 import org.apache.cassandra.db.composites.*;
 import org.apache.cassandra.db.index.SecondaryIndex;
 import org.apache.cassandra.db.marshal.*;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.SimilarityPartitioner;
 import org.apache.cassandra.exceptions.*;
 import org.apache.cassandra.io.compress.CompressionParameters;
 import org.apache.cassandra.io.compress.LZ4Compressor;
@@ -500,6 +502,20 @@ public final class CFMetaData
         return keyValidator;
     }
 
+    /**
+     * @return the partitioner of this table's keys, which is the configured one unless it depends on their type
+     * @see SimilarityPartitioner#forKeyValidator(IPartitioner, AbstractType)
+     */
+    public IPartitioner partitioner()
+    {
+        return SimilarityPartitioner.forKeyValidator(DatabaseDescriptor.getPartitioner(), keyValidator);
+    }
+
+    public DecoratedKey decorateKey(ByteBuffer key)
+    {
+        return partitioner().decorateKey(key);
+    }
+
     public Integer getMinCompactionThreshold()
     {
         return minCompactionThreshold;
@@ -368,9 +368,30 @@ public class Config
         keyspace
     }
 
+    public static enum SimilarityTokenAllocation
+    {
+        random,
+        load
+    }
+
     /*
      * Similarity search configurations
      */
     public Integer identifier_length;
     public List<List<Double>> vectors;
+    public List<Double> vector_offsets;
+    public int similarity_probe_budget = 64;
+    public double similarity_target_recall = 0.95;
+    public double similarity_probe_radius = 0.25;
+    public int similarity_rerank_candidates = 256;
+    public int similarity_concurrent_probes = 32;
+    public int similarity_probe_page_size = 1000;
+    public int similarity_filter_tables = 4;
+    public int similarity_filter_functions = 3;
+    public float similarity_filter_bucket_width = 4f;
+    public long similarity_filter_seed = 0L;
+    public int similarity_filter_max_bits_per_key = 32;
+    public SimilarityTokenAllocation similarity_token_allocation = SimilarityTokenAllocation.load;
+    public long similarity_occupancy_refresh_in_ms = 60000L;
+    public long similarity_cache_size_in_mb = 0;
 }
@@ -64,6 +64,7 @@ import org.apache.cassandra.config.EncryptionOptions.ServerEncryptionOptions;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.SystemKeyspace;
 import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.SimilarityPartitioner;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.io.FSWriteError;
 import org.apache.cassandra.io.sstable.format.SSTableFormat;
@@ -374,14 +375,28 @@ public class DatabaseDescriptor
         {
             throw new ConfigurationException("Missing directive: partitioner", false);
         }
+        IPartitioner configuredPartitioner;
         try
         {
-            partitioner = FBUtilities.newPartitioner(System.getProperty("cassandra.partitioner", conf.partitioner));
+            configuredPartitioner = FBUtilities.newPartitioner(System.getProperty("cassandra.partitioner", conf.partitioner));
         }
         catch (Exception e)
         {
             throw new ConfigurationException("Invalid partitioner class " + conf.partitioner, false);
         }
+        if (configuredPartitioner instanceof SimilarityPartitioner)
+        {
+            if (conf.vectors == null || conf.vectors.isEmpty())
+                throw new ConfigurationException("SimilarityPartitioner requires at least one hyperplane in vectors", false);
+            for (List<Double> vector : conf.vectors)
+            {
+                if (vector == null || vector.isEmpty())
+                    throw new ConfigurationException("vectors must not contain empty hyperplanes", false);
+                if (vector.contains(null))
+                    throw new ConfigurationException("vectors must only contain numbers", false);
+            }
+        }
+        partitioner = configuredPartitioner;
         paritionerName = partitioner.getClass().getCanonicalName();
 
         if (conf.gc_warn_threshold_in_ms < 0)
@@ -389,6 +404,44 @@ public class DatabaseDescriptor
             throw new ConfigurationException("gc_warn_threshold_in_ms must be a positive integer");
         }
 
+        if (conf.similarity_probe_budget < 1)
+            throw new ConfigurationException("similarity_probe_budget must be at least 1", false);
+        if (conf.similarity_target_recall <= 0 || conf.similarity_target_recall > 1)
+            throw new ConfigurationException("similarity_target_recall must be in (0, 1]", false);
+        if (conf.similarity_probe_radius <= 0)
+            throw new ConfigurationException("similarity_probe_radius must be positive", false);
+        if (conf.similarity_rerank_candidates < 0)
+            throw new ConfigurationException("similarity_rerank_candidates must not be negative", false);
+        if (conf.similarity_concurrent_probes < 1)
+            throw new ConfigurationException("similarity_concurrent_probes must be at least 1", false);
+        if (conf.similarity_probe_page_size < 1)
+            throw new ConfigurationException("similarity_probe_page_size must be at least 1", false);
+        if (conf.vector_offsets != null && conf.vectors != null && conf.vector_offsets.size() != conf.vectors.size())
+            throw new ConfigurationException("vector_offsets must have one offset per vector", false);
+        if (conf.vector_offsets != null)
+        {
+            for (Double offset : conf.vector_offsets)
+            {
+                if (offset != 0)
+                {
+                    logger.warn("vector_offsets moves the hyperplanes off the origin, which the probing of SIMILAR TO queries assumes they go through; recall will fall short of similarity_target_recall");
+                    break;
+                }
+            }
+        }
+        if (conf.similarity_filter_tables < 1)
+            throw new ConfigurationException("similarity_filter_tables must be at least 1", false);
+        if (conf.similarity_filter_functions < 1)
+            throw new ConfigurationException("similarity_filter_functions must be at least 1", false);
+        if (conf.similarity_filter_bucket_width <= 0)
+            throw new ConfigurationException("similarity_filter_bucket_width must be positive", false);
+        if (conf.similarity_filter_max_bits_per_key < 1)
+            throw new ConfigurationException("similarity_filter_max_bits_per_key must be at least 1", false);
+        if (conf.similarity_token_allocation == null)
+            throw new ConfigurationException("similarity_token_allocation must be one of random, load", false);
+        if (conf.similarity_occupancy_refresh_in_ms < 0)
+            throw new ConfigurationException("similarity_occupancy_refresh_in_ms must not be negative", false);
+
         if (conf.max_hint_window_in_ms == null)
         {
             throw new ConfigurationException("max_hint_window_in_ms cannot be set to null", false);
@@ -1808,7 +1861,6 @@ public class DatabaseDescriptor
     }
 
     // TODO - check if there are settings
-    // TODO - check if identifier_length == vectors.size
     /*
      * Similarity search configurations
      */
@@ -1817,6 +1869,11 @@ public class DatabaseDescriptor
         return conf.identifier_length;
     }
 
+    public static boolean hasVectors()
+    {
+        return conf.vectors != null && !conf.vectors.isEmpty();
+    }
+
     public static double[][] getVectors()
     {
         // TODO - converting in a better way
@@ -1828,4 +1885,88 @@ public class DatabaseDescriptor
         }
         return vectors;
     }
+
+    /**
+     * @return the offset of each hyperplane, or null if they all go through the origin
+     */
+    public static double[] getVectorOffsets()
+    {
+        return conf.vector_offsets == null ? null : Doubles.toArray(conf.vector_offsets);
+    }
+
+    public static int getSimilarityProbeBudget()
+    {
+        return conf.similarity_probe_budget;
+    }
+
+    public static double getSimilarityTargetRecall()
+    {
+        return conf.similarity_target_recall;
+    }
+
+    public static double getSimilarityProbeRadius()
+    {
+        return conf.similarity_probe_radius;
+    }
+
+    public static int getSimilarityRerankCandidates()
+    {
+        return conf.similarity_rerank_candidates;
+    }
+
+    public static int getSimilarityConcurrentProbes()
+    {
+        return conf.similarity_concurrent_probes;
+    }
+
+    public static int getSimilarityProbePageSize()
+    {
+        return conf.similarity_probe_page_size;
+    }
+
+    @VisibleForTesting
+    public static void setSimilarityProbePageSize(int pageSize)
+    {
+        conf.similarity_probe_page_size = pageSize;
+    }
+
+    public static int getSimilarityFilterTables()
+    {
+        return conf.similarity_filter_tables;
+    }
+
+    public static int getSimilarityFilterFunctions()
+    {
+        return conf.similarity_filter_functions;
+    }
+
+    public static float getSimilarityFilterBucketWidth()
+    {
+        return conf.similarity_filter_bucket_width;
+    }
+
+    public static long getSimilarityFilterSeed()
+    {
+        return conf.similarity_filter_seed;
+    }
+
+    public static int getSimilarityFilterMaxBitsPerKey()
+    {
+        return conf.similarity_filter_max_bits_per_key;
+    }
+
+    public static Config.SimilarityTokenAllocation getSimilarityTokenAllocation()
+    {
+        return conf.similarity_token_allocation;
+    }
+
+    public static long getSimilarityOccupancyRefreshInMs()
+    {
+        return conf.similarity_occupancy_refresh_in_ms;
+    }
+
+    public static long getSimilarityCacheSizeInMB()
+    {
+        return conf.similarity_cache_size_in_mb;
+    }
 }
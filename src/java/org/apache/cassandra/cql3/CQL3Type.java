@@ -54,6 +54,7 @@ import org.apache.cassandra.db.marshal.TypeParser;
 import org.apache.cassandra.db.marshal.UTF8Type;
 import org.apache.cassandra.db.marshal.UUIDType;
 import org.apache.cassandra.db.marshal.UserType;
+import org.apache.cassandra.db.marshal.VectorType;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.exceptions.InvalidRequestException;
 import org.apache.cassandra.exceptions.SyntaxException;
@@ -331,6 +332,53 @@ public interface CQL3Type
         }
     }
 
+    public static class Vector implements CQL3Type
+    {
+        private final VectorType type;
+
+        private Vector(VectorType type)
+        {
+            this.type = type;
+        }
+
+        public static Vector create(VectorType type)
+        {
+            return new Vector(type);
+        }
+
+        public boolean isCollection()
+        {
+            return false;
+        }
+
+        public AbstractType<?> getType()
+        {
+            return type;
+        }
+
+        @Override
+        public final boolean equals(Object o)
+        {
+            if(!(o instanceof Vector))
+                return false;
+
+            Vector that = (Vector)o;
+            return type.equals(that.type);
+        }
+
+        @Override
+        public final int hashCode()
+        {
+            return type.hashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "vector<" + type.getElementsType().asCQL3Type() + ", " + type.dimension() + ">";
+        }
+    }
+
     // For UserTypes, we need to know the current keyspace to resolve the
     // actual type used, so Raw is a "not yet prepared" CQL3Type.
     public abstract class Raw
@@ -402,6 +450,11 @@ public interface CQL3Type
             return new RawTuple(ts);
         }
 
+        public static Raw vector(CQL3Type.Raw t, String dimension)
+        {
+            return new RawVector(t, dimension);
+        }
+
         public static Raw frozen(CQL3Type.Raw t) throws InvalidRequestException
         {
             t.freeze();
@@ -639,5 +692,49 @@ public interface CQL3Type
                 return sb.toString();
             }
         }
+
+        private static class RawVector extends Raw
+        {
+            private final CQL3Type.Raw elements;
+            private final String dimension;
+
+            private RawVector(CQL3Type.Raw elements, String dimension)
+            {
+                this.elements = elements;
+                this.dimension = dimension;
+            }
+
+            protected boolean supportsFreezing()
+            {
+                return false;
+            }
+
+            public CQL3Type prepare(String keyspace) throws InvalidRequestException
+            {
+                CQL3Type type = elements.prepare(keyspace);
+                if (type != Native.FLOAT && type != Native.DOUBLE)
+                    throw new InvalidRequestException(String.format("The components of a vector must be floats or doubles, not %s", type));
+
+                int n;
+                try
+                {
+                    n = Integer.parseInt(dimension);
+                }
+                catch (NumberFormatException e)
+                {
+                    throw new InvalidRequestException(String.format("Invalid vector dimension %s", dimension));
+                }
+                if (n < 1)
+                    throw new InvalidRequestException(String.format("The dimension of a vector must be at least 1, not %d", n));
+
+                return new Vector(VectorType.getInstance(type.getType(), n));
+            }
+
+            @Override
+            public String toString()
+            {
+                return "vector<" + elements + ", " + dimension + ">";
+            }
+        }
     }
 }
@@ -292,6 +292,7 @@ selectStatement returns [SelectStatement.RawStatement expr]
         Map<ColumnIdentifier.Raw, Boolean> orderings = new LinkedHashMap<ColumnIdentifier.Raw, Boolean>();
         boolean allowFiltering = false;
         boolean isJson = false;
+        Term.Raw recall = null;
     }
     : K_SELECT 
       ( K_JSON { isJson = true; } )?
@@ -300,13 +301,14 @@ selectStatement returns [SelectStatement.RawStatement expr]
       ( K_WHERE wclause=whereClause )?
       ( K_ORDER K_BY orderByClause[orderings] ( ',' orderByClause[orderings] )* )?
       ( K_LIMIT rows=intValue { limit = rows; } )?
+      ( K_WITH K_RECALL '=' r=term { recall = r; } )?
       ( K_ALLOW K_FILTERING  { allowFiltering = true; } )?
       {
           SelectStatement.Parameters params = new SelectStatement.Parameters(orderings,
                                                                              isDistinct,
                                                                              allowFiltering,
                                                                              isJson);
-          $expr = new SelectStatement.RawStatement(cf, params, sclause, wclause, limit);
+          $expr = new SelectStatement.RawStatement(cf, params, sclause, wclause, limit, recall);
       }
     ;
 
@@ -322,7 +324,9 @@ selector returns [RawSelector s]
 
 unaliasedSelector returns [Selectable.Raw s]
     @init { Selectable.Raw tmp = null; }
-    :  ( c=cident                                  { tmp = c; }
+    // COUNT(1) also reads as a call to the count function on a constant; greedy resolves it to the COUNT alternative
+    :  ( options { greedy=true; }
+       : c=cident                                  { tmp = c; }
        | K_COUNT '(' countArgument ')'             { tmp = new Selectable.WithFunction.Raw(FunctionName.nativeFunction("countRows"), Collections.<Selectable.Raw>emptyList());}
        | K_WRITETIME '(' c=cident ')'              { tmp = new Selectable.WritetimeOrTTL.Raw(c, true); }
        | K_TTL       '(' c=cident ')'              { tmp = new Selectable.WritetimeOrTTL.Raw(c, false); }
@@ -332,11 +336,17 @@ unaliasedSelector returns [Selectable.Raw s]
 
 selectionFunctionArgs returns [List<Selectable.Raw> a]
     : '(' ')' { $a = Collections.emptyList(); }
-    | '(' s1=unaliasedSelector { List<Selectable.Raw> args = new ArrayList<Selectable.Raw>(); args.add(s1); }
-          ( ',' sn=unaliasedSelector { args.add(sn); } )*
+    | '(' s1=selectionFunctionArg { List<Selectable.Raw> args = new ArrayList<Selectable.Raw>(); args.add(s1); }
+          ( ',' sn=selectionFunctionArg { args.add(sn); } )*
       ')' { $a = args; }
     ;
 
+selectionFunctionArg returns [Selectable.Raw s]
+    : us=unaliasedSelector { $s = us; }
+    | c=constant           { $s = new Selectable.WithTerm.Raw(c); }
+    | l=collectionLiteral  { $s = new Selectable.WithTerm.Raw(l); }
+    ;
+
 countArgument
     : '\*'
     | i=INTEGER { if (!i.getText().equals("1")) addRecognitionError("Only COUNT(1) is supported, got COUNT(" + i.getText() + ")");}
@@ -1359,8 +1369,18 @@ relation[List<Relation> clauses]
     | name=cident K_CONTAINS { Operator rt = Operator.CONTAINS; } (K_KEY { rt = Operator.CONTAINS_KEY; })?
         t=term { $clauses.add(new SingleColumnRelation(name, rt, t)); }
     | name=cident '[' key=term ']' type=relationType t=term { $clauses.add(new SingleColumnRelation(name, key, type, t)); }
+    | name=cident K_SIMILAR K_TO
+      ( t=term
+          { $clauses.add(new SimilarityRelation(Collections.singletonList(name), Collections.singletonList(t))); }
+      | K_IN marker=inMarker /* a SIMILAR TO IN ? */
+          { $clauses.add(SimilarityRelation.createInRelation(name, marker)); }
+      | K_IN inValues=singleColumnInValues /* a SIMILAR TO IN (1, 2, 3) */
+          { $clauses.add(SimilarityRelation.createInRelation(name, inValues)); }
+      )
     | ids=tupleOfIdentifiers
-      ( K_IN
+      ( K_SIMILAR K_TO values=singleColumnInValues /* (a, b, c) SIMILAR TO (1, 2, 3) */
+          { $clauses.add(new SimilarityRelation(ids, values)); }
+      | K_IN
           ( '(' ')'
               { $clauses.add(MultiColumnRelation.createInRelation(ids, new ArrayList<Tuples.Literal>())); }
           | tupleInMarker=inMarkerForTuple /* (a, b, c) IN ? */
@@ -1421,6 +1441,7 @@ comparatorType returns [CQL3Type.Raw t]
     : n=native_type     { $t = CQL3Type.Raw.from(n); }
     | c=collection_type { $t = c; }
     | tt=tuple_type     { $t = tt; }
+    | vt=vector_type    { $t = vt; }
     | id=userTypeName   { $t = CQL3Type.Raw.userType(id); }
     | K_FROZEN '<' f=comparatorType '>'
       {
@@ -1484,6 +1505,11 @@ tuple_type returns [CQL3Type.Raw t]
       '>' { $t = CQL3Type.Raw.tuple(types); }
     ;
 
+vector_type returns [CQL3Type.Raw t]
+    : K_VECTOR '<' e=comparatorType ',' d=INTEGER '>'
+        { if (e != null) $t = CQL3Type.Raw.vector(e, $d.text); }
+    ;
+
 username
     : IDENT
     | STRING_LITERAL
@@ -1554,6 +1580,9 @@ basic_unreserved_keyword returns [String str]
         | K_JSON
         | K_CALLED
         | K_INPUT
+        | K_SIMILAR
+        | K_VECTOR
+        | K_RECALL
         ) { $str = $k.text; }
     ;
 
@@ -1669,9 +1698,12 @@ K_LIST:        L I S T;
 K_NAN:         N A N;
 K_INFINITY:    I N F I N I T Y;
 K_TUPLE:       T U P L E;
+K_VECTOR:      V E C T O R;
 
 K_TRIGGER:     T R I G G E R;
 K_STATIC:      S T A T I C;
+K_SIMILAR:     S I M I L A R;
+K_RECALL:      R E C A L L;
 K_FROZEN:      F R O Z E N;
 
 K_FUNCTION:    F U N C T I O N;
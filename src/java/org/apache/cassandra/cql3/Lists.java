@@ -32,6 +32,7 @@ import org.apache.cassandra.db.composites.CellName;
 import org.apache.cassandra.db.composites.Composite;
 import org.apache.cassandra.db.marshal.Int32Type;
 import org.apache.cassandra.db.marshal.ListType;
+import org.apache.cassandra.db.marshal.VectorType;
 import org.apache.cassandra.exceptions.InvalidRequestException;
 import org.apache.cassandra.serializers.CollectionSerializer;
 import org.apache.cassandra.serializers.MarshalException;
@@ -68,6 +69,10 @@ public abstract class Lists
 
         public Term prepare(String keyspace, ColumnSpecification receiver) throws InvalidRequestException
         {
+            // vector literals are written as lists
+            if (receiver.type instanceof VectorType)
+                return Vectors.prepare(keyspace, receiver, elements);
+
             validateAssignableTo(keyspace, receiver);
 
             ColumnSpecification valueSpec = Lists.valueSpecOf(receiver);
@@ -104,6 +109,9 @@ public abstract class Lists
 
         public AssignmentTestable.TestResult testAssignment(String keyspace, ColumnSpecification receiver)
         {
+            if (receiver.type instanceof VectorType)
+                return Vectors.testAssignment(keyspace, receiver, elements);
+
             if (!(receiver.type instanceof ListType))
                 return AssignmentTestable.TestResult.NOT_ASSIGNABLE;
 
@@ -108,6 +108,14 @@ public enum Operator
         {
             return "!=";
         }
+    },
+    SIMILAR(9)
+    {
+        @Override
+        public String toString()
+        {
+            return "SIMILAR TO";
+        }
     };
 
     /**
@@ -132,6 +132,7 @@ public abstract class Relation {
             case IN: return newINRestriction(cfm, boundNames);
             case CONTAINS: return newContainsRestriction(cfm, boundNames, false);
             case CONTAINS_KEY: return newContainsRestriction(cfm, boundNames, true);
+            case SIMILAR: throw invalidRequest("SIMILAR TO is only supported on the partition key of SELECT statements: %s", this);
             default: throw invalidRequest("Unsupported \"!=\" relation: %s", this);
         }
     }
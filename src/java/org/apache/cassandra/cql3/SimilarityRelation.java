@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cql3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.cql3.restrictions.Restriction;
+import org.apache.cassandra.cql3.statements.Bound;
+import org.apache.cassandra.exceptions.InvalidRequestException;
+
+import static org.apache.cassandra.cql3.statements.RequestValidations.checkTrue;
+import static org.apache.cassandra.cql3.statements.RequestValidations.invalidRequest;
+
+/**
+ * A nearest neighbours relation on the partition key, for tables using the <code>SimilarityPartitioner</code>.
+ * Examples:
+ * <ul>
+ * <li>SELECT ... WHERE a SIMILAR TO 3</li>
+ * <li>SELECT ... WHERE (a, b, c) SIMILAR TO (1, 2, 3) LIMIT 10</li>
+ * <li>SELECT ... WHERE a SIMILAR TO IN (3, 4) LIMIT 10</li>
+ * </ul>
+ *
+ * The relation does not convert into a <code>Restriction</code>: the partition key it designates is the query
+ * vector, which does not need to exist, and the partitions returned are the ones closest to it.
+ */
+public final class SimilarityRelation extends Relation
+{
+    private final List<ColumnIdentifier.Raw> entities;
+
+    private final List<Term.Raw> values;
+
+    /**
+     * The query vectors of a <code>SIMILAR TO IN</code> relation: the values, or null if they are bound to a
+     * single marker.
+     */
+    private final List<Term.Raw> inValues;
+
+    private final Term.Raw inMarker;
+
+    private SimilarityRelation(List<ColumnIdentifier.Raw> entities, List<Term.Raw> values, List<Term.Raw> inValues, Term.Raw inMarker)
+    {
+        this.entities = entities;
+        this.relationType = Operator.SIMILAR;
+        this.values = values;
+        this.inValues = inValues;
+        this.inMarker = inMarker;
+    }
+
+    public SimilarityRelation(List<ColumnIdentifier.Raw> entities, List<Term.Raw> values)
+    {
+        this(entities, values, null, null);
+    }
+
+    /**
+     * Creates a relation looking up the neighbours of several query vectors.
+     *
+     * @param entity the partition key column
+     * @param inValues the query vectors
+     */
+    public static SimilarityRelation createInRelation(ColumnIdentifier.Raw entity, List<Term.Raw> inValues)
+    {
+        return new SimilarityRelation(Collections.singletonList(entity), null, inValues, null);
+    }
+
+    /**
+     * Creates a relation looking up the neighbours of the query vectors bound to a single marker.
+     *
+     * @param entity the partition key column
+     * @param inMarker the marker of the list of query vectors
+     */
+    public static SimilarityRelation createInRelation(ColumnIdentifier.Raw entity, Term.Raw inMarker)
+    {
+        return new SimilarityRelation(Collections.singletonList(entity), null, null, inMarker);
+    }
+
+    /**
+     * @return <code>true</code> if this is a <code>SIMILAR TO IN</code> relation
+     */
+    public boolean isSimilarToIN()
+    {
+        return values == null;
+    }
+
+    public List<ColumnIdentifier.Raw> getEntities()
+    {
+        return entities;
+    }
+
+    /**
+     * Converts this relation into the equality relations defining the query vector.
+     *
+     * @return one <code>EQ</code> relation per column
+     * @throws InvalidRequestException if the columns and the values do not match
+     */
+    public List<Relation> toEqualityRelations() throws InvalidRequestException
+    {
+        assert !isSimilarToIN();
+        checkTrue(entities.size() == values.size(),
+                  "Expected %d elements in value tuple, but got %d: %s", entities.size(), values.size(), this);
+
+        List<Relation> relations = new ArrayList<>(entities.size());
+        for (int i = 0, m = entities.size(); i < m; i++)
+            relations.add(new SingleColumnRelation(entities.get(i), Operator.EQ, values.get(i)));
+        return relations;
+    }
+
+    /**
+     * Converts this <code>SIMILAR TO IN</code> relation into the <code>IN</code> relation defining the query vectors.
+     */
+    public Relation toINRelation()
+    {
+        assert isSimilarToIN();
+        return inValues == null
+             ? new SingleColumnRelation(entities.get(0), Operator.IN, inMarker)
+             : SingleColumnRelation.createInRelation(entities.get(0), inValues);
+    }
+
+    @Override
+    protected Restriction newEQRestriction(CFMetaData cfm, VariableSpecifications boundNames) throws InvalidRequestException
+    {
+        throw invalidRequest("%s cannot be converted into an equality restriction", operator());
+    }
+
+    @Override
+    protected Restriction newINRestriction(CFMetaData cfm, VariableSpecifications boundNames) throws InvalidRequestException
+    {
+        throw invalidRequest("%s cannot be converted into an IN restriction", operator());
+    }
+
+    @Override
+    protected Restriction newSliceRestriction(CFMetaData cfm,
+                                              VariableSpecifications boundNames,
+                                              Bound bound,
+                                              boolean inclusive) throws InvalidRequestException
+    {
+        throw invalidRequest("%s cannot be converted into a slice restriction", operator());
+    }
+
+    @Override
+    protected Restriction newContainsRestriction(CFMetaData cfm, VariableSpecifications boundNames, boolean isKey) throws InvalidRequestException
+    {
+        throw invalidRequest("%s cannot be converted into a CONTAINS restriction", operator());
+    }
+
+    @Override
+    protected Term toTerm(List<? extends ColumnSpecification> receivers,
+                          Term.Raw raw,
+                          String keyspace,
+                          VariableSpecifications boundNames) throws InvalidRequestException
+    {
+        Term term = raw.prepare(keyspace, receivers.get(0));
+        term.collectMarkerSpecification(boundNames);
+        return term;
+    }
+
+    @Override
+    public String toString()
+    {
+        if (isSimilarToIN())
+            return String.format("%s %s IN %s", entities.get(0), relationType, inValues == null ? inMarker : Tuples.tupleToString(inValues));
+        if (entities.size() == 1)
+            return String.format("%s %s %s", entities.get(0), relationType, values.get(0));
+        return String.format("%s %s %s", Tuples.tupleToString(entities), relationType, Tuples.tupleToString(values));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cql3;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cassandra.cql3.functions.Function;
+import org.apache.cassandra.db.marshal.VectorType;
+import org.apache.cassandra.exceptions.InvalidRequestException;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+/**
+ * Static helper methods and classes for vectors. A vector literal is written as a list literal, [1.0, 2.0, ...],
+ * whose elements are packed once they are bound.
+ */
+public abstract class Vectors
+{
+    private Vectors() {}
+
+    public static ColumnSpecification componentSpecOf(ColumnSpecification column)
+    {
+        return new ColumnSpecification(column.ksName, column.cfName, new ColumnIdentifier("value(" + column.name + ")", true), ((VectorType)column.type).getElementsType());
+    }
+
+    /**
+     * Prepares the elements of a list literal assigned to a vector.
+     */
+    static Term prepare(String keyspace, ColumnSpecification receiver, List<Term.Raw> elements) throws InvalidRequestException
+    {
+        validateAssignableTo(keyspace, receiver, elements);
+
+        ColumnSpecification componentSpec = componentSpecOf(receiver);
+        List<Term> values = new ArrayList<>(elements.size());
+        boolean allTerminal = true;
+        for (Term.Raw rt : elements)
+        {
+            Term t = rt.prepare(keyspace, componentSpec);
+            if (t instanceof Term.NonTerminal)
+                allTerminal = false;
+            values.add(t);
+        }
+        DelayedValue value = new DelayedValue((VectorType)receiver.type, values);
+        return allTerminal ? value.bind(QueryOptions.DEFAULT) : value;
+    }
+
+    private static void validateAssignableTo(String keyspace, ColumnSpecification receiver, List<Term.Raw> elements) throws InvalidRequestException
+    {
+        VectorType type = (VectorType)receiver.type;
+        if (elements.size() != type.dimension())
+            throw new InvalidRequestException(String.format("Invalid vector literal for %s: expected %d components but got %d", receiver.name, type.dimension(), elements.size()));
+
+        ColumnSpecification componentSpec = componentSpecOf(receiver);
+        for (Term.Raw rt : elements)
+        {
+            if (!rt.testAssignment(keyspace, componentSpec).isAssignable())
+                throw new InvalidRequestException(String.format("Invalid vector literal for %s: value %s is not of type %s", receiver.name, rt, componentSpec.type.asCQL3Type()));
+        }
+    }
+
+    static AssignmentTestable.TestResult testAssignment(String keyspace, ColumnSpecification receiver, List<Term.Raw> elements)
+    {
+        try
+        {
+            validateAssignableTo(keyspace, receiver, elements);
+            return AssignmentTestable.TestResult.WEAKLY_ASSIGNABLE;
+        }
+        catch (InvalidRequestException e)
+        {
+            return AssignmentTestable.TestResult.NOT_ASSIGNABLE;
+        }
+    }
+
+    /**
+     * The components of a vector literal, some of which are NonTerminals such as bind markers or function calls.
+     */
+    public static class DelayedValue extends Term.NonTerminal
+    {
+        private final VectorType type;
+        private final List<Term> elements;
+
+        public DelayedValue(VectorType type, List<Term> elements)
+        {
+            this.type = type;
+            this.elements = elements;
+        }
+
+        public boolean containsBindMarker()
+        {
+            for (Term term : elements)
+                if (term.containsBindMarker())
+                    return true;
+
+            return false;
+        }
+
+        public void collectMarkerSpecification(VariableSpecifications boundNames)
+        {
+            for (Term term : elements)
+                term.collectMarkerSpecification(boundNames);
+        }
+
+        public Constants.Value bind(QueryOptions options) throws InvalidRequestException
+        {
+            double[] vector = new double[elements.size()];
+            for (int i = 0; i < vector.length; i++)
+            {
+                ByteBuffer bytes = elements.get(i).bindAndGet(options);
+                if (bytes == null || bytes == ByteBufferUtil.UNSET_BYTE_BUFFER || !bytes.hasRemaining())
+                    throw new InvalidRequestException(String.format("Invalid null or unset value for vector component %d", i));
+                vector[i] = ((Number) type.getElementsType().compose(bytes)).doubleValue();
+            }
+            return new Constants.Value(type.getSerializer().serialize(vector));
+        }
+
+        public Iterable<Function> getFunctions()
+        {
+            return Terms.getFunctions(elements);
+        }
+    }
+}
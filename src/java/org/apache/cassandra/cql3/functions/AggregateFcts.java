@@ -20,6 +20,8 @@ package org.apache.cassandra.cql3.functions;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.cassandra.db.marshal.AbstractType;
@@ -29,8 +31,12 @@ import org.apache.cassandra.db.marshal.DoubleType;
 import org.apache.cassandra.db.marshal.FloatType;
 import org.apache.cassandra.db.marshal.Int32Type;
 import org.apache.cassandra.db.marshal.IntegerType;
+import org.apache.cassandra.db.marshal.ListType;
 import org.apache.cassandra.db.marshal.LongType;
 import org.apache.cassandra.db.marshal.ShortType;
+import org.apache.cassandra.exceptions.InvalidRequestException;
+import org.apache.cassandra.serializers.CollectionSerializer;
+import org.apache.cassandra.utils.ByteBufferUtil;
 
 /**
  * Factory methods for aggregate functions.
@@ -706,6 +712,113 @@ public abstract class AggregateFcts
                 }
             };
 
+    /**
+     * The maximum number of values kept by the TOP_K function.
+     */
+    public static final int MAX_TOP_K = 10000;
+
+    /**
+     * The TOP_K function: the k smallest of the values, in ascending order, typically distances. k is read from the
+     * first row and only that many values are retained, in a max-heap whose root is the value to evict next.
+     */
+    public static final AggregateFunction topKFunction =
+            new NativeAggregateFunction("top_k", ListType.getInstance(DoubleType.instance, false), DoubleType.instance, Int32Type.instance)
+            {
+                public Aggregate newAggregate()
+                {
+                    return new Aggregate()
+                    {
+                        private double[] heap;
+
+                        private int size;
+
+                        public void reset()
+                        {
+                            heap = null;
+                            size = 0;
+                        }
+
+                        public ByteBuffer compute(int protocolVersion)
+                        {
+                            double[] sorted = heap == null ? new double[0] : Arrays.copyOf(heap, size);
+                            Arrays.sort(sorted);
+
+                            List<ByteBuffer> values = new ArrayList<>(sorted.length);
+                            for (double value : sorted)
+                                values.add(ByteBufferUtil.bytes(value));
+                            return CollectionSerializer.pack(values, values.size(), protocolVersion);
+                        }
+
+                        public void addInput(int protocolVersion, List<ByteBuffer> values) throws InvalidRequestException
+                        {
+                            if (heap == null)
+                                heap = new double[k(values.get(1))];
+
+                            ByteBuffer value = values.get(0);
+                            if (value == null || !value.hasRemaining())
+                                return;
+
+                            double distance = ByteBufferUtil.toDouble(value);
+                            if (Double.isNaN(distance))
+                                return;
+
+                            if (size < heap.length)
+                            {
+                                heap[size] = distance;
+                                siftUp(size++);
+                            }
+                            else if (distance < heap[0])
+                            {
+                                heap[0] = distance;
+                                siftDown(0);
+                            }
+                        }
+
+                        private int k(ByteBuffer value) throws InvalidRequestException
+                        {
+                            if (value == null || !value.hasRemaining())
+                                throw new InvalidRequestException("k must not be null in top_k()");
+
+                            int k = ByteBufferUtil.toInt(value);
+                            if (k < 1 || k > MAX_TOP_K)
+                                throw new InvalidRequestException(String.format("k must be between 1 and %d in top_k() (got %d)", MAX_TOP_K, k));
+                            return k;
+                        }
+
+                        private void siftUp(int i)
+                        {
+                            double value = heap[i];
+                            while (i > 0)
+                            {
+                                int parent = (i - 1) >>> 1;
+                                if (heap[parent] >= value)
+                                    break;
+                                heap[i] = heap[parent];
+                                i = parent;
+                            }
+                            heap[i] = value;
+                        }
+
+                        private void siftDown(int i)
+                        {
+                            double value = heap[i];
+                            int half = size >>> 1;
+                            while (i < half)
+                            {
+                                int child = 2 * i + 1;
+                                if (child + 1 < size && heap[child + 1] > heap[child])
+                                    child++;
+                                if (value >= heap[child])
+                                    break;
+                                heap[i] = heap[child];
+                                i = child;
+                            }
+                            heap[i] = value;
+                        }
+                    };
+                }
+            };
+
     /**
      * Creates a MAX function for the specified type.
      *
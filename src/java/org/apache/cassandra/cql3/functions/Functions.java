@@ -99,6 +99,8 @@ public abstract class Functions
         declare(AggregateFcts.avgFunctionForDouble);
         declare(AggregateFcts.avgFunctionForVarint);
         declare(AggregateFcts.avgFunctionForDecimal);
+        declare(AggregateFcts.topKFunction);
+        declare(VectorFcts.hammingDistanceFct);
 
         MigrationManager.instance.register(new FunctionsMigrationListener());
     }
@@ -159,6 +161,10 @@ public abstract class Functions
         if (name.equalsNativeFunction(ToJsonFct.NAME))
             throw new InvalidRequestException("toJson() may only be used within the selection clause of SELECT statements");
 
+        // The vector functions accept any vector type as well, so they are only supported within the selection clause.
+        if (VectorFcts.isVectorFunction(name))
+            throw new InvalidRequestException(name.name + "() may only be used within the selection clause of SELECT statements");
+
         // Similarly, we can only use fromJson when we know the receiver type (such as inserts)
         if (name.equalsNativeFunction(FromJsonFct.NAME))
         {
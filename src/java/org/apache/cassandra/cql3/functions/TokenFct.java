@@ -26,19 +26,19 @@ import org.apache.cassandra.db.composites.CBuilder;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.exceptions.InvalidRequestException;
-import org.apache.cassandra.service.StorageService;
 
 public class TokenFct extends NativeScalarFunction
 {
-    // The actual token function depends on the partitioner used
-    private static final IPartitioner partitioner = StorageService.getPartitioner();
-
     private final CFMetaData cfm;
 
+    // The actual token function depends on the partitioner used by the table
+    private final IPartitioner partitioner;
+
     public TokenFct(CFMetaData cfm)
     {
-        super("token", partitioner.getTokenValidator(), getKeyTypes(cfm));
+        super("token", cfm.partitioner().getTokenValidator(), getKeyTypes(cfm));
         this.cfm = cfm;
+        this.partitioner = cfm.partitioner();
     }
 
     private static AbstractType[] getKeyTypes(CFMetaData cfm)
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cql3.functions;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.BinaryType;
+import org.apache.cassandra.db.marshal.DoubleType;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.VectorType;
+import org.apache.cassandra.exceptions.InvalidRequestException;
+import org.apache.cassandra.serializers.VectorSerializer;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+/**
+ * Distance functions on vectors and on SimilarityPartitioner tokens.
+ *
+ * The vector functions accept any vector type, both arguments being of the same type, so their instances are not
+ * pre-declared: they are created per type as needed while handling selectors, as for toJson(). The components are
+ * read in place from the serialized vectors.
+ */
+public abstract class VectorFcts
+{
+    public static final FunctionName COSINE_SIMILARITY = FunctionName.nativeFunction("cosine_similarity");
+    public static final FunctionName DOT_PRODUCT = FunctionName.nativeFunction("dot_product");
+    public static final FunctionName L2_DISTANCE = FunctionName.nativeFunction("l2_distance");
+
+    private static final ConcurrentMap<VectorType, Function> cosineSimilarityFcts = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<VectorType, Function> dotProductFcts = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<VectorType, Function> l2DistanceFcts = new ConcurrentHashMap<>();
+
+    /**
+     * @return true if {@code name} is one of the vector functions, whose instances are created per vector type
+     */
+    public static boolean isVectorFunction(FunctionName name)
+    {
+        return name.equalsNativeFunction(COSINE_SIMILARITY)
+               || name.equalsNativeFunction(DOT_PRODUCT)
+               || name.equalsNativeFunction(L2_DISTANCE);
+    }
+
+    public static Function getInstance(FunctionName name, List<AbstractType<?>> argTypes) throws InvalidRequestException
+    {
+        assert isVectorFunction(name) : name;
+
+        if (argTypes.size() != 2)
+            throw new InvalidRequestException(String.format("%s() requires 2 arguments (got %d)", name.name, argTypes.size()));
+
+        AbstractType<?> type = argTypes.get(0);
+        if (!(type instanceof VectorType) || !type.equals(argTypes.get(1)))
+            throw new InvalidRequestException(String.format("%s() requires two vectors of the same type (got %s and %s)",
+                                                            name.name, type.asCQL3Type(), argTypes.get(1).asCQL3Type()));
+        VectorType vectorType = (VectorType) type;
+
+        if (name.equalsNativeFunction(COSINE_SIMILARITY))
+            return getInstance(cosineSimilarityFcts, cosineSimilarity(vectorType));
+        if (name.equalsNativeFunction(DOT_PRODUCT))
+            return getInstance(dotProductFcts, dotProduct(vectorType));
+        return getInstance(l2DistanceFcts, l2Distance(vectorType));
+    }
+
+    private static Function getInstance(ConcurrentMap<VectorType, Function> instances, VectorFct fct)
+    {
+        Function existing = instances.putIfAbsent(fct.type, fct);
+        return existing == null ? fct : existing;
+    }
+
+    /**
+     * A function of two vectors of the same type, returning a double. It returns null if a vector is null or empty.
+     */
+    private static abstract class VectorFct extends NativeScalarFunction
+    {
+        protected final VectorType type;
+        protected final VectorSerializer serializer;
+
+        private VectorFct(String name, VectorType type)
+        {
+            super(name, DoubleType.instance, type, type);
+            this.type = type;
+            this.serializer = type.getSerializer();
+        }
+
+        public final ByteBuffer execute(int protocolVersion, List<ByteBuffer> parameters)
+        {
+            ByteBuffer v1 = parameters.get(0);
+            ByteBuffer v2 = parameters.get(1);
+            if (v1 == null || v2 == null || !v1.hasRemaining() || !v2.hasRemaining())
+                return null;
+            return ByteBufferUtil.bytes(compute(v1, v2));
+        }
+
+        protected abstract double compute(ByteBuffer v1, ByteBuffer v2);
+    }
+
+    /**
+     * The cosine of the angle between the vectors, 0 if one of them is the zero vector.
+     */
+    private static VectorFct cosineSimilarity(VectorType type)
+    {
+        return new VectorFct("cosine_similarity", type)
+        {
+            protected double compute(ByteBuffer v1, ByteBuffer v2)
+            {
+                double product = 0, norm1 = 0, norm2 = 0;
+                for (int i = 0; i < serializer.dimension; i++)
+                {
+                    double c1 = serializer.get(v1, i);
+                    double c2 = serializer.get(v2, i);
+                    product += c1 * c2;
+                    norm1 += c1 * c1;
+                    norm2 += c2 * c2;
+                }
+                return norm1 == 0 || norm2 == 0 ? 0.0 : product / Math.sqrt(norm1 * norm2);
+            }
+        };
+    }
+
+    private static VectorFct dotProduct(VectorType type)
+    {
+        return new VectorFct("dot_product", type)
+        {
+            protected double compute(ByteBuffer v1, ByteBuffer v2)
+            {
+                double product = 0;
+                for (int i = 0; i < serializer.dimension; i++)
+                    product += serializer.get(v1, i) * serializer.get(v2, i);
+                return product;
+            }
+        };
+    }
+
+    private static VectorFct l2Distance(VectorType type)
+    {
+        return new VectorFct("l2_distance", type)
+        {
+            protected double compute(ByteBuffer v1, ByteBuffer v2)
+            {
+                double sum = 0;
+                for (int i = 0; i < serializer.dimension; i++)
+                {
+                    double difference = serializer.get(v1, i) - serializer.get(v2, i);
+                    sum += difference * difference;
+                }
+                return Math.sqrt(sum);
+            }
+        };
+    }
+
+    /**
+     * The number of bits two SimilarityPartitioner tokens differ by: the number of hyperplanes separating their
+     * buckets. The shorter token is padded with zero bits.
+     */
+    public static final Function hammingDistanceFct = new NativeScalarFunction("hamming_distance", Int32Type.instance, BinaryType.instance, BinaryType.instance)
+    {
+        public ByteBuffer execute(int protocolVersion, List<ByteBuffer> parameters)
+        {
+            ByteBuffer t1 = parameters.get(0);
+            ByteBuffer t2 = parameters.get(1);
+            if (t1 == null || t2 == null)
+                return null;
+
+            int length = Math.max(t1.remaining(), t2.remaining());
+            int distance = 0;
+            int i = 0;
+            for (; i + 8 <= t1.remaining() && i + 8 <= t2.remaining(); i += 8)
+                distance += Long.bitCount(t1.getLong(t1.position() + i) ^ t2.getLong(t2.position() + i));
+            for (; i < length; i++)
+            {
+                int b1 = i < t1.remaining() ? t1.get(t1.position() + i) : 0;
+                int b2 = i < t2.remaining() ? t2.get(t2.position() + i) : 0;
+                distance += Integer.bitCount((b1 ^ b2) & 0xFF);
+            }
+            return ByteBufferUtil.bytes(distance);
+        }
+    };
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cql3.restrictions;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.Iterables;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.cql3.QueryOptions;
+import org.apache.cassandra.cql3.SimilarityRelation;
+import org.apache.cassandra.cql3.Term;
+import org.apache.cassandra.cql3.VariableSpecifications;
+import org.apache.cassandra.cql3.functions.Function;
+import org.apache.cassandra.db.marshal.DoubleType;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.exceptions.InvalidRequestException;
+import org.apache.cassandra.serializers.MarshalException;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.tracing.Tracing;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.MultiProbePlanner;
+
+import static org.apache.cassandra.cql3.statements.RequestValidations.checkFalse;
+import static org.apache.cassandra.cql3.statements.RequestValidations.checkNotNull;
+import static org.apache.cassandra.cql3.statements.RequestValidations.checkTrue;
+
+/**
+ * The query vectors of a <code>SIMILAR TO</code> relation, and the buckets of the ring to probe for their neighbours.
+ *
+ * A query vector is a full partition key, hashed as any other key would be. The buckets probed are planned by
+ * the {@link MultiProbePlanner}, starting from the bucket of the query vector.
+ */
+public final class SimilarityRestriction
+{
+    private final CFMetaData cfm;
+
+    /**
+     * The restrictions holding the equality on each partition key column, or null for a <code>SIMILAR TO IN</code>
+     * relation.
+     */
+    private final StatementRestrictions restrictions;
+
+    /**
+     * The query vectors of a <code>SIMILAR TO IN</code> relation, or null.
+     */
+    private final SingleColumnRestriction.IN in;
+
+    /**
+     * The target recall of the <code>WITH recall</code> option, or null to use similarity_target_recall.
+     */
+    private final Term recall;
+
+    private SimilarityRestriction(CFMetaData cfm, StatementRestrictions restrictions, SingleColumnRestriction.IN in, Term recall)
+    {
+        this.cfm = cfm;
+        this.restrictions = restrictions;
+        this.in = in;
+        this.recall = recall;
+    }
+
+    /**
+     * Creates the restriction for the specified relation.
+     *
+     * @param cfm the column family meta data
+     * @param relation the <code>SIMILAR TO</code> relation
+     * @param recall the target recall of the <code>WITH recall</code> option, or null
+     * @param boundNames the variables specification where to collect the bind variables
+     * @return the restriction corresponding to the relation
+     * @throws InvalidRequestException if the relation is not valid
+     */
+    public static SimilarityRestriction create(CFMetaData cfm,
+                                               SimilarityRelation relation,
+                                               Term recall,
+                                               VariableSpecifications boundNames) throws InvalidRequestException
+    {
+        checkTrue(StorageService.getPartitioner() instanceof SimilarityPartitioner,
+                  "%s is only supported with the SimilarityPartitioner", relation.operator());
+
+        if (relation.isSimilarToIN())
+        {
+            Restriction restriction = relation.toINRelation().toRestriction(cfm, boundNames);
+            checkTrue(restriction.getFirstColumn().isPartitionKey(),
+                      "%s can only be applied to the partition key columns: %s", relation.operator(), relation);
+            checkTrue(cfm.partitionKeyColumns().size() == 1,
+                      "%s IN is only supported on single column partition keys: %s", relation.operator(), relation);
+            return new SimilarityRestriction(cfm, null, (SingleColumnRestriction.IN) restriction, recall);
+        }
+
+        StatementRestrictions restrictions = new StatementRestrictions(cfm,
+                                                                       relation.toEqualityRelations(),
+                                                                       boundNames,
+                                                                       false,
+                                                                       false);
+
+        checkFalse(restrictions.isKeyRange() || restrictions.usesSecondaryIndexing(),
+                   "%s must be applied to all the partition key columns: %s", relation.operator(), relation);
+        checkFalse(restrictions.hasClusteringColumnsRestriction(),
+                   "%s can only be applied to the partition key columns: %s", relation.operator(), relation);
+
+        return new SimilarityRestriction(cfm, restrictions, null, recall);
+    }
+
+    public Iterable<Function> getFunctions()
+    {
+        Iterable<Function> functions = in == null ? restrictions.getFunctions() : in.getFunctions();
+        return recall == null ? functions : Iterables.concat(functions, recall.getFunctions());
+    }
+
+    /**
+     * Returns the query vectors, as partition keys.
+     *
+     * @param options the query options
+     * @return the serialized partition keys of the query vectors, in the order of the relation and without duplicates
+     * @throws InvalidRequestException if the keys cannot be built
+     */
+    public List<ByteBuffer> getKeys(QueryOptions options) throws InvalidRequestException
+    {
+        if (in == null)
+        {
+            Collection<ByteBuffer> keys = restrictions.getPartitionKeys(options);
+            assert keys.size() == 1;
+            return new ArrayList<>(keys);
+        }
+
+        Set<ByteBuffer> keys = new LinkedHashSet<>();
+        for (ByteBuffer key : in.getValues(options))
+            keys.add(checkNotNull(key, "Invalid null value for partition key part %s", in.getFirstColumn().name));
+        return new ArrayList<>(keys);
+    }
+
+    /**
+     * Returns the estimated recall at which to stop planning the buckets to probe.
+     *
+     * @param options the query options
+     * @return the recall of the <code>WITH recall</code> option, or similarity_target_recall if it is not set
+     * @throws InvalidRequestException if the recall is not in (0, 1]
+     */
+    public double getTargetRecall(QueryOptions options) throws InvalidRequestException
+    {
+        if (recall == null)
+            return DatabaseDescriptor.getSimilarityTargetRecall();
+
+        ByteBuffer b = checkNotNull(recall.bindAndGet(options), "Invalid null value of recall");
+        if (b == ByteBufferUtil.UNSET_BYTE_BUFFER)
+            return DatabaseDescriptor.getSimilarityTargetRecall();
+
+        try
+        {
+            DoubleType.instance.validate(b);
+            double r = DoubleType.instance.compose(b);
+            checkTrue(r > 0 && r <= 1, "recall must be in (0, 1]");
+            return r;
+        }
+        catch (MarshalException e)
+        {
+            throw new InvalidRequestException("Invalid recall value");
+        }
+    }
+
+    /**
+     * Plans the buckets to probe for the neighbours of the query vector, within the probe budget configured in
+     * cassandra.yaml.
+     *
+     * @param key the query vector, as returned by {@link #getKeys}
+     * @param targetRecall the estimated recall at which to stop planning, as returned by {@link #getTargetRecall}
+     * @return the plan, holding the key bounds to read
+     */
+    public MultiProbePlanner.Plan getPlan(ByteBuffer key, double targetRecall)
+    {
+        MultiProbePlanner.Plan plan = MultiProbePlanner.instance().plan(key,
+                                                                        SimilarityPartitioner.keyLayout(cfm.partitioner()),
+                                                                        DatabaseDescriptor.getSimilarityProbeBudget(),
+                                                                        targetRecall);
+        Tracing.trace("Planned {}", plan);
+        return plan;
+    }
+}
@@ -25,6 +25,7 @@ import java.util.List;
 import com.google.common.base.Joiner;
 
 import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.cql3.QueryOptions;
 import org.apache.cassandra.cql3.Term;
 import org.apache.cassandra.cql3.functions.Function;
@@ -34,6 +35,7 @@ import org.apache.cassandra.db.composites.CType;
 import org.apache.cassandra.db.composites.Composite;
 import org.apache.cassandra.db.composites.CompositesBuilder;
 import org.apache.cassandra.db.index.SecondaryIndexManager;
+import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.exceptions.InvalidRequestException;
 
 import static org.apache.cassandra.cql3.statements.RequestValidations.invalidRequest;
@@ -72,6 +74,17 @@ public abstract class TokenRestriction extends AbstractPrimaryKeyRestrictions
         return columnDefs;
     }
 
+    /**
+     * Returns the partitioner of the table to which the restricted columns belong.
+     *
+     * @return the partitioner of the table to which the restricted columns belong
+     */
+    public IPartitioner partitioner()
+    {
+        ColumnDefinition def = columnDefs.get(0);
+        return Schema.instance.getCFMetaData(def.ksName, def.cfName).partitioner();
+    }
+
     @Override
     public ColumnDefinition getFirstColumn()
     {
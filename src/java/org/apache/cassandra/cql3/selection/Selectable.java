@@ -26,6 +26,9 @@ import org.apache.commons.lang3.text.StrBuilder;
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.cql3.ColumnIdentifier;
+import org.apache.cassandra.cql3.ColumnSpecification;
+import org.apache.cassandra.cql3.QueryOptions;
+import org.apache.cassandra.cql3.Term;
 import org.apache.cassandra.cql3.functions.*;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.db.marshal.UserType;
@@ -140,13 +143,15 @@ public abstract class Selectable
                                                    List<ColumnDefinition> defs) throws InvalidRequestException
         {
             SelectorFactories factories  =
-                    SelectorFactories.createFactoriesAndCollectColumnDefinitions(args, cfm, defs);
+                    SelectorFactories.createFactoriesAndCollectColumnDefinitions(inferTermTypes(cfm, defs), cfm, defs);
 
             // We need to circumvent the normal function lookup process for toJson() because instances of the function
             // are not pre-declared (because it can accept any type of argument).
             Function fun;
             if (functionName.equalsNativeFunction(ToJsonFct.NAME))
                 fun = ToJsonFct.getInstance(factories.getReturnTypes());
+            else if (VectorFcts.isVectorFunction(functionName))
+                fun = VectorFcts.getInstance(functionName, factories.getReturnTypes());
             else
                 fun = Functions.get(cfm.ksName, functionName, factories.newInstances(), cfm.ksName, cfm.cfName, null);
 
@@ -159,6 +164,47 @@ public abstract class Selectable
             return AbstractFunctionSelector.newFactory(fun, factories);
         }
 
+        /**
+         * Returns the arguments, the literals typed from the function: as the other argument for the vector
+         * functions, which take two values of the same type, and from the only native overload otherwise.
+         */
+        private List<Selectable> inferTermTypes(CFMetaData cfm, List<ColumnDefinition> defs) throws InvalidRequestException
+        {
+            boolean hasTerms = false;
+            for (Selectable arg : args)
+                hasTerms |= arg instanceof WithTerm;
+            if (!hasTerms)
+                return args;
+
+            List<AbstractType<?>> types;
+            if (VectorFcts.isVectorFunction(functionName))
+            {
+                if (args.size() != 2 || (args.get(0) instanceof WithTerm && args.get(1) instanceof WithTerm))
+                    throw new InvalidRequestException(String.format("%s() requires a column or function argument", functionName));
+
+                Selectable other = args.get(0) instanceof WithTerm ? args.get(1) : args.get(0);
+                AbstractType<?> type = other.newSelectorFactory(cfm, defs).getReturnType();
+                types = new ArrayList<>(2);
+                types.add(type);
+                types.add(type);
+            }
+            else
+            {
+                List<Function> candidates = Functions.find(functionName.hasKeyspace() ? functionName : functionName.asNativeFunction());
+                if (candidates.size() != 1 || candidates.get(0).argTypes().size() != args.size())
+                    throw new InvalidRequestException(String.format("Cannot infer the types of the literals passed to %s()", functionName));
+                types = candidates.get(0).argTypes();
+            }
+
+            List<Selectable> typedArgs = new ArrayList<>(args.size());
+            for (int i = 0; i < args.size(); i++)
+            {
+                Selectable arg = args.get(i);
+                typedArgs.add(arg instanceof WithTerm ? ((WithTerm) arg).withType(types.get(i)) : arg);
+            }
+            return typedArgs;
+        }
+
         public static class Raw implements Selectable.Raw
         {
             private final FunctionName functionName;
@@ -185,6 +231,70 @@ public abstract class Selectable
         }
     }
 
+    /**
+     * A literal passed to a function, such as the query vector of a distance function. Its type is inferred from
+     * the function it is passed to.
+     */
+    public static class WithTerm extends Selectable
+    {
+        public final Term.Raw term;
+        private final AbstractType<?> type;
+
+        public WithTerm(Term.Raw term, AbstractType<?> type)
+        {
+            this.term = term;
+            this.type = type;
+        }
+
+        WithTerm withType(AbstractType<?> type)
+        {
+            return new WithTerm(term, type);
+        }
+
+        @Override
+        public String toString()
+        {
+            return term.toString();
+        }
+
+        public Selector.Factory newSelectorFactory(CFMetaData cfm,
+                                                   List<ColumnDefinition> defs) throws InvalidRequestException
+        {
+            if (type == null)
+                throw new InvalidRequestException(String.format("Cannot infer the type of %s in selection clause", term));
+
+            ColumnSpecification receiver = new ColumnSpecification(cfm.ksName,
+                                                                   cfm.cfName,
+                                                                   new ColumnIdentifier(term.toString(), true),
+                                                                   type);
+            Term prepared = term.prepare(cfm.ksName, receiver);
+            if (prepared.containsBindMarker())
+                throw new InvalidRequestException(String.format("Bind variables are not supported in selection clause: %s", term));
+
+            return TermSelector.newFactory(term.toString(), prepared.bindAndGet(QueryOptions.DEFAULT), type);
+        }
+
+        public static class Raw implements Selectable.Raw
+        {
+            private final Term.Raw term;
+
+            public Raw(Term.Raw term)
+            {
+                this.term = term;
+            }
+
+            public WithTerm prepare(CFMetaData cfm)
+            {
+                return new WithTerm(term, null);
+            }
+
+            public boolean processesSelection()
+            {
+                return true;
+            }
+        }
+    }
+
     public static class WithFieldSelection extends Selectable
     {
         public final Selectable selected;
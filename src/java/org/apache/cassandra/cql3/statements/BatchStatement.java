@@ -33,6 +33,7 @@ import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.cql3.*;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.composites.Composite;
+import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.exceptions.*;
 import org.apache.cassandra.service.ClientState;
 import org.apache.cassandra.service.ClientWarn;
@@ -143,6 +144,17 @@ public class BatchStatement implements CQLStatement
         if (hasCounters && hasNonCounters)
             throw new InvalidRequestException("Counter and non-counter mutations cannot exist in the same batch");
 
+        // the mutations of a keyspace are grouped by key, and a mutation decorates its key with a single partitioner
+        Map<String, IPartitioner> partitioners = new HashMap<>();
+        for (ModificationStatement statement : statements)
+        {
+            IPartitioner partitioner = statement.cfm.partitioner();
+            IPartitioner previous = partitioners.put(statement.keyspace(), partitioner);
+            if (previous != null && previous != partitioner)
+                throw new InvalidRequestException(String.format("Cannot include tables of keyspace %s partitioned by different key layouts in the same batch",
+                                                                statement.keyspace()));
+        }
+
         if (hasConditions)
         {
             String ksName = null;
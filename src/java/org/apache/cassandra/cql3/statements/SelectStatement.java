@@ -33,6 +33,7 @@ import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.cql3.*;
 import org.apache.cassandra.cql3.functions.Function;
+import org.apache.cassandra.cql3.restrictions.SimilarityRestriction;
 import org.apache.cassandra.cql3.restrictions.StatementRestrictions;
 import org.apache.cassandra.cql3.selection.RawSelector;
 import org.apache.cassandra.cql3.selection.Selection;
@@ -42,13 +43,17 @@ import org.apache.cassandra.db.filter.*;
 import org.apache.cassandra.db.index.SecondaryIndexManager;
 import org.apache.cassandra.db.marshal.CollectionType;
 import org.apache.cassandra.db.marshal.CompositeType;
+import org.apache.cassandra.db.marshal.DoubleType;
 import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.VectorType;
 import org.apache.cassandra.dht.AbstractBounds;
 import org.apache.cassandra.exceptions.*;
 import org.apache.cassandra.serializers.MarshalException;
+import org.apache.cassandra.serializers.VectorSerializer;
 import org.apache.cassandra.service.ClientState;
 import org.apache.cassandra.service.ClientWarn;
 import org.apache.cassandra.service.QueryState;
+import org.apache.cassandra.service.SimilarityBatch;
 import org.apache.cassandra.service.StorageProxy;
 import org.apache.cassandra.service.pager.Pageable;
 import org.apache.cassandra.service.pager.QueryPager;
@@ -57,6 +62,9 @@ import org.apache.cassandra.thrift.ThriftValidation;
 import org.apache.cassandra.transport.messages.ResultMessage;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.Pair;
+import org.apache.cassandra.utils.MultiProbePlanner;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
 
 import static org.apache.cassandra.cql3.statements.RequestValidations.checkFalse;
 import static org.apache.cassandra.cql3.statements.RequestValidations.checkNotNull;
@@ -87,6 +95,11 @@ public class SelectStatement implements CQLStatement
 
     private final StatementRestrictions restrictions;
 
+    /**
+     * The query vector of a <code>SIMILAR TO</code> relation, or <code>null</code> if the statement has none.
+     */
+    private final SimilarityRestriction similarity;
+
     private final boolean isReversed;
 
     /**
@@ -105,11 +118,25 @@ public class SelectStatement implements CQLStatement
                            boolean isReversed,
                            Comparator<List<ByteBuffer>> orderingComparator,
                            Term limit)
+    {
+        this(cfm, boundTerms, parameters, selection, restrictions, null, isReversed, orderingComparator, limit);
+    }
+
+    public SelectStatement(CFMetaData cfm,
+                           int boundTerms,
+                           Parameters parameters,
+                           Selection selection,
+                           StatementRestrictions restrictions,
+                           SimilarityRestriction similarity,
+                           boolean isReversed,
+                           Comparator<List<ByteBuffer>> orderingComparator,
+                           Term limit)
     {
         this.cfm = cfm;
         this.boundTerms = boundTerms;
         this.selection = selection;
         this.restrictions = restrictions;
+        this.similarity = similarity;
         this.isReversed = isReversed;
         this.orderingComparator = orderingComparator;
         this.parameters = parameters;
@@ -120,6 +147,7 @@ public class SelectStatement implements CQLStatement
     {
         return Iterables.concat(selection.getFunctions(),
                                 restrictions.getFunctions(),
+                                similarity != null ? similarity.getFunctions() : Collections.<Function>emptySet(),
                                 limit != null ? limit.getFunctions() : Collections.<Function>emptySet());
     }
 
@@ -169,6 +197,9 @@ public class SelectStatement implements CQLStatement
 
         int limit = getLimit(options);
         long now = System.currentTimeMillis();
+        if (similarity != null)
+            return executeSimilarity(options, limit, now, state);
+
         Pageable command = getPageableCommand(options, limit, now);
         int pageSize = getPageSize(options);
 
@@ -245,6 +276,175 @@ public class SelectStatement implements CQLStatement
         return msg;
     }
 
+    /**
+     * Executes a <code>SIMILAR TO</code> query in two phases. The replicas of the buckets planned for the query
+     * vector are first asked for the live partitions of those buckets nearest to it, as many as the limit, fetching
+     * a single cell of each (see {@link SimilarityRangeCommand}), and the partitions returned are ranked by their
+     * exact cosine distance to the query vector. The nearest ones, as many as the limit, are then read as any
+     * partition selected by key would be, and returned nearest first.
+     *
+     * The replicas cache the partitions they return in the similarity cache until a bucket probed for them is
+     * written to.
+     *
+     * The neighbours of the query vectors of a <code>SIMILAR TO IN</code> relation are looked up together instead,
+     * each bucket probed being read once for all of them (see {@link SimilarityBatch}). The rows of each query
+     * vector are returned in turn, in the order of the relation, a partition near several of them being returned
+     * for each.
+     *
+     * Similarity queries are not paged, the limit bounding both the number of neighbours and the number of rows of
+     * each query vector.
+     *
+     * @param state the query state, or <code>null</code> to execute the query locally
+     */
+    private ResultMessage.Rows executeSimilarity(QueryOptions options, int limit, long now, QueryState state)
+    throws RequestValidationException, RequestExecutionException
+    {
+        List<ByteBuffer> keys = similarity.getKeys(options);
+        for (ByteBuffer key : keys)
+            QueryProcessor.validateKey(key);
+
+        double targetRecall = similarity.getTargetRecall(options);
+        List<List<ByteBuffer>> neighbours = keys.size() == 1
+                                          ? Collections.singletonList(searchNeighbours(keys.get(0), targetRecall, options, limit, now, state))
+                                          : batchNeighbours(keys, targetRecall, options, limit, now, state);
+
+        // the partitions near several query vectors are read once
+        Set<ByteBuffer> distinct = new LinkedHashSet<>();
+        for (List<ByteBuffer> keyNeighbours : neighbours)
+            distinct.addAll(keyNeighbours);
+
+        IDiskAtomFilter filter = makeFilter(options, updateLimitForQuery(limit));
+        if (filter == null || distinct.isEmpty())
+            return processResults(Collections.<Row>emptyList(), options, limit, now);
+
+        List<ReadCommand> commands = new ArrayList<>(distinct.size());
+        for (ByteBuffer neighbour : distinct)
+            commands.add(ReadCommand.create(keyspace(), neighbour, columnFamily(), now, filter.cloneShallow()));
+
+        List<Row> rows = state == null
+                       ? readLocally(keyspace(), commands)
+                       : StorageProxy.read(commands, options.getConsistency(), state.getClientState());
+        if (neighbours.size() == 1)
+            return processResults(rows, options, limit, now);
+
+        Map<ByteBuffer, Row> rowsByKey = new HashMap<>(rows.size());
+        for (Row row : rows)
+            rowsByKey.put(row.key.getKey(), row);
+
+        ResultSet result = null;
+        for (List<ByteBuffer> keyNeighbours : neighbours)
+        {
+            List<Row> keyRows = new ArrayList<>(keyNeighbours.size());
+            for (ByteBuffer neighbour : keyNeighbours)
+            {
+                Row row = rowsByKey.get(neighbour);
+                if (row != null)
+                    keyRows.add(row);
+            }
+
+            ResultSet keyResult = process(keyRows, options, limit, now);
+            if (result == null)
+                result = keyResult;
+            else
+                result.rows.addAll(keyResult.rows);
+        }
+        return new ResultMessage.Rows(result);
+    }
+
+    /**
+     * Searches the buckets planned for the query vector for its nearest live partitions.
+     *
+     * @return the keys of the neighbours, nearest first
+     */
+    private List<ByteBuffer> searchNeighbours(ByteBuffer key, double targetRecall, QueryOptions options, int limit, long now, QueryState state)
+    throws RequestValidationException, RequestExecutionException
+    {
+        MultiProbePlanner.Plan plan = similarity.getPlan(key, targetRecall);
+        List<SimilarityRangeCommand> probes = new ArrayList<>(plan.bounds.size());
+        for (AbstractBounds<RowPosition> bounds : plan.bounds)
+            probes.add(new SimilarityRangeCommand(keyspace(), columnFamily(), now, bounds, key, SimilarityRangeCommand.probesWithin(bounds, plan.probes), limit));
+
+        List<Row> candidates;
+        if (state == null)
+        {
+            candidates = new ArrayList<>();
+            for (SimilarityRangeCommand probe : probes)
+                candidates.addAll(probe.executeLocally());
+        }
+        else
+        {
+            candidates = StorageProxy.getRangeSlices(probes, options.getConsistency());
+        }
+        return nearestNeighbours(key, candidates, limit, now);
+    }
+
+    /**
+     * Searches the buckets planned for the query vectors once for all of them.
+     *
+     * @return for each query vector, in order, the keys of its neighbours, nearest first
+     */
+    private List<List<ByteBuffer>> batchNeighbours(List<ByteBuffer> keys, double targetRecall, QueryOptions options, int limit, long now, QueryState state)
+    throws RequestValidationException, RequestExecutionException
+    {
+        if (state != null)
+            return StorageProxy.getNeighbours(cfm, keys, limit, targetRecall, options.getConsistency(), now);
+
+        SimilarityBatch batch = SimilarityBatch.create(cfm, keys, targetRecall);
+        List<Row> rows = new ArrayList<>();
+        for (SimilarityRangeCommand command : batch.getCommands(now, limit))
+            rows.addAll(command.executeLocally());
+        return batch.getNeighbours(rows, limit, now);
+    }
+
+    /**
+     * Returns the keys of the live partitions nearest to the query vector, nearest first.
+     */
+    private List<ByteBuffer> nearestNeighbours(ByteBuffer key, List<Row> candidates, int limit, long now)
+    {
+        VectorSerializer serializer = keySerializer();
+        double[] query = queryVector(key);
+        List<Pair<Double, ByteBuffer>> distances = new ArrayList<>(candidates.size());
+        for (Row row : candidates)
+        {
+            if (row.cf == null || row.cf.hasOnlyTombstones(now))
+                continue;
+
+            ByteBuffer candidate = row.key.getKey();
+            double distance = serializer == null
+                            ? RandomHyperplaneHash.cosineDistance(query, RandomHyperplaneHash.vector(candidate))
+                            : RandomHyperplaneHash.cosineDistance(query, candidate, serializer);
+            distances.add(Pair.create(distance, candidate));
+        }
+
+        Collections.sort(distances, new Comparator<Pair<Double, ByteBuffer>>()
+        {
+            public int compare(Pair<Double, ByteBuffer> p1, Pair<Double, ByteBuffer> p2)
+            {
+                return Double.compare(p1.left, p2.left);
+            }
+        });
+
+        List<ByteBuffer> neighbours = new ArrayList<>(Math.min(limit, distances.size()));
+        for (int i = 0; i < distances.size() && i < limit; i++)
+            neighbours.add(distances.get(i).right);
+        return neighbours;
+    }
+
+    /**
+     * @return the serializer of the partition keys if they are vectors, which are then read in place, or null if
+     * they are parsed as the partitioner parses them
+     */
+    private VectorSerializer keySerializer()
+    {
+        return cfm.getKeyValidator() instanceof VectorType ? ((VectorType) cfm.getKeyValidator()).getSerializer() : null;
+    }
+
+    private double[] queryVector(ByteBuffer key)
+    {
+        VectorSerializer serializer = keySerializer();
+        return serializer == null ? RandomHyperplaneHash.vector(key) : serializer.deserialize(key);
+    }
+
     private ResultMessage.Rows pageAggregateQuery(QueryPager pager, QueryOptions options, int pageSize, long now)
             throws RequestValidationException, RequestExecutionException
     {
@@ -293,6 +493,9 @@ public class SelectStatement implements CQLStatement
     {
         int limit = getLimit(options);
         long now = System.currentTimeMillis();
+        if (similarity != null)
+            return executeSimilarity(options, limit, now, null);
+
         Pageable command = getPageableCommand(options, limit, now);
         int pageSize = getPageSize(options);
 
@@ -779,14 +982,26 @@ public class SelectStatement implements CQLStatement
         private final List<RawSelector> selectClause;
         private final List<Relation> whereClause;
         private final Term.Raw limit;
+        private final Term.Raw recall;
 
         public RawStatement(CFName cfName, Parameters parameters, List<RawSelector> selectClause, List<Relation> whereClause, Term.Raw limit)
+        {
+            this(cfName, parameters, selectClause, whereClause, limit, null);
+        }
+
+        public RawStatement(CFName cfName,
+                            Parameters parameters,
+                            List<RawSelector> selectClause,
+                            List<Relation> whereClause,
+                            Term.Raw limit,
+                            Term.Raw recall)
         {
             super(cfName);
             this.parameters = parameters;
             this.selectClause = selectClause;
             this.whereClause = whereClause == null ? Collections.<Relation>emptyList() : whereClause;
             this.limit = limit;
+            this.recall = recall;
         }
 
         public ParsedStatement.Prepared prepare() throws InvalidRequestException
@@ -798,7 +1013,27 @@ public class SelectStatement implements CQLStatement
                                   ? Selection.wildcard(cfm)
                                   : Selection.fromSelectors(cfm, selectClause);
 
-            StatementRestrictions restrictions = prepareRestrictions(cfm, boundNames, selection);
+            SimilarityRelation similarityRelation = null;
+            List<Relation> relations = whereClause;
+            for (Relation relation : whereClause)
+            {
+                if (relation.operator() != Operator.SIMILAR)
+                    continue;
+
+                checkTrue(similarityRelation == null, "Only one %s relation is supported", relation.operator());
+                similarityRelation = (SimilarityRelation) relation;
+                relations = new ArrayList<>(whereClause);
+                relations.remove(relation);
+            }
+
+            StatementRestrictions restrictions = prepareRestrictions(cfm, relations, boundNames, selection);
+            checkTrue(recall == null || similarityRelation != null, "WITH recall is only supported with %s", Operator.SIMILAR);
+            SimilarityRestriction similarity = null;
+            if (similarityRelation != null)
+            {
+                similarity = SimilarityRestriction.create(cfm, similarityRelation, prepareRecall(boundNames), boundNames);
+                validateSimilarityRestrictions(restrictions);
+            }
 
             if (parameters.isDistinct)
                 validateDistinctSelection(cfm, selection, restrictions);
@@ -816,13 +1051,16 @@ public class SelectStatement implements CQLStatement
             if (isReversed)
                 restrictions.reverse();
 
-            checkNeedsFiltering(restrictions);
+            // the partitions of a similarity query are selected by key, nothing is filtered
+            if (similarity == null)
+                checkNeedsFiltering(restrictions);
 
             SelectStatement stmt = new SelectStatement(cfm,
                                                         boundNames.size(),
                                                         parameters,
                                                         selection,
                                                         restrictions,
+                                                        similarity,
                                                         isReversed,
                                                         orderingComparator,
                                                         prepareLimit(boundNames));
@@ -834,19 +1072,21 @@ public class SelectStatement implements CQLStatement
          * Prepares the restrictions.
          *
          * @param cfm the column family meta data
+         * @param relations the relations of the where clause to convert into restrictions
          * @param boundNames the variable specifications
          * @param selection the selection
          * @return the restrictions
          * @throws InvalidRequestException if a problem occurs while building the restrictions
          */
         private StatementRestrictions prepareRestrictions(CFMetaData cfm,
+                                                          List<Relation> relations,
                                                           VariableSpecifications boundNames,
                                                           Selection selection) throws InvalidRequestException
         {
             try
             {
                 return new StatementRestrictions(cfm,
-                                                 whereClause,
+                                                 relations,
                                                  boundNames,
                                                  selection.containsOnlyStaticColumns(),
                                                  selection.containsACollection());
@@ -870,6 +1110,27 @@ public class SelectStatement implements CQLStatement
             return prepLimit;
         }
 
+        /** Returns a Term for the target recall or null if no recall is set */
+        private Term prepareRecall(VariableSpecifications boundNames) throws InvalidRequestException
+        {
+            if (recall == null)
+                return null;
+
+            Term prepRecall = recall.prepare(keyspace(), recallReceiver());
+            prepRecall.collectMarkerSpecification(boundNames);
+            return prepRecall;
+        }
+
+        private void validateSimilarityRestrictions(StatementRestrictions restrictions) throws InvalidRequestException
+        {
+            checkFalse(restrictions.hasPartitionKeyRestrictions(),
+                       "Partition key columns cannot be restricted alongside a %s relation", Operator.SIMILAR);
+            checkFalse(restrictions.usesSecondaryIndexing(),
+                       "%s cannot be used with secondary indexes", Operator.SIMILAR);
+            checkTrue(parameters.orderings.isEmpty(),
+                      "ORDER BY is not supported with %s, rows are returned nearest first", Operator.SIMILAR);
+        }
+
         private static void verifyOrderingIsAllowed(StatementRestrictions restrictions) throws InvalidRequestException
         {
             checkFalse(restrictions.usesSecondaryIndexing(), "ORDER BY with 2ndary indexes is not supported.");
@@ -1056,6 +1317,11 @@ public class SelectStatement implements CQLStatement
             return new ColumnSpecification(keyspace(), columnFamily(), new ColumnIdentifier("[limit]", true), Int32Type.instance);
         }
 
+        private ColumnSpecification recallReceiver()
+        {
+            return new ColumnSpecification(keyspace(), columnFamily(), new ColumnIdentifier("[recall]", true), DoubleType.instance);
+        }
+
         @Override
         public String toString()
         {
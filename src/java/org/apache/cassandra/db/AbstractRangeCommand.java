@@ -74,6 +74,15 @@ public abstract class AbstractRangeCommand implements IReadCommand
     }
 
     public abstract MessageOut<? extends AbstractRangeCommand> createMessage();
+
+    /**
+     * @return the message sending this command to a node of messaging {@code version}
+     */
+    public MessageOut<? extends AbstractRangeCommand> createMessage(int version)
+    {
+        return createMessage();
+    }
+
     public abstract AbstractRangeCommand forSubRange(AbstractBounds<RowPosition> range);
     public abstract AbstractRangeCommand withUpdatedLimit(int newLimit);
 
@@ -94,6 +103,15 @@ public abstract class AbstractRangeCommand implements IReadCommand
 
     public abstract List<Row> executeLocally();
 
+    /**
+     * @return true if the rows of a range come in ring order, so that the range can be read a page at a time, each
+     * page resuming after the last row of the previous one
+     */
+    public boolean supportsPaging()
+    {
+        return true;
+    }
+
     public long getTimeout()
     {
         return DatabaseDescriptor.getRangeRpcTimeout();
@@ -54,6 +54,7 @@ import org.apache.cassandra.db.compaction.*;
 import org.apache.cassandra.db.composites.CellName;
 import org.apache.cassandra.db.composites.CellNameType;
 import org.apache.cassandra.db.composites.Composite;
+import org.apache.cassandra.db.composites.Composites;
 import org.apache.cassandra.db.filter.ColumnSlice;
 import org.apache.cassandra.db.filter.ExtendedFilter;
 import org.apache.cassandra.db.filter.IDiskAtomFilter;
@@ -71,9 +72,11 @@ import org.apache.cassandra.io.sstable.*;
 import org.apache.cassandra.io.sstable.format.*;
 import org.apache.cassandra.io.sstable.metadata.CompactionMetadata;
 import org.apache.cassandra.io.sstable.metadata.MetadataType;
+import org.apache.cassandra.io.sstable.metadata.SimilarityMetadata;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.metrics.ColumnFamilyMetrics;
 import org.apache.cassandra.metrics.ColumnFamilyMetrics.Sampler;
+import org.apache.cassandra.serializers.VectorSerializer;
 import org.apache.cassandra.service.CacheService;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.streaming.StreamLockfile;
@@ -508,7 +511,8 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
 
     public static ColumnFamilyStore createColumnFamilyStore(Keyspace keyspace, String columnFamily, boolean loadSSTables)
     {
-        return createColumnFamilyStore(keyspace, columnFamily, StorageService.getPartitioner(), Schema.instance.getCFMetaData(keyspace.getName(), columnFamily), loadSSTables);
+        CFMetaData metadata = Schema.instance.getCFMetaData(keyspace.getName(), columnFamily);
+        return createColumnFamilyStore(keyspace, columnFamily, metadata.partitioner(), metadata, loadSSTables);
     }
 
     public static synchronized ColumnFamilyStore createColumnFamilyStore(Keyspace keyspace,
@@ -802,6 +806,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         try (Refs<SSTableReader> refs = Refs.ref(newSSTables))
         {
             data.addSSTables(newSSTables);
+            CacheService.instance.invalidateSimilarityCacheForCf(metadata.ksAndCFName);
             indexManager.maybeBuildSecondaryIndexes(newSSTables, indexManager.allIndexesNames());
         }
 
@@ -1243,7 +1248,13 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         Memtable mt = data.getMemtableFor(opGroup, replayPosition);
         final long timeDelta = mt.put(key, columnFamily, indexer, opGroup);
         maybeUpdateRowCache(key);
+        invalidateCachedSimilarity(key);
         metric.samplers.get(Sampler.WRITES).addSample(key.getKey(), key.hashCode(), 1);
+        if (metric.buckets != null)
+        {
+            metric.buckets.markWrite(key);
+            sampleBucket(Sampler.BUCKET_WRITES, key);
+        }
         metric.writeLatency.addNano(System.nanoTime() - start);
         if(timeDelta < Long.MAX_VALUE)
             metric.colUpdateTimeDeltaHistogram.update(timeDelta);
@@ -1994,6 +2005,205 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         }
     }
 
+    /**
+     * Finds the live partitions nearest to a query vector among those of the buckets probed for it, through the
+     * vector indexes of the sstables and memtables. The nearest partitions of each sstable and memtable are
+     * collected as candidates, the memtables without an index contributing every partition within the bounds of
+     * the buckets, and the nearest candidates are read to find out which are live.
+     *
+     * The sstables whose vector summary rules out all the buckets probed are skipped, and the others are searched
+     * by increasing lower bound of their distance to the query. Once {@code limit} candidates are known, the
+     * sstables whose lower bound exceeds the distance of the furthest of them are skipped as well.
+     *
+     * The indexes know nothing of the deletions, so that some of the nearest candidates may be dead. When fewer
+     * than {@code limit} live partitions are found nearer than any partition that was skipped, or that an index
+     * had beyond the candidates it returned, the search is repeated with twice as many candidates per index.
+     *
+     * @param bounds the key bounds covering the buckets probed
+     * @param probes the signatures of the buckets probed
+     * @param query the query vector
+     * @param limit the number of neighbours wanted
+     * @param now the time of the query, to tell the live partitions from the deleted ones
+     * @return the nearest live partitions, at most {@code limit} of them, nearest first, each with its first live
+     * cell; or null if some sstable within the bounds has no vector index, in which case the buckets have to be
+     * scanned
+     */
+    public List<Row> getSimilarityCandidates(List<AbstractBounds<RowPosition>> bounds,
+                                             List<long[]> probes,
+                                             double[] query,
+                                             int limit,
+                                             long now)
+    {
+        if (limit <= 0)
+            return Collections.emptyList();
+
+        try (OpOrder.Group op = readOrdering.start())
+        {
+            ViewFragment view = select(viewFilter(bounds, true));
+            for (SSTableReader sstable : view.sstables)
+            {
+                if (!sstable.hasVectorIndex())
+                    return null;
+            }
+
+            // the candidates read so far, null for the dead ones
+            Map<DecoratedKey, Row> read = new HashMap<>();
+            for (int fetch = limit; ; fetch = fetch > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : 2 * fetch)
+            {
+                final Map<DecoratedKey, Double> candidates = new HashMap<>();
+                double horizon = collectSimilarityCandidates(view, bounds, probes, query, fetch, candidates);
+
+                List<DecoratedKey> keys = new ArrayList<>(candidates.keySet());
+                Collections.sort(keys, new Comparator<DecoratedKey>()
+                {
+                    public int compare(DecoratedKey k1, DecoratedKey k2)
+                    {
+                        return Double.compare(candidates.get(k1), candidates.get(k2));
+                    }
+                });
+
+                List<Row> live = new ArrayList<>(limit);
+                for (DecoratedKey key : keys)
+                {
+                    // the partitions beyond the horizon may be beaten by the ones left out of this search
+                    if (live.size() == limit || candidates.get(key) > horizon)
+                        break;
+
+                    if (!read.containsKey(key))
+                    {
+                        ColumnFamily cf = getColumnFamily(key, Composites.EMPTY, Composites.EMPTY, false, 1, now);
+                        read.put(key, cf == null || cf.hasOnlyTombstones(now) ? null : new Row(key, cf));
+                    }
+                    Row row = read.get(key);
+                    if (row != null)
+                        live.add(row);
+                }
+
+                if (live.size() == limit || horizon == Double.POSITIVE_INFINITY || fetch == Integer.MAX_VALUE)
+                {
+                    Tracing.trace("Found {} live similarity candidates out of {} read", live.size(), read.size());
+                    return live;
+                }
+                Tracing.trace("Found {} live similarity candidates out of {} read, searching again for {} per index",
+                              live.size(), read.size(), 2 * fetch);
+            }
+        }
+    }
+
+    /**
+     * Collects the {@code fetch} nearest partitions of each sstable and memtable of the view, with their distance
+     * to the query.
+     *
+     * @return the horizon of the search, the distance beyond which the sstables and memtables may hold partitions
+     * nearer than the ones collected, or infinity if the candidates are all the partitions of the buckets probed
+     */
+    private double collectSimilarityCandidates(ViewFragment view,
+                                               List<AbstractBounds<RowPosition>> bounds,
+                                               List<long[]> probes,
+                                               double[] query,
+                                               int fetch,
+                                               Map<DecoratedKey, Double> candidates)
+    {
+        VectorSerializer layout = SimilarityPartitioner.keyLayout(partitioner);
+        double horizon = Double.POSITIVE_INFINITY;
+        // the distances of the nearest candidates so far, furthest first
+        PriorityQueue<Double> nearest = new PriorityQueue<>(Math.max(1, Math.min(fetch, 64)), Collections.<Double>reverseOrder());
+
+        for (Memtable memtable : view.memtables)
+        {
+            if (memtable.hasVectorIndex())
+            {
+                List<DecoratedKey> keys = memtable.nearestNeighbours(query, probes, fetch);
+                double furthest = 0;
+                for (DecoratedKey key : keys)
+                    furthest = Math.max(furthest, addSimilarityCandidate(key, layout, query, fetch, candidates, nearest));
+                if (keys.size() == fetch)
+                    horizon = Math.min(horizon, furthest);
+                continue;
+            }
+
+            for (AbstractBounds<RowPosition> range : bounds)
+            {
+                Iterator<Map.Entry<DecoratedKey, ColumnFamily>> entries = memtable.getEntryIterator(range.left, range.right);
+                while (entries.hasNext())
+                {
+                    DecoratedKey key = entries.next().getKey();
+                    if (range.contains(key))
+                        addSimilarityCandidate(key, layout, query, fetch, candidates, nearest);
+                }
+            }
+        }
+
+        List<SSTableReader> sstables = new ArrayList<>(view.sstables.size());
+        final Map<SSTableReader, Double> minDistances = new HashMap<>();
+        for (SSTableReader sstable : view.sstables)
+        {
+            SimilarityMetadata summary = sstable.getSimilarityMetadata();
+            if (summary != null && !summary.mayContain(probes))
+                continue;
+            sstables.add(sstable);
+            minDistances.put(sstable, summary == null ? 0.0 : summary.minDistance(query));
+        }
+        Collections.sort(sstables, new Comparator<SSTableReader>()
+        {
+            public int compare(SSTableReader o1, SSTableReader o2)
+            {
+                return Double.compare(minDistances.get(o1), minDistances.get(o2));
+            }
+        });
+
+        int searched = 0;
+        for (SSTableReader sstable : sstables)
+        {
+            double minDistance = minDistances.get(sstable);
+            if (nearest.size() == fetch && minDistance > nearest.peek())
+            {
+                // the sstables left are further still
+                horizon = Math.min(horizon, minDistance);
+                break;
+            }
+
+            List<DecoratedKey> keys = sstable.nearestNeighbours(query, probes, fetch);
+            double furthest = 0;
+            for (DecoratedKey key : keys)
+                furthest = Math.max(furthest, addSimilarityCandidate(key, layout, query, fetch, candidates, nearest));
+            if (keys.size() == fetch)
+                horizon = Math.min(horizon, furthest);
+            searched++;
+        }
+
+        Tracing.trace("Collected {} similarity candidates from {} of {} sstables and {} memtables",
+                      candidates.size(), searched, view.sstables.size(), Iterables.size(view.memtables));
+        return horizon;
+    }
+
+    /**
+     * @return the distance of the candidate to the query
+     */
+    private static double addSimilarityCandidate(DecoratedKey key,
+                                                 VectorSerializer layout,
+                                                 double[] query,
+                                                 int fetch,
+                                                 Map<DecoratedKey, Double> candidates,
+                                                 PriorityQueue<Double> nearest)
+    {
+        Double known = candidates.get(key);
+        if (known != null)
+            return known;
+
+        // a partition found in several sstables only counts once towards the nearest candidates
+        double distance = RandomHyperplaneHash.cosineDistance(query, RandomHyperplaneHash.vector(key.getKey(), layout));
+        candidates.put(key, distance);
+        if (nearest.size() < fetch)
+            nearest.add(distance);
+        else if (distance < nearest.peek())
+        {
+            nearest.poll();
+            nearest.add(distance);
+        }
+        return distance;
+    }
+
     public ColumnFamily getTopLevelColumns(QueryFilter filter, int gcBefore)
     {
         Tracing.trace("Executing single-partition query on {}", name);
@@ -2004,11 +2214,36 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
             columns = controller.getTopLevelColumns(Memtable.MEMORY_POOL.needToCopyOnHeap());
         }
         if (columns != null)
+        {
             metric.samplers.get(Sampler.READS).addSample(filter.key.getKey(), filter.key.hashCode(), 1);
+            markBucketRead(filter.key);
+        }
         metric.updateSSTableIterated(controller.getSstablesIterated());
         return columns;
     }
 
+    private void markBucketRead(DecoratedKey key)
+    {
+        if (metric.buckets != null)
+        {
+            metric.buckets.markRead(key);
+            sampleBucket(Sampler.BUCKET_READS, key);
+        }
+    }
+
+    /**
+     * Samples the bucket of {@code key}, as the serialized token all the keys of the bucket share.
+     */
+    private void sampleBucket(Sampler sampler, DecoratedKey key)
+    {
+        TopKSampler<ByteBuffer> bucketSampler = metric.samplers.get(sampler);
+        if (bucketSampler.isEnabled())
+        {
+            Token token = key.getToken();
+            bucketSampler.addSample(partitioner.getTokenFactory().toByteArray(token), token.hashCode(), 1);
+        }
+    }
+
     public void beginLocalSampling(String sampler, int capacity)
     {
         metric.samplers.get(Sampler.valueOf(sampler)).beginSampling(capacity);
@@ -2019,14 +2254,18 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         SamplerResult<ByteBuffer> samplerResults = metric.samplers.get(Sampler.valueOf(sampler))
                 .finishSampling(count);
         TabularDataSupport result = new TabularDataSupport(COUNTER_TYPE);
+        boolean buckets = Sampler.valueOf(sampler).isBucketSampler();
         for (Counter<ByteBuffer> counter : samplerResults.topK)
         {
             byte[] key = counter.getItem().array();
+            String string = buckets
+                          ? partitioner.getTokenFactory().toString(partitioner.getTokenFactory().fromByteArray(ByteBuffer.wrap(key)))
+                          : metadata.getKeyValidator().getString(ByteBuffer.wrap(key));
             result.put(new CompositeDataSupport(COUNTER_COMPOSITE_TYPE, COUNTER_NAMES, new Object[] {
                     Hex.bytesToHex(key), // raw
                     counter.getCount(),  // count
                     counter.getError(),  // error
-                    metadata.getKeyValidator().getString(ByteBuffer.wrap(key)) })); // string
+                    string })); // string
         }
         return new CompositeDataSupport(SAMPLING_RESULT, SAMPLER_NAMES, new Object[]{
                 samplerResults.cardinality, result});
@@ -2199,7 +2438,13 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         long start = System.nanoTime();
         try (OpOrder.Group op = readOrdering.start())
         {
-            return filter(getSequentialIterator(filter.dataRange, filter.timestamp), filter);
+            List<Row> rows = filter(getSequentialIterator(filter.dataRange, filter.timestamp), filter);
+            if (metric.buckets != null)
+            {
+                for (Row row : rows)
+                    markBucketRead(row.key);
+            }
+            return rows;
         }
         finally
         {
@@ -2512,6 +2757,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         CacheService.instance.invalidateRowCacheForCf(metadata.ksAndCFName);
         if (metadata.isCounter())
             CacheService.instance.invalidateCounterCacheForCf(metadata.ksAndCFName);
+        CacheService.instance.invalidateSimilarityCacheForCf(metadata.ksAndCFName);
     }
 
     /**
@@ -2536,6 +2782,15 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         invalidateCachedRow(new RowCacheKey(metadata.ksAndCFName, key));
     }
 
+    /**
+     * Invalidates the cached similarity queries that probed the bucket of {@code key}.
+     */
+    public void invalidateCachedSimilarity(DecoratedKey key)
+    {
+        if (CacheService.instance.similarityCache.isEnabled() && partitioner instanceof SimilarityPartitioner)
+            CacheService.instance.similarityCache.invalidate(metadata.ksAndCFName, key.getToken());
+    }
+
     public ClockAndCount getCachedCounter(ByteBuffer partitionKey, CellName cellName)
     {
         if (CacheService.instance.counterCache.getCapacity() == 0L) // counter cache disabled.
@@ -2893,6 +3148,11 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return compactionStrategyWrapper.getSSTableCountPerLevel();
     }
 
+    public int[] getSSTableCountPerBucket()
+    {
+        return compactionStrategyWrapper.getSSTableCountPerBucket();
+    }
+
     public static class ViewFragment
     {
         public final List<SSTableReader> sstables;
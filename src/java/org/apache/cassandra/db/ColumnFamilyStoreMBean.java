@@ -149,6 +149,12 @@ public interface ColumnFamilyStoreMBean
      */
     public int[] getSSTableCountPerLevel();
 
+    /**
+     * @return sstable count covering each family of adjacent buckets. null unless similarity compaction is used.
+     *         array index corresponds to the Gray rank prefix of the family.
+     */
+    public int[] getSSTableCountPerBucket();
+
     /**
      * Get the ratio of droppable tombstones to real columns (and non-droppable tombstones)
      * @return ratio
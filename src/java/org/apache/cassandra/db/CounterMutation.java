@@ -33,6 +33,7 @@ import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.composites.CellName;
 import org.apache.cassandra.db.context.CounterContext;
 import org.apache.cassandra.db.filter.NamesQueryFilter;
+import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.exceptions.WriteTimeoutException;
 import org.apache.cassandra.io.IVersionedSerializer;
 import org.apache.cassandra.io.util.DataOutputPlus;
@@ -82,6 +83,11 @@ public class CounterMutation implements IMutation
         return mutation.key();
     }
 
+    public IPartitioner partitioner()
+    {
+        return mutation.partitioner();
+    }
+
     public ConsistencyLevel consistency()
     {
         return consistency;
@@ -21,11 +21,14 @@ import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.UUID;
 
+import org.apache.cassandra.dht.IPartitioner;
+
 public interface IMutation
 {
     public String getKeyspaceName();
     public Collection<UUID> getColumnFamilyIds();
     public ByteBuffer key();
+    public IPartitioner partitioner();
     public long getTimeout();
     public String toString(boolean shallow);
     public void addAll(IMutation m);
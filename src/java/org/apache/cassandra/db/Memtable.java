@@ -19,7 +19,9 @@ package org.apache.cassandra.db;
 
 import java.io.File;
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
@@ -31,6 +33,7 @@ import com.google.common.annotations.VisibleForTesting;
 
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.VectorIndex;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.io.sstable.format.SSTableWriter;
 import org.slf4j.Logger;
@@ -42,6 +45,7 @@ import org.apache.cassandra.db.commitlog.ReplayPosition;
 import org.apache.cassandra.db.composites.CellNameType;
 import org.apache.cassandra.db.index.SecondaryIndexManager;
 import org.apache.cassandra.dht.Murmur3Partitioner.LongToken;
+import org.apache.cassandra.dht.SimilarityPartitioner;
 import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
 import org.apache.cassandra.io.util.DiskAwareRunnable;
 import org.apache.cassandra.service.ActiveRepairService;
@@ -83,6 +87,8 @@ public class Memtable implements Comparable<Memtable>
     // to select key range using Token.KeyBound. However put() ensures that we
     // actually only store DecoratedKey.
     private final ConcurrentNavigableMap<RowPosition, AtomicBTreeColumns> rows = new ConcurrentSkipListMap<>();
+    // the partitions by random hyperplane bucket, null unless the table is indexed by vector
+    private final MemtableVectorIndex vectors;
     public final ColumnFamilyStore cfs;
     private final long creationTime = System.currentTimeMillis();
     private final long creationNano = System.nanoTime();
@@ -97,6 +103,9 @@ public class Memtable implements Comparable<Memtable>
         this.cfs = cfs;
         this.allocator = MEMORY_POOL.newAllocator();
         this.initialComparator = cfs.metadata.comparator;
+        this.vectors = VectorIndex.isIndexed(cfs.metadata, cfs.partitioner)
+                     ? new MemtableVectorIndex(RandomHyperplaneHash.instance(), SimilarityPartitioner.keyLayout(cfs.partitioner))
+                     : null;
         this.cfs.scheduleFlush();
     }
 
@@ -107,6 +116,7 @@ public class Memtable implements Comparable<Memtable>
         this.initialComparator = metadata.comparator;
         this.cfs = null;
         this.allocator = null;
+        this.vectors = null;
     }
 
     public MemtableAllocator getAllocator()
@@ -215,6 +225,8 @@ public class Memtable implements Comparable<Memtable>
                 // allocate the row overhead after the fact; this saves over allocating and having to free after, but
                 // means we can overshoot our declared limit.
                 int overhead = (int) (key.getToken().getHeapSize() + ROW_OVERHEAD_HEAP_SIZE);
+                if (vectors != null)
+                    overhead += vectors.add(cloneKey);
                 allocator.onHeap().allocate(overhead, opGroup);
                 initialSize = 8;
             }
@@ -248,6 +260,43 @@ public class Memtable implements Comparable<Memtable>
         return rows.size();
     }
 
+    /**
+     * @return the keys of the partitions in this memtable, in token order; unlike {@link #getEntryIterator}, the
+     * keys are not copied on heap and must not be retained
+     */
+    public Iterable<RowPosition> partitionKeys()
+    {
+        return rows.keySet();
+    }
+
+    /**
+     * @return true if the partitions of this memtable can be searched by vector with {@link #nearestNeighbours}
+     */
+    public boolean hasVectorIndex()
+    {
+        return vectors != null;
+    }
+
+    /**
+     * Finds the partitions of this memtable nearest to a query vector, by cosine distance, among the buckets probed
+     * for it.
+     *
+     * @return the keys of the nearest partitions, nearest first, copied on heap if need be
+     */
+    public List<DecoratedKey> nearestNeighbours(double[] query, List<long[]> probes, int limit)
+    {
+        assert vectors != null : "No vector index for " + this;
+
+        List<DecoratedKey> keys = vectors.search(query, probes, limit);
+        if (!MEMORY_POOL.needToCopyOnHeap())
+            return keys;
+
+        List<DecoratedKey> copies = new ArrayList<>(keys.size());
+        for (DecoratedKey key : keys)
+            copies.add(new BufferDecoratedKey(key.getToken(), HeapAllocator.instance.clone(key.getKey())));
+        return copies;
+    }
+
     public FlushRunnable flushRunnable()
     {
         return new FlushRunnable(lastReplayPosition.get());
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.cassandra.serializers.VectorSerializer;
+import org.apache.cassandra.utils.ObjectSizes;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
+
+/**
+ * The in-memory counterpart of the sstable vector index: the partitions of a memtable by random hyperplane bucket,
+ * each with its key read as a vector of floats. Partitions are added as they are created, without locking, and the
+ * index is discarded with the memtable once flushed.
+ *
+ * Finding the neighbours of a query vector only reads the vectors of the buckets probed for it, instead of scanning
+ * the token ranges of the buckets in the memtable.
+ */
+public class MemtableVectorIndex
+{
+    private static final long EMPTY_SIZE = ObjectSizes.measure(new Entry(null, null));
+
+    private final RandomHyperplaneHash hash;
+    private final VectorSerializer layout;
+    private final long entrySize;
+    private final ConcurrentMap<Bucket, Queue<Entry>> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * @param layout the layout of the keys as packed vectors, or null if they are not of a vector type
+     */
+    public MemtableVectorIndex(RandomHyperplaneHash hash, VectorSerializer layout)
+    {
+        this.hash = hash;
+        this.layout = layout;
+        this.entrySize = EMPTY_SIZE + ObjectSizes.measureDeep(new float[hash.dimension()]);
+    }
+
+    /**
+     * Adds a partition new to the memtable.
+     *
+     * @param key the key the partition is stored under in the memtable, returned as is by searches
+     * @return the heap size of the entry added
+     */
+    public long add(DecoratedKey key)
+    {
+        double[] vector = RandomHyperplaneHash.vector(key.getKey(), layout);
+        float[] components = new float[hash.dimension()];
+        for (int j = 0, length = Math.min(vector.length, components.length); j < length; j++)
+            components[j] = (float) vector[j];
+
+        Bucket bucket = new Bucket(hash.hash(vector).clone());
+        Queue<Entry> entries = buckets.get(bucket);
+        if (entries == null)
+        {
+            Queue<Entry> created = new ConcurrentLinkedQueue<>();
+            entries = buckets.putIfAbsent(bucket, created);
+            if (entries == null)
+                entries = created;
+        }
+        entries.add(new Entry(key, components));
+        return entrySize;
+    }
+
+    /**
+     * Finds the partitions nearest to a query vector, by cosine distance, among the buckets of the signatures probed.
+     *
+     * @param query the query vector, extra components ignored
+     * @param probes the signatures of the buckets to search
+     * @param limit the maximum number of partitions to return
+     * @return the keys of the nearest partitions, nearest first, as stored in the memtable
+     */
+    public List<DecoratedKey> search(double[] query, List<long[]> probes, int limit)
+    {
+        int length = Math.min(query.length, hash.dimension());
+        double queryNorm = 0;
+        for (int j = 0; j < length; j++)
+            queryNorm += query[j] * query[j];
+        queryNorm = Math.sqrt(queryNorm);
+
+        PriorityQueue<Neighbour> nearest = new PriorityQueue<>(limit + 1, Collections.reverseOrder());
+        for (long[] probe : probes)
+        {
+            Queue<Entry> entries = buckets.get(new Bucket(probe));
+            if (entries == null)
+                continue;
+
+            for (Entry entry : entries)
+            {
+                double product = 0, norm = 0;
+                for (int j = 0; j < entry.vector.length; j++)
+                {
+                    if (j < length)
+                        product += query[j] * entry.vector[j];
+                    norm += entry.vector[j] * entry.vector[j];
+                }
+                double distance = queryNorm == 0 || norm == 0 ? 1.0 : 1.0 - product / (queryNorm * Math.sqrt(norm));
+                if (nearest.size() < limit)
+                    nearest.add(new Neighbour(distance, entry.key));
+                else if (distance < nearest.peek().distance)
+                {
+                    nearest.poll();
+                    nearest.add(new Neighbour(distance, entry.key));
+                }
+            }
+        }
+
+        DecoratedKey[] keys = new DecoratedKey[nearest.size()];
+        for (int i = keys.length - 1; i >= 0; i--)
+            keys[i] = nearest.poll().key;
+        return Arrays.asList(keys);
+    }
+
+    private static final class Bucket
+    {
+        private final long[] signature;
+        private final int hashCode;
+
+        private Bucket(long[] signature)
+        {
+            this.signature = signature;
+            this.hashCode = Arrays.hashCode(signature);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof Bucket && Arrays.equals(signature, ((Bucket) o).signature);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+    }
+
+    private static final class Entry
+    {
+        private final DecoratedKey key;
+        private final float[] vector;
+
+        private Entry(DecoratedKey key, float[] vector)
+        {
+            this.key = key;
+            this.vector = vector;
+        }
+    }
+
+    private static final class Neighbour implements Comparable<Neighbour>
+    {
+        private final double distance;
+        private final DecoratedKey key;
+
+        private Neighbour(double distance, DecoratedKey key)
+        {
+            this.distance = distance;
+            this.key = key;
+        }
+
+        public int compareTo(Neighbour other)
+        {
+            return Double.compare(distance, other.distance);
+        }
+    }
+}
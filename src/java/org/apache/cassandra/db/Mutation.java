@@ -29,10 +29,12 @@ import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.composites.CellName;
 import org.apache.cassandra.db.composites.Composite;
+import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.io.IVersionedSerializer;
 import org.apache.cassandra.io.util.DataOutputPlus;
 import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -113,6 +115,20 @@ public class Mutation implements IMutation
         return modifications.get(cfId);
     }
 
+    /**
+     * @return the partitioner of the keys of the tables of this mutation, which they all share
+     */
+    public IPartitioner partitioner()
+    {
+        Iterator<ColumnFamily> iter = modifications.values().iterator();
+        return iter.hasNext() ? iter.next().metadata().partitioner() : StorageService.getPartitioner();
+    }
+
+    public DecoratedKey decoratedKey()
+    {
+        return partitioner().decorateKey(key);
+    }
+
     /*
      * Specify a column family name and the corresponding column
      * family object.
@@ -122,6 +138,7 @@ public class Mutation implements IMutation
     public void add(ColumnFamily columnFamily)
     {
         assert columnFamily != null;
+        assert modifications.isEmpty() || partitioner() == columnFamily.metadata().partitioner() : columnFamily.metadata().cfName;
         ColumnFamily prev = modifications.put(columnFamily.id(), columnFamily);
         if (prev != null)
             // developer error
@@ -141,6 +158,7 @@ public class Mutation implements IMutation
         ColumnFamily cf = modifications.get(cfm.cfId);
         if (cf == null)
         {
+            assert modifications.isEmpty() || partitioner() == cfm.partitioner() : cfm.cfName;
             cf = ArrayBackedSortedColumns.factory.create(cfm);
             modifications.put(cfm.cfId, cf);
         }
@@ -159,10 +159,11 @@ public class PagedRangeCommand extends AbstractRangeCommand
             String columnFamily = in.readUTF();
             long timestamp = in.readLong();
 
+            CFMetaData metadata = Schema.instance.getCFMetaData(keyspace, columnFamily);
+            // the keys of the range are those of the table
             AbstractBounds<RowPosition> keyRange =
-                    AbstractBounds.rowPositionSerializer.deserialize(in, MessagingService.globalPartitioner(), version);
+                    AbstractBounds.rowPositionSerializer.deserialize(in, metadata == null ? MessagingService.globalPartitioner() : metadata.partitioner(), version);
 
-            CFMetaData metadata = Schema.instance.getCFMetaData(keyspace, columnFamily);
             if (metadata == null)
             {
                 String message = String.format("Got paged range command for nonexistent table %s.%s.  If the table was just " +
@@ -43,7 +43,15 @@ public class Row
 
     public Row(ByteBuffer key, ColumnFamily updates)
     {
-        this(StorageService.getPartitioner().decorateKey(key), updates);
+        this(decorateKey(key, updates), updates);
+    }
+
+    /**
+     * @return the key decorated by the partitioner of the table of {@code cf}, or by the configured one if there is no data
+     */
+    private static DecoratedKey decorateKey(ByteBuffer key, ColumnFamily cf)
+    {
+        return cf == null ? StorageService.getPartitioner().decorateKey(key) : cf.metadata().decorateKey(key);
     }
 
     @Override
@@ -70,8 +78,9 @@ public class Row
 
         public Row deserialize(DataInput in, int version, ColumnSerializer.Flag flag) throws IOException
         {
-            return new Row(StorageService.getPartitioner().decorateKey(ByteBufferUtil.readWithShortLength(in)),
-                           ColumnFamily.serializer.deserialize(in, flag, version));
+            ByteBuffer key = ByteBufferUtil.readWithShortLength(in);
+            ColumnFamily cf = ColumnFamily.serializer.deserialize(in, flag, version);
+            return new Row(decorateKey(key, cf), cf);
         }
 
         public Row deserialize(DataInput in, int version) throws IOException
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.nio.ByteBuffer;
+
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.utils.SimilarityBloomFilter;
+
+/**
+ * A key of the SimilarityPartitioner, caching its LSH buckets so that they are computed by the first
+ * SimilarityBloomFilter checked during a read and only looked up by the other ones.
+ */
+public class SimilarityDecoratedKey extends BufferDecoratedKey
+{
+    volatile SimilarityBloomFilter.Signature signature;
+
+    public SimilarityDecoratedKey(Token token, ByteBuffer key)
+    {
+        super(token, key);
+    }
+
+    public SimilarityBloomFilter.Signature getSignature()
+    {
+        return signature;
+    }
+
+    public void setSignature(SimilarityBloomFilter.Signature signature)
+    {
+        this.signature = signature;
+    }
+}
@@ -0,0 +1,513 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.google.common.base.Objects;
+
+import org.apache.cassandra.cache.SimilarityCache;
+import org.apache.cassandra.cache.SimilarityCacheKey;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.composites.Composites;
+import org.apache.cassandra.db.filter.ColumnSlice;
+import org.apache.cassandra.db.filter.SliceQueryFilter;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.IVersionedSerializer;
+import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.net.MessageOut;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.serializers.VectorSerializer;
+import org.apache.cassandra.service.CacheService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.Pair;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
+
+/**
+ * Reads the live partitions nearest to one or more query vectors within a range of buckets of the
+ * SimilarityPartitioner ring, each with its first live cell. The replicas search their vector indexes, or scan the
+ * range once for all the query vectors when some sstable has none, and only return the {@code limit} nearest
+ * partitions they hold for each query vector, so that the coordinator of a similarity query merges a bounded number
+ * of candidates per range whatever the size of the buckets.
+ *
+ * The rows are returned in ring order, for the replies of the replicas to be merged as those of any range read; a
+ * partition near several query vectors is returned once. The replicas cache the keys they return for each query
+ * vector in the similarity cache until a bucket it probed is written to.
+ */
+public class SimilarityRangeCommand extends AbstractRangeCommand
+{
+    public static final IVersionedSerializer<SimilarityRangeCommand> serializer = new Serializer();
+
+    private static final Comparator<Row> byKey = new Comparator<Row>()
+    {
+        public int compare(Row r1, Row r2)
+        {
+            return r1.key.compareTo(r2.key);
+        }
+    };
+
+    private static final Comparator<Pair<Double, Row>> farthestFirst = new Comparator<Pair<Double, Row>>()
+    {
+        public int compare(Pair<Double, Row> p1, Pair<Double, Row> p2)
+        {
+            return Double.compare(p2.left, p1.left);
+        }
+    };
+
+    /**
+     * The query vectors, as partition keys.
+     */
+    public final List<ByteBuffer> queries;
+
+    /**
+     * For each query vector, the signatures of the buckets it probes within the range.
+     */
+    public final List<List<long[]>> probes;
+
+    /**
+     * The number of partitions to return for each query vector.
+     */
+    public final int limit;
+
+    public SimilarityRangeCommand(String keyspace,
+                                  String columnFamily,
+                                  long timestamp,
+                                  AbstractBounds<RowPosition> keyRange,
+                                  ByteBuffer query,
+                                  List<long[]> probes,
+                                  int limit)
+    {
+        this(keyspace, columnFamily, timestamp, keyRange, Collections.singletonList(query), Collections.singletonList(probes), limit);
+    }
+
+    public SimilarityRangeCommand(String keyspace,
+                                  String columnFamily,
+                                  long timestamp,
+                                  AbstractBounds<RowPosition> keyRange,
+                                  List<ByteBuffer> queries,
+                                  List<List<long[]>> probes,
+                                  int limit)
+    {
+        super(keyspace, columnFamily, timestamp, keyRange, new SliceQueryFilter(ColumnSlice.ALL_COLUMNS_ARRAY, false, 1), Collections.<IndexExpression>emptyList());
+        assert queries.size() == probes.size();
+        this.queries = queries;
+        this.probes = probes;
+        this.limit = limit;
+    }
+
+    /**
+     * @return the signatures of {@code probes} whose bucket lies within {@code range}
+     */
+    public static List<long[]> probesWithin(AbstractBounds<RowPosition> range, List<long[]> probes)
+    {
+        List<long[]> within = new ArrayList<>(probes.size());
+        for (long[] probe : probes)
+        {
+            Token bucket = new SimilarityPartitioner.BinaryToken(probe, probe.length);
+            if (range.contains(bucket.minKeyBound()) || range.contains(bucket.maxKeyBound()))
+                within.add(probe);
+        }
+        return within;
+    }
+
+    public MessageOut<SimilarityRangeCommand> createMessage()
+    {
+        return new MessageOut<>(MessagingService.Verb.SIMILARITY_RANGE, this, serializer);
+    }
+
+    /**
+     * Nodes older than {@link MessagingService#VERSION_SIMILARITY} don't know the SIMILARITY_RANGE verb: they are sent
+     * a plain range slice of the first live cell of every partition of the range, which the coordinator ranks along
+     * with the nearest partitions returned by the other replicas.
+     */
+    @Override
+    public MessageOut<? extends AbstractRangeCommand> createMessage(int version)
+    {
+        if (version >= MessagingService.VERSION_SIMILARITY)
+            return createMessage();
+
+        return new RangeSliceCommand(keyspace, columnFamily, timestamp, predicate, keyRange, Integer.MAX_VALUE).createMessage();
+    }
+
+    /**
+     * The query vectors probing no bucket of {@code subRange} are left out of the command.
+     */
+    public AbstractRangeCommand forSubRange(AbstractBounds<RowPosition> subRange)
+    {
+        List<ByteBuffer> subQueries = new ArrayList<>(queries.size());
+        List<List<long[]>> subProbes = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++)
+        {
+            List<long[]> within = probesWithin(subRange, probes.get(i));
+            if (within.isEmpty())
+                continue;
+
+            subQueries.add(queries.get(i));
+            subProbes.add(within);
+        }
+        return new SimilarityRangeCommand(keyspace, columnFamily, timestamp, subRange, subQueries, subProbes, limit);
+    }
+
+    public AbstractRangeCommand withUpdatedLimit(int newLimit)
+    {
+        return new SimilarityRangeCommand(keyspace, columnFamily, timestamp, keyRange, queries, probes, newLimit);
+    }
+
+    public int limit()
+    {
+        return limit;
+    }
+
+    public boolean countCQL3Rows()
+    {
+        return false;
+    }
+
+    /**
+     * The rows are the nearest partitions, not the first ones of the range: they cannot be resumed after the last.
+     */
+    @Override
+    public boolean supportsPaging()
+    {
+        return false;
+    }
+
+    /**
+     * The replicas may return different partitions, all of them are candidates for the coordinator to rank.
+     */
+    @Override
+    public List<Row> postReconciliationProcessing(List<Row> rows)
+    {
+        return rows;
+    }
+
+    public List<Row> executeLocally()
+    {
+        ColumnFamilyStore cfs = Keyspace.open(keyspace).getColumnFamilyStore(columnFamily);
+        VectorSerializer layout = SimilarityPartitioner.keyLayout(cfs.partitioner);
+        SimilarityCache cache = CacheService.instance.similarityCache;
+
+        Map<DecoratedKey, Row> rows = new HashMap<>();
+        // the query vectors whose neighbours are neither cached nor indexed, searched by a single scan of the range
+        List<Integer> scanned = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++)
+        {
+            if (!scanned.isEmpty())
+            {
+                // the index can't be searched for the previous query vector, nor for this one
+                if (!addCachedNeighbours(cfs, cache, i, rows))
+                    scanned.add(i);
+                continue;
+            }
+
+            List<Row> neighbours = searchNeighbours(cfs, cache, layout, i);
+            if (neighbours == null)
+            {
+                scanned.add(i);
+                continue;
+            }
+            for (Row row : neighbours)
+                rows.put(row.key, row);
+        }
+        if (!scanned.isEmpty())
+        {
+            // the scan reads the whole range, not only the probed buckets whose writes invalidate the cache
+            for (Row row : scan(cfs, layout, scanned))
+                rows.put(row.key, row);
+        }
+
+        List<Row> sorted = new ArrayList<>(rows.values());
+        Collections.sort(sorted, byKey);
+        return sorted;
+    }
+
+    /**
+     * Returns the cached neighbours of the {@code query}-th query vector, or those found in the vector indexes of the
+     * range, or null if some sstable of the range has no index.
+     */
+    private List<Row> searchNeighbours(ColumnFamilyStore cfs, SimilarityCache cache, VectorSerializer layout, int query)
+    {
+        SimilarityCacheKey cacheKey = cacheKey(cfs, cache, query);
+        List<Row> rows = cacheKey == null ? null : cachedNeighbours(cfs, cache, cacheKey);
+        if (rows != null)
+            return rows;
+
+        // the version is taken before reading, so that the writes racing with the read invalidate the result
+        int[] slots = null;
+        long version = 0;
+        if (cacheKey != null)
+        {
+            slots = cache.slots(cfs.metadata.ksAndCFName, probes.get(query));
+            version = cache.version(slots);
+        }
+
+        double[] vector = RandomHyperplaneHash.vector(queries.get(query), layout);
+        rows = cfs.getSimilarityCandidates(Collections.singletonList(keyRange), probes.get(query), vector, limit, timestamp);
+        if (rows != null && cacheKey != null)
+        {
+            List<ByteBuffer> neighbours = new ArrayList<>(rows.size());
+            for (Row row : rows)
+                neighbours.add(row.key.getKey());
+            cache.put(cacheKey, neighbours, slots, version);
+        }
+        return rows;
+    }
+
+    /**
+     * Adds the cached neighbours of the {@code query}-th query vector to {@code rows}.
+     *
+     * @return whether they were cached
+     */
+    private boolean addCachedNeighbours(ColumnFamilyStore cfs, SimilarityCache cache, int query, Map<DecoratedKey, Row> rows)
+    {
+        SimilarityCacheKey cacheKey = cacheKey(cfs, cache, query);
+        List<Row> cached = cacheKey == null ? null : cachedNeighbours(cfs, cache, cacheKey);
+        if (cached == null)
+            return false;
+
+        for (Row row : cached)
+            rows.put(row.key, row);
+        return true;
+    }
+
+    private SimilarityCacheKey cacheKey(ColumnFamilyStore cfs, SimilarityCache cache, int query)
+    {
+        return cache.isEnabled() ? new SimilarityCacheKey(cfs.metadata.ksAndCFName, queries.get(query), limit, probes.get(query)) : null;
+    }
+
+    /**
+     * Returns the cached neighbours with their first live cell, or null if they are not cached or if one of them has
+     * expired since, in which case the buckets have to be searched again.
+     */
+    private List<Row> cachedNeighbours(ColumnFamilyStore cfs, SimilarityCache cache, SimilarityCacheKey cacheKey)
+    {
+        List<ByteBuffer> cached = cache.getNeighbours(cacheKey);
+        if (cached == null)
+            return null;
+
+        List<Row> rows = new ArrayList<>(cached.size());
+        for (ByteBuffer neighbour : cached)
+        {
+            DecoratedKey key = cfs.partitioner.decorateKey(neighbour);
+            ColumnFamily cf = cfs.getColumnFamily(key, Composites.EMPTY, Composites.EMPTY, false, 1, timestamp);
+            if (cf == null || cf.hasOnlyTombstones(timestamp))
+            {
+                cache.remove(cacheKey);
+                return null;
+            }
+            rows.add(new Row(key, cf));
+        }
+        return rows;
+    }
+
+    /**
+     * Scans the range a page at a time, keeping the {@code limit} nearest live partitions of each of the
+     * {@code scanned} query vectors. With several query vectors, a partition is only ranked against those that
+     * probed its bucket.
+     */
+    private List<Row> scan(ColumnFamilyStore cfs, VectorSerializer layout, List<Integer> scanned)
+    {
+        if (limit <= 0)
+            return new ArrayList<>();
+
+        double[][] vectors = new double[scanned.size()][];
+        // the nearest partitions so far of each query vector, furthest first
+        List<PriorityQueue<Pair<Double, Row>>> nearest = new ArrayList<>(scanned.size());
+        // the query vectors probing each bucket, by the token of the bucket, as indexes into scanned
+        Map<Token, List<Integer>> probing = new HashMap<>();
+        for (int i = 0; i < scanned.size(); i++)
+        {
+            vectors[i] = RandomHyperplaneHash.vector(queries.get(scanned.get(i)), layout);
+            nearest.add(new PriorityQueue<>(Math.min(limit, 64), farthestFirst));
+            for (long[] probe : probes.get(scanned.get(i)))
+            {
+                Token bucket = new SimilarityPartitioner.BinaryToken(probe, probe.length);
+                List<Integer> indexes = probing.get(bucket);
+                if (indexes == null)
+                {
+                    indexes = new ArrayList<>();
+                    probing.put(bucket, indexes);
+                }
+                indexes.add(i);
+            }
+        }
+        // the range of a single query vector was planned for it: all of its partitions are ranked
+        List<Integer> all = queries.size() == 1 ? Collections.singletonList(0) : null;
+
+        int pageSize = DatabaseDescriptor.getSimilarityProbePageSize();
+        AbstractBounds<RowPosition> range = keyRange;
+        while (range != null)
+        {
+            List<Row> page = cfs.getRangeSlice(range, null, predicate.cloneShallow(), pageSize, timestamp);
+            for (Row row : page)
+            {
+                if (row.cf == null || row.cf.hasOnlyTombstones(timestamp))
+                    continue;
+
+                List<Integer> ranked = all == null ? probing.get(row.key.getToken()) : all;
+                if (ranked == null)
+                    continue;
+
+                double[] candidate = RandomHyperplaneHash.vector(row.key.getKey(), layout);
+                for (int i : ranked)
+                {
+                    double distance = RandomHyperplaneHash.cosineDistance(vectors[i], candidate);
+                    PriorityQueue<Pair<Double, Row>> queue = nearest.get(i);
+                    if (queue.size() < limit)
+                        queue.add(Pair.create(distance, row));
+                    else if (distance < queue.peek().left)
+                    {
+                        queue.poll();
+                        queue.add(Pair.create(distance, row));
+                    }
+                }
+            }
+
+            if (page.size() < pageSize)
+                break;
+            Pair<AbstractBounds<RowPosition>, AbstractBounds<RowPosition>> split = range.split(page.get(page.size() - 1).key);
+            range = split == null ? null : split.right;
+        }
+
+        List<Row> rows = new ArrayList<>();
+        for (PriorityQueue<Pair<Double, Row>> queue : nearest)
+        {
+            for (Pair<Double, Row> neighbour : queue)
+                rows.add(neighbour.right);
+        }
+        return rows;
+    }
+
+    @Override
+    public String toString()
+    {
+        List<String> hexQueries = new ArrayList<>(queries.size());
+        int probeCount = 0;
+        for (int i = 0; i < queries.size(); i++)
+        {
+            hexQueries.add(ByteBufferUtil.bytesToHex(queries.get(i)));
+            probeCount += probes.get(i).size();
+        }
+        return Objects.toStringHelper(this)
+                      .add("keyspace", keyspace)
+                      .add("columnFamily", columnFamily)
+                      .add("keyRange", keyRange)
+                      .add("queries", hexQueries)
+                      .add("probes", probeCount)
+                      .add("limit", limit)
+                      .add("timestamp", timestamp)
+                      .toString();
+    }
+
+    private static class Serializer implements IVersionedSerializer<SimilarityRangeCommand>
+    {
+        public void serialize(SimilarityRangeCommand cmd, DataOutputPlus out, int version) throws IOException
+        {
+            out.writeUTF(cmd.keyspace);
+            out.writeUTF(cmd.columnFamily);
+            out.writeLong(cmd.timestamp);
+
+            MessagingService.validatePartitioner(cmd.keyRange);
+            AbstractBounds.rowPositionSerializer.serialize(cmd.keyRange, out, version);
+
+            out.writeInt(cmd.queries.size());
+            for (int i = 0; i < cmd.queries.size(); i++)
+            {
+                ByteBufferUtil.writeWithShortLength(cmd.queries.get(i), out);
+                List<long[]> probes = cmd.probes.get(i);
+                out.writeInt(probes.size());
+                for (long[] probe : probes)
+                {
+                    out.writeByte(probe.length);
+                    for (long word : probe)
+                        out.writeLong(word);
+                }
+            }
+            out.writeInt(cmd.limit);
+        }
+
+        public SimilarityRangeCommand deserialize(DataInput in, int version) throws IOException
+        {
+            String keyspace = in.readUTF();
+            String columnFamily = in.readUTF();
+            long timestamp = in.readLong();
+
+            CFMetaData metadata = Schema.instance.getCFMetaData(keyspace, columnFamily);
+            if (metadata == null)
+            {
+                String message = String.format("Got similarity range command for nonexistent table %s.%s.  If the table was just " +
+                        "created, this is likely due to the schema not being fully propagated.  Please wait for schema " +
+                        "agreement on table creation." , keyspace, columnFamily);
+                throw new UnknownColumnFamilyException(message, null);
+            }
+
+            AbstractBounds<RowPosition> keyRange = AbstractBounds.rowPositionSerializer.deserialize(in, metadata.partitioner(), version);
+
+            int queryCount = in.readInt();
+            List<ByteBuffer> queries = new ArrayList<>(queryCount);
+            List<List<long[]>> probes = new ArrayList<>(queryCount);
+            for (int q = 0; q < queryCount; q++)
+            {
+                queries.add(ByteBufferUtil.readWithShortLength(in));
+                int count = in.readInt();
+                List<long[]> queryProbes = new ArrayList<>(count);
+                for (int i = 0; i < count; i++)
+                {
+                    long[] probe = new long[in.readUnsignedByte()];
+                    for (int w = 0; w < probe.length; w++)
+                        probe[w] = in.readLong();
+                    queryProbes.add(probe);
+                }
+                probes.add(queryProbes);
+            }
+            int limit = in.readInt();
+            return new SimilarityRangeCommand(keyspace, columnFamily, timestamp, keyRange, queries, probes, limit);
+        }
+
+        public long serializedSize(SimilarityRangeCommand cmd, int version)
+        {
+            long size = TypeSizes.NATIVE.sizeof(cmd.keyspace);
+            size += TypeSizes.NATIVE.sizeof(cmd.columnFamily);
+            size += TypeSizes.NATIVE.sizeof(cmd.timestamp);
+            size += AbstractBounds.rowPositionSerializer.serializedSize(cmd.keyRange, version);
+            size += TypeSizes.NATIVE.sizeof(cmd.queries.size());
+            for (int i = 0; i < cmd.queries.size(); i++)
+            {
+                size += TypeSizes.NATIVE.sizeofWithShortLength(cmd.queries.get(i));
+                size += TypeSizes.NATIVE.sizeof(cmd.probes.get(i).size());
+                for (long[] probe : cmd.probes.get(i))
+                    size += 1 + probe.length * TypeSizes.NATIVE.sizeof(0L);
+            }
+            size += TypeSizes.NATIVE.sizeof(cmd.limit);
+            return size;
+        }
+    }
+}
@@ -27,7 +27,6 @@ import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.filter.*;
 import org.apache.cassandra.io.IVersionedSerializer;
 import org.apache.cassandra.io.util.DataOutputPlus;
-import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.ByteBufferUtil;
 
 public class SliceByNamesReadCommand extends ReadCommand
@@ -49,7 +48,7 @@ public class SliceByNamesReadCommand extends ReadCommand
 
     public Row getRow(Keyspace keyspace)
     {
-        DecoratedKey dk = StorageService.getPartitioner().decorateKey(key);
+        DecoratedKey dk = Schema.instance.getCFMetaData(ksName, cfName).decorateKey(key);
         return keyspace.getRow(new QueryFilter(dk, cfName, filter, timestamp));
     }
 
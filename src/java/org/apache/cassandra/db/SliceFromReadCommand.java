@@ -33,7 +33,6 @@ import org.apache.cassandra.db.filter.SliceQueryFilter;
 import org.apache.cassandra.io.IVersionedSerializer;
 import org.apache.cassandra.io.util.DataOutputPlus;
 import org.apache.cassandra.service.RowDataResolver;
-import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.Pair;
 
@@ -59,7 +58,7 @@ public class SliceFromReadCommand extends ReadCommand
     public Row getRow(Keyspace keyspace)
     {
         CFMetaData cfm = Schema.instance.getCFMetaData(ksName, cfName);
-        DecoratedKey dk = StorageService.getPartitioner().decorateKey(key);
+        DecoratedKey dk = cfm.decorateKey(key);
 
         // If we're doing a reversed query and the filter includes static columns, we need to issue two separate
         // reads in order to guarantee that the static columns are fetched.  See CASSANDRA-8502 for more details.
@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import java.util.*;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.cql3.statements.CFPropDefs;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.compaction.writers.CompactionAwareWriter;
+import org.apache.cassandra.db.compaction.writers.SimilarityCompactionWriter;
+import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
+
+/**
+ * Compaction strategy keeping the sstables aligned on families of adjacent buckets of the SimilarityPartitioner.
+ *
+ * Buckets whose Gray ranks share their first {@code prefix_bits} bits form a family: adjacent Gray ranks being
+ * Hamming neighbours, the buckets probed for a query mostly fall into one or two families. Compactions split their
+ * output on family boundaries, so that a similarity read only touches the sstables of the families it probes.
+ *
+ * The sstables spanning several families, typically flushed from memtables, are split first, as soon as
+ * {@code min_threshold} of them are waiting. The sstables of each family are then compacted together, tiered by
+ * size as by the {@link SizeTieredCompactionStrategy}. With another partitioner, or no hyperplanes, every sstable
+ * is in the same family and the strategy degrades to size tiering.
+ */
+public class SimilarityCompactionStrategy extends AbstractCompactionStrategy
+{
+    private static final Logger logger = LoggerFactory.getLogger(SimilarityCompactionStrategy.class);
+
+    protected SimilarityCompactionStrategyOptions similarityOptions;
+    protected volatile int estimatedRemainingTasks;
+    private final Set<SSTableReader> sstables = new HashSet<>();
+    private final int planes;
+    private final int prefixBits;
+
+    public SimilarityCompactionStrategy(ColumnFamilyStore cfs, Map<String, String> options)
+    {
+        super(cfs, options);
+        this.estimatedRemainingTasks = 0;
+        this.similarityOptions = new SimilarityCompactionStrategyOptions(options);
+        this.planes = cfs.partitioner instanceof SimilarityPartitioner && DatabaseDescriptor.hasVectors()
+                      ? RandomHyperplaneHash.instance().planes()
+                      : 0;
+        this.prefixBits = Math.min(similarityOptions.prefixBits, planes);
+    }
+
+    /**
+     * @return the family of the buckets sharing the first {@code bits} bits of the Gray rank of {@code token}, 0 if
+     * the token is not a SimilarityPartitioner token
+     */
+    public static int family(Token token, int planes, int bits)
+    {
+        if (bits == 0 || !(token instanceof SimilarityPartitioner.BinaryToken))
+            return 0;
+        return ((SimilarityPartitioner.BinaryToken) token).prefix(planes, bits);
+    }
+
+    /**
+     * @return the number of families covered by the token ranges of {@code sstables}, at least 1
+     */
+    public static int spannedFamilies(Collection<SSTableReader> sstables, int planes, int bits)
+    {
+        BitSet spanned = new BitSet(1 << bits);
+        for (SSTableReader sstable : sstables)
+            spanned.set(family(sstable.first.getToken(), planes, bits), family(sstable.last.getToken(), planes, bits) + 1);
+        return Math.max(1, spanned.cardinality());
+    }
+
+    private boolean isAligned(SSTableReader sstable)
+    {
+        return family(sstable.first.getToken(), planes, prefixBits) == family(sstable.last.getToken(), planes, prefixBits);
+    }
+
+    private List<SSTableReader> getNextBackgroundSSTables(final int gcBefore)
+    {
+        // make local copies so they can't be changed out from under us mid-method
+        int minThreshold = cfs.getMinimumCompactionThreshold();
+        int maxThreshold = cfs.getMaximumCompactionThreshold();
+
+        Iterable<SSTableReader> candidates = filterSuspectSSTables(Sets.intersection(cfs.getUncompactingSSTables(), sstables));
+
+        List<SSTableReader> unaligned = new ArrayList<>();
+        Map<Integer, List<SSTableReader>> families = new TreeMap<>();
+        for (SSTableReader sstable : candidates)
+        {
+            if (!isAligned(sstable))
+            {
+                unaligned.add(sstable);
+                continue;
+            }
+            int family = family(sstable.first.getToken(), planes, prefixBits);
+            List<SSTableReader> members = families.get(family);
+            if (members == null)
+                families.put(family, members = new ArrayList<>());
+            members.add(sstable);
+        }
+
+        List<List<SSTableReader>> buckets = new ArrayList<>();
+        for (List<SSTableReader> members : families.values())
+        {
+            buckets.addAll(SizeTieredCompactionStrategy.getBuckets(SizeTieredCompactionStrategy.createSSTableAndLengthPairs(members),
+                                                                   similarityOptions.sizeTieredOptions.bucketHigh,
+                                                                   similarityOptions.sizeTieredOptions.bucketLow,
+                                                                   similarityOptions.sizeTieredOptions.minSSTableSize));
+        }
+        logger.trace("{} unaligned sstables, compaction buckets are {}", unaligned.size(), buckets);
+        updateEstimatedCompactionsByTasks(unaligned, buckets);
+
+        // the unaligned sstables are read for the probes of every family they span: split them first
+        if (unaligned.size() >= minThreshold)
+            return SizeTieredCompactionStrategy.trimToThresholdWithHotness(unaligned, maxThreshold).left;
+
+        List<SSTableReader> mostInteresting = SizeTieredCompactionStrategy.mostInterestingBucket(buckets, minThreshold, maxThreshold);
+        if (!mostInteresting.isEmpty())
+            return mostInteresting;
+
+        // if there is no sstable to compact in standard way, try compacting single sstable whose droppable tombstone
+        // ratio is greater than threshold.
+        List<SSTableReader> sstablesWithTombstones = new ArrayList<>();
+        for (SSTableReader sstable : candidates)
+        {
+            if (worthDroppingTombstones(sstable, gcBefore))
+                sstablesWithTombstones.add(sstable);
+        }
+        if (sstablesWithTombstones.isEmpty())
+            return Collections.emptyList();
+
+        Collections.sort(sstablesWithTombstones, new SSTableReader.SizeComparator());
+        return Collections.singletonList(sstablesWithTombstones.get(0));
+    }
+
+    @SuppressWarnings("resource")
+    public synchronized AbstractCompactionTask getNextBackgroundTask(int gcBefore)
+    {
+        while (true)
+        {
+            List<SSTableReader> toCompact = getNextBackgroundSSTables(gcBefore);
+
+            if (toCompact.isEmpty())
+                return null;
+
+            LifecycleTransaction transaction = cfs.getTracker().tryModify(toCompact, OperationType.COMPACTION);
+            if (transaction != null)
+                return new SimilarityCompactionTask(cfs, transaction, gcBefore, false, planes, prefixBits);
+        }
+    }
+
+    @SuppressWarnings("resource")
+    public Collection<AbstractCompactionTask> getMaximalTask(final int gcBefore, boolean splitOutput)
+    {
+        Iterable<SSTableReader> filteredSSTables = filterSuspectSSTables(sstables);
+        if (Iterables.isEmpty(filteredSSTables))
+            return null;
+        LifecycleTransaction txn = cfs.getTracker().tryModify(filteredSSTables, OperationType.COMPACTION);
+        if (txn == null)
+            return null;
+        // the output is split on family boundaries whether or not splitOutput is requested
+        return Arrays.<AbstractCompactionTask>asList(new SimilarityCompactionTask(cfs, txn, gcBefore, false, planes, prefixBits));
+    }
+
+    @SuppressWarnings("resource")
+    public AbstractCompactionTask getUserDefinedTask(Collection<SSTableReader> sstables, final int gcBefore)
+    {
+        assert !sstables.isEmpty(); // checked for by CM.submitUserDefined
+
+        LifecycleTransaction transaction = cfs.getTracker().tryModify(sstables, OperationType.COMPACTION);
+        if (transaction == null)
+        {
+            logger.trace("Unable to mark {} for compaction; probably a background compaction got to it first.  You can disable background compactions temporarily if this is a problem", sstables);
+            return null;
+        }
+
+        return new SimilarityCompactionTask(cfs, transaction, gcBefore, false, planes, prefixBits).setUserDefined(true);
+    }
+
+    @Override
+    public AbstractCompactionTask getCompactionTask(LifecycleTransaction txn, final int gcBefore, long maxSSTableBytes)
+    {
+        return new SimilarityCompactionTask(cfs, txn, gcBefore, false, planes, prefixBits);
+    }
+
+    public int getEstimatedRemainingTasks()
+    {
+        return estimatedRemainingTasks;
+    }
+
+    private void updateEstimatedCompactionsByTasks(List<SSTableReader> unaligned, List<List<SSTableReader>> tasks)
+    {
+        int n = 0;
+        if (unaligned.size() >= cfs.getMinimumCompactionThreshold())
+            n += Math.ceil((double) unaligned.size() / cfs.getMaximumCompactionThreshold());
+        for (List<SSTableReader> bucket : tasks)
+        {
+            if (bucket.size() >= cfs.getMinimumCompactionThreshold())
+                n += Math.ceil((double) bucket.size() / cfs.getMaximumCompactionThreshold());
+        }
+        estimatedRemainingTasks = n;
+    }
+
+    /**
+     * @return the number of sstables covering each family of buckets, indexed by family: the number of sstables
+     * a similarity read probing that family has to consider
+     */
+    public synchronized int[] getSSTableCountPerBucket()
+    {
+        int[] counts = new int[1 << prefixBits];
+        for (SSTableReader sstable : sstables)
+        {
+            int last = family(sstable.last.getToken(), planes, prefixBits);
+            for (int family = family(sstable.first.getToken(), planes, prefixBits); family <= last; family++)
+                counts[family]++;
+        }
+        return counts;
+    }
+
+    public long getMaxSSTableBytes()
+    {
+        return Long.MAX_VALUE;
+    }
+
+    public static Map<String, String> validateOptions(Map<String, String> options) throws ConfigurationException
+    {
+        Map<String, String> uncheckedOptions = AbstractCompactionStrategy.validateOptions(options);
+        uncheckedOptions = SimilarityCompactionStrategyOptions.validateOptions(options, uncheckedOptions);
+
+        uncheckedOptions.remove(CFPropDefs.KW_MINCOMPACTIONTHRESHOLD);
+        uncheckedOptions.remove(CFPropDefs.KW_MAXCOMPACTIONTHRESHOLD);
+
+        return uncheckedOptions;
+    }
+
+    @Override
+    public boolean shouldDefragment()
+    {
+        return true;
+    }
+
+    @Override
+    public synchronized void addSSTable(SSTableReader added)
+    {
+        sstables.add(added);
+    }
+
+    @Override
+    public synchronized void removeSSTable(SSTableReader sstable)
+    {
+        sstables.remove(sstable);
+    }
+
+    public String toString()
+    {
+        return String.format("SimilarityCompactionStrategy[%s/%s, %d prefix bits]",
+                             cfs.getMinimumCompactionThreshold(),
+                             cfs.getMaximumCompactionThreshold(),
+                             prefixBits);
+    }
+
+    private static class SimilarityCompactionTask extends CompactionTask
+    {
+        private final boolean offline;
+        private final int planes;
+        private final int prefixBits;
+
+        public SimilarityCompactionTask(ColumnFamilyStore cfs, LifecycleTransaction txn, int gcBefore, boolean offline, int planes, int prefixBits)
+        {
+            super(cfs, txn, gcBefore, offline);
+            this.offline = offline;
+            this.planes = planes;
+            this.prefixBits = prefixBits;
+        }
+
+        @Override
+        public CompactionAwareWriter getCompactionAwareWriter(ColumnFamilyStore cfs, LifecycleTransaction txn, Set<SSTableReader> nonExpiredSSTables)
+        {
+            return new SimilarityCompactionWriter(cfs, txn, nonExpiredSSTables, offline, compactionType, planes, prefixBits);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import java.util.Map;
+
+import org.apache.cassandra.exceptions.ConfigurationException;
+
+public final class SimilarityCompactionStrategyOptions
+{
+    protected static final int DEFAULT_PREFIX_BITS = 4;
+    protected static final int MAX_PREFIX_BITS = 16;
+    protected static final String PREFIX_BITS_KEY = "prefix_bits";
+
+    /**
+     * The number of leading bits of the Gray ranks sstables are aligned on: output sstables never span two
+     * families of buckets sharing a prefix of this many bits.
+     */
+    protected int prefixBits;
+    protected SizeTieredCompactionStrategyOptions sizeTieredOptions;
+
+    public SimilarityCompactionStrategyOptions(Map<String, String> options)
+    {
+        String optionValue = options.get(PREFIX_BITS_KEY);
+        prefixBits = optionValue == null ? DEFAULT_PREFIX_BITS : Integer.parseInt(optionValue);
+        sizeTieredOptions = new SizeTieredCompactionStrategyOptions(options);
+    }
+
+    public SimilarityCompactionStrategyOptions()
+    {
+        prefixBits = DEFAULT_PREFIX_BITS;
+        sizeTieredOptions = new SizeTieredCompactionStrategyOptions();
+    }
+
+    public static Map<String, String> validateOptions(Map<String, String> options, Map<String, String> uncheckedOptions) throws ConfigurationException
+    {
+        String optionValue = options.get(PREFIX_BITS_KEY);
+        try
+        {
+            int prefixBits = optionValue == null ? DEFAULT_PREFIX_BITS : Integer.parseInt(optionValue);
+            if (prefixBits < 0 || prefixBits > MAX_PREFIX_BITS)
+            {
+                throw new ConfigurationException(String.format("%s must be between 0 and %d: %d", PREFIX_BITS_KEY, MAX_PREFIX_BITS, prefixBits));
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            throw new ConfigurationException(String.format("%s is not a parsable int (base10) for %s", optionValue, PREFIX_BITS_KEY), e);
+        }
+
+        uncheckedOptions.remove(PREFIX_BITS_KEY);
+        uncheckedOptions = SizeTieredCompactionStrategyOptions.validateOptions(options, uncheckedOptions);
+
+        return uncheckedOptions;
+    }
+}
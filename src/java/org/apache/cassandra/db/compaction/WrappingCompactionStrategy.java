@@ -198,6 +198,17 @@ public final class WrappingCompactionStrategy extends AbstractCompactionStrategy
         return null;
     }
 
+    public synchronized int[] getSSTableCountPerBucket()
+    {
+        if (this.repaired instanceof SimilarityCompactionStrategy && this.unrepaired instanceof SimilarityCompactionStrategy)
+        {
+            int[] repairedCountPerBucket = ((SimilarityCompactionStrategy) repaired).getSSTableCountPerBucket();
+            int[] unrepairedCountPerBucket = ((SimilarityCompactionStrategy) unrepaired).getSSTableCountPerBucket();
+            return sumArrays(repairedCountPerBucket, unrepairedCountPerBucket);
+        }
+        return null;
+    }
+
     public static int [] sumArrays(int[] a, int [] b)
     {
         int [] res = new int[Math.max(a.length, b.length)];
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction.writers;
+
+import java.io.File;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.RowIndexEntry;
+import org.apache.cassandra.db.compaction.AbstractCompactedRow;
+import org.apache.cassandra.db.compaction.OperationType;
+import org.apache.cassandra.db.compaction.SimilarityCompactionStrategy;
+import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.format.SSTableWriter;
+import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
+
+/**
+ * CompactionAwareWriter that starts a new sstable whenever the Gray rank prefix of the partitions changes, so that
+ * every sstable written holds a single family of adjacent buckets.
+ *
+ * The partitions are expected in token order, each family being written in one go.
+ */
+public class SimilarityCompactionWriter extends CompactionAwareWriter
+{
+    private static final Logger logger = LoggerFactory.getLogger(SimilarityCompactionWriter.class);
+
+    private final Set<SSTableReader> allSSTables;
+    private final int planes;
+    private final int prefixBits;
+    private final long expectedWriteSize;
+    private final long keysPerFamily;
+    private int currentFamily = -1;
+
+    @SuppressWarnings("resource")
+    public SimilarityCompactionWriter(ColumnFamilyStore cfs,
+                                      LifecycleTransaction txn,
+                                      Set<SSTableReader> nonExpiredSSTables,
+                                      boolean offline,
+                                      OperationType compactionType,
+                                      int planes,
+                                      int prefixBits)
+    {
+        super(cfs, txn, nonExpiredSSTables, offline);
+        this.allSSTables = txn.originals();
+        this.planes = planes;
+        this.prefixBits = prefixBits;
+
+        // the keys are assumed to spread evenly over the families the input spans
+        int spanned = SimilarityCompactionStrategy.spannedFamilies(nonExpiredSSTables, planes, prefixBits);
+        long totalSize = cfs.getExpectedCompactedFileSize(nonExpiredSSTables, compactionType);
+        this.expectedWriteSize = Math.max(1, totalSize / spanned);
+        this.keysPerFamily = Math.max(1, estimatedTotalKeys / spanned);
+        switchWriter();
+    }
+
+    @SuppressWarnings("resource")
+    private void switchWriter()
+    {
+        File sstableDirectory = cfs.directories.getLocationForDisk(getWriteDirectory(expectedWriteSize));
+        SSTableWriter writer = SSTableWriter.create(Descriptor.fromFilename(cfs.getTempSSTablePath(sstableDirectory)),
+                                                    keysPerFamily,
+                                                    minRepairedAt,
+                                                    cfs.metadata,
+                                                    cfs.partitioner,
+                                                    new MetadataCollector(allSSTables, cfs.metadata.comparator, 0));
+        sstableWriter.switchWriter(writer);
+    }
+
+    @Override
+    public boolean append(AbstractCompactedRow row)
+    {
+        int family = SimilarityCompactionStrategy.family(row.key.getToken(), planes, prefixBits);
+        if (family != currentFamily)
+        {
+            // the first writer is opened upfront, as the other writers do
+            if (currentFamily >= 0)
+            {
+                switchWriter();
+                logger.trace("Switching writer for bucket family {}", family);
+            }
+            currentFamily = family;
+        }
+        RowIndexEntry rie = sstableWriter.append(row);
+        return rie != null;
+    }
+}
@@ -317,6 +317,37 @@ public class TypeParser
         throw new SyntaxException(String.format("Syntax error parsing '%s' at char %d: unexpected end of string", str, idx));
     }
 
+    /**
+     * Parses the parameters of a vector type: its element type and its dimension, as in {@code (FloatType,128)}.
+     */
+    public Pair<AbstractType<?>, Integer> getVectorParameters() throws SyntaxException, ConfigurationException
+    {
+        if (isEOS() || str.charAt(idx) != '(')
+            throwSyntaxError("expecting the element type and the dimension of a vector");
+
+        ++idx; // skipping '('
+        skipBlank();
+        AbstractType<?> elements = parse();
+        if (!skipBlankAndComma())
+            throwSyntaxError("unexpected end of string");
+
+        String dimension = readNextIdentifier();
+        skipBlank();
+        if (isEOS() || str.charAt(idx) != ')')
+            throwSyntaxError("expecting ')'");
+        ++idx;
+
+        try
+        {
+            return Pair.<AbstractType<?>, Integer>create(elements, Integer.parseInt(dimension));
+        }
+        catch (NumberFormatException e)
+        {
+            throwSyntaxError("invalid vector dimension '" + dimension + "'");
+            return null;
+        }
+    }
+
     private ByteBuffer fromHex(String hex) throws SyntaxException
     {
         try
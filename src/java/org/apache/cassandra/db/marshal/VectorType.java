@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.marshal;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.cql3.CQL3Type;
+import org.apache.cassandra.cql3.Constants;
+import org.apache.cassandra.cql3.Term;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.exceptions.SyntaxException;
+import org.apache.cassandra.serializers.MarshalException;
+import org.apache.cassandra.serializers.VectorSerializer;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.Pair;
+
+/**
+ * A vector of a fixed number of floats or doubles, {@code vector<float, N>} or {@code vector<double, N>} in CQL.
+ *
+ * Values are packed little-endian components (see {@link VectorSerializer}), so that the partitioner, the filters
+ * and the distance functions can read a key in place. Vectors compare component by component.
+ */
+public class VectorType extends AbstractType<double[]>
+{
+    // interning instances
+    private static final Map<Pair<AbstractType<?>, Integer>, VectorType> instances = new HashMap<>();
+
+    private final AbstractType<?> elements;
+    private final VectorSerializer serializer;
+
+    public static VectorType getInstance(TypeParser parser) throws ConfigurationException, SyntaxException
+    {
+        Pair<AbstractType<?>, Integer> parameters = parser.getVectorParameters();
+        AbstractType<?> elements = parameters.left;
+        if (elements != FloatType.instance && elements != DoubleType.instance)
+            throw new ConfigurationException("The components of a vector must be floats or doubles, not " + elements.asCQL3Type());
+        if (parameters.right < 1)
+            throw new ConfigurationException("The dimension of a vector must be at least 1, not " + parameters.right);
+        return getInstance(elements, parameters.right);
+    }
+
+    /**
+     * @param elements {@link FloatType#instance} or {@link DoubleType#instance}
+     * @param dimension the number of components, at least 1
+     */
+    public static synchronized VectorType getInstance(AbstractType<?> elements, int dimension)
+    {
+        Pair<AbstractType<?>, Integer> key = Pair.<AbstractType<?>, Integer>create(elements, dimension);
+        VectorType t = instances.get(key);
+        if (t == null)
+        {
+            t = new VectorType(elements, dimension);
+            instances.put(key, t);
+        }
+        return t;
+    }
+
+    private VectorType(AbstractType<?> elements, int dimension)
+    {
+        assert elements == FloatType.instance || elements == DoubleType.instance : elements;
+        this.elements = elements;
+        this.serializer = VectorSerializer.getInstance(elements == FloatType.instance ? VectorSerializer.FLOAT_SIZE
+                                                                                      : VectorSerializer.DOUBLE_SIZE,
+                                                       dimension);
+    }
+
+    public AbstractType<?> getElementsType()
+    {
+        return elements;
+    }
+
+    public int dimension()
+    {
+        return serializer.dimension;
+    }
+
+    /**
+     * @return component {@code index} of the serialized vector {@code bytes}, read in place
+     */
+    public double get(ByteBuffer bytes, int index)
+    {
+        return serializer.get(bytes, index);
+    }
+
+    public boolean isEmptyValueMeaningless()
+    {
+        return true;
+    }
+
+    public int compare(ByteBuffer o1, ByteBuffer o2)
+    {
+        if (!o1.hasRemaining() || !o2.hasRemaining())
+            return o1.hasRemaining() ? 1 : o2.hasRemaining() ? -1 : 0;
+
+        for (int i = 0; i < serializer.dimension; i++)
+        {
+            int cmp = Double.compare(serializer.get(o1, i), serializer.get(o2, i));
+            if (cmp != 0)
+                return cmp;
+        }
+        return 0;
+    }
+
+    /**
+     * Parses comma separated components, optionally enclosed in square brackets.
+     */
+    public ByteBuffer fromString(String source) throws MarshalException
+    {
+        String trimmed = source.trim();
+        if (trimmed.isEmpty())
+            return ByteBufferUtil.EMPTY_BYTE_BUFFER;
+
+        if (trimmed.startsWith("[") && trimmed.endsWith("]"))
+            trimmed = trimmed.substring(1, trimmed.length() - 1);
+
+        String[] components = trimmed.split(",");
+        if (components.length != serializer.dimension)
+            throw new MarshalException(String.format("Expected %d components, got %d in '%s'", serializer.dimension, components.length, source));
+
+        double[] vector = new double[components.length];
+        for (int i = 0; i < components.length; i++)
+        {
+            try
+            {
+                vector[i] = Double.parseDouble(components[i].trim());
+            }
+            catch (NumberFormatException e)
+            {
+                throw new MarshalException(String.format("Unable to make a vector component from '%s'", components[i]), e);
+            }
+        }
+        return serializer.serialize(vector);
+    }
+
+    @Override
+    public Term fromJSONObject(Object parsed) throws MarshalException
+    {
+        if (parsed instanceof String)
+            return new Constants.Value(fromString((String) parsed));
+
+        if (!(parsed instanceof List))
+            throw new MarshalException(String.format("Expected a list of %d numbers, but got a %s: %s",
+                                                     serializer.dimension, parsed.getClass().getSimpleName(), parsed));
+
+        List<?> list = (List<?>) parsed;
+        if (list.size() != serializer.dimension)
+            throw new MarshalException(String.format("Expected a list of %d numbers, but got %d: %s", serializer.dimension, list.size(), parsed));
+
+        double[] vector = new double[list.size()];
+        for (int i = 0; i < vector.length; i++)
+        {
+            if (!(list.get(i) instanceof Number))
+                throw new MarshalException(String.format("Expected a number, but got a %s: %s", list.get(i).getClass().getSimpleName(), list.get(i)));
+            vector[i] = ((Number) list.get(i)).doubleValue();
+        }
+        return new Constants.Value(serializer.serialize(vector));
+    }
+
+    @Override
+    public String toJSONString(ByteBuffer buffer, int protocolVersion)
+    {
+        return getString(buffer);
+    }
+
+    @Override
+    public String getString(ByteBuffer bytes)
+    {
+        if (!bytes.hasRemaining())
+            return "";
+
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < serializer.dimension; i++)
+        {
+            if (i > 0)
+                sb.append(", ");
+            if (elements == FloatType.instance)
+                sb.append(VectorSerializer.getFloat(bytes, i));
+            else
+                sb.append(VectorSerializer.getDouble(bytes, i));
+        }
+        return sb.append(']').toString();
+    }
+
+    public CQL3Type asCQL3Type()
+    {
+        return CQL3Type.Vector.create(this);
+    }
+
+    public VectorSerializer getSerializer()
+    {
+        return serializer;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getName() + "(" + elements + "," + serializer.dimension + ")";
+    }
+}
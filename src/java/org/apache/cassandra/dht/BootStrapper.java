@@ -27,6 +27,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.config.Config;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.Keyspace;
@@ -37,6 +38,7 @@ import org.apache.cassandra.io.IVersionedSerializer;
 import org.apache.cassandra.io.util.DataOutputPlus;
 import org.apache.cassandra.locator.AbstractReplicationStrategy;
 import org.apache.cassandra.locator.TokenMetadata;
+import org.apache.cassandra.service.LoadBroadcaster;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.streaming.*;
 import org.apache.cassandra.utils.progress.ProgressEvent;
@@ -150,7 +152,7 @@ public class BootStrapper extends ProgressEventNotifierSupport
 
     /**
      * if initialtoken was specified, use that (split on comma).
-     * otherwise, if num_tokens == 1, pick a token to assume half the load of the most-loaded node.
+     * otherwise, with the SimilarityPartitioner and similarity_token_allocation: load, split the most loaded ranges.
      * else choose num_tokens tokens at random
      */
     public static Collection<Token> getBootstrapTokens(final TokenMetadata metadata) throws ConfigurationException
@@ -175,6 +177,14 @@ public class BootStrapper extends ProgressEventNotifierSupport
         if (numTokens < 1)
             throw new ConfigurationException("num_tokens must be >= 1");
 
+        if (StorageService.getPartitioner() instanceof SimilarityPartitioner
+            && DatabaseDescriptor.getSimilarityTokenAllocation() == Config.SimilarityTokenAllocation.load)
+        {
+            List<Token> tokens = SimilarityOccupancy.instance.getBalancedTokens(metadata, LoadBroadcaster.instance.getLoadInfo(), numTokens);
+            logger.info("Splitting the most loaded ranges of the ring with tokens {}", tokens);
+            return tokens;
+        }
+
         if (numTokens == 1)
             logger.warn("Picking random token for a single vnode.  You should probably add more vnodes; failing that, you should probably specify the token manually");
 
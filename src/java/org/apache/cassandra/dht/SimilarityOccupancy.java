@@ -0,0 +1,553 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.dht;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.Memtable;
+import org.apache.cassandra.db.RowPosition;
+import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.db.lifecycle.View;
+import org.apache.cassandra.gms.Gossiper;
+import org.apache.cassandra.io.IVersionedSerializer;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.locator.TokenMetadata;
+import org.apache.cassandra.net.IAsyncCallback;
+import org.apache.cassandra.net.MessageIn;
+import org.apache.cassandra.net.MessageOut;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
+
+/**
+ * Estimates how the keys stored on this node are spread over the ring of the {@link SimilarityPartitioner}.
+ *
+ * The ring is cut into {@code 2^min(planes, MAX_BITS)} cells of consecutive Gray ranks, and each cell counts the
+ * keys whose token falls in it: one per partition of the memtables, and {@code estimatedKeys / summarySize} per
+ * index summary entry of the sstables. The cells of an sstable are computed once, since sstables are immutable,
+ * and the histogram is rebuilt at most every {@code similarity_occupancy_refresh_in_ms}, so that asking for the
+ * ownership of the ring neither reads from disk nor hashes every key again.
+ */
+public class SimilarityOccupancy
+{
+    private static final Logger logger = LoggerFactory.getLogger(SimilarityOccupancy.class);
+
+    public static final int MAX_BITS = 16;
+
+    /**
+     * The histograms sent to the nodes joining the ring are cut into at most {@code 2^REPLY_BITS} cells.
+     */
+    public static final int REPLY_BITS = 12;
+
+    public static final SimilarityOccupancy instance = new SimilarityOccupancy();
+
+    private volatile Histogram histogram;
+    private volatile long builtAt;
+
+    // guarded by this
+    private final Map<Descriptor, int[]> sstableCells = new HashMap<>();
+
+    /**
+     * @return the histogram of the keys of this node, rebuilt if it is older than the configured refresh interval
+     */
+    public Histogram histogram()
+    {
+        Histogram current = histogram;
+        long refresh = TimeUnit.MILLISECONDS.toNanos(DatabaseDescriptor.getSimilarityOccupancyRefreshInMs());
+        if (current != null && System.nanoTime() - builtAt < refresh)
+            return current;
+
+        synchronized (this)
+        {
+            // another thread may have rebuilt it while we were waiting
+            if (histogram == current)
+            {
+                builtAt = System.nanoTime();
+                histogram = build(RandomHyperplaneHash.instance().planes());
+            }
+            return histogram;
+        }
+    }
+
+    private Histogram build(int planes)
+    {
+        double[] counts = new double[1 << Math.min(planes, MAX_BITS)];
+        Set<Descriptor> live = new HashSet<>();
+        for (Keyspace keyspace : Keyspace.all())
+        {
+            for (ColumnFamilyStore cfs : keyspace.getColumnFamilyStores())
+            {
+                // the system tables are partitioned locally
+                if (cfs.partitioner instanceof SimilarityPartitioner)
+                    addCounts(cfs, planes, counts, live);
+            }
+        }
+        sstableCells.keySet().retainAll(live);
+
+        Histogram histogram = new Histogram(planes, counts);
+        logger.debug("Rebuilt the occupancy histogram: {} keys in {} cells", (long) histogram.total(), counts.length);
+        return histogram;
+    }
+
+    /**
+     * @return the estimated number of keys of {@code cfs} in each of the {@code 2^min(planes, MAX_BITS)} cells of
+     * the ring
+     */
+    public synchronized double[] counts(ColumnFamilyStore cfs)
+    {
+        int planes = RandomHyperplaneHash.instance().planes();
+        double[] counts = new double[1 << Math.min(planes, MAX_BITS)];
+        addCounts(cfs, planes, counts, new HashSet<Descriptor>());
+        return counts;
+    }
+
+    // requires this
+    private void addCounts(ColumnFamilyStore cfs, int planes, double[] counts, Set<Descriptor> live)
+    {
+        View view = cfs.getTracker().getView();
+        for (SSTableReader sstable : view.sstables)
+        {
+            live.add(sstable.descriptor);
+            int[] cells = sstableCells.get(sstable.descriptor);
+            if (cells == null)
+            {
+                cells = cells(sstable, planes, counts.length);
+                sstableCells.put(sstable.descriptor, cells);
+            }
+            if (cells.length == 0)
+                continue;
+
+            double keysPerCell = (double) sstable.estimatedKeys() / cells.length;
+            for (int cell : cells)
+                counts[cell] += keysPerCell;
+        }
+
+        for (Memtable memtable : view.getAllMemtables())
+        {
+            for (RowPosition key : memtable.partitionKeys())
+                counts[cell(key.getToken(), planes, counts.length)]++;
+        }
+    }
+
+    /**
+     * @return the cell of each index summary entry of {@code sstable}
+     */
+    private static int[] cells(SSTableReader sstable, int planes, int cells)
+    {
+        int[] result = new int[sstable.getIndexSummarySize()];
+        for (int i = 0; i < result.length; i++)
+        {
+            Token token = sstable.partitioner.getToken(ByteBuffer.wrap(sstable.getIndexSummaryKey(i)));
+            result[i] = cell(token, planes, cells);
+        }
+        return result;
+    }
+
+    /**
+     * @return the cell of {@code token} when the ring of {@code planes} bits is cut into {@code cells} cells of
+     * consecutive Gray ranks, {@code cells} being a power of two
+     */
+    public static int cell(Token token, int planes, int cells)
+    {
+        return Math.min((int) (position(token, planes) * cells), cells - 1);
+    }
+
+    /**
+     * @return the rank of {@code token} divided by {@code 2^planes}, in [0, 1)
+     */
+    static double position(Token token, int planes)
+    {
+        double position = SimilarityPartitioner.fraction(((SimilarityPartitioner.BinaryToken) token).rank, planes);
+        return Math.min(position, Math.nextAfter(1.0, 0.0));
+    }
+
+    /**
+     * @return the token of rank {@code floor(position * 2^planes)}
+     */
+    static Token tokenAt(double position, int planes)
+    {
+        return SimilarityPartitioner.BinaryToken.fromRank(SimilarityPartitioner.rankAt(position, planes));
+    }
+
+    /**
+     * Picks tokens for a node joining the ring, each one splitting the range that is the most loaded at that
+     * point in two. The load of an endpoint, as gossiped, is spread over its ranges by their width; when no load
+     * is known, the widest ranges are split. Ranges are split where the histograms of the live nodes of the ring,
+     * added up, put half of their keys, or in their middle if they have none of them: the joining node holds no
+     * keys yet. Only the nodes of {@link MessagingService#VERSION_SIMILARITY} or later are asked for their histogram;
+     * the local one is used when none of them answers.
+     *
+     * @param metadata the ring to join
+     * @param loads the load of each endpoint of the ring
+     * @param numTokens the number of tokens to pick
+     */
+    public List<Token> getBalancedTokens(TokenMetadata metadata, Map<InetAddress, Double> loads, int numTokens)
+    {
+        Set<InetAddress> peers = new HashSet<>(Gossiper.instance.getLiveMembers());
+        peers.retainAll(metadata.getAllEndpoints());
+        peers.remove(FBUtilities.getBroadcastAddress());
+        // the nodes older than VERSION_SIMILARITY don't know the SIMILARITY_OCCUPANCY verb
+        Iterator<InetAddress> iter = peers.iterator();
+        while (iter.hasNext())
+        {
+            if (MessagingService.instance().getVersion(iter.next()) < MessagingService.VERSION_SIMILARITY)
+                iter.remove();
+        }
+
+        Histogram ring = ringHistogram(peers);
+        List<Token> tokens = balancedTokens(metadata, loads, ring == null ? histogram() : ring, numTokens);
+        if (tokens.size() < numTokens)
+        {
+            logger.warn("Could only split {} ranges of the ring, picking {} random tokens", tokens.size(), numTokens - tokens.size());
+            while (tokens.size() < numTokens)
+            {
+                Token token = SimilarityPartitioner.instance.getRandomToken();
+                if (metadata.getEndpoint(token) == null && !tokens.contains(token))
+                    tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Asks {@code endpoints} for their histograms, waiting for them for as long as the rpc timeout.
+     *
+     * @return the sum of the histograms received, or null if none was
+     */
+    private Histogram ringHistogram(Collection<InetAddress> endpoints)
+    {
+        final List<Histogram> histograms = Collections.synchronizedList(new ArrayList<Histogram>(endpoints.size()));
+        final CountDownLatch latch = new CountDownLatch(endpoints.size());
+        IAsyncCallback<Histogram> callback = new IAsyncCallback<Histogram>()
+        {
+            public void response(MessageIn<Histogram> message)
+            {
+                histograms.add(message.payload);
+                latch.countDown();
+            }
+
+            public boolean isLatencyForSnitch()
+            {
+                return false;
+            }
+        };
+
+        // an empty message acts as a request to the SimilarityOccupancyVerbHandler
+        MessageOut message = new MessageOut(MessagingService.Verb.SIMILARITY_OCCUPANCY);
+        for (InetAddress endpoint : endpoints)
+            MessagingService.instance().sendRR(message, endpoint, callback);
+
+        if (!Uninterruptibles.awaitUninterruptibly(latch, DatabaseDescriptor.getRpcTimeout(), TimeUnit.MILLISECONDS))
+            logger.warn("Only {} of the {} live nodes of the ring sent their occupancy histogram", histograms.size(), endpoints.size());
+
+        synchronized (histograms)
+        {
+            return merge(RandomHyperplaneHash.instance().planes(), histograms);
+        }
+    }
+
+    /**
+     * Adds up {@code histograms}, cut into as many cells as the coarsest of them. The histograms of another number
+     * of planes are ignored.
+     *
+     * @return the sum of the histograms, or null if there are none of {@code planes} planes
+     */
+    static Histogram merge(int planes, List<Histogram> histograms)
+    {
+        int cells = Integer.MAX_VALUE;
+        for (Histogram histogram : histograms)
+        {
+            if (histogram.planes == planes)
+                cells = Math.min(cells, histogram.cells());
+            else
+                logger.warn("Ignoring an occupancy histogram of {} planes instead of {}", histogram.planes, planes);
+        }
+        if (cells == Integer.MAX_VALUE)
+            return null;
+
+        double[] counts = new double[cells];
+        for (Histogram histogram : histograms)
+        {
+            if (histogram.planes != planes)
+                continue;
+
+            double[] coarse = histogram.coarsen(cells).counts;
+            for (int i = 0; i < cells; i++)
+                counts[i] += coarse[i];
+        }
+        return new Histogram(planes, counts);
+    }
+
+    static List<Token> balancedTokens(TokenMetadata metadata, Map<InetAddress, Double> loads, Histogram histogram, int numTokens)
+    {
+        List<Token> sortedTokens = metadata.sortedTokens();
+        List<Token> tokens = new ArrayList<>(numTokens);
+        if (sortedTokens.isEmpty())
+            return tokens;
+
+        Map<InetAddress, Double> widths = new HashMap<>();
+        Token previous = sortedTokens.get(sortedTokens.size() - 1);
+        for (Token token : sortedTokens)
+        {
+            InetAddress endpoint = metadata.getEndpoint(token);
+            Double width = widths.get(endpoint);
+            widths.put(endpoint, (width == null ? 0 : width) + histogram.width(previous, token));
+            previous = token;
+        }
+
+        boolean loadsKnown = false;
+        for (InetAddress endpoint : widths.keySet())
+        {
+            Double load = loads.get(endpoint);
+            if (load != null && load > 0)
+                loadsKnown = true;
+        }
+
+        PriorityQueue<LoadedRange> ranges = new PriorityQueue<>();
+        previous = sortedTokens.get(sortedTokens.size() - 1);
+        for (Token token : sortedTokens)
+        {
+            double width = histogram.width(previous, token);
+            double load = width;
+            if (loadsKnown)
+            {
+                InetAddress endpoint = metadata.getEndpoint(token);
+                Double endpointLoad = loads.get(endpoint);
+                double endpointWidth = widths.get(endpoint);
+                load = endpointLoad == null || endpointWidth == 0 ? 0 : endpointLoad * width / endpointWidth;
+            }
+            ranges.add(new LoadedRange(previous, token, load));
+            previous = token;
+        }
+
+        while (tokens.size() < numTokens && !ranges.isEmpty())
+        {
+            LoadedRange range = ranges.poll();
+            Token split = histogram.split(range.left, range.right);
+            // ranges of adjacent ranks cannot be split any further
+            if (split == null)
+                continue;
+
+            tokens.add(split);
+            ranges.add(new LoadedRange(range.left, split, range.load / 2));
+            ranges.add(new LoadedRange(split, range.right, range.load / 2));
+        }
+        return tokens;
+    }
+
+    private static final class LoadedRange implements Comparable<LoadedRange>
+    {
+        private final Token left;
+        private final Token right;
+        private final double load;
+
+        private LoadedRange(Token left, Token right, double load)
+        {
+            this.left = left;
+            this.right = right;
+            this.load = load;
+        }
+
+        // most loaded first
+        public int compareTo(LoadedRange other)
+        {
+            return Double.compare(other.load, load);
+        }
+    }
+
+    /**
+     * The number of keys in each cell of the ring. Keys are assumed to be spread evenly within a cell.
+     */
+    public static final class Histogram
+    {
+        public static final IVersionedSerializer<Histogram> serializer = new Serializer();
+
+        public final int planes;
+        private final double[] counts;
+        // cumulative[c] is the number of keys in the cells before c
+        private final double[] cumulative;
+
+        Histogram(int planes, double[] counts)
+        {
+            this.planes = planes;
+            this.counts = counts;
+            this.cumulative = new double[counts.length + 1];
+            for (int i = 0; i < counts.length; i++)
+                cumulative[i + 1] = cumulative[i] + counts[i];
+        }
+
+        public int cells()
+        {
+            return counts.length;
+        }
+
+        /**
+         * @return this histogram cut into {@code cells} cells, a power of two, or this histogram if it has no more
+         */
+        public Histogram coarsen(int cells)
+        {
+            if (cells >= counts.length)
+                return this;
+
+            double[] coarse = new double[cells];
+            int merged = counts.length / cells;
+            for (int i = 0; i < counts.length; i++)
+                coarse[i / merged] += counts[i];
+            return new Histogram(planes, coarse);
+        }
+
+        public double total()
+        {
+            return cumulative[counts.length];
+        }
+
+        /**
+         * @return the estimated number of keys in the range {@code (left, right]}, the whole ring if they are equal
+         */
+        public double count(Token left, Token right)
+        {
+            if (left.equals(right))
+                return total();
+            double l = position(left, planes);
+            double r = position(right, planes);
+            return l <= r ? keysBefore(r) - keysBefore(l) : total() - keysBefore(l) + keysBefore(r);
+        }
+
+        /**
+         * @return the fraction of the ring in the range {@code (left, right]}, 1 if they are equal
+         */
+        public double width(Token left, Token right)
+        {
+            return SimilarityPartitioner.size(((SimilarityPartitioner.BinaryToken) left).rank,
+                                              ((SimilarityPartitioner.BinaryToken) right).rank,
+                                              planes);
+        }
+
+        /**
+         * @return the share of the keys in the range {@code (left, right]}, or its width if there are no keys
+         */
+        public double share(Token left, Token right)
+        {
+            return total() > 0 ? count(left, right) / total() : width(left, right);
+        }
+
+        /**
+         * @return the token splitting {@code (left, right]} in two ranges of as many keys, or of the same width if
+         * there are no keys in it, or null if the range holds a single rank
+         */
+        public Token split(Token left, Token right)
+        {
+            double l = position(left, planes);
+            double width = width(left, right);
+            double half = count(left, right) / 2;
+
+            double position = l + width / 2;
+            if (half > 0)
+            {
+                // the number of keys in (l, x] grows with x, look for the x it reaches half of them at
+                double low = l, high = l + width;
+                for (int i = 0; i < 64; i++)
+                {
+                    position = (low + high) / 2;
+                    if (keysBetween(l, position) < half)
+                        low = position;
+                    else
+                        high = position;
+                }
+                position = high;
+            }
+
+            Token split = tokenAt(position >= 1 ? position - 1 : position, planes);
+            // the minimum token cannot be assigned to a node
+            if (split.isMinimum())
+                split = tokenAt(Math.scalb(1.0, -planes), planes);
+            if (split.equals(right) || !new Range<>(left, right).contains(split))
+                return null;
+            return split;
+        }
+
+        /**
+         * @return the number of keys in {@code (from, to]}, {@code to} being at most one turn of the ring past {@code from}
+         */
+        private double keysBetween(double from, double to)
+        {
+            return to < 1 ? keysBefore(to) - keysBefore(from) : total() - keysBefore(from) + keysBefore(to - 1);
+        }
+
+        /**
+         * @return the number of keys before {@code position}
+         */
+        private double keysBefore(double position)
+        {
+            double scaled = position * counts.length;
+            int cell = Math.min((int) scaled, counts.length - 1);
+            return cumulative[cell] + (scaled - cell) * counts[cell];
+        }
+
+        private static class Serializer implements IVersionedSerializer<Histogram>
+        {
+            public void serialize(Histogram histogram, DataOutputPlus out, int version) throws IOException
+            {
+                out.writeInt(histogram.planes);
+                out.writeInt(histogram.counts.length);
+                for (double count : histogram.counts)
+                    out.writeDouble(count);
+            }
+
+            public Histogram deserialize(DataInput in, int version) throws IOException
+            {
+                int planes = in.readInt();
+                double[] counts = new double[in.readInt()];
+                for (int i = 0; i < counts.length; i++)
+                    counts[i] = in.readDouble();
+                return new Histogram(planes, counts);
+            }
+
+            public long serializedSize(Histogram histogram, int version)
+            {
+                return TypeSizes.NATIVE.sizeof(histogram.planes)
+                       + TypeSizes.NATIVE.sizeof(histogram.counts.length)
+                       + histogram.counts.length * TypeSizes.NATIVE.sizeof(0L);
+            }
+        }
+    }
+}
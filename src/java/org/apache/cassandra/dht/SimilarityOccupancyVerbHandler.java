@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.dht;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.net.IVerbHandler;
+import org.apache.cassandra.net.MessageIn;
+import org.apache.cassandra.net.MessageOut;
+import org.apache.cassandra.net.MessagingService;
+
+/**
+ * Replies to a node joining the ring with the occupancy histogram of this node, for it to split the most loaded
+ * ranges (see {@link SimilarityOccupancy#getBalancedTokens}).
+ */
+public class SimilarityOccupancyVerbHandler implements IVerbHandler
+{
+    private static final Logger logger = LoggerFactory.getLogger(SimilarityOccupancyVerbHandler.class);
+
+    public void doVerb(MessageIn message, int id)
+    {
+        logger.trace("Received occupancy histogram request from {}", message.from);
+        SimilarityOccupancy.Histogram histogram = SimilarityOccupancy.instance.histogram();
+        histogram = histogram.coarsen(1 << Math.min(histogram.planes, SimilarityOccupancy.REPLY_BITS));
+        MessageOut<SimilarityOccupancy.Histogram> response = new MessageOut<>(MessagingService.Verb.INTERNAL_RESPONSE,
+                                                                              histogram,
+                                                                              SimilarityOccupancy.Histogram.serializer);
+        MessagingService.instance().sendReply(response, id, message.from);
+    }
+}
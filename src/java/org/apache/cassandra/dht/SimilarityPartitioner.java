@@ -18,40 +18,103 @@
 
 package org.apache.cassandra.dht;
 
-import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 
-import org.apache.cassandra.config.CFMetaData;
-import org.apache.cassandra.config.Schema;
-import org.apache.cassandra.db.BufferDecoratedKey;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.RowPosition;
+import org.apache.cassandra.db.SimilarityDecoratedKey;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.db.marshal.BinaryType;
+import org.apache.cassandra.db.marshal.VectorType;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.serializers.BinarySerializer;
-import org.apache.cassandra.service.StorageService;
-import org.apache.cassandra.utils.BinaryReflectedGrayCode;
+import org.apache.cassandra.serializers.VectorSerializer;
+import org.apache.cassandra.utils.BinaryReflectedGrayCodeUtil;
 import org.apache.cassandra.utils.ByteBufferUtil;
-import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.ObjectSizes;
-import org.apache.cassandra.utils.Pair;
 import org.apache.cassandra.utils.RandomHyperplaneHash;
 
 public class SimilarityPartitioner implements IPartitioner
 {
-    public static final BinaryToken MINIMUM = new BinaryToken(new BitSet());
-
-    public static final BigInteger BYTE_MASK = new BigInteger("255");
+    public static final BinaryToken MINIMUM = new BinaryToken(new long[0], 0);
 
     private static final long EMPTY_SIZE = ObjectSizes.measure(MINIMUM);
 
     public static final SimilarityPartitioner instance = new SimilarityPartitioner();
 
+    // the partitioners of the tables keyed by a vector type, by the serializer of that type
+    private static final ConcurrentMap<VectorSerializer, SimilarityPartitioner> vectorPartitioners = new ConcurrentHashMap<>();
+
+    // the layout of the keys as packed vectors, or null if they are not of a vector type
+    private final VectorSerializer layout;
+
+    public SimilarityPartitioner()
+    {
+        this(null);
+    }
+
+    private SimilarityPartitioner(VectorSerializer layout)
+    {
+        this.layout = layout;
+    }
+
+    /**
+     * The hyperplanes can only read a key as the vector it is if they know its type: a packed
+     * {@code vector<float, 2N>} key has the size of a {@code vector<double, N>} one, and any key could be a blob
+     * of either size. The keys of a table are thus decorated by the partitioner of its key validator, which reads
+     * them as packed vectors when that is a {@link VectorType}, and in the layouts of the configured partitioner
+     * otherwise.
+     *
+     * @return the partitioner of the keys of type {@code keyValidator}, given the configured {@code partitioner}
+     */
+    public static IPartitioner forKeyValidator(IPartitioner partitioner, AbstractType<?> keyValidator)
+    {
+        if (!(partitioner instanceof SimilarityPartitioner) || !(keyValidator instanceof VectorType))
+            return partitioner;
+
+        VectorSerializer layout = ((VectorType) keyValidator).getSerializer();
+        SimilarityPartitioner vectorPartitioner = vectorPartitioners.get(layout);
+        if (vectorPartitioner == null)
+        {
+            vectorPartitioner = new SimilarityPartitioner(layout);
+            SimilarityPartitioner previous = vectorPartitioners.putIfAbsent(layout, vectorPartitioner);
+            if (previous != null)
+                vectorPartitioner = previous;
+        }
+        // its tokens report the global instance, which must handle them the same way
+        assert vectorPartitioner.getMinimumToken() == instance.getMinimumToken()
+               && vectorPartitioner.getTokenValidator() == instance.getTokenValidator();
+        return vectorPartitioner;
+    }
+
+    /**
+     * @return the layout of the keys of this partitioner as packed vectors, or null if they are not of a vector type
+     */
+    public VectorSerializer getKeyLayout()
+    {
+        return layout;
+    }
+
+    /**
+     * @return the layout of the keys of {@code partitioner} as packed vectors, or null if they are not of a vector type
+     */
+    public static VectorSerializer keyLayout(IPartitioner partitioner)
+    {
+        return partitioner instanceof SimilarityPartitioner ? ((SimilarityPartitioner) partitioner).layout : null;
+    }
+
     /**
      * Transform key to object representation of the on-disk format.
      *
@@ -60,12 +123,12 @@ public class SimilarityPartitioner implements IPartitioner
      */
     public DecoratedKey decorateKey(ByteBuffer key)
     {
-        return new BufferDecoratedKey(getToken(key), key);
+        return new SimilarityDecoratedKey(getToken(key), key);
     }
 
     /**
      * Calculate a Token representing the approximate "middle" of the given
-     * range.
+     * range, half way between the Gray ranks of its bounds in ring order.
      *
      * @param lToken
      * @param rToken
@@ -73,46 +136,178 @@ public class SimilarityPartitioner implements IPartitioner
      */
     public Token midpoint(Token lToken, Token rToken)
     {
-        BinaryToken lt = (BinaryToken) lToken;
-        BinaryToken rt = (BinaryToken) rToken;
+        long[] left = ((BinaryToken) lToken).rank;
+        long[] right = ((BinaryToken) rToken).rank;
+        return BinaryToken.fromRank(midpoint(left, right, ringBits(left, right)));
+    }
 
-        int sigbytes = Math.max(lt.token.toByteArray().length, rt.token.toByteArray().length);
-        BigInteger left = bigForBinary(lt.token, sigbytes);
-        BigInteger right = bigForBinary(rt.token, sigbytes);
+    /**
+     * @return the token {@code ratio} of the way from {@code lToken} to {@code rToken}, clockwise
+     */
+    public Token split(Token lToken, Token rToken, double ratio)
+    {
+        assert ratio >= 0 && ratio <= 1 : ratio;
+        long[] left = ((BinaryToken) lToken).rank;
+        long[] right = ((BinaryToken) rToken).rank;
+        int bits = ringBits(left, right);
+        long[] offset = rankAt(fraction(distance(left, right, bits), bits) * ratio, bits);
+        return BinaryToken.fromRank(add(left, offset, bits));
+    }
 
-        Pair<BigInteger, Boolean> midpair = FBUtilities.midpoint(left, right, 8 * sigbytes);
-        return new BinaryToken(binaryForBig(midpair.left, sigbytes, midpair.right));
+    /**
+     * @return the fraction of the ring in the range {@code (lToken, rToken]}, 1 if the bounds are equal
+     */
+    public double size(Token lToken, Token rToken)
+    {
+        long[] left = ((BinaryToken) lToken).rank;
+        long[] right = ((BinaryToken) rToken).rank;
+        return size(left, right, ringBits(left, right));
+    }
+
+    /**
+     * @return the number of bits of the ranks of the ring: one per hyperplane, unless a bound needs more
+     */
+    private static int ringBits(long[] left, long[] right)
+    {
+        int planes = DatabaseDescriptor.hasVectors() ? RandomHyperplaneHash.instance().planes() : 0;
+        return Math.max(planes, Math.max(bitLength(left), bitLength(right)));
     }
 
-    private BigInteger bigForBinary(BitSet binary, int sigbytes)
+    /**
+     * @return the first {@code bits} bits of {@code rank} on a ring of {@code planes} bits, numbering the family of
+     * {@code 2^(planes - bits)} adjacent buckets it belongs to
+     */
+    public static int prefix(long[] rank, int planes, int bits)
     {
-        byte[] b, bytes = binary.toByteArray();
-        if (sigbytes != bytes.length)
+        assert bits >= 0 && bits <= Math.min(planes, 31) : bits;
+        int prefix = 0;
+        for (int bit = planes - 1; bit >= planes - bits; bit--)
         {
-            b = new byte[sigbytes];
-            System.arraycopy(bytes, 0, b, 0, bytes.length);
+            long word = (bit >>> 6) < rank.length ? rank[bit >>> 6] : 0L;
+            prefix = (prefix << 1) | (int) ((word >>> bit) & 1L);
         }
-        else
-            b = bytes;
-        return new BigInteger(1, b);
+        return prefix;
     }
 
-    private BitSet binaryForBig(BigInteger big, int sigbytes, Boolean remainder)
+    static int bitLength(long[] rank)
     {
-        byte[] bytes = new byte[sigbytes + (remainder ? 1 : 0)];
-        if (remainder)
+        return rank.length == 0 ? 0 : 64 * rank.length - Long.numberOfLeadingZeros(rank[rank.length - 1]);
+    }
+
+    /**
+     * @return the trimmed rank half way from {@code left} to {@code right} on a ring of {@code 2^bits} ranks
+     */
+    static long[] midpoint(long[] left, long[] right, int bits)
+    {
+        long[] distance = distance(left, right, bits);
+        for (int i = 0; i < distance.length; i++)
+            distance[i] = (distance[i] >>> 1) | (i + 1 < distance.length ? distance[i + 1] << 63 : 0L);
+        return add(left, distance, bits);
+    }
+
+    /**
+     * @return the fraction of a ring of {@code 2^bits} ranks in {@code (left, right]}, 1 if they are equal
+     */
+    static double size(long[] left, long[] right, int bits)
+    {
+        return fraction(distance(left, right, bits), bits);
+    }
+
+    /**
+     * @return the number of ranks in {@code (left, right]}, in {@code (0, 2^bits]} as {@code bits / 64 + 1} words;
+     * the whole ring if the bounds are equal
+     */
+    static long[] distance(long[] left, long[] right, int bits)
+    {
+        long[] distance = new long[(bits >>> 6) + 1];
+        long borrow = 0;
+        boolean zero = true;
+        for (int i = 0; i < distance.length; i++)
+        {
+            long l = word(left, i);
+            long r = word(right, i);
+            long d = r - l - borrow;
+            borrow = ((~r & l) | (~(r ^ l) & d)) >>> 63;
+            distance[i] = d;
+        }
+        mask(distance, bits);
+        for (long word : distance)
+            zero &= word == 0L;
+        if (zero)
+            distance[bits >>> 6] = 1L << (bits & 63);
+        return distance;
+    }
+
+    /**
+     * @return the trimmed rank {@code (rank + offset) mod 2^bits}
+     */
+    static long[] add(long[] rank, long[] offset, int bits)
+    {
+        long[] sum = new long[(bits >>> 6) + 1];
+        long carry = 0;
+        for (int i = 0; i < sum.length; i++)
+        {
+            long a = word(rank, i);
+            long b = word(offset, i);
+            long s = a + b + carry;
+            carry = ((a & b) | ((a | b) & ~s)) >>> 63;
+            sum[i] = s;
+        }
+        mask(sum, bits);
+        return trim(sum);
+    }
+
+    /**
+     * @return {@code words / 2^bits}, the words being unsigned
+     */
+    static double fraction(long[] words, int bits)
+    {
+        double fraction = 0;
+        for (int i = 0; i < words.length; i++)
+        {
+            double word = (words[i] >>> 1) * 2.0 + (words[i] & 1);
+            fraction += Math.scalb(word, 64 * i - bits);
+        }
+        return fraction;
+    }
+
+    /**
+     * @return the trimmed rank {@code floor(fraction * 2^bits)}, to the 63 most significant bits
+     */
+    static long[] rankAt(double fraction, int bits)
+    {
+        // below 2^63 for fractions below 1, saturated otherwise
+        long significand = (long) Math.scalb(fraction, 63);
+        long[] rank = new long[(bits >>> 6) + 1];
+        if (bits < 63)
         {
-            // remaining bit is the most significant in the last byte
-            bytes[sigbytes] |= 0x80;
+            rank[0] = significand >>> (63 - bits);
         }
-        // bitmask for a single byte
-        for (int i = 0; i < sigbytes; i++)
+        else
         {
-            int maskpos = 8 * (sigbytes - (i + 1));
-            // apply bitmask and get byte value
-            bytes[i] = (byte) (big.and(BYTE_MASK.shiftLeft(maskpos)).shiftRight(maskpos).intValue() & 0xFF);
+            int shift = bits - 63;
+            rank[shift >>> 6] = significand << (shift & 63);
+            if ((shift & 63) != 0 && (shift >>> 6) + 1 < rank.length)
+                rank[(shift >>> 6) + 1] = significand >>> (64 - (shift & 63));
         }
-        return BitSet.valueOf(bytes);
+        return trim(rank);
+    }
+
+    private static long word(long[] words, int i)
+    {
+        return i < words.length ? words[i] : 0L;
+    }
+
+    /**
+     * Clears the bits of {@code words} from {@code bits} on.
+     */
+    private static void mask(long[] words, int bits)
+    {
+        int last = bits >>> 6;
+        if (last < words.length)
+            words[last] &= (1L << (bits & 63)) - 1;
+        for (int i = last + 1; i < words.length; i++)
+            words[i] = 0L;
     }
 
     /**
@@ -134,8 +329,35 @@ public class SimilarityPartitioner implements IPartitioner
     {
         if (key.remaining() == 0)
             return MINIMUM;
-        // TODO implement validation for ByteBuffer multiple of 8 bytes (double type)
-        return new BinaryToken(new RandomHyperplaneHash().rhh(key));
+        long[] signature = RandomHyperplaneHash.instance().hash(key, layout);
+        return new BinaryToken(signature, signature.length);
+    }
+
+    /**
+     * Computes the tokens of a batch of keys, sharing the hashing buffers between them.
+     *
+     * @return the token of each key, in the order of {@code keys}
+     */
+    public List<Token> getTokens(List<ByteBuffer> keys)
+    {
+        RandomHyperplaneHash hash = RandomHyperplaneHash.instance();
+        int words = hash.words();
+        long[] signatures = new long[keys.size() * words];
+        hash.hash(keys, layout, signatures);
+
+        List<Token> tokens = new ArrayList<>(keys.size());
+        long[] signature = new long[words];
+        for (int i = 0; i < keys.size(); i++)
+        {
+            if (keys.get(i).remaining() == 0)
+            {
+                tokens.add(MINIMUM);
+                continue;
+            }
+            System.arraycopy(signatures, i * words, signature, 0, words);
+            tokens.add(new BinaryToken(signature, words));
+        }
+        return tokens;
     }
 
     /**
@@ -143,7 +365,195 @@ public class SimilarityPartitioner implements IPartitioner
      */
     public Token getRandomToken()
     {
-        return new BinaryToken(new RandomHyperplaneHash().rhh());
+        long[] signature = RandomHyperplaneHash.instance().hash(ThreadLocalRandom.current());
+        return new BinaryToken(signature, signature.length);
+    }
+
+    /**
+     * Converts signatures into the bounds of the keys hashed to them. Each signature maps to the token
+     * of its Gray rank, and signatures whose ranks follow each other are merged into a single bounds.
+     *
+     * @param signatures Gray code words, in the layout of {@link BitSet#toLongArray()}
+     * @return the key bounds, in ring order
+     */
+    public List<AbstractBounds<RowPosition>> getKeyBounds(Collection<long[]> signatures)
+    {
+        List<BinaryToken> tokens = new ArrayList<>(signatures.size());
+        for (long[] signature : signatures)
+            tokens.add(new BinaryToken(signature, signature.length));
+        Collections.sort(tokens);
+
+        List<AbstractBounds<RowPosition>> bounds = new ArrayList<>();
+        int i = 0;
+        while (i < tokens.size())
+        {
+            long[] first = tokens.get(i++).rank;
+            long[] last = first;
+            while (i < tokens.size() && BinaryReflectedGrayCodeUtil.compare(tokens.get(i).rank, increment(last)) <= 0)
+                last = tokens.get(i++).rank;
+
+            // keys hashed to rank 0 share the minimum token, which (MIN, MIN] would turn into the whole ring
+            if (last.length == 0)
+                last = new long[]{ 1L };
+
+            Token left = first.length == 0 ? MINIMUM : BinaryToken.fromRank(decrement(first));
+            bounds.add(Range.makeRowRange(left, BinaryToken.fromRank(last)));
+        }
+        return bounds;
+    }
+
+    /**
+     * Returns the token ranges holding the Hamming neighbours across bit {@code bit} of the tokens of
+     * {@code (left, right]}, on a ring of {@code planes} bits.
+     *
+     * Flipping bit i of a Gray code mirrors its rank within its aligned block of {@code 2^(i + 1)} ranks. The
+     * neighbours of a range lying within such a block are the mirrored range; for a range straddling blocks, only
+     * the neighbours of its two ends are returned.
+     */
+    public static List<Range<Token>> hammingNeighbours(Token left, Token right, int bit, int planes)
+    {
+        assert bit >= 0 && bit < planes : bit;
+        long[] first = increment(((BinaryToken) left).rank);
+        long[] last = ((BinaryToken) right).rank;
+        List<Range<Token>> neighbours = new ArrayList<>(4);
+        if (BinaryReflectedGrayCodeUtil.compare(first, last) <= 0)
+        {
+            addHammingNeighbours(first, last, bit, neighbours);
+        }
+        else
+        {
+            // a wrapping range holds the end of the ring and its start
+            long[] max = lowBits(new long[(planes + 63) / 64], planes - 1, false);
+            if (BinaryReflectedGrayCodeUtil.compare(first, max) <= 0)
+                addHammingNeighbours(first, max, bit, neighbours);
+            addHammingNeighbours(new long[0], last, bit, neighbours);
+        }
+        return neighbours;
+    }
+
+    private static void addHammingNeighbours(long[] first, long[] last, int bit, List<Range<Token>> neighbours)
+    {
+        long[] firstNeighbour = lowBits(first, bit, false);
+        long[] lastNeighbour = lowBits(last, bit, false);
+        if (Arrays.equals(lowBits(first, bit, true), lowBits(last, bit, true)))
+        {
+            // the block is mirrored: the neighbour of the last rank comes first
+            neighbours.add(rankRange(lastNeighbour, firstNeighbour));
+        }
+        else
+        {
+            neighbours.add(rankRange(firstNeighbour, firstNeighbour));
+            neighbours.add(rankRange(lastNeighbour, lastNeighbour));
+        }
+    }
+
+    /**
+     * Cuts {@code (left, right]} at the boundaries of the aligned blocks of {@code 2^(planes - bits)} ranks, on a
+     * ring of {@code planes} bits. The buckets of a block share their first {@code bits} bits, so that the Hamming
+     * neighbours of a piece across any of its other bits lie within the same block.
+     *
+     * @return the pieces of the range, in ring order, none of them wrapping
+     */
+    public static List<Range<Token>> alignedRanges(Token left, Token right, int planes, int bits)
+    {
+        assert bits >= 0 && bits <= planes : bits;
+        // the minimum token starts the ring, the keys of rank 0 included, and ends it when on the right
+        long[] first = left.isMinimum() ? new long[0] : increment(((BinaryToken) left).rank);
+        long[] last = ((BinaryToken) right).rank;
+        long[] max = lowBits(new long[(planes + 63) / 64], planes - 1, false);
+        List<Range<Token>> pieces = new ArrayList<>();
+        if (right.isMinimum() || (left.equals(right) && left.isMinimum()))
+        {
+            addAlignedRanges(first, max, planes - bits, pieces);
+        }
+        else if (!left.equals(right) && BinaryReflectedGrayCodeUtil.compare(first, last) <= 0)
+        {
+            addAlignedRanges(first, last, planes - bits, pieces);
+        }
+        else
+        {
+            // a wrapping range holds the end of the ring and its start
+            if (BinaryReflectedGrayCodeUtil.compare(first, max) <= 0)
+                addAlignedRanges(first, max, planes - bits, pieces);
+            addAlignedRanges(new long[0], last, planes - bits, pieces);
+        }
+        return pieces;
+    }
+
+    private static void addAlignedRanges(long[] first, long[] last, int blockBits, List<Range<Token>> pieces)
+    {
+        long[] start = first;
+        while (true)
+        {
+            // the last rank of the block of first, the one with all the bits of the block set
+            long[] end = blockBits == 0 ? first : lowBits(lowBits(first, blockBits - 1, true), blockBits - 1, false);
+            if (BinaryReflectedGrayCodeUtil.compare(end, last) >= 0)
+            {
+                pieces.add(rankRange(start, last));
+                return;
+            }
+            // rank 0 has the minimum token, which cannot end a range: its piece goes on with the next block
+            if (end.length > 0)
+            {
+                pieces.add(rankRange(start, end));
+                start = increment(end);
+            }
+            first = increment(end);
+        }
+    }
+
+    /**
+     * @return the trimmed copy of {@code rank} with the bits up to {@code bit} flipped, or cleared if {@code clear}
+     */
+    private static long[] lowBits(long[] rank, int bit, boolean clear)
+    {
+        long[] result = Arrays.copyOf(rank, Math.max(rank.length, (bit >>> 6) + 1));
+        for (int i = 0; i < bit >>> 6; i++)
+            result[i] = clear ? 0L : ~result[i];
+        long mask = (bit & 63) == 63 ? -1L : (1L << ((bit & 63) + 1)) - 1;
+        result[bit >>> 6] = clear ? result[bit >>> 6] & ~mask : result[bit >>> 6] ^ mask;
+        return trim(result);
+    }
+
+    /**
+     * @return the token range holding the ranks {@code [first, last]}
+     */
+    private static Range<Token> rankRange(long[] first, long[] last)
+    {
+        // rank 0 is the minimum token, which (MIN, MIN] would turn into the whole ring
+        if (last.length == 0)
+            last = new long[]{ 1L };
+        Token left = first.length == 0 ? MINIMUM : BinaryToken.fromRank(decrement(first));
+        return new Range<Token>(left, BinaryToken.fromRank(last));
+    }
+
+    /**
+     * @return the trimmed rank following {@code rank}
+     */
+    static long[] increment(long[] rank)
+    {
+        long[] result = Arrays.copyOf(rank, rank.length + 1);
+        for (int i = 0; i < result.length && ++result[i] == 0L; i++)
+            ;
+        return trim(result);
+    }
+
+    /**
+     * @return the trimmed rank preceding {@code rank}, which must not be 0
+     */
+    static long[] decrement(long[] rank)
+    {
+        assert rank.length > 0;
+        long[] result = rank.clone();
+        for (int i = 0; i < result.length && result[i]-- == 0L; i++)
+            ;
+        return trim(result);
+    }
+
+    private static long[] trim(long[] words)
+    {
+        int length = BinaryReflectedGrayCodeUtil.trimmedLength(words, words.length);
+        return length == words.length ? words : Arrays.copyOf(words, length);
     }
 
     private final Token.TokenFactory tokenFactory = new Token.TokenFactory()
@@ -151,12 +561,12 @@ public class SimilarityPartitioner implements IPartitioner
         public ByteBuffer toByteArray(Token token)
         {
             BinaryToken binaryToken = (BinaryToken) token;
-            return ByteBuffer.wrap(binaryToken.token.toByteArray());
+            return toBytes(binaryToken.gray());
         }
 
         public Token fromByteArray(ByteBuffer bytes)
         {
-            return new BinaryToken(BitSet.valueOf(bytes));
+            return new BinaryToken(fromBytes(bytes), (bytes.remaining() + 7) / 8);
         }
 
         public String toString(Token token)
@@ -167,48 +577,118 @@ public class SimilarityPartitioner implements IPartitioner
 
         public void validate(String token) throws ConfigurationException
         {
-            try
-            {
-                // TODO validade token correctly (probably number of bits)
-                BitSet.valueOf(ByteBufferUtil.bytes(token));
-            }
-            catch (Exception e)
+            for (int i = 0; i < token.length(); i++)
             {
-                throw new ConfigurationException(e.getMessage());
+                char c = token.charAt(i);
+                if (c != '0' && c != '1')
+                    throw new ConfigurationException(String.format("Invalid binary token '%s'", token));
             }
         }
 
         public Token fromString(String string)
         {
-            BitSet bits = new BitSet(string.length());
-            String reverseString = new StringBuilder(string).reverse().toString();
-            for (int i = 0; i < reverseString.length(); i++)
+            int length = string.length();
+            long[] words = new long[(length + 63) / 64];
+            for (int i = 0; i < length; i++)
             {
-                bits.set(i, reverseString.charAt(i) == '1');
+                // the last character is the least significant bit
+                if (string.charAt(length - 1 - i) == '1')
+                    words[i >>> 6] |= 1L << i;
             }
-            return new BinaryToken(bits);
-//            return new BinaryToken(BitSet.valueOf(ByteBufferUtil.bytes(string)));
+            return new BinaryToken(words, words.length);
         }
     };
 
+    /**
+     * Packs Gray code words into the little-endian byte layout of {@link BitSet#toByteArray()}.
+     */
+    private static ByteBuffer toBytes(long[] words)
+    {
+        if (words.length == 0)
+            return ByteBufferUtil.EMPTY_BYTE_BUFFER;
+
+        int last = words.length - 1;
+        int lastBytes = (71 - Long.numberOfLeadingZeros(words[last])) / 8;
+        byte[] bytes = new byte[8 * last + lastBytes];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) (words[i >>> 3] >>> (8 * (i & 7)));
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static long[] fromBytes(ByteBuffer bytes)
+    {
+        int position = bytes.position();
+        int length = bytes.remaining();
+        long[] words = new long[(length + 7) / 8];
+        for (int i = 0; i < length; i++)
+            words[i >>> 3] |= (bytes.get(position + i) & 0xFFL) << (8 * (i & 7));
+        return words;
+    }
+
     public Token.TokenFactory getTokenFactory()
     {
         return tokenFactory;
     }
 
+    /**
+     * A token whose value is a Gray code, the signature produced by {@link RandomHyperplaneHash}.
+     *
+     * Tokens are ordered by the binary rank of their Gray code, so that consecutive ring positions
+     * differ by a single signature bit. The rank is decoded once at construction and kept as trimmed
+     * little-endian words; comparison, equality and hashing only touch those words. The Gray code
+     * itself is re-encoded on demand, as it is only needed for serialization and display.
+     */
     public static class BinaryToken extends Token
     {
-        final BitSet token;
+        static final long serialVersionUID = -4211367285034857186L;
+
+        final long[] rank;
 
         public BinaryToken(BitSet token)
         {
-            this.token = token;
+            this.rank = BinaryReflectedGrayCodeUtil.grayToBinary(token.toLongArray());
+        }
+
+        /**
+         * @param gray the Gray code bits, in the layout of {@link BitSet#toLongArray()}
+         * @param length the number of words of {@code gray} to use
+         */
+        public BinaryToken(long[] gray, int length)
+        {
+            length = BinaryReflectedGrayCodeUtil.trimmedLength(gray, length);
+            this.rank = new long[length];
+            BinaryReflectedGrayCodeUtil.grayToBinary(gray, length, rank);
+        }
+
+        private BinaryToken(long[] rank)
+        {
+            this.rank = rank;
+        }
+
+        /**
+         * @param rank the binary rank of the token; owned by the new token from now on
+         */
+        static BinaryToken fromRank(long[] rank)
+        {
+            return new BinaryToken(trim(rank));
+        }
+
+        long[] gray()
+        {
+            return BinaryReflectedGrayCodeUtil.binaryToGray(rank);
+        }
+
+        /**
+         * @see SimilarityPartitioner#prefix(long[], int, int)
+         */
+        public int prefix(int planes, int bits)
+        {
+            return SimilarityPartitioner.prefix(rank, planes, bits);
         }
 
         public int compareTo(Token token)
         {
-            return new BinaryReflectedGrayCode()
-                   .compare(this.token, (BitSet) token.getTokenValue());
+            return BinaryReflectedGrayCodeUtil.compare(rank, ((BinaryToken) token).rank);
         }
 
         public boolean equals(Object obj)
@@ -218,14 +698,22 @@ public class SimilarityPartitioner implements IPartitioner
             if (obj == null || this.getClass() != obj.getClass())
                 return false;
 
-            return token.equals(((BinaryToken)obj).token);
+            return Arrays.equals(rank, ((BinaryToken)obj).rank);
         }
 
         public int hashCode()
         {
-            return token != null ? token.hashCode() : 0;
+            return Arrays.hashCode(rank);
         }
 
+        /**
+         * Tokens made by the partitioners of every key layout report the global instance. The layout only changes
+         * how a key is hashed into a signature, never the token made from it: the minimum token, ordering, midpoints
+         * and the token factory are the same for all of them. Keys are only ever hashed through the partitioner of
+         * their table, {@link org.apache.cassandra.config.CFMetaData#partitioner()}, never through a token. A single
+         * partitioner also lets ranges mix ring tokens and key tokens, as {@link AbstractBounds} requires both bounds
+         * to have the same partitioner.
+         */
         @Override
         public IPartitioner getPartitioner()
         {
@@ -235,19 +723,19 @@ public class SimilarityPartitioner implements IPartitioner
         @Override
         public long getHeapSize()
         {
-            return EMPTY_SIZE + ObjectSizes.sizeOfArray(token.toByteArray());
+            return EMPTY_SIZE + ObjectSizes.sizeOfArray(rank);
         }
 
         @Override
-        public Object getTokenValue()
+        public BitSet getTokenValue()
         {
-            return token;
+            return BitSet.valueOf(gray());
         }
 
         @Override
         public String toString()
         {
-            return ((BinarySerializer) getPartitioner().getTokenValidator().getSerializer()).toString(token);
+            return ((BinarySerializer) getPartitioner().getTokenValidator().getSerializer()).toString(getTokenValue());
         }
     }
 
@@ -261,47 +749,24 @@ public class SimilarityPartitioner implements IPartitioner
     }
 
     /**
-     * Calculate the deltas between tokens in the ring in order to compare
-     * relative sizes.
+     * Estimates the share of the keys each token owns from the occupancy histogram of this node, which is built
+     * from the index summaries and the memtables rather than by sampling every table for every range. Ranges are
+     * weighted by their width when this node holds no keys.
      *
      * @param sortedTokens a sorted List of Tokens
      * @return the mapping from 'token' to 'percentage of the ring owned by that token'.
      */
     public Map<Token, Float> describeOwnership(List<Token> sortedTokens)
     {
-        // allTokens will contain the count and be returned, sorted_ranges is shorthand for token<->token math.
-        Map<Token, Float> allTokens = new HashMap<Token, Float>();
-        List<Range<Token>> sortedRanges = new ArrayList<Range<Token>>(sortedTokens.size());
-
-        // this initializes the counts to 0 and calcs the ranges in order.
+        Map<Token, Float> ownership = new HashMap<>();
+        SimilarityOccupancy.Histogram histogram = SimilarityOccupancy.instance.histogram();
         Token lastToken = sortedTokens.get(sortedTokens.size() - 1);
         for (Token node : sortedTokens)
         {
-            allTokens.put(node, new Float(0.0));
-            sortedRanges.add(new Range<Token>(lastToken, node));
+            ownership.put(node, (float) histogram.share(lastToken, node));
             lastToken = node;
         }
-
-        for (String ks : Schema.instance.getKeyspaces())
-        {
-            for (CFMetaData cfmd : Schema.instance.getKSMetaData(ks).cfMetaData().values())
-            {
-                for (Range<Token> r : sortedRanges)
-                {
-                    // Looping over every KS:CF:Range, get the splits size and add it to the count
-                    allTokens.put(r.right, allTokens.get(r.right) + StorageService.instance.getSplits(ks, cfmd.cfName, r, 1).size());
-                }
-            }
-        }
-
-        // Sum every count up and divide count/total for the fractional ownership.
-        Float total = new Float(0.0);
-        for (Float f : allTokens.values())
-            total += f;
-        for (Map.Entry<Token, Float> row : allTokens.entrySet())
-            allTokens.put(row.getKey(), row.getValue() / total);
-
-        return allTokens;
+        return ownership;
     }
 
     public AbstractType<?> getTokenValidator()
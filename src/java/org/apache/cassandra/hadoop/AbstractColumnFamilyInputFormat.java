@@ -18,6 +18,7 @@
 package org.apache.cassandra.hadoop;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -36,9 +37,12 @@ import org.apache.cassandra.dht.ByteOrderedPartitioner;
 import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.dht.OrderPreservingPartitioner;
 import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.SimilarityPartitioner;
 import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.hadoop.cql3.*;
+import org.apache.cassandra.thrift.Cassandra;
 import org.apache.cassandra.thrift.KeyRange;
+import org.apache.cassandra.utils.Pair;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapreduce.*;
@@ -83,6 +87,9 @@ public abstract class AbstractColumnFamilyInputFormat<K, Y> extends InputFormat<
         partitioner = ConfigHelper.getInputPartitioner(conf);
         logger.trace("partitioner is {}", partitioner);
 
+        if (ConfigHelper.getInputSimilarityBits(conf) > 0)
+            return getSimilaritySplits(conf);
+
         // canonical ranges and nodes holding replicas
         Map<TokenRange, Set<Host>> masterRangeNodes = getRangeMap(conf, keyspace);
 
@@ -166,6 +173,107 @@ public abstract class AbstractColumnFamilyInputFormat<K, Y> extends InputFormat<
         return splits;
     }
 
+    /**
+     * Cuts the ring at the boundaries of the buckets of the SimilarityPartitioner, rather than splitting the ranges
+     * of the ring evenly, and lists the Hamming neighbour buckets of each split in it.
+     *
+     * The ring comes from describe_ring, which knows the binary tokens and the replicas of the keyspace's strategy;
+     * the locations of a split are the replicas of its own buckets.
+     */
+    private List<InputSplit> getSimilaritySplits(Configuration conf) throws IOException
+    {
+        if (!(partitioner instanceof SimilarityPartitioner))
+            throw new UnsupportedOperationException("Similarity splits are only supported with the SimilarityPartitioner");
+        if (ConfigHelper.getInputKeyRange(conf) != null)
+            throw new UnsupportedOperationException("Similarity splits cannot be restricted to a key range");
+
+        int planes = ConfigHelper.getInputSimilarityPlanes(conf);
+        int bits = ConfigHelper.getInputSimilarityBits(conf);
+        int overlap = ConfigHelper.getInputSimilarityOverlap(conf);
+        Token.TokenFactory factory = partitioner.getTokenFactory();
+
+        List<org.apache.cassandra.thrift.TokenRange> ring;
+        Cassandra.Client client = ConfigHelper.getClientFromInputAddressList(conf);
+        try
+        {
+            ring = client.describe_ring(keyspace);
+        }
+        catch (Exception e)
+        {
+            throw new IOException("Could not describe the ring of " + keyspace, e);
+        }
+        finally
+        {
+            client.getInputProtocol().getTransport().close();
+        }
+
+        List<InputSplit> splits = new ArrayList<>();
+        try (Session session = CqlConfigHelper.getInputCluster(ConfigHelper.getInputInitialAddress(conf).split(","), conf).connect())
+        {
+            for (org.apache.cassandra.thrift.TokenRange range : ring)
+            {
+                // hadoop needs hostname, not ip
+                String[] endpoints = new String[range.endpoints.size()];
+                for (int i = 0; i < endpoints.length; i++)
+                    endpoints[i] = InetAddress.getByName(range.endpoints.get(i)).getHostName();
+
+                List<Range<Token>> pieces = SimilarityPartitioner.alignedRanges(factory.fromString(range.start_token),
+                                                                                factory.fromString(range.end_token),
+                                                                                planes,
+                                                                                bits);
+                long length = Math.max(1, estimatePartitions(session, range) / pieces.size());
+                for (Range<Token> piece : pieces)
+                {
+                    List<Pair<String, String>> neighbours = new ArrayList<>();
+                    for (int bit = planes - bits; bit < planes - bits + overlap; bit++)
+                    {
+                        for (Range<Token> neighbour : SimilarityPartitioner.hammingNeighbours(piece.left, piece.right, bit, planes))
+                            neighbours.add(Pair.create(toBinaryString(neighbour.left), toBinaryString(neighbour.right)));
+                    }
+
+                    SimilaritySplit split = new SimilaritySplit(toBinaryString(piece.left),
+                                                                toBinaryString(piece.right),
+                                                                length,
+                                                                endpoints,
+                                                                neighbours);
+                    logger.trace("adding {}", split);
+                    splits.add(split);
+                }
+            }
+        }
+
+        assert splits.size() > 0;
+        Collections.shuffle(splits, new Random(System.nanoTime()));
+        return splits;
+    }
+
+    /**
+     * @return the bits of a binary token, most significant first; unlike its toString, this does not pad them to the
+     * identifier length of the node's configuration, which a job has no access to
+     */
+    private static String toBinaryString(Token token)
+    {
+        BitSet bits = ((SimilarityPartitioner.BinaryToken) token).getTokenValue();
+        StringBuilder builder = new StringBuilder(bits.length());
+        for (int i = bits.length() - 1; i >= 0; i--)
+            builder.append(bits.get(i) ? '1' : '0');
+        return builder.toString();
+    }
+
+    /**
+     * @return the number of partitions of the range in the size estimates, or 128 if there are none
+     */
+    private long estimatePartitions(Session session, org.apache.cassandra.thrift.TokenRange range)
+    {
+        String query = String.format("SELECT partitions_count " +
+                                     "FROM %s.%s " +
+                                     "WHERE keyspace_name = ? AND table_name = ? AND range_start = ? AND range_end = ?",
+                                     SystemKeyspace.NAME,
+                                     SystemKeyspace.SIZE_ESTIMATES);
+        Row row = session.execute(query, keyspace, cfName, range.start_token, range.end_token).one();
+        return row == null ? 128 : row.getLong("partitions_count");
+    }
+
     private TokenRange rangeToTokenRange(Metadata metadata, Range<Token> range)
     {
         return metadata.newTokenRange(metadata.newToken(partitioner.getTokenFactory().toString(range.left)),
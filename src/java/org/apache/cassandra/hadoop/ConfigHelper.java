@@ -56,6 +56,9 @@ public class ConfigHelper
     private static final String INPUT_SPLIT_SIZE_CONFIG = "cassandra.input.split.size";
     private static final String INPUT_WIDEROWS_CONFIG = "cassandra.input.widerows";
     private static final int DEFAULT_SPLIT_SIZE = 64 * 1024;
+    private static final String INPUT_SIMILARITY_PLANES_CONFIG = "cassandra.input.split.similarity.planes";
+    private static final String INPUT_SIMILARITY_BITS_CONFIG = "cassandra.input.split.similarity.bits";
+    private static final String INPUT_SIMILARITY_OVERLAP_CONFIG = "cassandra.input.split.similarity.overlap";
     private static final String RANGE_BATCH_SIZE_CONFIG = "cassandra.range.batch.size";
     private static final int DEFAULT_RANGE_BATCH_SIZE = 4096;
     private static final String INPUT_THRIFT_PORT = "cassandra.input.thrift.port";
@@ -188,6 +191,44 @@ public class ConfigHelper
         return conf.getInt(INPUT_SPLIT_SIZE_CONFIG, DEFAULT_SPLIT_SIZE);
     }
 
+    /**
+     * Aligns the input splits to the buckets of the SimilarityPartitioner: every split holds the buckets sharing
+     * their first {@code bits} bits, or the part of them a single replica set owns, and lists the buckets that are
+     * the Hamming neighbours of its own across the last {@code overlap} of those bits. A similarity self-join can
+     * then pair the vectors of a split with those of its neighbour buckets without shuffling every vector.
+     *
+     * @param conf    Job configuration you are about to run
+     * @param planes  the number of hyperplanes of the cluster, that is the number of bits of its tokens
+     * @param bits    the number of leading bits the buckets of a split share
+     * @param overlap the number of those bits across which the neighbour buckets are read, at most {@code bits}
+     */
+    public static void setInputSimilaritySplits(Configuration conf, int planes, int bits, int overlap)
+    {
+        if (planes <= 0 || bits <= 0 || bits > planes || overlap < 0 || overlap > bits)
+            throw new IllegalArgumentException(String.format("invalid similarity splits: %d planes, %d bits, %d overlap", planes, bits, overlap));
+        conf.setInt(INPUT_SIMILARITY_PLANES_CONFIG, planes);
+        conf.setInt(INPUT_SIMILARITY_BITS_CONFIG, bits);
+        conf.setInt(INPUT_SIMILARITY_OVERLAP_CONFIG, overlap);
+    }
+
+    public static int getInputSimilarityPlanes(Configuration conf)
+    {
+        return conf.getInt(INPUT_SIMILARITY_PLANES_CONFIG, 0);
+    }
+
+    /**
+     * @return the number of leading bits the buckets of a split share, 0 if the splits are not aligned to buckets
+     */
+    public static int getInputSimilarityBits(Configuration conf)
+    {
+        return conf.getInt(INPUT_SIMILARITY_BITS_CONFIG, 0);
+    }
+
+    public static int getInputSimilarityOverlap(Configuration conf)
+    {
+        return conf.getInt(INPUT_SIMILARITY_OVERLAP_CONFIG, 0);
+    }
+
     /**
      * Set the predicate that determines what columns will be selected from each row.
      *
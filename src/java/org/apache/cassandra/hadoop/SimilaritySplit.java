@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.hadoop;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.utils.Pair;
+
+/**
+ * A split holding buckets of the SimilarityPartitioner that share their leading bits, and the token ranges of their
+ * Hamming neighbour buckets. The CqlRecordReader reads the neighbour buckets after the split's own, so that a mapper
+ * sees every pair of neighbour vectors involving one of its own; {@link #contains(Token)} tells its own rows apart.
+ *
+ * @see ConfigHelper#setInputSimilaritySplits
+ */
+public class SimilaritySplit extends ColumnFamilySplit
+{
+    private List<Pair<String, String>> neighbours;
+
+    public SimilaritySplit(String startToken, String endToken, long length, String[] dataNodes, List<Pair<String, String>> neighbours)
+    {
+        super(startToken, endToken, length, dataNodes);
+        this.neighbours = neighbours;
+    }
+
+    /**
+     * @return the start and end tokens of the token ranges of the neighbour buckets, in ring order
+     */
+    public List<Pair<String, String>> getNeighbours()
+    {
+        return Collections.unmodifiableList(neighbours);
+    }
+
+    /**
+     * @return whether {@code token} is in the split's own buckets rather than in the neighbour ones
+     */
+    public boolean contains(Token token)
+    {
+        Token.TokenFactory factory = SimilarityPartitioner.instance.getTokenFactory();
+        return new Range<>(factory.fromString(getStartToken()), factory.fromString(getEndToken())).contains(token);
+    }
+
+    // This should only be used by SimilaritySplit.read();
+    protected SimilaritySplit() {}
+
+    @Override
+    public void write(DataOutput out) throws IOException
+    {
+        super.write(out);
+        out.writeInt(neighbours.size());
+        for (Pair<String, String> neighbour : neighbours)
+        {
+            out.writeUTF(neighbour.left);
+            out.writeUTF(neighbour.right);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException
+    {
+        super.readFields(in);
+        int count = in.readInt();
+        neighbours = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            neighbours.add(Pair.create(in.readUTF(), in.readUTF()));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SimilaritySplit(" +
+               "(" + getStartToken()
+               + ", '" + getEndToken() + ']'
+               + " +" + neighbours.size() + " neighbours"
+               + " @" + (getLocations() == null ? null : Arrays.asList(getLocations())) + ')';
+    }
+
+    public static SimilaritySplit read(DataInput in) throws IOException
+    {
+        SimilaritySplit w = new SimilaritySplit();
+        w.readFields(in);
+        return w;
+    }
+}
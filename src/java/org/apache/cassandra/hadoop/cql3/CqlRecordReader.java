@@ -52,6 +52,7 @@ import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.hadoop.ColumnFamilySplit;
 import org.apache.cassandra.hadoop.ConfigHelper;
 import org.apache.cassandra.hadoop.HadoopCompat;
+import org.apache.cassandra.hadoop.SimilaritySplit;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.Pair;
 import org.apache.hadoop.conf.Configuration;
@@ -262,18 +263,33 @@ public class CqlRecordReader extends RecordReader<Long, Row>
         protected int totalRead = 0; // total number of cf rows read
         protected Iterator<Row> rows;
         private Map<String, ByteBuffer> previousRowKey = new HashMap<String, ByteBuffer>(); // previous CF row key
+        // the ranges of the neighbour buckets of a similarity split, read after its own
+        private final Iterator<Pair<String, String>> neighbours;
 
         public RowIterator()
         {
-            AbstractType type = partitioner.getTokenValidator();
-            ResultSet rs = session.execute(cqlQuery, type.compose(type.fromString(split.getStartToken())), type.compose(type.fromString(split.getEndToken())) );
+            ResultSet rs = execute(split.getStartToken(), split.getEndToken());
             for (ColumnMetadata meta : cluster.getMetadata().getKeyspace(quote(keyspace)).getTable(quote(cfName)).getPartitionKey())
                 partitionBoundColumns.put(meta.getName(), Boolean.TRUE);
             rows = rs.iterator();
+            neighbours = split instanceof SimilaritySplit
+                       ? ((SimilaritySplit) split).getNeighbours().iterator()
+                       : Collections.<Pair<String, String>>emptyIterator();
+        }
+
+        private ResultSet execute(String startToken, String endToken)
+        {
+            AbstractType type = partitioner.getTokenValidator();
+            return session.execute(cqlQuery, type.compose(type.fromString(startToken)), type.compose(type.fromString(endToken)));
         }
 
         protected Pair<Long, Row> computeNext()
         {
+            while ((rows == null || !rows.hasNext()) && neighbours.hasNext())
+            {
+                Pair<String, String> neighbour = neighbours.next();
+                rows = execute(neighbour.left, neighbour.right).iterator();
+            }
             if (rows == null || !rows.hasNext())
                 return endOfData();
 
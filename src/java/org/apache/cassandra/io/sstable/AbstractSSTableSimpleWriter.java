@@ -110,7 +110,7 @@ public abstract class AbstractSSTableSimpleWriter implements Closeable
         if (currentKey != null && !columnFamily.isEmpty())
             writeRow(currentKey, columnFamily);
 
-        currentKey = DatabaseDescriptor.getPartitioner().decorateKey(key);
+        currentKey = metadata.decorateKey(key);
         columnFamily = getColumnFamily();
     }
 
@@ -55,6 +55,10 @@ public class Component
         SUMMARY("Summary.db"),
         // table of contents, stores the list of all components for the sstable
         TOC("TOC.txt"),
+        // partition key vectors by random hyperplane bucket, with pointers to their positions in the index file
+        VECTORS("Vectors.db"),
+        // 8 bit quantized copies of the vectors of the vector index, in the same order
+        QUANTIZED_VECTORS("QuantizedVectors.db"),
         // custom component, used by e.g. custom compaction strategy
         CUSTOM(null);
 
@@ -83,6 +87,8 @@ public class Component
     public final static Component CRC = new Component(Type.CRC);
     public final static Component SUMMARY = new Component(Type.SUMMARY);
     public final static Component TOC = new Component(Type.TOC);
+    public final static Component VECTORS = new Component(Type.VECTORS);
+    public final static Component QUANTIZED_VECTORS = new Component(Type.QUANTIZED_VECTORS);
 
     public final Type type;
     public final String name;
@@ -136,6 +142,8 @@ public class Component
             case CRC:               component = Component.CRC;                          break;
             case SUMMARY:           component = Component.SUMMARY;                      break;
             case TOC:               component = Component.TOC;                          break;
+            case VECTORS:           component = Component.VECTORS;                      break;
+            case QUANTIZED_VECTORS: component = Component.QUANTIZED_VECTORS;            break;
             case CUSTOM:            component = new Component(Type.CUSTOM, path.right); break;
             default:
                  throw new IllegalStateException();
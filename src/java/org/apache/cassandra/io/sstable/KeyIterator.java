@@ -24,6 +24,7 @@ import com.google.common.collect.AbstractIterator;
 
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.RowIndexEntry;
+import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.io.util.RandomAccessReader;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.ByteBufferUtil;
@@ -32,11 +33,18 @@ import org.apache.cassandra.utils.CloseableIterator;
 public class KeyIterator extends AbstractIterator<DecoratedKey> implements CloseableIterator<DecoratedKey>
 {
     private final RandomAccessReader in;
+    private final IPartitioner partitioner;
 
     public KeyIterator(Descriptor desc)
+    {
+        this(desc, StorageService.getPartitioner());
+    }
+
+    public KeyIterator(Descriptor desc, IPartitioner partitioner)
     {
         File path = new File(desc.filenameFor(Component.PRIMARY_INDEX));
         in = RandomAccessReader.open(path);
+        this.partitioner = partitioner;
     }
 
     protected DecoratedKey computeNext()
@@ -45,7 +53,7 @@ public class KeyIterator extends AbstractIterator<DecoratedKey> implements Close
         {
             if (in.isEOF())
                 return endOfData();
-            DecoratedKey key = StorageService.getPartitioner().decorateKey(ByteBufferUtil.readWithShortLength(in));
+            DecoratedKey key = partitioner.decorateKey(ByteBufferUtil.readWithShortLength(in));
             RowIndexEntry.Serializer.skip(in); // skip remainder of the entry
             return key;
         }
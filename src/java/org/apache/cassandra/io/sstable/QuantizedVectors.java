@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.sstable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.io.FSReadError;
+import org.apache.cassandra.io.FSWriteError;
+import org.apache.cassandra.io.util.FileDataInput;
+import org.apache.cassandra.io.util.FileMark;
+import org.apache.cassandra.io.util.RandomAccessReader;
+import org.apache.cassandra.io.util.SegmentedFile;
+import org.apache.cassandra.io.util.SequentialWriter;
+import org.apache.cassandra.serializers.VectorSerializer;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
+import org.apache.cassandra.utils.concurrent.Transactional;
+
+/*
+ * Layout of the QuantizedVectors component:
+ *
+ *  1. One entry of {@code dimension} bytes per entry of the Vectors component, in the same order: each component
+ *     of the vector scaled so that the largest in absolute value is 127, and rounded.
+ *  2. A footer holding the dimension and the number of entries.
+ */
+/**
+ * The vectors of a {@link VectorIndex}, quantized to a byte per component. The scale of each vector is not kept:
+ * the cosine distance does not depend on it. Ranking the partitions of the buckets probed by their quantized vector
+ * reads a quarter of the bytes of their full vectors, which are then only read for the nearest candidates.
+ */
+public class QuantizedVectors implements AutoCloseable
+{
+    private static final Logger logger = LoggerFactory.getLogger(QuantizedVectors.class);
+
+    private static final int FOOTER_SIZE = 4 + 8;
+
+    private final SegmentedFile file;
+    private final int dimension;
+
+    private QuantizedVectors(SegmentedFile file, int dimension)
+    {
+        this.file = file;
+        this.dimension = dimension;
+    }
+
+    /**
+     * Opens the quantized vectors of an sstable, memory mapped if the index access mode is mmap.
+     *
+     * @return the quantized vectors, or null if they do not match the entries of the vector index
+     */
+    static QuantizedVectors open(Descriptor descriptor, int dimension, long entries)
+    {
+        String path = descriptor.filenameFor(Component.QUANTIZED_VECTORS);
+        int written;
+        long count;
+        try (RandomAccessReader reader = RandomAccessReader.open(new File(path)))
+        {
+            reader.seek(reader.length() - FOOTER_SIZE);
+            written = reader.readInt();
+            count = reader.readLong();
+        }
+        catch (IOException e)
+        {
+            throw new FSReadError(e, path);
+        }
+
+        if (written != dimension || count != entries)
+        {
+            logger.debug("Ignoring the quantized vectors of {}, {} of dimension {} for {} of dimension {}", descriptor, count, written, entries, dimension);
+            return null;
+        }
+
+        try (SegmentedFile.Builder builder = SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode(), false))
+        {
+            // entries must not straddle two segments
+            for (long i = 0; i <= entries; i++)
+                builder.addPotentialBoundary(i * dimension);
+            return new QuantizedVectors(builder.complete(path), dimension);
+        }
+    }
+
+    /**
+     * Quantizes the first {@code codes.length} components of a vector, missing ones being zeros.
+     */
+    static void quantize(double[] vector, byte[] codes)
+    {
+        int length = Math.min(vector.length, codes.length);
+        double scale = 0;
+        for (int j = 0; j < length; j++)
+            scale = Math.max(scale, Math.abs(vector[j]));
+
+        Arrays.fill(codes, (byte) 0);
+        if (scale == 0)
+            return;
+        for (int j = 0; j < length; j++)
+            codes[j] = (byte) Math.round(127 * vector[j] / scale);
+    }
+
+    /**
+     * Finds the entries nearest to a query vector by the cosine distance of their quantized vectors.
+     *
+     * @param query the query vector, extra components ignored
+     * @param queryNorm the norm of the first {@code dimension} components of the query
+     * @param ranges the entries to rank, as {first entry, number of entries}
+     * @param limit the maximum number of entries to return
+     * @return the nearest entries, in increasing order
+     */
+    long[] search(double[] query, double queryNorm, List<long[]> ranges, int limit) throws IOException
+    {
+        int length = Math.min(query.length, dimension);
+        byte[] codes = new byte[dimension];
+        PriorityQueue<VectorIndex.Neighbour> nearest = new PriorityQueue<>(limit + 1, Collections.reverseOrder());
+        for (long[] range : ranges)
+        {
+            long entry = range[0];
+            long end = range[0] + range[1];
+            while (entry < end)
+            {
+                try (FileDataInput in = file.getSegment(entry * dimension))
+                {
+                    // read on until the end of the range or of the segment
+                    while (entry < end && in.bytesRemaining() >= dimension)
+                    {
+                        in.readFully(codes);
+                        double product = 0;
+                        long norm = 0;
+                        for (int j = 0; j < dimension; j++)
+                        {
+                            if (j < length)
+                                product += query[j] * codes[j];
+                            norm += codes[j] * codes[j];
+                        }
+
+                        double distance = queryNorm == 0 || norm == 0 ? 1.0 : 1.0 - product / (queryNorm * Math.sqrt(norm));
+                        if (nearest.size() < limit)
+                            nearest.add(new VectorIndex.Neighbour(distance, entry));
+                        else if (distance < nearest.peek().distance)
+                        {
+                            nearest.poll();
+                            nearest.add(new VectorIndex.Neighbour(distance, entry));
+                        }
+                        entry++;
+                    }
+                }
+            }
+        }
+
+        long[] entries = new long[nearest.size()];
+        for (int i = 0; i < entries.length; i++)
+            entries[i] = nearest.poll().position;
+        Arrays.sort(entries);
+        return entries;
+    }
+
+    public void close()
+    {
+        file.close();
+    }
+
+    /**
+     * Writes the quantized vectors of an sstable, one partition at a time in the order of the vector index.
+     */
+    public static class Writer extends Transactional.AbstractTransactional implements Transactional
+    {
+        private final int dimension;
+        private final VectorSerializer layout;
+        private final SequentialWriter file;
+        private final byte[] codes;
+        private long entries;
+
+        private FileMark mark;
+        private long markedEntries;
+
+        /**
+         * @param layout the layout of the keys as packed vectors, or null if they are not of a vector type
+         */
+        public Writer(Descriptor descriptor, VectorSerializer layout)
+        {
+            this(descriptor, RandomHyperplaneHash.instance().dimension(), layout);
+        }
+
+        Writer(Descriptor descriptor, int dimension, VectorSerializer layout)
+        {
+            this.dimension = dimension;
+            this.layout = layout;
+            this.codes = new byte[dimension];
+            this.file = SequentialWriter.open(new File(descriptor.filenameFor(Component.QUANTIZED_VECTORS)));
+        }
+
+        public void append(DecoratedKey key)
+        {
+            quantize(RandomHyperplaneHash.vector(key.getKey(), layout), codes);
+            try
+            {
+                file.stream.write(codes);
+            }
+            catch (IOException e)
+            {
+                throw new FSWriteError(e, file.getPath());
+            }
+            entries++;
+        }
+
+        public void mark()
+        {
+            mark = file.mark();
+            markedEntries = entries;
+        }
+
+        public void resetAndTruncate()
+        {
+            file.resetAndTruncate(mark);
+            entries = markedEntries;
+        }
+
+        protected void doPrepare()
+        {
+            try
+            {
+                file.stream.writeInt(dimension);
+                file.stream.writeLong(entries);
+            }
+            catch (IOException e)
+            {
+                throw new FSWriteError(e, file.getPath());
+            }
+            file.prepareToCommit();
+        }
+
+        protected Throwable doCommit(Throwable accumulate)
+        {
+            return file.commit(accumulate);
+        }
+
+        protected Throwable doAbort(Throwable accumulate)
+        {
+            return file.abort(accumulate);
+        }
+    }
+}
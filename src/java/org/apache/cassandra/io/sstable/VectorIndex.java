@@ -0,0 +1,506 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.sstable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.primitives.UnsignedLongs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.SystemKeyspace;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.io.FSReadError;
+import org.apache.cassandra.io.FSWriteError;
+import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
+import org.apache.cassandra.io.util.FileDataInput;
+import org.apache.cassandra.io.util.FileMark;
+import org.apache.cassandra.io.util.RandomAccessReader;
+import org.apache.cassandra.io.util.SegmentedFile;
+import org.apache.cassandra.io.util.SequentialWriter;
+import org.apache.cassandra.serializers.VectorSerializer;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
+import org.apache.cassandra.utils.concurrent.Transactional;
+import org.apache.cassandra.utils.concurrent.WrappedSharedCloseable;
+
+/*
+ * Layout of the Vectors component:
+ *
+ * There are three sections:
+ *  1. One fixed size entry per partition, in the order of the partitions: the partition key read as a vector of
+ *     {@code dimension} floats, followed by the position of the partition in the primary index.
+ *  2. A directory of the buckets, sorted by signature: the {@code words} longs of the signature of a bucket, the
+ *     number of its first entry and its number of entries. The partitions being sorted by token, the entries of
+ *     a bucket are contiguous.
+ *  3. A footer holding the dimension, the number of hyperplanes, the number of entries and the number of buckets.
+ */
+/**
+ * An inverted list index of the partitions of an sstable by random hyperplane bucket, holding each partition's key
+ * as a packed vector. Finding the neighbours of a query vector among the buckets probed for it reads their vectors
+ * in place, through the mmapped file, then only the index entries of the nearest partitions, instead of scanning
+ * the buckets' partitions in the data file.
+ *
+ * When the sstable has {@link QuantizedVectors}, the partitions of the buckets probed are first ranked by their
+ * quantized vector, and only the nearest {@code similarity_rerank_candidates} are ranked again by their full vector.
+ *
+ * The index is only used with the hyperplanes it was built with: an index built with a different number of
+ * hyperplanes, or of a different dimension, is ignored until compaction rewrites it.
+ */
+public class VectorIndex extends WrappedSharedCloseable
+{
+    private static final Logger logger = LoggerFactory.getLogger(VectorIndex.class);
+
+    private static final int FOOTER_SIZE = 4 + 4 + 8 + 8;
+
+    private final SegmentedFile file;
+    private final int dimension;
+    private final int words;
+    private final long entries;
+    private final long buckets;
+    // null if the sstable has no quantized vectors
+    private final QuantizedVectors quantized;
+
+    private VectorIndex(SegmentedFile file, int dimension, int words, long entries, long buckets, QuantizedVectors quantized)
+    {
+        super(quantized == null ? new AutoCloseable[]{ file } : new AutoCloseable[]{ file, quantized });
+        this.file = file;
+        this.dimension = dimension;
+        this.words = words;
+        this.entries = entries;
+        this.buckets = buckets;
+        this.quantized = quantized;
+    }
+
+    private VectorIndex(VectorIndex copy)
+    {
+        super(copy);
+        this.file = copy.file;
+        this.dimension = copy.dimension;
+        this.words = copy.words;
+        this.entries = copy.entries;
+        this.buckets = copy.buckets;
+        this.quantized = copy.quantized;
+    }
+
+    public VectorIndex sharedCopy()
+    {
+        return new VectorIndex(this);
+    }
+
+    /**
+     * @return true if the sstables of the table are written with a vector index
+     */
+    public static boolean isIndexed(CFMetaData metadata, IPartitioner partitioner)
+    {
+        return partitioner instanceof SimilarityPartitioner
+               && DatabaseDescriptor.hasVectors()
+               && !SystemKeyspace.NAME.equals(metadata.ksName);
+    }
+
+    private static int entrySize(int dimension)
+    {
+        return 4 * dimension + 8;
+    }
+
+    private static int bucketSize(int words)
+    {
+        return 8 * words + 8 + 8;
+    }
+
+    /**
+     * Opens the vector index of an sstable, memory mapped if the index access mode is mmap.
+     *
+     * @param quantized whether the sstable has quantized vectors
+     * @return the index, or null if it was built with other hyperplanes than the configured ones
+     */
+    public static VectorIndex open(Descriptor descriptor, boolean quantized)
+    {
+        return open(descriptor, RandomHyperplaneHash.instance(), quantized);
+    }
+
+    @VisibleForTesting
+    static VectorIndex open(Descriptor descriptor, RandomHyperplaneHash hash, boolean quantized)
+    {
+        String path = descriptor.filenameFor(Component.VECTORS);
+        int dimension, planes;
+        long entries, buckets;
+        long length;
+        try (RandomAccessReader reader = RandomAccessReader.open(new File(path)))
+        {
+            length = reader.length();
+            reader.seek(length - FOOTER_SIZE);
+            dimension = reader.readInt();
+            planes = reader.readInt();
+            entries = reader.readLong();
+            buckets = reader.readLong();
+        }
+        catch (IOException e)
+        {
+            throw new FSReadError(e, path);
+        }
+
+        if (dimension != hash.dimension() || planes != hash.planes())
+        {
+            logger.debug("Ignoring the vector index of {}, built for {} hyperplanes of dimension {}", descriptor, planes, dimension);
+            return null;
+        }
+
+        int words = (planes + 63) / 64;
+        try (SegmentedFile.Builder builder = SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode(), false))
+        {
+            // entries must not straddle two segments
+            long position = 0;
+            for (long i = 0; i < entries; i++, position += entrySize(dimension))
+                builder.addPotentialBoundary(position);
+            for (long i = 0; i < buckets; i++, position += bucketSize(words))
+                builder.addPotentialBoundary(position);
+            builder.addPotentialBoundary(position);
+            assert position == length - FOOTER_SIZE : position + " != " + (length - FOOTER_SIZE);
+
+            return new VectorIndex(builder.complete(path),
+                                   dimension,
+                                   words,
+                                   entries,
+                                   buckets,
+                                   quantized ? QuantizedVectors.open(descriptor, dimension, entries) : null);
+        }
+    }
+
+    public long size()
+    {
+        return entries;
+    }
+
+    /**
+     * Finds the nearest partitions to a query vector, by cosine distance, among the buckets of the signatures
+     * probed.
+     *
+     * @param query the query vector, extra components ignored
+     * @param probes the signatures of the buckets to search
+     * @param limit the maximum number of partitions to return
+     * @return the positions in the primary index of the nearest partitions, nearest first
+     */
+    public long[] search(double[] query, List<long[]> probes, int limit)
+    {
+        return search(query, probes, limit, DatabaseDescriptor.getSimilarityRerankCandidates());
+    }
+
+    /**
+     * @param candidates the number of partitions ranked by their full vector when there are quantized vectors, or
+     * 0 to rank them all by their full vector
+     */
+    @VisibleForTesting
+    long[] search(double[] query, List<long[]> probes, int limit, int candidates)
+    {
+        double queryNorm = 0;
+        for (int j = 0, length = Math.min(query.length, dimension); j < length; j++)
+            queryNorm += query[j] * query[j];
+        queryNorm = Math.sqrt(queryNorm);
+
+        PriorityQueue<Neighbour> nearest = new PriorityQueue<>(limit + 1, Collections.reverseOrder());
+        try
+        {
+            // the entries of the buckets probed, as {first entry, number of entries}
+            List<long[]> ranges = new ArrayList<>(probes.size());
+            long count = 0;
+            for (long[] probe : probes)
+            {
+                long bucket = findBucket(probe);
+                if (bucket < 0)
+                    continue;
+
+                try (FileDataInput in = file.getSegment(bucketPosition(bucket) + 8L * words))
+                {
+                    long[] range = new long[]{ in.readLong(), in.readLong() };
+                    ranges.add(range);
+                    count += range[1];
+                }
+            }
+
+            if (quantized == null || candidates == 0 || count <= Math.max(candidates, limit))
+            {
+                for (long[] range : ranges)
+                    scan(query, queryNorm, range[0], range[1], limit, nearest);
+            }
+            else
+            {
+                // only the full vectors of the candidates nearest by quantized vector are read
+                for (long entry : quantized.search(query, queryNorm, ranges, Math.max(candidates, limit)))
+                    scan(query, queryNorm, entry, 1, limit, nearest);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new FSReadError(e, file.path());
+        }
+
+        long[] positions = new long[nearest.size()];
+        for (int i = positions.length - 1; i >= 0; i--)
+            positions[i] = nearest.poll().position;
+        return positions;
+    }
+
+    private void scan(double[] query, double queryNorm, long first, long count, int limit, PriorityQueue<Neighbour> nearest) throws IOException
+    {
+        int length = Math.min(query.length, dimension);
+        long position = first * entrySize(dimension);
+        long end = position + count * entrySize(dimension);
+        while (position < end)
+        {
+            try (FileDataInput in = file.getSegment(position))
+            {
+                // read on until the end of the bucket or of the segment
+                while (position < end && in.bytesRemaining() >= entrySize(dimension))
+                {
+                    double product = 0, norm = 0;
+                    for (int j = 0; j < dimension; j++)
+                    {
+                        double component = in.readFloat();
+                        if (j < length)
+                            product += query[j] * component;
+                        norm += component * component;
+                    }
+                    long indexPosition = in.readLong();
+                    position += entrySize(dimension);
+
+                    double distance = queryNorm == 0 || norm == 0 ? 1.0 : 1.0 - product / (queryNorm * Math.sqrt(norm));
+                    if (nearest.size() < limit)
+                        nearest.add(new Neighbour(distance, indexPosition));
+                    else if (distance < nearest.peek().distance)
+                    {
+                        nearest.poll();
+                        nearest.add(new Neighbour(distance, indexPosition));
+                    }
+                }
+            }
+        }
+    }
+
+    private long bucketPosition(long bucket)
+    {
+        return entries * entrySize(dimension) + bucket * bucketSize(words);
+    }
+
+    /**
+     * @return the number of the bucket of signature {@code probe} in the directory, or -1 if the sstable has no
+     * partition in that bucket
+     */
+    private long findBucket(long[] probe) throws IOException
+    {
+        long low = 0, high = buckets - 1;
+        while (low <= high)
+        {
+            long middle = (low + high) >>> 1;
+            int cmp;
+            try (FileDataInput in = file.getSegment(bucketPosition(middle)))
+            {
+                long[] signature = new long[words];
+                for (int i = 0; i < words; i++)
+                    signature[i] = in.readLong();
+                cmp = compare(signature, probe);
+            }
+            if (cmp < 0)
+                low = middle + 1;
+            else if (cmp > 0)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+
+    /**
+     * Orders signatures as unsigned numbers, in the layout of {@link java.util.BitSet#toLongArray()}; missing words
+     * are zeros.
+     */
+    static int compare(long[] s1, long[] s2)
+    {
+        for (int i = Math.max(s1.length, s2.length) - 1; i >= 0; i--)
+        {
+            int cmp = UnsignedLongs.compare(i < s1.length ? s1[i] : 0, i < s2.length ? s2[i] : 0);
+            if (cmp != 0)
+                return cmp;
+        }
+        return 0;
+    }
+
+    static final class Neighbour implements Comparable<Neighbour>
+    {
+        final double distance;
+        final long position;
+
+        Neighbour(double distance, long position)
+        {
+            this.distance = distance;
+            this.position = position;
+        }
+
+        public int compareTo(Neighbour other)
+        {
+            return Double.compare(distance, other.distance);
+        }
+    }
+
+    /**
+     * Writes the vector index of an sstable, one partition at a time in token order.
+     */
+    public static class Writer extends Transactional.AbstractTransactional implements Transactional
+    {
+        private final RandomHyperplaneHash hash;
+        private final VectorSerializer layout;
+        private final MetadataCollector collector;
+        private final SequentialWriter file;
+        // the buckets written so far, in token order, as {signature, first entry, count}
+        private final List<Bucket> buckets = new ArrayList<>();
+        private long entries;
+
+        private FileMark mark;
+        private long markedEntries;
+
+        /**
+         * @param layout the layout of the keys as packed vectors, or null if they are not of a vector type
+         * @param collector the collector of the sstable's metadata, to which the vectors are added
+         */
+        public Writer(Descriptor descriptor, VectorSerializer layout, MetadataCollector collector)
+        {
+            this(descriptor, RandomHyperplaneHash.instance(), layout, collector);
+        }
+
+        @VisibleForTesting
+        Writer(Descriptor descriptor, RandomHyperplaneHash hash, VectorSerializer layout, MetadataCollector collector)
+        {
+            this.hash = hash;
+            this.layout = layout;
+            this.collector = collector;
+            this.file = SequentialWriter.open(new File(descriptor.filenameFor(Component.VECTORS)));
+        }
+
+        /**
+         * @param indexPosition the position of the partition's entry in the primary index
+         */
+        public void append(DecoratedKey key, long indexPosition)
+        {
+            double[] vector = RandomHyperplaneHash.vector(key.getKey(), layout);
+            long[] signature = hash.hash(vector);
+            if (collector != null)
+                collector.addVector(Arrays.copyOf(vector, hash.dimension()), signature, hash.planes());
+            try
+            {
+                for (int j = 0; j < hash.dimension(); j++)
+                    file.stream.writeFloat(j < vector.length ? (float) vector[j] : 0f);
+                file.stream.writeLong(indexPosition);
+            }
+            catch (IOException e)
+            {
+                throw new FSWriteError(e, file.getPath());
+            }
+
+            Bucket last = buckets.isEmpty() ? null : buckets.get(buckets.size() - 1);
+            if (last != null && compare(last.signature, signature) == 0)
+                last.count++;
+            else
+                buckets.add(new Bucket(signature.clone(), entries));
+            entries++;
+        }
+
+        public void mark()
+        {
+            mark = file.mark();
+            markedEntries = entries;
+        }
+
+        public void resetAndTruncate()
+        {
+            file.resetAndTruncate(mark);
+            entries = markedEntries;
+            while (!buckets.isEmpty() && buckets.get(buckets.size() - 1).first >= entries)
+                buckets.remove(buckets.size() - 1);
+            if (!buckets.isEmpty())
+            {
+                Bucket last = buckets.get(buckets.size() - 1);
+                last.count = entries - last.first;
+            }
+        }
+
+        protected void doPrepare()
+        {
+            Collections.sort(buckets, new Comparator<Bucket>()
+            {
+                public int compare(Bucket b1, Bucket b2)
+                {
+                    return VectorIndex.compare(b1.signature, b2.signature);
+                }
+            });
+
+            try
+            {
+                for (Bucket bucket : buckets)
+                {
+                    for (int i = 0; i < hash.words(); i++)
+                        file.stream.writeLong(i < bucket.signature.length ? bucket.signature[i] : 0L);
+                    file.stream.writeLong(bucket.first);
+                    file.stream.writeLong(bucket.count);
+                }
+                file.stream.writeInt(hash.dimension());
+                file.stream.writeInt(hash.planes());
+                file.stream.writeLong(entries);
+                file.stream.writeLong(buckets.size());
+            }
+            catch (IOException e)
+            {
+                throw new FSWriteError(e, file.getPath());
+            }
+            file.prepareToCommit();
+        }
+
+        protected Throwable doCommit(Throwable accumulate)
+        {
+            return file.commit(accumulate);
+        }
+
+        protected Throwable doAbort(Throwable accumulate)
+        {
+            return file.abort(accumulate);
+        }
+
+        private static final class Bucket
+        {
+            private final long[] signature;
+            private final long first;
+            private long count = 1;
+
+            private Bucket(long[] signature, long first)
+            {
+                this.signature = signature;
+                this.first = first;
+            }
+        }
+    }
+}
@@ -60,7 +60,6 @@ import org.apache.cassandra.metrics.RestorableMeter;
 import org.apache.cassandra.metrics.StorageMetrics;
 import org.apache.cassandra.service.ActiveRepairService;
 import org.apache.cassandra.service.CacheService;
-import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.*;
 import org.apache.cassandra.utils.concurrent.OpOrder;
 import org.slf4j.Logger;
@@ -195,6 +194,11 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
     protected SegmentedFile dfile;
     protected IndexSummary indexSummary;
     protected IFilter bf;
+    // null unless the sstable has a vector index built with the configured hyperplanes
+    protected VectorIndex vectorIndex;
+    // the vector summary of the sstable, read on first use; null if it was written without one
+    private volatile SimilarityMetadata similarityMetadata;
+    private volatile boolean similarityMetadataLoaded;
 
     protected final RowIndexEntry.IndexSerializer rowIndexEntrySerializer;
 
@@ -354,7 +358,7 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
     {
         IPartitioner p = desc.cfname.contains(SECONDARY_INDEX_NAME_SEPARATOR)
                 ? new LocalPartitioner(metadata.getKeyValidator())
-                : StorageService.getPartitioner();
+                : metadata.partitioner();
         return open(desc, componentsFor(desc), metadata, p);
     }
 
@@ -383,6 +387,7 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
     {
         // Minimum components without which we can't do anything
         assert components.contains(Component.DATA) : "Data component is missing for sstable " + descriptor;
+        partitioner = SimilarityPartitioner.forKeyValidator(partitioner, metadata.getKeyValidator());
         assert components.contains(Component.PRIMARY_INDEX) : "Primary index component is missing for sstable " + descriptor;
 
         Map<MetadataType, MetadataComponent> sstableMetadata = descriptor.getMetadataSerializer().deserialize(descriptor,
@@ -430,6 +435,7 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
     {
         // Minimum components without which we can't do anything
         assert components.contains(Component.DATA) : "Data component is missing for sstable " + descriptor;
+        partitioner = SimilarityPartitioner.forKeyValidator(partitioner, metadata.getKeyValidator());
         assert !validate || components.contains(Component.PRIMARY_INDEX) : "Primary index component is missing for sstable " + descriptor;
 
         Map<MetadataType, MetadataComponent> sstableMetadata = descriptor.getMetadataSerializer().deserialize(descriptor,
@@ -551,6 +557,25 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
                                       long maxDataAge,
                                       StatsMetadata sstableMetadata,
                                       OpenReason openReason)
+    {
+        return internalOpen(desc, components, metadata, partitioner, ifile, dfile, isummary, bf, null, maxDataAge, sstableMetadata, openReason);
+    }
+
+    /**
+     * Open a RowIndexedReader which already has its state initialized (by SSTableWriter), with an optional vector index.
+     */
+    public static SSTableReader internalOpen(Descriptor desc,
+                                      Set<Component> components,
+                                      CFMetaData metadata,
+                                      IPartitioner partitioner,
+                                      SegmentedFile ifile,
+                                      SegmentedFile dfile,
+                                      IndexSummary isummary,
+                                      IFilter bf,
+                                      VectorIndex vectorIndex,
+                                      long maxDataAge,
+                                      StatsMetadata sstableMetadata,
+                                      OpenReason openReason)
     {
         assert desc != null && partitioner != null && ifile != null && dfile != null && isummary != null && bf != null && sstableMetadata != null;
 
@@ -560,6 +585,7 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
         reader.ifile = ifile;
         reader.dfile = dfile;
         reader.indexSummary = isummary;
+        reader.vectorIndex = vectorIndex;
         reader.setup(true);
 
         return reader;
@@ -658,12 +684,20 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
             // bf fp chance in sstable metadata and it has changed since compaction.
             load(true, true);
         }
+        else if (FilterFactory.isSimilarityPartitioner() && !descriptor.version.hasAlignedSimilarityFilter())
+        {
+            // the similarity filters of older versions hash and lay out their tables differently
+            load(true, true);
+        }
         else
         {
             // bf is enabled and fp chance matches the currently configured value.
             load(false, true);
             loadBloomFilter();
         }
+
+        if (components.contains(Component.VECTORS) && DatabaseDescriptor.hasVectors())
+            vectorIndex = VectorIndex.open(descriptor, components.contains(Component.QUANTIZED_VECTORS));
     }
 
     /**
@@ -673,10 +707,7 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
      */
     private void loadBloomFilter() throws IOException
     {
-        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(descriptor.filenameFor(Component.FILTER)))))
-        {
-            bf = FilterFactory.deserialize(stream, true);
-        }
+        bf = FilterFactory.load(new File(descriptor.filenameFor(Component.FILTER)), true);
     }
 
     /**
@@ -1056,6 +1087,7 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
                                                  dfile.sharedCopy(),
                                                  newSummary,
                                                  bf.sharedCopy(),
+                                                 vectorIndex != null ? vectorIndex.sharedCopy() : null,
                                                  maxDataAge,
                                                  sstableMetadata,
                                                  reason);
@@ -1619,6 +1651,64 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
         return null;
     }
 
+    /**
+     * @return true if the partitions of this sstable can be searched by vector with {@link #nearestNeighbours}
+     */
+    public boolean hasVectorIndex()
+    {
+        return vectorIndex != null;
+    }
+
+    /**
+     * @return the summary of the vectors of this sstable, or null if it has none
+     */
+    public SimilarityMetadata getSimilarityMetadata()
+    {
+        if (!similarityMetadataLoaded)
+        {
+            try
+            {
+                similarityMetadata = (SimilarityMetadata) descriptor.getMetadataSerializer().deserialize(descriptor, MetadataType.SIMILARITY);
+            }
+            catch (IOException e)
+            {
+                SSTableReader.logOpenException(descriptor, e);
+            }
+            similarityMetadataLoaded = true;
+        }
+        return similarityMetadata;
+    }
+
+    /**
+     * Finds the partitions of this sstable nearest to a query vector, by cosine distance, among the buckets probed
+     * for it, through the vector index.
+     *
+     * @param query the query vector
+     * @param probes the signatures of the buckets to search
+     * @param limit the maximum number of partitions to return
+     * @return the keys of the nearest partitions, nearest first
+     */
+    public List<DecoratedKey> nearestNeighbours(double[] query, List<long[]> probes, int limit)
+    {
+        assert vectorIndex != null : "No vector index for " + descriptor;
+
+        long[] positions = vectorIndex.search(query, probes, limit);
+        List<DecoratedKey> keys = new ArrayList<>(positions.length);
+        for (long position : positions)
+        {
+            try (FileDataInput in = ifile.getSegment(position))
+            {
+                keys.add(partitioner.decorateKey(ByteBufferUtil.readWithShortLength(in)));
+            }
+            catch (IOException e)
+            {
+                markSuspect();
+                throw new CorruptSSTableException(e, ifile.path());
+            }
+        }
+        return keys;
+    }
+
     /**
      * @return The length in bytes of the data for this SSTable. For
      * compressed files, this is not the same thing as the on disk size (see
@@ -2013,6 +2103,7 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
         private final CFMetaData metadata;
         private IFilter bf;
         private IndexSummary summary;
+        private VectorIndex vectorIndex;
 
         private SegmentedFile dfile;
         private SegmentedFile ifile;
@@ -2035,6 +2126,7 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
             this.setup = true;
             this.bf = reader.bf;
             this.summary = reader.indexSummary;
+            this.vectorIndex = reader.vectorIndex;
             this.dfile = reader.dfile;
             this.ifile = reader.ifile;
             // get a new reference to the shared descriptor-type tidy
@@ -2077,6 +2169,8 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
                         bf.close();
                     if (summary != null)
                         summary.close();
+                    if (vectorIndex != null)
+                        vectorIndex.close();
                     if (runOnClose != null)
                         runOnClose.run();
                     if (dfile != null)
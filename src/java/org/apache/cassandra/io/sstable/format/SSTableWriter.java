@@ -27,9 +27,11 @@ import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.RowIndexEntry;
 import org.apache.cassandra.db.compaction.AbstractCompactedRow;
 import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.SimilarityPartitioner;
 import org.apache.cassandra.io.sstable.Component;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.SSTable;
+import org.apache.cassandra.io.sstable.VectorIndex;
 import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
 import org.apache.cassandra.io.sstable.metadata.MetadataComponent;
 import org.apache.cassandra.io.sstable.metadata.MetadataType;
@@ -71,7 +73,7 @@ public abstract class SSTableWriter extends SSTable implements Transactional
 
     protected SSTableWriter(Descriptor descriptor, long keyCount, long repairedAt, CFMetaData metadata, IPartitioner partitioner, MetadataCollector metadataCollector)
     {
-        super(descriptor, components(metadata), metadata, partitioner);
+        super(descriptor, components(metadata, partitioner), metadata, partitioner);
         this.keyCount = keyCount;
         this.repairedAt = repairedAt;
         this.metadataCollector = metadataCollector;
@@ -81,6 +83,7 @@ public abstract class SSTableWriter extends SSTable implements Transactional
     public static SSTableWriter create(Descriptor descriptor, Long keyCount, Long repairedAt, CFMetaData metadata,  IPartitioner partitioner, MetadataCollector metadataCollector)
     {
         Factory writerFactory = descriptor.getFormat().getWriterFactory();
+        partitioner = SimilarityPartitioner.forKeyValidator(partitioner, metadata.getKeyValidator());
         return writerFactory.open(descriptor, keyCount, repairedAt, metadata, partitioner, metadataCollector);
     }
 
@@ -116,7 +119,7 @@ public abstract class SSTableWriter extends SSTable implements Transactional
         return create(Descriptor.fromFilename(filename), keyCount, repairedAt, 0);
     }
 
-    private static Set<Component> components(CFMetaData metadata)
+    private static Set<Component> components(CFMetaData metadata, IPartitioner partitioner)
     {
         Set<Component> components = new HashSet<Component>(Arrays.asList(Component.DATA,
                 Component.PRIMARY_INDEX,
@@ -138,6 +141,12 @@ public abstract class SSTableWriter extends SSTable implements Transactional
             // but the components are unmodifiable after construction
             components.add(Component.CRC);
         }
+
+        if (VectorIndex.isIndexed(metadata, partitioner))
+        {
+            components.add(Component.VECTORS);
+            components.add(Component.QUANTIZED_VECTORS);
+        }
         return components;
     }
 
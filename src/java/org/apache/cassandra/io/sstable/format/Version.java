@@ -52,6 +52,10 @@ public abstract class Version
 
     public abstract boolean hasNewFileName();
 
+    public abstract boolean hasSimilarityMetadata();
+
+    public abstract boolean hasAlignedSimilarityFilter();
+
     public String getVersion()
     {
         return version;
@@ -36,6 +36,7 @@ import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.compaction.AbstractCompactedRow;
 import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.SimilarityPartitioner;
 import org.apache.cassandra.io.FSWriteError;
 import org.apache.cassandra.io.compress.CompressedSequentialWriter;
 import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
@@ -342,6 +343,10 @@ public class BigTableWriter extends SSTableWriter
         // finalize in-memory state for the reader
         SegmentedFile ifile = iwriter.builder.complete(desc.filenameFor(Component.PRIMARY_INDEX));
         SegmentedFile dfile = dbuilder.complete(desc.filenameFor(Component.DATA));
+        // the vector index is only complete once prepared
+        VectorIndex vectors = iwriter.vectors != null && openReason == SSTableReader.OpenReason.NORMAL
+                            ? VectorIndex.open(desc, iwriter.quantized != null)
+                            : null;
         SSTableReader sstable = SSTableReader.internalOpen(desc.asType(Descriptor.Type.FINAL),
                                                            components,
                                                            this.metadata,
@@ -350,6 +355,7 @@ public class BigTableWriter extends SSTableWriter
                                                            dfile,
                                                            iwriter.summary.build(partitioner),
                                                            iwriter.bf.sharedCopy(),
+                                                           vectors,
                                                            maxDataAge,
                                                            stats,
                                                            openReason);
@@ -433,7 +439,7 @@ public class BigTableWriter extends SSTableWriter
         File file = new File(desc.filenameFor(Component.STATS));
         try (SequentialWriter out = SequentialWriter.open(file);)
         {
-            desc.getMetadataSerializer().serialize(components, out.stream);
+            desc.getMetadataSerializer().serialize(components, out.stream, desc.version);
             out.setDescriptor(desc).finish();
         }
         catch (IOException e)
@@ -461,6 +467,9 @@ public class BigTableWriter extends SSTableWriter
         public final SegmentedFile.Builder builder;
         public final IndexSummaryBuilder summary;
         public final IFilter bf;
+        // null unless the partition keys are indexed by vector
+        private final VectorIndex.Writer vectors;
+        private final QuantizedVectors.Writer quantized;
         private FileMark mark;
 
         IndexWriter(long keyCount, final SequentialWriter dataFile)
@@ -469,6 +478,8 @@ public class BigTableWriter extends SSTableWriter
             builder = SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode(), false);
             summary = new IndexSummaryBuilder(keyCount, metadata.getMinIndexInterval(), Downsampling.BASE_SAMPLING_LEVEL);
             bf = FilterFactory.getFilter(keyCount, metadata.getBloomFilterFpChance(), true);
+            vectors = components.contains(Component.VECTORS) ? new VectorIndex.Writer(descriptor, SimilarityPartitioner.keyLayout(partitioner), metadataCollector) : null;
+            quantized = components.contains(Component.QUANTIZED_VECTORS) ? new QuantizedVectors.Writer(descriptor, SimilarityPartitioner.keyLayout(partitioner)) : null;
             // register listeners to be alerted when the data files are flushed
             indexFile.setPostFlushListener(new Runnable()
             {
@@ -512,6 +523,10 @@ public class BigTableWriter extends SSTableWriter
 
             summary.maybeAddEntry(key, indexStart, indexEnd, dataEnd);
             builder.addPotentialBoundary(indexStart);
+            if (vectors != null)
+                vectors.append(key, indexStart);
+            if (quantized != null)
+                quantized.append(key);
         }
 
         /**
@@ -540,6 +555,10 @@ public class BigTableWriter extends SSTableWriter
         public void mark()
         {
             mark = indexFile.mark();
+            if (vectors != null)
+                vectors.mark();
+            if (quantized != null)
+                quantized.mark();
         }
 
         public void resetAndTruncate()
@@ -548,6 +567,10 @@ public class BigTableWriter extends SSTableWriter
             // we can't reset dbuilder either, but that is the last thing called in afterappend so
             // we assume that if that worked then we won't be trying to reset.
             indexFile.resetAndTruncate(mark);
+            if (vectors != null)
+                vectors.resetAndTruncate();
+            if (quantized != null)
+                quantized.resetAndTruncate();
         }
 
         protected void doPrepare()
@@ -559,6 +582,11 @@ public class BigTableWriter extends SSTableWriter
             iwriter.indexFile.setDescriptor(descriptor).prepareToCommit();
             FileUtils.truncate(iwriter.indexFile.getPath(), position);
 
+            if (vectors != null)
+                vectors.prepareToCommit();
+            if (quantized != null)
+                quantized.prepareToCommit();
+
             // save summary
             summary.prepareToCommit();
             try (IndexSummary summary = iwriter.summary.build(partitioner))
@@ -569,12 +597,22 @@ public class BigTableWriter extends SSTableWriter
 
         protected Throwable doCommit(Throwable accumulate)
         {
-            return indexFile.commit(accumulate);
+            accumulate = indexFile.commit(accumulate);
+            if (vectors != null)
+                accumulate = vectors.commit(accumulate);
+            if (quantized != null)
+                accumulate = quantized.commit(accumulate);
+            return accumulate;
         }
 
         protected Throwable doAbort(Throwable accumulate)
         {
-            return indexFile.abort(accumulate);
+            accumulate = indexFile.abort(accumulate);
+            if (vectors != null)
+                accumulate = vectors.abort(accumulate);
+            if (quantized != null)
+                accumulate = quantized.abort(accumulate);
+            return accumulate;
         }
 
         @Override
@@ -102,6 +102,8 @@ public class MetadataCollector
      * See CASSANDRA-5906 for detail.
      */
     protected ICardinality cardinality = new HyperLogLogPlus(13, 25);
+    // null unless the keys are added as vectors
+    protected SimilarityMetadata.Builder similarity;
     private final CellNameType columnNameComparator;
 
     public MetadataCollector(CellNameType columnNameComparator)
@@ -141,6 +143,19 @@ public class MetadataCollector
         return this;
     }
 
+    /**
+     * @param vector the key read as a vector, of the dimension of the hyperplanes
+     * @param signature the signature of the key's bucket
+     * @param planes the number of hyperplanes
+     */
+    public MetadataCollector addVector(double[] vector, long[] signature, int planes)
+    {
+        if (similarity == null)
+            similarity = new SimilarityMetadata.Builder(vector.length, planes);
+        similarity.add(vector, signature);
+        return this;
+    }
+
     public MetadataCollector addRowSize(long rowSize)
     {
         estimatedRowSize.add(rowSize);
@@ -269,6 +284,8 @@ public class MetadataCollector
                                                              hasLegacyCounterShards,
                                                              repairedAt));
         components.put(MetadataType.COMPACTION, new CompactionMetadata(ancestors, cardinality));
+        if (similarity != null)
+            components.put(MetadataType.SIMILARITY, similarity.build());
         return components;
     }
 }
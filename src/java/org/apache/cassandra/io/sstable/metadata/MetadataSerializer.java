@@ -20,13 +20,15 @@ package org.apache.cassandra.io.sstable.metadata;
 import java.io.*;
 import java.util.*;
 
-import com.google.common.collect.Lists;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.cassandra.io.sstable.Component;
 import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.format.Version;
 import org.apache.cassandra.io.util.DataOutputPlus;
 import org.apache.cassandra.io.util.DataOutputStreamPlus;
 import org.apache.cassandra.io.util.FileDataInput;
@@ -49,14 +51,19 @@ public class MetadataSerializer implements IMetadataSerializer
 {
     private static final Logger logger = LoggerFactory.getLogger(MetadataSerializer.class);
 
-    public void serialize(Map<MetadataType, MetadataComponent> components, DataOutputPlus out) throws IOException
+    public void serialize(Map<MetadataType, MetadataComponent> components, DataOutputPlus out, Version version) throws IOException
     {
-        // sort components by type
-        List<MetadataComponent> sortedComponents = Lists.newArrayList(components.values());
+        // sort components by type, skipping the optional ones that are absent or that the version has no room for
+        List<MetadataComponent> sortedComponents = new ArrayList<>();
+        for (MetadataComponent component : Iterables.filter(components.values(), Predicates.notNull()))
+        {
+            if (component.getType() != MetadataType.SIMILARITY || version.hasSimilarityMetadata())
+                sortedComponents.add(component);
+        }
         Collections.sort(sortedComponents);
 
         // write number of component
-        out.writeInt(components.size());
+        out.writeInt(sortedComponents.size());
         // build and write toc
         int lastPosition = 4 + (8 * sortedComponents.size());
         for (MetadataComponent component : sortedComponents)
@@ -117,7 +124,8 @@ public class MetadataSerializer implements IMetadataSerializer
         {
             MetadataComponent component = null;
             Integer offset = toc.get(type);
-            if (offset != null)
+            // the versions without similarity metadata have none, whatever their toc lists
+            if (offset != null && (type != MetadataType.SIMILARITY || descriptor.version.hasSimilarityMetadata()))
             {
                 in.seek(offset);
                 component = type.serializer.deserialize(descriptor.version, in);
@@ -153,7 +161,7 @@ public class MetadataSerializer implements IMetadataSerializer
 
         try (DataOutputStreamPlus out = new BufferedDataOutputStreamPlus(new FileOutputStream(tmpDescriptor.filenameFor(Component.STATS))))
         {
-            serialize(currentComponents, out);
+            serialize(currentComponents, out, descriptor.version);
             out.flush();
         }
         // we cant move a file on top of another file in windows:
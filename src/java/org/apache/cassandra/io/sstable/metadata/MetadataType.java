@@ -27,7 +27,9 @@ public enum MetadataType
     /** Metadata only used at compaction */
     COMPACTION(CompactionMetadata.serializer),
     /** Metadata always keep in memory */
-    STATS(StatsMetadata.serializer);
+    STATS(StatsMetadata.serializer),
+    /** Metadata only used by similarity queries, for SSTables written with a vector index */
+    SIMILARITY(SimilarityMetadata.serializer);
 
     public final IMetadataComponentSerializer<MetadataComponent> serializer;
 
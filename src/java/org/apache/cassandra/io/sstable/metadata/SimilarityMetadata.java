@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.sstable.metadata;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.io.sstable.format.Version;
+import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.utils.BinaryReflectedGrayCodeUtil;
+
+/**
+ * A summary of the partition key vectors of an SSTable written with a vector index, used to skip the SSTables that
+ * cannot hold neighbours of a query vector.
+ *
+ * It holds the mean direction of the vectors, the bounding box of their directions on the unit sphere, and a bitmap
+ * of the occupied prefixes of the Gray ranks of their buckets, the first {@code min(planes, MAX_PREFIX_BITS)} bits.
+ */
+public class SimilarityMetadata extends MetadataComponent
+{
+    public static final IMetadataComponentSerializer serializer = new SimilarityMetadataSerializer();
+
+    public static final int MAX_PREFIX_BITS = 12;
+
+    public final int planes;
+    public final long count;
+    /** the normalized mean of the normalized vectors, or zeros */
+    public final double[] centroid;
+    /** the per-component bounds of the normalized vectors */
+    public final double[] min;
+    public final double[] max;
+    /** bit p is set if some vector is in a bucket of rank prefix p */
+    public final long[] prefixes;
+
+    public SimilarityMetadata(int planes, long count, double[] centroid, double[] min, double[] max, long[] prefixes)
+    {
+        assert centroid.length == min.length && centroid.length == max.length;
+        this.planes = planes;
+        this.count = count;
+        this.centroid = centroid;
+        this.min = min;
+        this.max = max;
+        this.prefixes = prefixes;
+    }
+
+    public MetadataType getType()
+    {
+        return MetadataType.SIMILARITY;
+    }
+
+    public int dimension()
+    {
+        return centroid.length;
+    }
+
+    private int prefixBits()
+    {
+        return Math.min(planes, MAX_PREFIX_BITS);
+    }
+
+    /**
+     * @return the first {@code bits} bits of the Gray rank of a bucket
+     */
+    static int prefix(long[] signature, int planes, int bits)
+    {
+        return SimilarityPartitioner.prefix(BinaryReflectedGrayCodeUtil.grayToBinary(signature), planes, bits);
+    }
+
+    /**
+     * @return false if none of the buckets probed can hold a vector of the SSTable
+     */
+    public boolean mayContain(List<long[]> probes)
+    {
+        for (long[] probe : probes)
+        {
+            int prefix = prefix(probe, planes, prefixBits());
+            if ((prefixes[prefix >>> 6] & (1L << prefix)) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return a lower bound of the cosine distance between {@code query} and the vectors of the SSTable, over the
+     * components they have in common
+     */
+    public double minDistance(double[] query)
+    {
+        int length = Math.min(query.length, dimension());
+        double norm = 0;
+        for (int j = 0; j < length; j++)
+            norm += query[j] * query[j];
+        if (norm == 0 || count == 0)
+            return count == 0 ? Double.POSITIVE_INFINITY : 0.0;
+        norm = Math.sqrt(norm);
+
+        // the largest cosine any direction of the bounding box can have with the query
+        double cosine = 0;
+        for (int j = 0; j < length; j++)
+        {
+            double q = query[j] / norm;
+            cosine += Math.max(q * min[j], q * max[j]);
+        }
+        // zero vectors are at distance 1 from everything
+        return Math.max(0.0, Math.min(1.0, 1.0 - cosine));
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        SimilarityMetadata that = (SimilarityMetadata) o;
+        return planes == that.planes
+               && count == that.count
+               && Arrays.equals(centroid, that.centroid)
+               && Arrays.equals(min, that.min)
+               && Arrays.equals(max, that.max)
+               && Arrays.equals(prefixes, that.prefixes);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * (31 * planes + (int) count) + Arrays.hashCode(prefixes);
+    }
+
+    /**
+     * Accumulates the summary of the vectors of an SSTable as they are written.
+     */
+    public static class Builder
+    {
+        private final int planes;
+        private final int prefixBits;
+        private long count;
+        private final double[] sum;
+        private final double[] min;
+        private final double[] max;
+        private final long[] prefixes;
+
+        public Builder(int dimension, int planes)
+        {
+            this.planes = planes;
+            this.prefixBits = Math.min(planes, MAX_PREFIX_BITS);
+            this.sum = new double[dimension];
+            this.min = new double[dimension];
+            this.max = new double[dimension];
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            this.prefixes = new long[Math.max(1, (1 << prefixBits) / 64)];
+        }
+
+        /**
+         * @param vector the key vector, extra components ignored
+         * @param signature the signature of the key's bucket
+         */
+        public void add(double[] vector, long[] signature)
+        {
+            int length = Math.min(vector.length, sum.length);
+            double norm = 0;
+            for (int j = 0; j < length; j++)
+                norm += vector[j] * vector[j];
+            norm = Math.sqrt(norm);
+            for (int j = 0; j < sum.length; j++)
+            {
+                double component = j < length && norm > 0 ? vector[j] / norm : 0.0;
+                sum[j] += component;
+                min[j] = Math.min(min[j], component);
+                max[j] = Math.max(max[j], component);
+            }
+
+            int prefix = prefix(signature, planes, prefixBits);
+            prefixes[prefix >>> 6] |= 1L << prefix;
+            count++;
+        }
+
+        public SimilarityMetadata build()
+        {
+            double norm = 0;
+            for (double component : sum)
+                norm += component * component;
+            norm = Math.sqrt(norm);
+            double[] centroid = new double[sum.length];
+            for (int j = 0; j < sum.length && norm > 0; j++)
+                centroid[j] = sum[j] / norm;
+
+            return new SimilarityMetadata(planes,
+                                          count,
+                                          centroid,
+                                          count == 0 ? new double[sum.length] : min.clone(),
+                                          count == 0 ? new double[sum.length] : max.clone(),
+                                          prefixes.clone());
+        }
+    }
+
+    public static class SimilarityMetadataSerializer implements IMetadataComponentSerializer<SimilarityMetadata>
+    {
+        public int serializedSize(SimilarityMetadata component) throws IOException
+        {
+            int size = 0;
+            size += TypeSizes.NATIVE.sizeof(component.planes);
+            size += TypeSizes.NATIVE.sizeof(component.count);
+            size += TypeSizes.NATIVE.sizeof(component.dimension());
+            size += 3 * component.dimension() * 8; // centroid, min and max (doubles)
+            size += TypeSizes.NATIVE.sizeof(component.prefixes.length);
+            size += component.prefixes.length * 8;
+            return size;
+        }
+
+        public void serialize(SimilarityMetadata component, DataOutputPlus out) throws IOException
+        {
+            out.writeInt(component.planes);
+            out.writeLong(component.count);
+            out.writeInt(component.dimension());
+            for (double[] values : new double[][]{ component.centroid, component.min, component.max })
+                for (double value : values)
+                    out.writeDouble(value);
+            out.writeInt(component.prefixes.length);
+            for (long word : component.prefixes)
+                out.writeLong(word);
+        }
+
+        public SimilarityMetadata deserialize(Version version, DataInput in) throws IOException
+        {
+            int planes = in.readInt();
+            long count = in.readLong();
+            int dimension = in.readInt();
+            double[][] values = new double[3][dimension];
+            for (double[] vector : values)
+                for (int j = 0; j < dimension; j++)
+                    vector[j] = in.readDouble();
+            long[] prefixes = new long[in.readInt()];
+            for (int i = 0; i < prefixes.length; i++)
+                prefixes[i] = in.readLong();
+            return new SimilarityMetadata(planes, count, values[0], values[1], values[2], prefixes);
+        }
+    }
+}
@@ -29,6 +29,7 @@ import com.codahale.metrics.Timer;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.Keyspace;
 import org.apache.cassandra.db.Memtable;
+import org.apache.cassandra.dht.SimilarityPartitioner;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
 import org.apache.cassandra.utils.EstimatedHistogram;
@@ -81,6 +82,8 @@ public class ColumnFamilyMetrics
     public final Gauge<Integer> pendingCompactions;
     /** Number of SSTables on disk for this CF */
     public final Gauge<Integer> liveSSTableCount;
+    /** Largest number of SSTables covering a family of buckets, with similarity compaction */
+    public final Gauge<Integer> maxSSTablesPerBucket;
     /** Disk space used by SSTables belonging to this CF */
     public final Counter liveDiskSpaceUsed;
     /** Total disk space used by SSTables belonging to this CF, including obsolete ones waiting to be GC'd */
@@ -146,6 +149,8 @@ public class ColumnFamilyMetrics
     public final static LatencyMetrics globalRangeLatency = new LatencyMetrics(globalNameFactory, "Range");
     
     public final Map<Sampler, TopKSampler<ByteBuffer>> samplers;
+    /** Metrics on the buckets of the table, if it is partitioned by the SimilarityPartitioner, null otherwise */
+    public final SimilarityBucketMetrics buckets;
     /**
      * stores metrics that will be rolled into a single global metric
      */
@@ -210,6 +215,7 @@ public class ColumnFamilyMetrics
         {
             samplers.put(sampler, new TopKSampler<ByteBuffer>());
         }
+        buckets = cfs.partitioner instanceof SimilarityPartitioner ? new SimilarityBucketMetrics(cfs, factory) : null;
 
         memtableColumnsCount = createColumnFamilyGauge("MemtableColumnsCount", new Gauge<Long>()
         {
@@ -361,6 +367,17 @@ public class ColumnFamilyMetrics
                 return cfs.getTracker().getSSTables().size();
             }
         });
+        maxSSTablesPerBucket = createColumnFamilyGauge("MaxSSTablesPerBucket", new Gauge<Integer>()
+        {
+            public Integer getValue()
+            {
+                int[] counts = cfs.getSSTableCountPerBucket();
+                int max = 0;
+                for (int i = 0; counts != null && i < counts.length; i++)
+                    max = Math.max(max, counts[i]);
+                return max;
+            }
+        });
         liveDiskSpaceUsed = createColumnFamilyCounter("LiveDiskSpaceUsed");
         totalDiskSpaceUsed = createColumnFamilyCounter("TotalDiskSpaceUsed");
         minRowSize = createColumnFamilyGauge("MinRowSize", new Gauge<Long>()
@@ -644,6 +661,8 @@ public class ColumnFamilyMetrics
         Metrics.remove(factory.createMetricName("CoordinatorReadLatency"));
         Metrics.remove(factory.createMetricName("CoordinatorScanLatency"));
         Metrics.remove(factory.createMetricName("WaitingOnFreeMemtableSpace"));
+        if (buckets != null)
+            buckets.release(factory);
     }
 
 
@@ -792,6 +811,14 @@ public class ColumnFamilyMetrics
 
     public static enum Sampler
     {
-        READS, WRITES
+        READS, WRITES, BUCKET_READS, BUCKET_WRITES;
+
+        /**
+         * @return true if the sampler records the buckets of the SimilarityPartitioner rather than the partitions
+         */
+        public boolean isBucketSampler()
+        {
+            return this == BUCKET_READS || this == BUCKET_WRITES;
+        }
     }
 }
@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.metrics;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
+import com.codahale.metrics.Gauge;
+import com.google.common.annotations.VisibleForTesting;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.SimilarityOccupancy;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.MurmurHash;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
+
+import static org.apache.cassandra.metrics.CassandraMetricsRegistry.Metrics;
+
+/**
+ * Metrics on the buckets of a table partitioned by the SimilarityPartitioner.
+ *
+ * The buckets are grouped into {@code 2^min(planes, MAX_BITS)} cells of consecutive Gray ranks, the same cells as
+ * the occupancy histogram at a coarser resolution. Each cell tracks the partitions stored on this node, estimated
+ * from the index summaries of the sstables and the memtables and refreshed at most every
+ * {@code similarity_occupancy_refresh_in_ms}, the number of distinct partitions written to it since startup, with
+ * a HyperLogLogPlus as for sstable cardinalities, and the number of partition writes and reads. The keys of a
+ * cell are split by hash among {@code STRIPES} estimators, so that concurrent writes to a cell rarely wait on
+ * each other, and the cardinality of the cell is the sum of those of its stripes. The hottest
+ * buckets, at full resolution, are sampled on demand by the BUCKET_READS and BUCKET_WRITES samplers.
+ */
+public class SimilarityBucketMetrics
+{
+    public static final int MAX_BITS = 8;
+    private static final int STRIPES = Integer.highestOneBit(Math.min(FBUtilities.getAvailableProcessors(), 8));
+
+    private final ColumnFamilyStore cfs;
+    private final int planes;
+    private final int cells;
+
+    private final AtomicLongArray writes;
+    private final AtomicLongArray reads;
+    // the estimator of stripe s for cell c is at c * STRIPES + s, and is guarded by itself
+    private final HyperLogLogPlus[] written;
+
+    private volatile long[] partitions;
+    private volatile long partitionsBuiltAt;
+
+    /** Estimated number of partitions stored in each cell */
+    public final Gauge<long[]> bucketPartitions;
+    /** Estimated number of distinct partitions written to each cell since startup */
+    public final Gauge<long[]> bucketCardinality;
+    /** Number of partition writes to each cell since startup */
+    public final Gauge<long[]> bucketWrites;
+    /** Number of partition reads from each cell since startup */
+    public final Gauge<long[]> bucketReads;
+    /** Ratio of the partitions of the fullest cell to the mean partitions per cell, 1 when evenly spread */
+    public final Gauge<Double> bucketSkew;
+
+    public SimilarityBucketMetrics(ColumnFamilyStore cfs, MetricNameFactory factory)
+    {
+        this(cfs, factory, RandomHyperplaneHash.instance().planes());
+    }
+
+    @VisibleForTesting
+    SimilarityBucketMetrics(ColumnFamilyStore cfs, MetricNameFactory factory, int planes)
+    {
+        this.cfs = cfs;
+        this.planes = planes;
+        this.cells = 1 << Math.min(planes, MAX_BITS);
+        this.writes = new AtomicLongArray(cells);
+        this.reads = new AtomicLongArray(cells);
+        this.written = new HyperLogLogPlus[cells * STRIPES];
+        for (int i = 0; i < written.length; i++)
+            written[i] = new HyperLogLogPlus(10, 16);
+
+        bucketPartitions = Metrics.register(factory.createMetricName("BucketPartitions"), new Gauge<long[]>()
+        {
+            public long[] getValue()
+            {
+                return partitions();
+            }
+        });
+        bucketCardinality = Metrics.register(factory.createMetricName("BucketCardinality"), new Gauge<long[]>()
+        {
+            public long[] getValue()
+            {
+                long[] cardinality = new long[cells];
+                for (int i = 0; i < cells; i++)
+                    cardinality[i] = cardinality(i);
+                return cardinality;
+            }
+        });
+        bucketWrites = Metrics.register(factory.createMetricName("BucketWrites"), new Gauge<long[]>()
+        {
+            public long[] getValue()
+            {
+                return toArray(writes);
+            }
+        });
+        bucketReads = Metrics.register(factory.createMetricName("BucketReads"), new Gauge<long[]>()
+        {
+            public long[] getValue()
+            {
+                return toArray(reads);
+            }
+        });
+        bucketSkew = Metrics.register(factory.createMetricName("BucketSkew"), new Gauge<Double>()
+        {
+            public Double getValue()
+            {
+                long max = 0, total = 0;
+                for (long count : partitions())
+                {
+                    max = Math.max(max, count);
+                    total += count;
+                }
+                return total == 0 ? 1.0 : (double) max * cells / total;
+            }
+        });
+    }
+
+    /**
+     * @return the cell of the bucket of {@code key}
+     */
+    public int cell(DecoratedKey key)
+    {
+        return SimilarityOccupancy.cell(key.getToken(), planes, cells);
+    }
+
+    public void markWrite(DecoratedKey key)
+    {
+        int cell = cell(key);
+        writes.incrementAndGet(cell);
+
+        ByteBuffer bytes = key.getKey();
+        long hash = MurmurHash.hash2_64(bytes, bytes.position(), bytes.remaining(), 0);
+        // the estimators index their registers by the high bits of the hash, so the stripes use the low ones
+        HyperLogLogPlus estimator = written[cell * STRIPES + (int) (hash & (STRIPES - 1))];
+        synchronized (estimator)
+        {
+            estimator.offerHashed(hash);
+        }
+    }
+
+    private long cardinality(int cell)
+    {
+        long cardinality = 0;
+        for (int i = cell * STRIPES; i < (cell + 1) * STRIPES; i++)
+        {
+            synchronized (written[i])
+            {
+                cardinality += written[i].cardinality();
+            }
+        }
+        return cardinality;
+    }
+
+    public void markRead(DecoratedKey key)
+    {
+        reads.incrementAndGet(cell(key));
+    }
+
+    private long[] partitions()
+    {
+        long[] current = partitions;
+        long refresh = TimeUnit.MILLISECONDS.toNanos(DatabaseDescriptor.getSimilarityOccupancyRefreshInMs());
+        if (current != null && System.nanoTime() - partitionsBuiltAt < refresh)
+            return current;
+
+        // the occupancy cells are at least as fine as ours, and nested within them
+        double[] counts = SimilarityOccupancy.instance.counts(cfs);
+        double[] sums = new double[cells];
+        int shift = Integer.numberOfTrailingZeros(counts.length) - Integer.numberOfTrailingZeros(cells);
+        for (int i = 0; i < counts.length; i++)
+            sums[i >>> shift] += counts[i];
+
+        current = new long[cells];
+        for (int i = 0; i < cells; i++)
+            current[i] = Math.round(sums[i]);
+        partitionsBuiltAt = System.nanoTime();
+        partitions = current;
+        return current;
+    }
+
+    private static long[] toArray(AtomicLongArray counters)
+    {
+        long[] values = new long[counters.length()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = counters.get(i);
+        return values;
+    }
+
+    public void release(MetricNameFactory factory)
+    {
+        Metrics.remove(factory.createMetricName("BucketPartitions"));
+        Metrics.remove(factory.createMetricName("BucketCardinality"));
+        Metrics.remove(factory.createMetricName("BucketWrites"));
+        Metrics.remove(factory.createMetricName("BucketReads"));
+        Metrics.remove(factory.createMetricName("BucketSkew"));
+    }
+}
@@ -52,6 +52,7 @@ import org.apache.cassandra.db.*;
 import org.apache.cassandra.dht.AbstractBounds;
 import org.apache.cassandra.dht.BootStrapper;
 import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.SimilarityOccupancy;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.gms.EchoMessage;
 import org.apache.cassandra.gms.GossipDigestAck;
@@ -82,7 +83,9 @@ public final class MessagingService implements MessagingServiceMBean
     public static final int VERSION_20 = 7;
     public static final int VERSION_21 = 8;
     public static final int VERSION_22 = 9;
-    public static final int current_version = VERSION_22;
+    // the 2.2 protocol plus the SIMILARITY_RANGE and SIMILARITY_OCCUPANCY verbs
+    public static final int VERSION_SIMILARITY = 10;
+    public static final int current_version = VERSION_SIMILARITY;
 
     public static final String FAILURE_CALLBACK_PARAM = "CAL_BAC";
     public static final byte[] ONE_BYTE = new byte[1];
@@ -137,8 +140,9 @@ public final class MessagingService implements MessagingServiceMBean
         PAXOS_COMMIT,
         PAGED_RANGE,
         // remember to add new verbs at the end, since we serialize by ordinal
-        UNUSED_1,
-        UNUSED_2,
+        // the two verbs below were UNUSED_1 and UNUSED_2 before VERSION_SIMILARITY: only send them to nodes of that version
+        SIMILARITY_RANGE,
+        SIMILARITY_OCCUPANCY,
         UNUSED_3,
         ;
     }
@@ -157,6 +161,7 @@ public final class MessagingService implements MessagingServiceMBean
         put(Verb.RANGE_SLICE, Stage.READ);
         put(Verb.INDEX_SCAN, Stage.READ);
         put(Verb.PAGED_RANGE, Stage.READ);
+        put(Verb.SIMILARITY_RANGE, Stage.READ);
 
         put(Verb.REQUEST_RESPONSE, Stage.REQUEST_RESPONSE);
         put(Verb.INTERNAL_RESPONSE, Stage.INTERNAL_RESPONSE);
@@ -179,14 +184,13 @@ public final class MessagingService implements MessagingServiceMBean
         put(Verb.DEFINITIONS_UPDATE, Stage.MIGRATION);
         put(Verb.SCHEMA_CHECK, Stage.MIGRATION);
         put(Verb.MIGRATION_REQUEST, Stage.MIGRATION);
+        put(Verb.SIMILARITY_OCCUPANCY, Stage.MISC);
         put(Verb.INDEX_SCAN, Stage.READ);
         put(Verb.REPLICATION_FINISHED, Stage.MISC);
         put(Verb.COUNTER_MUTATION, Stage.MUTATION);
         put(Verb.SNAPSHOT, Stage.MISC);
         put(Verb.ECHO, Stage.GOSSIP);
 
-        put(Verb.UNUSED_1, Stage.INTERNAL_RESPONSE);
-        put(Verb.UNUSED_2, Stage.INTERNAL_RESPONSE);
         put(Verb.UNUSED_3, Stage.INTERNAL_RESPONSE);
     }};
 
@@ -209,6 +213,7 @@ public final class MessagingService implements MessagingServiceMBean
         put(Verb.READ, ReadCommand.serializer);
         put(Verb.RANGE_SLICE, RangeSliceCommand.serializer);
         put(Verb.PAGED_RANGE, PagedRangeCommand.serializer);
+        put(Verb.SIMILARITY_RANGE, SimilarityRangeCommand.serializer);
         put(Verb.BOOTSTRAP_TOKEN, BootStrapper.StringSerializer.instance);
         put(Verb.REPAIR_MESSAGE, RepairMessage.serializer);
         put(Verb.GOSSIP_DIGEST_ACK, GossipDigestAck.serializer);
@@ -235,12 +240,14 @@ public final class MessagingService implements MessagingServiceMBean
         put(Verb.COUNTER_MUTATION, WriteResponse.serializer);
         put(Verb.RANGE_SLICE, RangeSliceReply.serializer);
         put(Verb.PAGED_RANGE, RangeSliceReply.serializer);
+        put(Verb.SIMILARITY_RANGE, RangeSliceReply.serializer);
         put(Verb.READ, ReadResponse.serializer);
         put(Verb.TRUNCATE, TruncateResponse.serializer);
         put(Verb.SNAPSHOT, null);
 
         put(Verb.MIGRATION_REQUEST, MigrationManager.MigrationsSerializer.instance);
         put(Verb.SCHEMA_CHECK, UUIDSerializer.serializer);
+        put(Verb.SIMILARITY_OCCUPANCY, SimilarityOccupancy.Histogram.serializer);
         put(Verb.BOOTSTRAP_TOKEN, BootStrapper.StringSerializer.instance);
         put(Verb.REPLICATION_FINISHED, null);
 
@@ -298,6 +305,7 @@ public final class MessagingService implements MessagingServiceMBean
                                                                    Verb.READ,
                                                                    Verb.RANGE_SLICE,
                                                                    Verb.PAGED_RANGE,
+                                                                   Verb.SIMILARITY_RANGE,
                                                                    Verb.REQUEST_RESPONSE);
 
 
@@ -28,16 +28,6 @@ public class BinarySerializer implements TypeSerializer<BitSet>
 {
     public static final BinarySerializer instance = new BinarySerializer();
 
-    private static long toLong(BitSet bits)
-    {
-        long value = 0L;
-        for (int i = 0; i < bits.length(); ++i)
-        {
-            value += bits.get(i) ? (1L << i) : 0L;
-        }
-        return value;
-    }
-
     public BitSet deserialize(ByteBuffer bytes)
     {
         return bytes.hasRemaining() ? BitSet.valueOf(bytes) : null;
@@ -55,7 +45,15 @@ public class BinarySerializer implements TypeSerializer<BitSet>
 
     public String toString(BitSet value)
     {
-        return value == null ? "" : String.format("%" + DatabaseDescriptor.getIdentifierLength() + "s", Long.toBinaryString(toLong(value))).replace(" ", "0");
+        if (value == null)
+            return "";
+
+        // most significant bit first, zero-padded to the configured identifier length
+        int width = Math.max(value.length(), DatabaseDescriptor.getIdentifierLength());
+        char[] chars = new char[width];
+        for (int i = 0; i < width; i++)
+            chars[width - 1 - i] = value.get(i) ? '1' : '0';
+        return new String(chars);
     }
 
     public Class<BitSet> getType()
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.serializers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.Pair;
+
+/**
+ * Serializes vectors of a fixed dimension as packed little-endian floats or doubles, without any length or
+ * per-component header. The static accessors read a component in place, so that a serialized vector can be
+ * used without being copied, whatever the byte order of the buffer holding it.
+ */
+public class VectorSerializer implements TypeSerializer<double[]>
+{
+    public static final int FLOAT_SIZE = 4;
+    public static final int DOUBLE_SIZE = 8;
+
+    // interning instances
+    private static final Map<Pair<Integer, Integer>, VectorSerializer> instances = new HashMap<>();
+
+    public final int elementSize;
+    public final int dimension;
+
+    public static synchronized VectorSerializer getInstance(int elementSize, int dimension)
+    {
+        assert elementSize == FLOAT_SIZE || elementSize == DOUBLE_SIZE : elementSize;
+        assert dimension > 0 : dimension;
+
+        Pair<Integer, Integer> key = Pair.create(elementSize, dimension);
+        VectorSerializer t = instances.get(key);
+        if (t == null)
+        {
+            t = new VectorSerializer(elementSize, dimension);
+            instances.put(key, t);
+        }
+        return t;
+    }
+
+    private VectorSerializer(int elementSize, int dimension)
+    {
+        this.elementSize = elementSize;
+        this.dimension = dimension;
+    }
+
+    /**
+     * @return the number of bytes of a serialized vector
+     */
+    public int serializedSize()
+    {
+        return elementSize * dimension;
+    }
+
+    /**
+     * @return component {@code index} of the vector of floats starting at the position of {@code bytes}
+     */
+    public static float getFloat(ByteBuffer bytes, int index)
+    {
+        int bits = bytes.getInt(bytes.position() + FLOAT_SIZE * index);
+        return Float.intBitsToFloat(bytes.order() == ByteOrder.LITTLE_ENDIAN ? bits : Integer.reverseBytes(bits));
+    }
+
+    /**
+     * @return component {@code index} of the vector of doubles starting at the position of {@code bytes}
+     */
+    public static double getDouble(ByteBuffer bytes, int index)
+    {
+        long bits = bytes.getLong(bytes.position() + DOUBLE_SIZE * index);
+        return Double.longBitsToDouble(bytes.order() == ByteOrder.LITTLE_ENDIAN ? bits : Long.reverseBytes(bits));
+    }
+
+    /**
+     * @return component {@code index} of the vector starting at the position of {@code bytes}
+     */
+    public double get(ByteBuffer bytes, int index)
+    {
+        return elementSize == FLOAT_SIZE ? getFloat(bytes, index) : getDouble(bytes, index);
+    }
+
+    public double[] deserialize(ByteBuffer bytes)
+    {
+        if (bytes.remaining() == 0)
+            return null;
+
+        double[] vector = new double[dimension];
+        for (int i = 0; i < dimension; i++)
+            vector[i] = get(bytes, i);
+        return vector;
+    }
+
+    public ByteBuffer serialize(double[] value)
+    {
+        if (value == null)
+            return ByteBufferUtil.EMPTY_BYTE_BUFFER;
+
+        if (value.length != dimension)
+            throw new MarshalException(String.format("Expected a vector of %d components, got %d", dimension, value.length));
+
+        ByteBuffer bytes = ByteBuffer.allocate(serializedSize()).order(ByteOrder.LITTLE_ENDIAN);
+        for (double component : value)
+        {
+            if (elementSize == FLOAT_SIZE)
+                bytes.putFloat((float) component);
+            else
+                bytes.putDouble(component);
+        }
+        bytes.flip();
+        // like a duplicate would, the accessors below read the layout whatever the buffer's byte order
+        return bytes.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    public void validate(ByteBuffer bytes) throws MarshalException
+    {
+        if (bytes.remaining() != serializedSize() && bytes.remaining() != 0)
+            throw new MarshalException(String.format("Expected %d or 0 byte value for a vector of %d %s (%d)",
+                                                     serializedSize(),
+                                                     dimension,
+                                                     elementSize == FLOAT_SIZE ? "floats" : "doubles",
+                                                     bytes.remaining()));
+    }
+
+    public String toString(double[] value)
+    {
+        return value == null ? "" : Arrays.toString(value);
+    }
+
+    public Class<double[]> getType()
+    {
+        return double[].class;
+    }
+}
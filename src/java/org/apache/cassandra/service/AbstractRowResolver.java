@@ -17,8 +17,6 @@
  */
 package org.apache.cassandra.service;
 
-import java.nio.ByteBuffer;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,9 +35,9 @@ public abstract class AbstractRowResolver implements IResponseResolver<ReadRespo
     protected final Accumulator<MessageIn<ReadResponse>> replies;
     protected final DecoratedKey key;
 
-    public AbstractRowResolver(ByteBuffer key, String keyspaceName, int maxResponseCount)
+    public AbstractRowResolver(DecoratedKey key, String keyspaceName, int maxResponseCount)
     {
-        this.key = StorageService.getPartitioner().decorateKey(key);
+        this.key = key;
         this.keyspaceName = keyspaceName;
         this.replies = new Accumulator<>(maxResponseCount);
     }
@@ -64,7 +64,8 @@ public class CacheService implements CacheServiceMBean
     {
         KEY_CACHE("KeyCache"),
         ROW_CACHE("RowCache"),
-        COUNTER_CACHE("CounterCache");
+        COUNTER_CACHE("CounterCache"),
+        SIMILARITY_CACHE("SimilarityCache");
 
         private final String name;
 
@@ -84,6 +85,7 @@ public class CacheService implements CacheServiceMBean
     public final AutoSavingCache<KeyCacheKey, RowIndexEntry> keyCache;
     public final AutoSavingCache<RowCacheKey, IRowCacheEntry> rowCache;
     public final AutoSavingCache<CounterCacheKey, ClockAndCount> counterCache;
+    public final SimilarityCache similarityCache;
 
     private CacheService()
     {
@@ -101,6 +103,7 @@ public class CacheService implements CacheServiceMBean
         keyCache = initKeyCache();
         rowCache = initRowCache();
         counterCache = initCounterCache();
+        similarityCache = initSimilarityCache();
     }
 
     /**
@@ -179,6 +182,15 @@ public class CacheService implements CacheServiceMBean
         return cache;
     }
 
+    /**
+     * @return the cache of the neighbours found for similarity queries, which is not saved
+     */
+    private SimilarityCache initSimilarityCache()
+    {
+        logger.info("Initializing similarity cache with capacity of {} MBs", DatabaseDescriptor.getSimilarityCacheSizeInMB());
+
+        return new SimilarityCache(new SimilarityCacheProvider().create());
+    }
 
     public int getRowCacheSavePeriodInSeconds()
     {
@@ -309,6 +321,16 @@ public class CacheService implements CacheServiceMBean
         counterCache.clear();
     }
 
+    public void invalidateSimilarityCacheForCf(Pair<String, String> ksAndCFName)
+    {
+        similarityCache.invalidate(ksAndCFName);
+    }
+
+    public void invalidateSimilarityCache()
+    {
+        similarityCache.clear();
+    }
+
 
 
 
@@ -337,6 +359,14 @@ public class CacheService implements CacheServiceMBean
         counterCache.setCapacity(capacity * 1024 * 1024);
     }
 
+    public void setSimilarityCacheCapacityInMB(long capacity)
+    {
+        if (capacity < 0)
+            throw new RuntimeException("capacity should not be negative.");
+
+        similarityCache.setCapacity(capacity * 1024 * 1024);
+    }
+
     public void saveCaches() throws ExecutionException, InterruptedException
     {
         List<Future<?>> futures = new ArrayList<>(3);
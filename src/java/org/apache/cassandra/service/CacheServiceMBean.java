@@ -51,12 +51,16 @@ public interface CacheServiceMBean
 
     public void invalidateCounterCache();
 
+    public void invalidateSimilarityCache();
+
     public void setRowCacheCapacityInMB(long capacity);
 
     public void setKeyCacheCapacityInMB(long capacity);
 
     public void setCounterCacheCapacityInMB(long capacity);
 
+    public void setSimilarityCacheCapacityInMB(long capacity);
+
     /**
      * save row and key caches
      *
@@ -149,10 +149,18 @@ public class MigrationManager
          * Don't request schema from fat clients
          */
         return MessagingService.instance().knowsVersion(endpoint)
-                && MessagingService.instance().getRawVersion(endpoint) == MessagingService.current_version
+                && isSchemaCompatible(MessagingService.instance().getRawVersion(endpoint))
                 && !Gossiper.instance.isGossipOnlyMember(endpoint);
     }
 
+    /**
+     * VERSION_SIMILARITY only adds verbs to the 2.2 protocol, so schema is exchanged with nodes of either version.
+     */
+    private static boolean isSchemaCompatible(int version)
+    {
+        return version == MessagingService.current_version || version == MessagingService.VERSION_22;
+    }
+
     public static boolean isReadyForBootstrap()
     {
         return ((ThreadPoolExecutor) StageManager.getStage(Stage.MIGRATION)).getActiveCount() == 0;
@@ -451,10 +459,10 @@ public class MigrationManager
 
         for (InetAddress endpoint : Gossiper.instance.getLiveMembers())
         {
-            // only push schema to nodes with known and equal versions
+            // only push schema to nodes with known and compatible versions
             if (!endpoint.equals(FBUtilities.getBroadcastAddress()) &&
                     MessagingService.instance().knowsVersion(endpoint) &&
-                    MessagingService.instance().getRawVersion(endpoint) == MessagingService.current_version)
+                    isSchemaCompatible(MessagingService.instance().getRawVersion(endpoint)))
                 pushSchemaMutation(endpoint, schema);
         }
 
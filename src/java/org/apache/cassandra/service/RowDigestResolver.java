@@ -21,13 +21,14 @@ import java.nio.ByteBuffer;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.ReadResponse;
 import org.apache.cassandra.db.Row;
 import org.apache.cassandra.net.MessageIn;
 
 public class RowDigestResolver extends AbstractRowResolver
 {
-    public RowDigestResolver(String keyspaceName, ByteBuffer key, int maxResponseCount)
+    public RowDigestResolver(String keyspaceName, DecoratedKey key, int maxResponseCount)
     {
         super(key, keyspaceName, maxResponseCount);
     }
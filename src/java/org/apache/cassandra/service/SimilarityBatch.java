@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.service;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.Row;
+import org.apache.cassandra.db.RowPosition;
+import org.apache.cassandra.db.SimilarityRangeCommand;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.serializers.VectorSerializer;
+import org.apache.cassandra.utils.MultiProbePlanner;
+import org.apache.cassandra.utils.Pair;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
+
+/**
+ * A batch of similarity queries on a table, looked up together. Every bucket probed by any of the queries is read
+ * once, adjacent buckets in a single range: the replicas of each range rank the partitions they hold against all the
+ * queries that probed their bucket, and return at most the limit of nearest ones for each query (see
+ * {@link SimilarityRangeCommand}), which the coordinator ranks again.
+ *
+ * The query vectors of a batch, say the items of a user session, tend to be near each other and to probe the same
+ * buckets, which looking them up one by one would scan as many times.
+ */
+public class SimilarityBatch
+{
+    private static final Comparator<Pair<Double, ByteBuffer>> FARTHEST_FIRST = new Comparator<Pair<Double, ByteBuffer>>()
+    {
+        public int compare(Pair<Double, ByteBuffer> p1, Pair<Double, ByteBuffer> p2)
+        {
+            return Double.compare(p2.left, p1.left);
+        }
+    };
+
+    private final String keyspace;
+    private final String columnFamily;
+
+    /**
+     * The serializer of the partition keys if they are vectors, or null if they are parsed as the partitioner
+     * parses them.
+     */
+    private final VectorSerializer serializer;
+
+    private final double[][] vectors;
+
+    /**
+     * The indexes of the queries probing each bucket, by the token of the bucket.
+     */
+    private final Map<Token, List<Integer>> queriesByBucket = new HashMap<>();
+
+    private final List<ByteBuffer> queries;
+
+    /**
+     * The signatures of the buckets probed by each query.
+     */
+    private final List<List<long[]>> queryProbes;
+
+    private final List<AbstractBounds<RowPosition>> bounds;
+
+    SimilarityBatch(String keyspace,
+                    String columnFamily,
+                    VectorSerializer serializer,
+                    List<ByteBuffer> queries,
+                    List<MultiProbePlanner.Plan> plans)
+    {
+        assert queries.size() == plans.size();
+        this.keyspace = keyspace;
+        this.columnFamily = columnFamily;
+        this.serializer = serializer;
+        this.vectors = new double[queries.size()][];
+        this.queries = queries;
+        this.queryProbes = new ArrayList<>(queries.size());
+
+        List<long[]> probes = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++)
+        {
+            vectors[i] = serializer == null ? RandomHyperplaneHash.vector(queries.get(i)) : serializer.deserialize(queries.get(i));
+            queryProbes.add(plans.get(i).probes);
+            for (long[] probe : plans.get(i).probes)
+            {
+                Token bucket = new SimilarityPartitioner.BinaryToken(probe, probe.length);
+                List<Integer> probing = queriesByBucket.get(bucket);
+                if (probing == null)
+                {
+                    probing = new ArrayList<>();
+                    queriesByBucket.put(bucket, probing);
+                    probes.add(probe);
+                }
+                probing.add(i);
+            }
+        }
+        bounds = SimilarityPartitioner.instance.getKeyBounds(probes);
+    }
+
+    /**
+     * Plans the buckets to probe for each query vector, with the budget configured in cassandra.yaml.
+     *
+     * @param cfm the table, partitioned by the SimilarityPartitioner
+     * @param queries the query vectors, as partition keys
+     * @param targetRecall the estimated recall at which to stop planning the probes of each query vector
+     */
+    public static SimilarityBatch create(CFMetaData cfm, List<ByteBuffer> queries, double targetRecall)
+    {
+        VectorSerializer serializer = SimilarityPartitioner.keyLayout(cfm.partitioner());
+        List<MultiProbePlanner.Plan> plans = new ArrayList<>(queries.size());
+        for (ByteBuffer query : queries)
+            plans.add(MultiProbePlanner.instance().plan(query, serializer, DatabaseDescriptor.getSimilarityProbeBudget(), targetRecall));
+
+        return new SimilarityBatch(cfm.ksName, cfm.cfName, serializer, queries, plans);
+    }
+
+    /**
+     * @return the number of ranges holding the buckets probed by the batch
+     */
+    public int ranges()
+    {
+        return bounds.size();
+    }
+
+    /**
+     * @param limit the number of neighbours to return for each query
+     * @return the commands reading the buckets probed by the batch, one per range, each returning the {@code limit}
+     * nearest partitions of the range for each of the queries probing it, with a single cell
+     */
+    public List<SimilarityRangeCommand> getCommands(long now, int limit)
+    {
+        List<SimilarityRangeCommand> commands = new ArrayList<>(bounds.size());
+        for (AbstractBounds<RowPosition> range : bounds)
+        {
+            List<ByteBuffer> rangeQueries = new ArrayList<>();
+            List<List<long[]>> rangeProbes = new ArrayList<>();
+            for (int i = 0; i < queries.size(); i++)
+            {
+                List<long[]> within = SimilarityRangeCommand.probesWithin(range, queryProbes.get(i));
+                if (within.isEmpty())
+                    continue;
+
+                rangeQueries.add(queries.get(i));
+                rangeProbes.add(within);
+            }
+            commands.add(new SimilarityRangeCommand(keyspace, columnFamily, now, range, rangeQueries, rangeProbes, limit));
+        }
+        return commands;
+    }
+
+    /**
+     * Ranks the partitions returned by the commands against the queries that probed their bucket.
+     *
+     * @param rows the rows returned by the commands of {@link #getCommands(long, int)}
+     * @param limit the number of neighbours to return for each query
+     * @return for each query, in the order of the batch, the keys of its nearest live partitions, nearest first
+     */
+    public List<List<ByteBuffer>> getNeighbours(List<Row> rows, int limit, long now)
+    {
+        List<PriorityQueue<Pair<Double, ByteBuffer>>> nearest = new ArrayList<>(vectors.length);
+        for (int i = 0; i < vectors.length; i++)
+            nearest.add(new PriorityQueue<>(Math.min(limit, 64) + 1, FARTHEST_FIRST));
+
+        for (Row row : rows)
+        {
+            if (limit <= 0 || row.cf == null || row.cf.hasOnlyTombstones(now))
+                continue;
+
+            // the ranges scanned only hold probed buckets, but the first bucket of the ring comes with the second
+            List<Integer> probing = queriesByBucket.get(row.key.getToken());
+            if (probing == null)
+                continue;
+
+            ByteBuffer candidate = row.key.getKey();
+            double[] vector = serializer == null ? RandomHyperplaneHash.vector(candidate) : null;
+            for (int query : probing)
+            {
+                double distance = serializer == null
+                                ? RandomHyperplaneHash.cosineDistance(vectors[query], vector)
+                                : RandomHyperplaneHash.cosineDistance(vectors[query], candidate, serializer);
+                PriorityQueue<Pair<Double, ByteBuffer>> queue = nearest.get(query);
+                if (queue.size() < limit)
+                {
+                    queue.add(Pair.create(distance, candidate));
+                }
+                else if (distance < queue.peek().left)
+                {
+                    queue.poll();
+                    queue.add(Pair.create(distance, candidate));
+                }
+            }
+        }
+
+        List<List<ByteBuffer>> neighbours = new ArrayList<>(vectors.length);
+        for (PriorityQueue<Pair<Double, ByteBuffer>> queue : nearest)
+        {
+            List<Pair<Double, ByteBuffer>> sorted = new ArrayList<>(queue);
+            Collections.sort(sorted, Collections.reverseOrder(FARTHEST_FIRST));
+            List<ByteBuffer> keys = new ArrayList<>(sorted.size());
+            for (Pair<Double, ByteBuffer> neighbour : sorted)
+                keys.add(neighbour.right);
+            neighbours.add(keys);
+        }
+        return neighbours;
+    }
+}
@@ -217,7 +217,7 @@ public class StorageProxy implements StorageProxyMBean
             while (System.nanoTime() - start < timeout)
             {
                 // for simplicity, we'll do a single liveness check at the start of each attempt
-                Pair<List<InetAddress>, Integer> p = getPaxosParticipants(keyspaceName, key, consistencyForPaxos);
+                Pair<List<InetAddress>, Integer> p = getPaxosParticipants(metadata, key, consistencyForPaxos);
                 List<InetAddress> liveEndpoints = p.left;
                 int requiredParticipants = p.right;
 
@@ -305,9 +305,10 @@ public class StorageProxy implements StorageProxyMBean
         };
     }
 
-    private static Pair<List<InetAddress>, Integer> getPaxosParticipants(String keyspaceName, ByteBuffer key, ConsistencyLevel consistencyForPaxos) throws UnavailableException
+    private static Pair<List<InetAddress>, Integer> getPaxosParticipants(CFMetaData metadata, ByteBuffer key, ConsistencyLevel consistencyForPaxos) throws UnavailableException
     {
-        Token tk = StorageService.getPartitioner().getToken(key);
+        String keyspaceName = metadata.ksName;
+        Token tk = metadata.partitioner().getToken(key);
         List<InetAddress> naturalEndpoints = StorageService.instance.getNaturalEndpoints(keyspaceName, tk);
         Collection<InetAddress> pendingEndpoints = StorageService.instance.getTokenMetadata().pendingEndpointsFor(tk, keyspaceName);
 
@@ -483,7 +484,7 @@ public class StorageProxy implements StorageProxyMBean
         boolean shouldBlock = consistencyLevel != ConsistencyLevel.ANY;
         Keyspace keyspace = Keyspace.open(proposal.update.metadata().ksName);
 
-        Token tk = StorageService.getPartitioner().getToken(proposal.key);
+        Token tk = proposal.update.metadata().partitioner().getToken(proposal.key);
         List<InetAddress> naturalEndpoints = StorageService.instance.getNaturalEndpoints(keyspace.getName(), tk);
         Collection<InetAddress> pendingEndpoints = StorageService.instance.getTokenMetadata().pendingEndpointsFor(tk, keyspace.getName());
 
@@ -608,7 +609,7 @@ public class StorageProxy implements StorageProxyMBean
             if (mutation instanceof CounterMutation)
                 continue;
 
-            Token tk = StorageService.getPartitioner().getToken(mutation.key());
+            Token tk = mutation.partitioner().getToken(mutation.key());
             List<InetAddress> naturalEndpoints = StorageService.instance.getNaturalEndpoints(mutation.getKeyspaceName(), tk);
             Collection<InetAddress> pendingEndpoints = StorageService.instance.getTokenMetadata().pendingEndpointsFor(tk, mutation.getKeyspaceName());
             for (InetAddress target : Iterables.concat(naturalEndpoints, pendingEndpoints))
@@ -797,7 +798,7 @@ public class StorageProxy implements StorageProxyMBean
         String keyspaceName = mutation.getKeyspaceName();
         AbstractReplicationStrategy rs = Keyspace.open(keyspaceName).getReplicationStrategy();
 
-        Token tk = StorageService.getPartitioner().getToken(mutation.key());
+        Token tk = mutation.partitioner().getToken(mutation.key());
         List<InetAddress> naturalEndpoints = StorageService.instance.getNaturalEndpoints(keyspaceName, tk);
         Collection<InetAddress> pendingEndpoints = StorageService.instance.getTokenMetadata().pendingEndpointsFor(tk, keyspaceName);
 
@@ -815,7 +816,7 @@ public class StorageProxy implements StorageProxyMBean
     {
         AbstractReplicationStrategy rs = Keyspace.open(mutation.getKeyspaceName()).getReplicationStrategy();
         String keyspaceName = mutation.getKeyspaceName();
-        Token tk = StorageService.getPartitioner().getToken(mutation.key());
+        Token tk = mutation.partitioner().getToken(mutation.key());
         List<InetAddress> naturalEndpoints = StorageService.instance.getNaturalEndpoints(keyspaceName, tk);
         Collection<InetAddress> pendingEndpoints = StorageService.instance.getTokenMetadata().pendingEndpointsFor(tk, keyspaceName);
         AbstractWriteResponseHandler<IMutation> responseHandler = rs.getWriteResponseHandler(naturalEndpoints, pendingEndpoints, consistency_level, null, writeType);
@@ -1091,7 +1092,7 @@ public class StorageProxy implements StorageProxyMBean
      */
     public static AbstractWriteResponseHandler<IMutation> mutateCounter(CounterMutation cm, String localDataCenter) throws UnavailableException, OverloadedException
     {
-        InetAddress endpoint = findSuitableEndpoint(cm.getKeyspaceName(), cm.key(), localDataCenter, cm.consistency());
+        InetAddress endpoint = findSuitableEndpoint(cm.getKeyspaceName(), cm.partitioner().decorateKey(cm.key()), localDataCenter, cm.consistency());
 
         if (endpoint.equals(FBUtilities.getBroadcastAddress()))
         {
@@ -1102,7 +1103,7 @@ public class StorageProxy implements StorageProxyMBean
             // Exit now if we can't fulfill the CL here instead of forwarding to the leader replica
             String keyspaceName = cm.getKeyspaceName();
             AbstractReplicationStrategy rs = Keyspace.open(keyspaceName).getReplicationStrategy();
-            Token tk = StorageService.getPartitioner().getToken(cm.key());
+            Token tk = cm.partitioner().getToken(cm.key());
             List<InetAddress> naturalEndpoints = StorageService.instance.getNaturalEndpoints(keyspaceName, tk);
             Collection<InetAddress> pendingEndpoints = StorageService.instance.getTokenMetadata().pendingEndpointsFor(tk, keyspaceName);
 
@@ -1127,7 +1128,7 @@ public class StorageProxy implements StorageProxyMBean
      * is unclear we want to mix those latencies with read latencies, so this
      * may be a bit involved.
      */
-    private static InetAddress findSuitableEndpoint(String keyspaceName, ByteBuffer key, String localDataCenter, ConsistencyLevel cl) throws UnavailableException
+    private static InetAddress findSuitableEndpoint(String keyspaceName, DecoratedKey key, String localDataCenter, ConsistencyLevel cl) throws UnavailableException
     {
         Keyspace keyspace = Keyspace.open(keyspaceName);
         IEndpointSnitch snitch = DatabaseDescriptor.getEndpointSnitch();
@@ -1243,7 +1244,7 @@ public class StorageProxy implements StorageProxyMBean
             ReadCommand command = commands.get(0);
 
             CFMetaData metadata = Schema.instance.getCFMetaData(command.ksName, command.cfName);
-            Pair<List<InetAddress>, Integer> p = getPaxosParticipants(command.ksName, command.key, consistencyLevel);
+            Pair<List<InetAddress>, Integer> p = getPaxosParticipants(metadata, command.key, consistencyLevel);
             List<InetAddress> liveEndpoints = p.left;
             int requiredParticipants = p.right;
 
@@ -1420,7 +1421,7 @@ public class StorageProxy implements StorageProxyMBean
                     ReadRepairMetrics.repairedBlocking.mark();
 
                     // Do a full data read to resolve the correct response (and repair node that need be)
-                    RowDataResolver resolver = new RowDataResolver(exec.command.ksName, exec.command.key, exec.command.filter(), exec.command.timestamp, exec.handler.endpoints.size());
+                    RowDataResolver resolver = new RowDataResolver(exec.command.ksName, exec.resolver.key, exec.command.filter(), exec.command.timestamp, exec.handler.endpoints.size());
                     ReadCallback<ReadResponse, Row> repairHandler = new ReadCallback<>(resolver,
                                                                                        ConsistencyLevel.ALL,
                                                                                        exec.getContactedReplicas().size(),
@@ -1582,12 +1583,7 @@ public class StorageProxy implements StorageProxyMBean
         }
     }
 
-    public static List<InetAddress> getLiveSortedEndpoints(Keyspace keyspace, ByteBuffer key)
-    {
-        return getLiveSortedEndpoints(keyspace, StorageService.getPartitioner().decorateKey(key));
-    }
-
-    private static List<InetAddress> getLiveSortedEndpoints(Keyspace keyspace, RingPosition pos)
+    public static List<InetAddress> getLiveSortedEndpoints(Keyspace keyspace, RingPosition pos)
     {
         List<InetAddress> liveEndpoints = StorageService.instance.getLiveNaturalEndpoints(keyspace, pos);
         DatabaseDescriptor.getEndpointSnitch().sortByProximity(FBUtilities.getBroadcastAddress(), liveEndpoints);
@@ -1782,28 +1778,7 @@ public class StorageProxy implements StorageProxyMBean
                     }
 
                     AbstractRangeCommand nodeCmd = command.forSubRange(range);
-
-                    // collect replies and resolve according to consistency level
-                    RangeSliceResponseResolver resolver = new RangeSliceResponseResolver(nodeCmd.keyspace, command.timestamp);
-                    List<InetAddress> minimalEndpoints = filteredEndpoints.subList(0, Math.min(filteredEndpoints.size(), consistency_level.blockFor(keyspace)));
-                    ReadCallback<RangeSliceReply, Iterable<Row>> handler = new ReadCallback<>(resolver, consistency_level, nodeCmd, minimalEndpoints);
-                    handler.assureSufficientLiveNodes();
-                    resolver.setSources(filteredEndpoints);
-                    if (filteredEndpoints.size() == 1
-                        && filteredEndpoints.get(0).equals(FBUtilities.getBroadcastAddress())
-                        && OPTIMIZE_LOCAL_REQUESTS)
-                    {
-                        StageManager.getStage(Stage.READ).execute(new LocalRangeSliceRunnable(nodeCmd, handler), Tracing.instance.get());
-                    }
-                    else
-                    {
-                        MessageOut<? extends AbstractRangeCommand> message = nodeCmd.createMessage();
-                        for (InetAddress endpoint : filteredEndpoints)
-                        {
-                            Tracing.trace("Enqueuing request to {}", endpoint);
-                            MessagingService.instance().sendRRWithFailure(message, endpoint, handler);
-                        }
-                    }
+                    ReadCallback<RangeSliceReply, Iterable<Row>> handler = sendRangeSlice(keyspace, nodeCmd, filteredEndpoints, consistency_level);
                     scanHandlers.add(Pair.create(nodeCmd, handler));
                 }
                 Tracing.trace("Submitted {} concurrent range requests covering {} ranges", concurrentRequests, i - concurrentFetchStartingIndex);
@@ -1910,6 +1885,189 @@ public class StorageProxy implements StorageProxyMBean
         return command.postReconciliationProcessing(rows);
     }
 
+    /**
+     * Sends a range request for a single sub-range to the given endpoints.
+     *
+     * @return the handler collecting the replies, resolved according to the consistency level
+     */
+    private static ReadCallback<RangeSliceReply, Iterable<Row>> sendRangeSlice(Keyspace keyspace,
+                                                                               AbstractRangeCommand nodeCmd,
+                                                                               List<InetAddress> filteredEndpoints,
+                                                                               ConsistencyLevel consistency_level)
+    throws UnavailableException
+    {
+        // collect replies and resolve according to consistency level
+        RangeSliceResponseResolver resolver = new RangeSliceResponseResolver(nodeCmd.keyspace, nodeCmd.timestamp);
+        List<InetAddress> minimalEndpoints = filteredEndpoints.subList(0, Math.min(filteredEndpoints.size(), consistency_level.blockFor(keyspace)));
+        ReadCallback<RangeSliceReply, Iterable<Row>> handler = new ReadCallback<>(resolver, consistency_level, nodeCmd, minimalEndpoints);
+        handler.assureSufficientLiveNodes();
+        resolver.setSources(filteredEndpoints);
+        if (filteredEndpoints.size() == 1
+            && filteredEndpoints.get(0).equals(FBUtilities.getBroadcastAddress())
+            && OPTIMIZE_LOCAL_REQUESTS)
+        {
+            StageManager.getStage(Stage.READ).execute(new LocalRangeSliceRunnable(nodeCmd, handler), Tracing.instance.get());
+        }
+        else
+        {
+            MessageOut<? extends AbstractRangeCommand> message = nodeCmd.createMessage();
+            for (InetAddress endpoint : filteredEndpoints)
+            {
+                Tracing.trace("Enqueuing request to {}", endpoint);
+                int version = MessagingService.instance().getVersion(endpoint);
+                MessagingService.instance().sendRRWithFailure(version == MessagingService.current_version ? message : nodeCmd.createMessage(version),
+                                                              endpoint,
+                                                              handler);
+            }
+        }
+        return handler;
+    }
+
+    /**
+     * Executes several range commands on the same table at once: the sub-ranges of all the commands are queried
+     * concurrently, at most {@code similarity_concurrent_probes} of them at a time, and each command returns
+     * everything in its range, read {@code similarity_probe_page_size} partitions at a time if it supports paging.
+     *
+     * This is meant for a set of narrow, disjoint ranges known upfront, like the buckets probed by a
+     * similarity query, where {@link #getRangeSlice} would query the ranges one command at a time.
+     *
+     * @return the rows of all commands, in the order of the commands
+     */
+    public static List<Row> getRangeSlices(List<? extends AbstractRangeCommand> commands, ConsistencyLevel consistency_level)
+    throws UnavailableException, ReadFailureException, ReadTimeoutException
+    {
+        if (commands.isEmpty())
+            return Collections.emptyList();
+
+        long startTime = System.nanoTime();
+        AbstractRangeCommand first = commands.get(0);
+        Keyspace keyspace = Keyspace.open(first.keyspace);
+        int pageSize = DatabaseDescriptor.getSimilarityProbePageSize();
+        int concurrencyFactor = DatabaseDescriptor.getSimilarityConcurrentProbes();
+        try
+        {
+            // the sub-ranges left to query, with the index of their command
+            Deque<Pair<Integer, AbstractRangeCommand>> pending = new ArrayDeque<>();
+            for (int i = 0; i < commands.size(); i++)
+            {
+                AbstractRangeCommand command = commands.get(i);
+                List<? extends AbstractBounds<RowPosition>> ranges = keyspace.getReplicationStrategy() instanceof LocalStrategy
+                                                                   ? command.keyRange.unwrap()
+                                                                   : getRestrictedRanges(command.keyRange);
+                int limit = command.supportsPaging() ? Math.min(command.limit(), pageSize) : command.limit();
+                for (AbstractBounds<RowPosition> range : ranges)
+                    pending.add(Pair.create(i, command.forSubRange(range).withUpdatedLimit(limit)));
+            }
+            Tracing.trace("Submitting {} range requests for {} commands with a concurrency of {}",
+                          pending.size(), commands.size(), concurrencyFactor);
+
+            List<List<Row>> commandRows = new ArrayList<>(commands.size());
+            for (int i = 0; i < commands.size(); i++)
+                commandRows.add(new ArrayList<Row>());
+
+            Deque<Pair<Integer, Pair<AbstractRangeCommand, ReadCallback<RangeSliceReply, Iterable<Row>>>>> inFlight = new ArrayDeque<>();
+            List<AsyncOneResponse> repairResponses = new ArrayList<>();
+            while (!pending.isEmpty() || !inFlight.isEmpty())
+            {
+                while (!pending.isEmpty() && inFlight.size() < concurrencyFactor)
+                {
+                    Pair<Integer, AbstractRangeCommand> next = pending.poll();
+                    AbstractRangeCommand nodeCmd = next.right;
+                    List<InetAddress> liveEndpoints = getLiveSortedEndpoints(keyspace, nodeCmd.keyRange.right);
+                    List<InetAddress> filteredEndpoints = consistency_level.filterForQuery(keyspace, liveEndpoints);
+                    inFlight.add(Pair.create(next.left, Pair.create(nodeCmd, sendRangeSlice(keyspace, nodeCmd, filteredEndpoints, consistency_level))));
+                }
+
+                Pair<Integer, Pair<AbstractRangeCommand, ReadCallback<RangeSliceReply, Iterable<Row>>>> done = inFlight.poll();
+                AbstractRangeCommand nodeCmd = done.right.left;
+                ReadCallback<RangeSliceReply, Iterable<Row>> handler = done.right.right;
+                List<Row> rows = new ArrayList<>();
+                try
+                {
+                    Iterables.addAll(rows, handler.get());
+                }
+                catch (DigestMismatchException e)
+                {
+                    throw new AssertionError(e); // no digests in range slices yet
+                }
+                repairResponses.addAll(((RangeSliceResponseResolver) handler.resolver).repairResults);
+
+                List<Row> all = commandRows.get(done.left);
+                all.addAll(rows);
+
+                // a full page may not be the end of the range: the rest of it is queried next
+                AbstractRangeCommand command = commands.get(done.left);
+                if (command.supportsPaging() && !rows.isEmpty() && rows.size() >= nodeCmd.limit() && all.size() < command.limit())
+                {
+                    Pair<AbstractBounds<RowPosition>, AbstractBounds<RowPosition>> split = nodeCmd.keyRange.split(rows.get(rows.size() - 1).key);
+                    if (split != null)
+                        pending.addFirst(Pair.create(done.left, nodeCmd.forSubRange(split.right).withUpdatedLimit(Math.min(command.limit() - all.size(), pageSize))));
+                }
+            }
+
+            try
+            {
+                FBUtilities.waitOnFutures(repairResponses, DatabaseDescriptor.getWriteRpcTimeout());
+            }
+            catch (TimeoutException ex)
+            {
+                int blockFor = consistency_level.blockFor(keyspace);
+                Tracing.trace("Timed out while read-repairing after receiving all {} data and digest responses", blockFor);
+                throw new ReadTimeoutException(consistency_level, blockFor-1, blockFor, true);
+            }
+
+            List<Row> rows = new ArrayList<>();
+            for (int i = 0; i < commands.size(); i++)
+                rows.addAll(commands.get(i).postReconciliationProcessing(commandRows.get(i)));
+            return rows;
+        }
+        catch (UnavailableException e)
+        {
+            rangeMetrics.unavailables.mark();
+            throw e;
+        }
+        catch (ReadTimeoutException e)
+        {
+            rangeMetrics.timeouts.mark();
+            throw e;
+        }
+        catch (ReadFailureException e)
+        {
+            rangeMetrics.failures.mark();
+            throw e;
+        }
+        finally
+        {
+            long latency = System.nanoTime() - startTime;
+            rangeMetrics.addNano(latency);
+            keyspace.getColumnFamilyStore(first.columnFamily).metric.coordinatorScanLatency.update(latency, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Looks up the nearest partitions of a batch of query vectors at once. The buckets probed by any of the
+     * queries are read in a single pass of {@link #getRangeSlices}, each range once: its replicas return the
+     * {@code limit} nearest partitions of the range for each query that probed it, which are ranked again here.
+     *
+     * @param cfm the table, partitioned by the SimilarityPartitioner
+     * @param queries the query vectors, as partition keys
+     * @param limit the number of neighbours to return for each query
+     * @param targetRecall the estimated recall at which to stop planning the probes of each query
+     * @return for each query vector, in order, the keys of its nearest live partitions, nearest first
+     */
+    public static List<List<ByteBuffer>> getNeighbours(CFMetaData cfm,
+                                                       List<ByteBuffer> queries,
+                                                       int limit,
+                                                       double targetRecall,
+                                                       ConsistencyLevel consistency_level,
+                                                       long now)
+    throws UnavailableException, ReadFailureException, ReadTimeoutException
+    {
+        SimilarityBatch batch = SimilarityBatch.create(cfm, queries, targetRecall);
+        Tracing.trace("Searching {} ranges for {} similarity queries", batch.ranges(), queries.size());
+        return batch.getNeighbours(getRangeSlices(batch.getCommands(now, limit), consistency_level), limit, now);
+    }
+
     public Map<String, List<String>> getSchemaVersions()
     {
         return describeSchemaVersions();
@@ -257,7 +257,7 @@ public class CassandraServer implements Cassandra.Iface
         Map<ByteBuffer, List<ColumnOrSuperColumn>> columnFamiliesMap = new HashMap<ByteBuffer, List<ColumnOrSuperColumn>>();
         for (ReadCommand command: commands)
         {
-            ColumnFamily cf = columnFamilies.get(StorageService.getPartitioner().decorateKey(command.key));
+            ColumnFamily cf = columnFamilies.get(Schema.instance.getCFMetaData(command.ksName, command.cfName).decorateKey(command.key));
             boolean reverseOrder = command instanceof SliceFromReadCommand && ((SliceFromReadCommand)command).filter.reversed;
             List<ColumnOrSuperColumn> thriftifiedColumns = thriftifyColumnFamily(cf, subColumnsOnly, reverseOrder, command.timestamp);
             columnFamiliesMap.put(command.key, thriftifiedColumns);
@@ -486,7 +486,7 @@ public class CassandraServer implements Cassandra.Iface
 
             Map<DecoratedKey, ColumnFamily> cfamilies = readColumnFamily(Arrays.asList(command), consistencyLevel, cState);
 
-            ColumnFamily cf = cfamilies.get(StorageService.getPartitioner().decorateKey(command.key));
+            ColumnFamily cf = cfamilies.get(metadata.decorateKey(command.key));
 
             if (cf == null)
                 throw new NotFoundException();
@@ -1145,7 +1145,7 @@ public class CassandraServer implements Cassandra.Iface
 
             List<Row> rows = null;
 
-            IPartitioner p = StorageService.getPartitioner();
+            IPartitioner p = metadata.partitioner();
             AbstractBounds<RowPosition> bounds;
             if (range.start_key == null)
             {
@@ -1228,7 +1228,7 @@ public class CassandraServer implements Cassandra.Iface
 
             SlicePredicate predicate = new SlicePredicate().setSlice_range(new SliceRange(start_column, ByteBufferUtil.EMPTY_BYTE_BUFFER, false, -1));
 
-            IPartitioner p = StorageService.getPartitioner();
+            IPartitioner p = metadata.partitioner();
             AbstractBounds<RowPosition> bounds;
             if (range.start_key == null)
             {
@@ -1320,7 +1320,7 @@ public class CassandraServer implements Cassandra.Iface
             org.apache.cassandra.db.ConsistencyLevel consistencyLevel = ThriftConversion.fromThrift(consistency_level);
             consistencyLevel.validateForRead(keyspace);
 
-            IPartitioner p = StorageService.getPartitioner();
+            IPartitioner p = metadata.partitioner();
             AbstractBounds<RowPosition> bounds = new Bounds<RowPosition>(RowPosition.ForKey.get(index_clause.start_key, p),
                                                                          p.getMinimumToken().minKeyBound());
 
@@ -0,0 +1,668 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.cli.*;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.RealVector;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.marshal.VectorType;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.KeyIterator;
+import org.apache.cassandra.serializers.VectorSerializer;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
+
+import static org.apache.cassandra.tools.BulkLoader.CmdLineOptions;
+
+/**
+ * Fits the hyperplanes of the SimilarityPartitioner to a sample of the keys, so that they spread evenly over
+ * the Gray code buckets, and reports how the sample spreads over the buckets and the nodes of a token layout.
+ *
+ * The hyperplanes go through the origin, as the angular model of the MultiProbePlanner assumes: a key and
+ * its multiples share a bucket, and the chance that a neighbour falls across a plane only depends on their
+ * angle. So that they still split a cluster far from the origin in halves, the normal vectors are taken
+ * orthogonal to the mean of the sample, on which the projections of the sample are centred. They are either
+ * the principal directions of the sample in that subspace, the first one as the most significant bit, which
+ * keeps the splits uncorrelated, or random directions.
+ *
+ * The output is YAML: the vectors to paste into cassandra.yaml, the report as comments.
+ */
+public class HyperplaneTrainer
+{
+    public static final int DEFAULT_SAMPLE_SIZE = 100000;
+
+    private static final String TOOL_NAME = "hyperplane-trainer";
+    private static final String DEBUG_OPTION = "debug";
+    private static final String HELP_OPTION = "help";
+    private static final String VECTORS_OPTION = "vectors";
+    private static final String SAMPLE_OPTION = "sample";
+    private static final String PLANES_OPTION = "planes";
+    private static final String METHOD_OPTION = "method";
+    private static final String SEED_OPTION = "seed";
+    private static final String NODES_OPTION = "nodes";
+    private static final String TOKENS_OPTION = "tokens";
+
+    public static void main(String args[])
+    {
+        Options options = Options.parseArgs(args);
+        try
+        {
+            Random random = new Random(options.seed);
+            double[][] sample = sample(options, random);
+            if (sample.length == 0)
+            {
+                System.err.println("No keys to sample");
+                System.exit(1);
+            }
+
+            int planes = options.planes > 0 ? options.planes : DatabaseDescriptor.getVectors().length;
+            Hyperplanes trained = options.principal
+                                ? fitPrincipalDirections(sample, planes, random)
+                                : fitRandomDirections(sample, planes, random);
+            List<Token> nodes = options.tokens != null ? parseTokens(options.tokens) : evenTokens(options.nodes, planes);
+
+            PrintStream out = System.out;
+            out.println(String.format("# %d keys sampled", sample.length));
+            if (DatabaseDescriptor.hasVectors())
+            {
+                out.println("#");
+                out.println("# configured hyperplanes:");
+                Hyperplanes configured = new Hyperplanes(DatabaseDescriptor.getVectors(), DatabaseDescriptor.getVectorOffsets());
+                new Report(configured.hash(), sample, nodes).print(out);
+            }
+            out.println("#");
+            out.println(String.format("# trained hyperplanes (%s):", options.principal ? "principal directions" : "random directions"));
+            new Report(trained.hash(), sample, nodes).print(out);
+            out.println("#");
+            out.println("# WARNING: the token of every key is derived from the vectors, so applying these ones");
+            out.println("# re-partitions all the existing keys: their owners change and the sstables are no longer");
+            out.println("# sorted. Load the data with sstableloader into a cluster started with the new vectors");
+            out.println("# rather than editing the vectors of a running cluster.");
+            out.println();
+            trained.print(out);
+        }
+        catch (Exception e)
+        {
+            System.err.println(e.getMessage());
+            if (options.debug)
+                e.printStackTrace(System.err);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Samples the keys of the sstables and the vector file of the options, uniformly (reservoir sampling).
+     */
+    private static double[][] sample(Options options, Random random) throws IOException
+    {
+        Reservoir reservoir = new Reservoir(options.sampleSize, random);
+
+        if (options.vectorFile != null)
+        {
+            try (BufferedReader reader = new BufferedReader(new FileReader(options.vectorFile)))
+            {
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    double[] vector = parseVector(line);
+                    if (vector != null)
+                        reservoir.add(vector);
+                }
+            }
+        }
+
+        if (!options.filenames.isEmpty())
+        {
+            Schema.instance.loadFromDisk(false);
+            for (String filename : options.filenames)
+            {
+                Descriptor descriptor = Descriptor.fromFilename(new File(filename).getAbsolutePath());
+                CFMetaData metadata = Schema.instance.getCFMetaData(descriptor.ksname, descriptor.cfname);
+                VectorSerializer layout = metadata != null && metadata.getKeyValidator() instanceof VectorType
+                                        ? ((VectorType) metadata.getKeyValidator()).getSerializer()
+                                        : null;
+                try (KeyIterator keys = new KeyIterator(descriptor))
+                {
+                    while (keys.hasNext())
+                    {
+                        DecoratedKey key = keys.next();
+                        reservoir.add(RandomHyperplaneHash.vector(key.getKey(), layout));
+                    }
+                }
+            }
+        }
+
+        return reservoir.sample();
+    }
+
+    /**
+     * Parses a vector, as numbers separated by commas or spaces, optionally in brackets.
+     *
+     * @return the vector, or null for a blank line or a comment
+     */
+    static double[] parseVector(String line)
+    {
+        String trimmed = line.replace('[', ' ').replace(']', ' ').trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#"))
+            return null;
+
+        String[] components = trimmed.split("[\\s,]+");
+        double[] vector = new double[components.length];
+        for (int i = 0; i < components.length; i++)
+            vector[i] = Double.parseDouble(components[i]);
+        return vector;
+    }
+
+    private static int dimension(double[][] sample)
+    {
+        int dimension = 0;
+        for (double[] vector : sample)
+            dimension = Math.max(dimension, vector.length);
+        return dimension;
+    }
+
+    private static double component(double[] vector, int j)
+    {
+        return j < vector.length ? vector[j] : 0;
+    }
+
+    private static double[] mean(double[][] sample, int dimension)
+    {
+        double[] mean = new double[dimension];
+        for (double[] vector : sample)
+        {
+            for (int j = 0; j < dimension; j++)
+                mean[j] += component(vector, j) / sample.length;
+        }
+        return mean;
+    }
+
+    /**
+     * @return the unit vector along {@code vector}, or null if it is zero
+     */
+    private static double[] unit(double[] vector)
+    {
+        double norm = 0;
+        for (double component : vector)
+            norm += component * component;
+        norm = Math.sqrt(norm);
+        if (norm == 0)
+            return null;
+        double[] unit = new double[vector.length];
+        for (int j = 0; j < vector.length; j++)
+            unit[j] = vector[j] / norm;
+        return unit;
+    }
+
+    /**
+     * Removes the component of {@code vector} along the unit vector {@code axis}, if any.
+     */
+    private static double[] orthogonal(double[] vector, double[] axis)
+    {
+        if (axis == null)
+            return vector;
+        double projection = 0;
+        for (int j = 0; j < vector.length; j++)
+            projection += vector[j] * axis[j];
+        for (int j = 0; j < vector.length; j++)
+            vector[j] -= projection * axis[j];
+        return vector;
+    }
+
+    /**
+     * Fits hyperplanes through the origin normal to the principal directions of the sample orthogonal to its
+     * mean, the direction of largest variance as the most significant bit. Planes beyond the dimension of that
+     * subspace get random directions in it.
+     */
+    public static Hyperplanes fitPrincipalDirections(double[][] sample, int planes, Random random)
+    {
+        int dimension = dimension(sample);
+        double[] mean = mean(sample, dimension);
+        double[] axis = unit(mean);
+
+        double[][] covariance = new double[dimension][dimension];
+        for (double[] vector : sample)
+        {
+            for (int j = 0; j < dimension; j++)
+            {
+                double dj = component(vector, j) - mean[j];
+                for (int k = j; k < dimension; k++)
+                    covariance[j][k] += dj * (component(vector, k) - mean[k]) / sample.length;
+            }
+        }
+        for (int j = 0; j < dimension; j++)
+        {
+            for (int k = 0; k < j; k++)
+                covariance[j][k] = covariance[k][j];
+        }
+        // the variance of the subspace orthogonal to the mean, so that the projections on the principal
+        // directions are centred and a hyperplane through the origin splits them in halves
+        covariance = deflate(covariance, axis);
+
+        final EigenDecomposition decomposition = new EigenDecomposition(new Array2DRowRealMatrix(covariance, false));
+        Integer[] order = new Integer[dimension];
+        for (int j = 0; j < dimension; j++)
+            order[j] = j;
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            public int compare(Integer j1, Integer j2)
+            {
+                return Double.compare(decomposition.getRealEigenvalue(j2), decomposition.getRealEigenvalue(j1));
+            }
+        });
+
+        // the mean itself is an eigenvector of the deflated covariance, and not one to split the sample on
+        int principal = axis == null ? dimension : dimension - 1;
+        double[][] vectors = new double[planes][];
+        for (int i = 0; i < planes; i++)
+        {
+            // the most significant bit is the last plane
+            int plane = planes - 1 - i;
+            if (i < principal)
+            {
+                RealVector eigenvector = decomposition.getEigenvector(order[i]);
+                vectors[plane] = orthogonal(eigenvector.toArray(), axis);
+            }
+            else
+            {
+                vectors[plane] = orthogonal(randomDirection(dimension, random), axis);
+            }
+        }
+        return new Hyperplanes(vectors, null);
+    }
+
+    /**
+     * Fits hyperplanes through the origin normal to random directions orthogonal to the mean of the sample.
+     */
+    public static Hyperplanes fitRandomDirections(double[][] sample, int planes, Random random)
+    {
+        int dimension = dimension(sample);
+        double[] axis = unit(mean(sample, dimension));
+        double[][] vectors = new double[planes][];
+        for (int i = 0; i < planes; i++)
+            vectors[i] = orthogonal(randomDirection(dimension, random), axis);
+        return new Hyperplanes(vectors, null);
+    }
+
+    /**
+     * @return {@code covariance} restricted to the subspace orthogonal to the unit vector {@code axis}
+     */
+    private static double[][] deflate(double[][] covariance, double[] axis)
+    {
+        if (axis == null)
+            return covariance;
+        int dimension = covariance.length;
+        double[][] projector = new double[dimension][dimension];
+        for (int j = 0; j < dimension; j++)
+        {
+            for (int k = 0; k < dimension; k++)
+                projector[j][k] = (j == k ? 1 : 0) - axis[j] * axis[k];
+        }
+        Array2DRowRealMatrix p = new Array2DRowRealMatrix(projector, false);
+        return p.multiply(new Array2DRowRealMatrix(covariance, false)).multiply(p).getData();
+    }
+
+    private static double[] randomDirection(int dimension, Random random)
+    {
+        double[] direction = new double[dimension];
+        for (int j = 0; j < dimension; j++)
+            direction[j] = random.nextGaussian();
+        return direction;
+    }
+
+    /**
+     * @return {@code nodes} tokens splitting the ring of {@code planes} bit signatures evenly, in ring order
+     */
+    static List<Token> evenTokens(int nodes, int planes)
+    {
+        List<Token> tokens = new ArrayList<>(nodes);
+        BigInteger size = BigInteger.ONE.shiftLeft(planes);
+        for (int i = 0; i < nodes; i++)
+        {
+            BigInteger rank = size.multiply(BigInteger.valueOf(i + 1)).divide(BigInteger.valueOf(nodes)).subtract(BigInteger.ONE);
+            BigInteger gray = rank.xor(rank.shiftRight(1));
+            long[] words = new long[Math.max(1, (planes + 63) / 64)];
+            for (int w = 0; w < words.length; w++)
+                words[w] = gray.shiftRight(64 * w).longValue();
+            tokens.add(new SimilarityPartitioner.BinaryToken(words, words.length));
+        }
+        return tokens;
+    }
+
+    private static List<Token> parseTokens(String tokens)
+    {
+        List<Token> parsed = new ArrayList<>();
+        Token.TokenFactory factory = SimilarityPartitioner.instance.getTokenFactory();
+        for (String token : tokens.split(","))
+            parsed.add(factory.fromString(token.trim()));
+        Collections.sort(parsed);
+        return parsed;
+    }
+
+    /**
+     * The normal vectors and offsets of a set of hyperplanes.
+     */
+    public static final class Hyperplanes
+    {
+        public final double[][] vectors;
+        public final double[] offsets;
+
+        public Hyperplanes(double[][] vectors, double[] offsets)
+        {
+            this.vectors = vectors;
+            this.offsets = offsets;
+        }
+
+        public RandomHyperplaneHash hash()
+        {
+            return new RandomHyperplaneHash(vectors, offsets);
+        }
+
+        /**
+         * Prints the hyperplanes in the format of cassandra.yaml.
+         */
+        public void print(PrintStream out)
+        {
+            out.println("vectors:");
+            for (double[] vector : vectors)
+                out.println("    - " + format(vector));
+            if (offsets != null)
+                out.println("vector_offsets: " + format(offsets));
+        }
+
+        private static String format(double[] values)
+        {
+            StringBuilder sb = new StringBuilder("[");
+            for (int j = 0; j < values.length; j++)
+                sb.append(j == 0 ? "" : ", ").append(String.format("%.5f", values[j]));
+            return sb.append(']').toString();
+        }
+    }
+
+    /**
+     * How a sample spreads over the buckets of a set of hyperplanes, and over the nodes of a token layout.
+     */
+    public static final class Report
+    {
+        private final int keys;
+        private final double[] positiveShare;
+        private final Map<Token, Integer> buckets = new HashMap<>();
+        private final List<Token> nodes;
+        private final long[] nodeKeys;
+
+        public Report(RandomHyperplaneHash hash, double[][] sample, List<Token> nodes)
+        {
+            this.keys = sample.length;
+            this.positiveShare = new double[hash.planes()];
+            this.nodes = nodes;
+            this.nodeKeys = new long[nodes.size()];
+
+            for (double[] vector : sample)
+            {
+                long[] signature = hash.hash(vector);
+                for (int i = 0; i < hash.planes(); i++)
+                {
+                    if ((signature[i >>> 6] & (1L << i)) != 0)
+                        positiveShare[i] += 1.0 / keys;
+                }
+
+                Token token = new SimilarityPartitioner.BinaryToken(signature, hash.words());
+                Integer count = buckets.get(token);
+                buckets.put(token, count == null ? 1 : count + 1);
+
+                if (!nodes.isEmpty())
+                {
+                    // a node owns the tokens up to its own, the first one those past the last one
+                    int index = Collections.binarySearch(nodes, token);
+                    if (index < 0)
+                        index = -index - 1;
+                    nodeKeys[index == nodes.size() ? 0 : index]++;
+                }
+            }
+        }
+
+        /**
+         * @return the number of equally filled buckets with the same entropy as the sample's buckets
+         */
+        public double effectiveBuckets()
+        {
+            double entropy = 0;
+            for (int count : buckets.values())
+            {
+                double p = (double) count / keys;
+                entropy -= p * Math.log(p);
+            }
+            return Math.exp(entropy);
+        }
+
+        /**
+         * @return the share of the sample in the fullest bucket
+         */
+        public double largestBucketShare()
+        {
+            int largest = 0;
+            for (int count : buckets.values())
+                largest = Math.max(largest, count);
+            return (double) largest / keys;
+        }
+
+        /**
+         * @return the share of the sample on the positive side of each hyperplane
+         */
+        public double[] positiveShare()
+        {
+            return positiveShare.clone();
+        }
+
+        /**
+         * @return the keys of the most loaded node over the mean keys per node, 1 when they are balanced
+         */
+        public double nodeSkew()
+        {
+            long max = 0;
+            for (long count : nodeKeys)
+                max = Math.max(max, count);
+            return nodeKeys.length == 0 ? 1.0 : (double) max * nodeKeys.length / keys;
+        }
+
+        public void print(PrintStream out)
+        {
+            double minShare = 1, maxShare = 0;
+            for (double share : positiveShare)
+            {
+                minShare = Math.min(minShare, share);
+                maxShare = Math.max(maxShare, share);
+            }
+            out.println(String.format("#   keys on the positive side of a hyperplane: %.1f%% to %.1f%%", 100 * minShare, 100 * maxShare));
+            out.println(String.format("#   %d buckets used, %.1f effective, the largest holding %.2f%% of the keys",
+                                      buckets.size(), effectiveBuckets(), 100 * largestBucketShare()));
+
+            // bucket occupancy histogram, in powers of two
+            int[] histogram = new int[32];
+            for (int count : buckets.values())
+                histogram[31 - Integer.numberOfLeadingZeros(count)]++;
+            out.println("#   keys per bucket      buckets");
+            for (int b = 0; b < histogram.length; b++)
+            {
+                if (histogram[b] > 0)
+                    out.println(String.format("#   %-20s %d", (1L << b) + " - " + ((1L << (b + 1)) - 1), histogram[b]));
+            }
+
+            if (nodes.isEmpty())
+                return;
+
+            out.println(String.format("#   %d nodes, the most loaded holding %.2f times the mean", nodes.size(), nodeSkew()));
+            out.println("#   node token                               keys    share");
+            for (int n = 0; n < nodes.size(); n++)
+                out.println(String.format("#   %-40s %-7d %.2f%%", nodes.get(n), nodeKeys[n], 100.0 * nodeKeys[n] / keys));
+        }
+    }
+
+    /**
+     * A uniform sample of bounded size from a stream of vectors.
+     */
+    private static final class Reservoir
+    {
+        private final double[][] sample;
+        private final Random random;
+        private long seen;
+
+        private Reservoir(int size, Random random)
+        {
+            this.sample = new double[size][];
+            this.random = random;
+        }
+
+        private void add(double[] vector)
+        {
+            if (seen < sample.length)
+            {
+                sample[(int) seen++] = vector;
+                return;
+            }
+
+            long index = (long) (random.nextDouble() * ++seen);
+            if (index < sample.length)
+                sample[(int) index] = vector;
+        }
+
+        private double[][] sample()
+        {
+            return seen < sample.length ? Arrays.copyOf(sample, (int) seen) : sample;
+        }
+    }
+
+    private static class Options
+    {
+        public final List<String> filenames;
+
+        public boolean debug;
+        public String vectorFile;
+        public int sampleSize;
+        public int planes;
+        public boolean principal;
+        public long seed;
+        public int nodes;
+        public String tokens;
+
+        private Options(List<String> filenames)
+        {
+            this.filenames = filenames;
+        }
+
+        public static Options parseArgs(String cmdArgs[])
+        {
+            CommandLineParser parser = new GnuParser();
+            CmdLineOptions options = getCmdLineOptions();
+            try
+            {
+                CommandLine cmd = parser.parse(options, cmdArgs, false);
+
+                if (cmd.hasOption(HELP_OPTION))
+                {
+                    printUsage(options);
+                    System.exit(0);
+                }
+
+                Options opts = new Options(Arrays.asList(cmd.getArgs()));
+                opts.debug = cmd.hasOption(DEBUG_OPTION);
+                opts.vectorFile = cmd.getOptionValue(VECTORS_OPTION);
+                if (opts.filenames.isEmpty() && opts.vectorFile == null)
+                    errorMsg("No sstables nor vector file to sample", options);
+
+                opts.sampleSize = Integer.parseInt(cmd.getOptionValue(SAMPLE_OPTION, String.valueOf(DEFAULT_SAMPLE_SIZE)));
+                opts.planes = Integer.parseInt(cmd.getOptionValue(PLANES_OPTION, "0"));
+                if (opts.planes <= 0 && !DatabaseDescriptor.hasVectors())
+                    errorMsg("No vectors configured, the number of hyperplanes must be given", options);
+
+                String method = cmd.getOptionValue(METHOD_OPTION, "pca");
+                if (!method.equals("pca") && !method.equals("random"))
+                    errorMsg("Unknown method " + method, options);
+                opts.principal = method.equals("pca");
+
+                opts.seed = Long.parseLong(cmd.getOptionValue(SEED_OPTION, "0"));
+                opts.nodes = Integer.parseInt(cmd.getOptionValue(NODES_OPTION, "0"));
+                opts.tokens = cmd.getOptionValue(TOKENS_OPTION);
+                return opts;
+            }
+            catch (ParseException | NumberFormatException e)
+            {
+                errorMsg(e.getMessage(), options);
+                return null;
+            }
+        }
+
+        private static void errorMsg(String msg, CmdLineOptions options)
+        {
+            System.err.println(msg);
+            printUsage(options);
+            System.exit(1);
+        }
+
+        private static CmdLineOptions getCmdLineOptions()
+        {
+            CmdLineOptions options = new CmdLineOptions();
+            options.addOption(null, DEBUG_OPTION,                  "display stack traces");
+            options.addOption("h",  HELP_OPTION,                   "display this help message");
+            options.addOption("v",  VECTORS_OPTION, "file",        "sample the vectors of a file, one per line, besides the keys of the sstables");
+            options.addOption("s",  SAMPLE_OPTION,  "size",        "number of keys sampled (default: " + DEFAULT_SAMPLE_SIZE + ")");
+            options.addOption("p",  PLANES_OPTION,  "planes",      "number of hyperplanes (default: as many as configured)");
+            options.addOption("m",  METHOD_OPTION,  "method",      "pca for the principal directions of the sample, random for random directions (default: pca)");
+            options.addOption(null, SEED_OPTION,    "seed",        "seed of the sampling and of the random directions (default: 0)");
+            options.addOption("n",  NODES_OPTION,   "nodes",       "report the load of that many nodes with evenly spaced tokens");
+            options.addOption("t",  TOKENS_OPTION,  "tokens",      "report the load of the nodes with these comma separated tokens");
+            return options;
+        }
+
+        public static void printUsage(CmdLineOptions options)
+        {
+            String usage = String.format("%s [options] [<sstable data file>]*", TOOL_NAME);
+            StringBuilder header = new StringBuilder();
+            header.append("--\n");
+            header.append("Fit the hyperplanes of the SimilarityPartitioner to a sample of the keys of the provided sstables, " +
+                          "or of a vector file (see option --" + VECTORS_OPTION + "), and report how evenly the keys spread " +
+                          "over buckets and nodes.");
+            header.append("\n--\n");
+            header.append("Options are:");
+            new HelpFormatter().printHelp(usage, header.toString(), options, "");
+        }
+    }
+}
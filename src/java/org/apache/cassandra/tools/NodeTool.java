@@ -128,6 +128,7 @@ public class NodeTool
                 TruncateHints.class,
                 TpStats.class,
                 TopPartitions.class,
+                BucketStats.class,
                 SetLoggingLevel.class,
                 GetLoggingLevels.class
         );
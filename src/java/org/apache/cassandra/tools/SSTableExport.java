@@ -225,7 +225,7 @@ public class SSTableExport
     public static void enumeratekeys(Descriptor desc, PrintStream outs, CFMetaData metadata)
     throws IOException
     {
-        try (KeyIterator iter = new KeyIterator(desc))
+        try (KeyIterator iter = new KeyIterator(desc, metadata.partitioner()))
         {
             DecoratedKey lastKey = null;
             while (iter.hasNext())
@@ -20,6 +20,7 @@ package org.apache.cassandra.tools;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.Map;
 
@@ -52,6 +53,7 @@ public class SSTableMetadataViewer
                 ValidationMetadata validation = (ValidationMetadata) metadata.get(MetadataType.VALIDATION);
                 StatsMetadata stats = (StatsMetadata) metadata.get(MetadataType.STATS);
                 CompactionMetadata compaction = (CompactionMetadata) metadata.get(MetadataType.COMPACTION);
+                SimilarityMetadata similarity = (SimilarityMetadata) metadata.get(MetadataType.SIMILARITY);
 
                 out.printf("SSTable: %s%n", descriptor);
                 if (validation != null)
@@ -82,6 +84,11 @@ public class SSTableMetadataViewer
                     out.printf("Estimated cardinality: %s%n", compaction.cardinalityEstimator.cardinality());
 
                 }
+                if (similarity != null)
+                {
+                    out.printf("Vectors: %d of dimension %d, %d hyperplanes%n", similarity.count, similarity.dimension(), similarity.planes);
+                    out.printf("Vector centroid: %s%n", Arrays.toString(similarity.centroid));
+                }
             }
             else
             {
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.tools.nodetool;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import io.airlift.command.Arguments;
+import io.airlift.command.Command;
+import io.airlift.command.Option;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularDataSupport;
+
+import org.apache.cassandra.metrics.ColumnFamilyMetrics.Sampler;
+import org.apache.cassandra.tools.NodeProbe;
+import org.apache.cassandra.tools.NodeTool.NodeToolCmd;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+
+@Command(name = "bucketstats", description = "Print the occupancy and activity of the buckets of a table partitioned by the SimilarityPartitioner")
+public class BucketStats extends NodeToolCmd
+{
+    @Arguments(usage = "<keyspace> <table>", description = "The keyspace and table name")
+    private List<String> args = new ArrayList<>();
+    @Option(name = "-d", description = "Duration in milliseconds to sample the hottest buckets for, 0 to skip sampling (Default: 0)")
+    private int duration = 0;
+    @Option(name = "-s", description = "Capacity of stream summary, closer to the actual number of active buckets will yield more accurate results (Default: 256)")
+    private int size = 256;
+    @Option(name = "-k", description = "Number of the hottest buckets to list (Default: 10)")
+    private int topCount = 10;
+
+    @Override
+    public void execute(NodeProbe probe)
+    {
+        checkArgument(args.size() == 2, "bucketstats requires keyspace and table name arguments");
+        checkArgument(topCount < size, "TopK count (-k) option must be smaller then the summary capacity (-s)");
+        String keyspace = args.get(0);
+        String table = args.get(1);
+
+        long[] partitions;
+        long[] cardinality;
+        long[] writes;
+        long[] reads;
+        double skew;
+        try
+        {
+            partitions = (long[]) probe.getColumnFamilyMetric(keyspace, table, "BucketPartitions");
+            cardinality = (long[]) probe.getColumnFamilyMetric(keyspace, table, "BucketCardinality");
+            writes = (long[]) probe.getColumnFamilyMetric(keyspace, table, "BucketWrites");
+            reads = (long[]) probe.getColumnFamilyMetric(keyspace, table, "BucketReads");
+            skew = (Double) probe.getColumnFamilyMetric(keyspace, table, "BucketSkew");
+        }
+        catch (RuntimeException e)
+        {
+            // the bucket metrics are only registered for the tables partitioned by the SimilarityPartitioner
+            throw new IllegalArgumentException(String.format("%s.%s has no bucket metrics, it is not partitioned by the SimilarityPartitioner", keyspace, table), e);
+        }
+
+        int bits = Integer.numberOfTrailingZeros(partitions.length);
+        System.out.println(String.format("%s/%s buckets, in %d cells of %d bits", keyspace, table, partitions.length, bits));
+        System.out.println(String.format("Skew (fullest cell / mean): %.2f", skew));
+        System.out.println();
+        System.out.println(String.format("%-16s%15s%18s%15s%15s", "Cell", "Partitions", "Distinct written", "Writes", "Reads"));
+        for (int i = 0; i < partitions.length; i++)
+        {
+            if (partitions[i] == 0 && writes[i] == 0 && reads[i] == 0)
+                continue;
+            System.out.println(String.format("%-16s%15d%18d%15d%15d", cell(i, bits), partitions[i], cardinality[i], writes[i], reads[i]));
+        }
+
+        if (duration <= 0)
+            return;
+
+        Map<Sampler, CompositeData> results;
+        try
+        {
+            results = probe.getPartitionSample(keyspace, table, size, duration, topCount, Lists.newArrayList(Sampler.BUCKET_READS, Sampler.BUCKET_WRITES));
+        }
+        catch (OpenDataException e)
+        {
+            throw new RuntimeException(e);
+        }
+        for (Map.Entry<Sampler, CompositeData> result : results.entrySet())
+        {
+            // weird casting for http://bugs.sun.com/view_bug.do?bug_id=6548436
+            List<CompositeData> topk = (List<CompositeData>) (Object) Lists.newArrayList(((TabularDataSupport) result.getValue().get("partitions")).values());
+            Collections.sort(topk, new Ordering<CompositeData>()
+            {
+                public int compare(CompositeData left, CompositeData right)
+                {
+                    return Long.compare((long) right.get("count"), (long) left.get("count"));
+                }
+            });
+            System.out.println();
+            System.out.printf("%s sampler, hottest %d buckets:%n", result.getKey(), topCount);
+            if (topk.isEmpty())
+            {
+                System.out.println("\tNothing recorded during sampling period...");
+                continue;
+            }
+            int offset = 0;
+            for (CompositeData entry : topk)
+                offset = Math.max(offset, entry.get("string").toString().length());
+            System.out.printf("\t%-" + offset + "s%10s%10s%n", "Bucket", "Count", "+/-");
+            for (CompositeData entry : topk)
+                System.out.printf("\t%-" + offset + "s%10d%10d%n", entry.get("string").toString(), entry.get("count"), entry.get("error"));
+        }
+    }
+
+    /**
+     * @return the Gray rank prefix of cell {@code i}, in binary
+     */
+    private static String cell(int i, int bits)
+    {
+        if (bits == 0)
+            return "*";
+        String binary = Integer.toBinaryString(i);
+        StringBuilder builder = new StringBuilder(bits);
+        for (int j = binary.length(); j < bits; j++)
+            builder.append('0');
+        return builder.append(binary).toString();
+    }
+}
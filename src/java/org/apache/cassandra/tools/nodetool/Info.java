@@ -117,6 +117,17 @@ public class Info extends NodeToolCmd
                 probe.getCacheMetric("CounterCache", "HitRate"),
                 cacheService.getCounterCacheSavePeriodInSeconds());
 
+        // Similarity Cache: Hits, Requests, RecentHitRate, Invalidations
+        System.out.printf("%-23s: entries %d, size %s, capacity %s, %d hits, %d requests, %.3f recent hit rate, %d invalidations%n",
+                "Similarity Cache",
+                probe.getCacheMetric("SimilarityCache", "Entries"),
+                FileUtils.stringifyFileSize((long) probe.getCacheMetric("SimilarityCache", "Size")),
+                FileUtils.stringifyFileSize((long) probe.getCacheMetric("SimilarityCache", "Capacity")),
+                probe.getCacheMetric("SimilarityCache", "Hits"),
+                probe.getCacheMetric("SimilarityCache", "Requests"),
+                probe.getCacheMetric("SimilarityCache", "HitRate"),
+                probe.getCacheMetric("SimilarityCache", "Invalidations"));
+
         // check if node is already joined, before getting tokens, since it throws exception if not.
         if (probe.isJoined())
         {
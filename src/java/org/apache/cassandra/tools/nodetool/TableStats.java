@@ -22,6 +22,7 @@ import io.airlift.command.Command;
 import io.airlift.command.Option;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -156,6 +157,10 @@ public class TableStats extends NodeToolCmd
                     }
                 }
 
+                int[] bucketSSTables = table.getSSTableCountPerBucket();
+                if (bucketSSTables != null)
+                    System.out.println("\t\tSSTables in each bucket family: " + Arrays.toString(bucketSSTables));
+
                 Long memtableOffHeapSize = null;
                 Long bloomFilterOffHeapSize = null;
                 Long indexSummaryOffHeapSize = null;
@@ -33,7 +33,6 @@ import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.OpenDataException;
 import javax.management.openmbean.TabularDataSupport;
 
-import org.apache.cassandra.metrics.ColumnFamilyMetrics;
 import org.apache.cassandra.metrics.ColumnFamilyMetrics.Sampler;
 import org.apache.cassandra.tools.NodeProbe;
 import org.apache.cassandra.tools.NodeTool.NodeToolCmd;
@@ -50,8 +49,8 @@ public class TopPartitions extends NodeToolCmd
     private int size = 256;
     @Option(name = "-k", description = "Number of the top partitions to list (Default: 10)")
     private int topCount = 10;
-    @Option(name = "-a", description = "Comma separated list of samplers to use (Default: all)")
-    private String samplers = join(ColumnFamilyMetrics.Sampler.values(), ',');
+    @Option(name = "-a", description = "Comma separated list of samplers to use (Default: READS,WRITES)")
+    private String samplers = join(new Sampler[]{ Sampler.READS, Sampler.WRITES }, ',');
     @Override
     public void execute(NodeProbe probe)
     {
@@ -21,37 +21,14 @@ package org.apache.cassandra.utils;
 import java.util.BitSet;
 import java.util.Comparator;
 
+/**
+ * Orders Gray codes by their binary rank, treated as an unsigned integer of arbitrary width.
+ */
 public class BinaryReflectedGrayCode implements Comparator<BitSet>
 {
     public int compare(BitSet gray1, BitSet gray2)
     {
-        return Long.compare(convert(BinaryReflectedGrayCodeUtil.grayToBinary(gray1)),
-                            convert(BinaryReflectedGrayCodeUtil.grayToBinary(gray2)));
-    }
-
-    private static long convert(BitSet bits)
-    {
-        long value = 0L;
-        for (int i = 0; i < bits.length(); ++i)
-        {
-            value += bits.get(i) ? (1L << i) : 0L;
-        }
-        return value;
-    }
-
-    private  static BitSet convert(long value)
-    {
-        BitSet bits = new BitSet();
-        int index = 0;
-        while (value != 0L)
-        {
-            if (value % 2L != 0)
-            {
-                bits.set(index);
-            }
-            ++index;
-            value = value >>> 1;
-        }
-        return bits;
+        return BinaryReflectedGrayCodeUtil.compare(BinaryReflectedGrayCodeUtil.grayToBinary(gray1.toLongArray()),
+                                                   BinaryReflectedGrayCodeUtil.grayToBinary(gray2.toLongArray()));
     }
 }
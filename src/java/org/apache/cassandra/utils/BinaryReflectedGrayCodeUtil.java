@@ -20,42 +20,102 @@ package org.apache.cassandra.utils;
 
 import java.util.BitSet;
 
+import com.google.common.primitives.UnsignedLongs;
+
+/**
+ * Conversions between binary-reflected Gray codes and their binary rank.
+ *
+ * The word-based variants use the same layout as {@link BitSet#toLongArray()}: bit i lives in
+ * word i / 64, so the most significant word is the last one. Arrays are expected to be trimmed
+ * (no trailing zero words), which makes the decoded rank of a code the same length as the code.
+ */
 public class BinaryReflectedGrayCodeUtil
 {
     private static final BitSet ZERO = new BitSet();
 
     public static BitSet binaryToGray(BitSet binary)
     {
-        if (binary.equals(ZERO))
-        {
-            return (BitSet) ZERO.clone();
-        }
-        else
-        {
-            BitSet gray = (BitSet) binary.clone();
-            gray.xor(binary.get(1, binary.length()));
-            return gray;
-        }
+        return BitSet.valueOf(binaryToGray(binary.toLongArray()));
     }
 
     public static BitSet grayToBinary(BitSet gray)
     {
         if (gray.equals(ZERO))
-        {
             return (BitSet) ZERO.clone();
+        return BitSet.valueOf(grayToBinary(gray.toLongArray()));
+    }
+
+    /**
+     * @return the Gray code of the given binary words, in a new array of the same length
+     */
+    public static long[] binaryToGray(long[] binary)
+    {
+        long[] gray = new long[binary.length];
+        for (int i = 0; i < binary.length; i++)
+        {
+            long carry = i + 1 < binary.length ? binary[i + 1] << 63 : 0L;
+            gray[i] = binary[i] ^ ((binary[i] >>> 1) | carry);
         }
-        else
+        return gray;
+    }
+
+    /**
+     * @return the binary rank of the given Gray code words, in a new array of the same length
+     */
+    public static long[] grayToBinary(long[] gray)
+    {
+        long[] binary = new long[gray.length];
+        grayToBinary(gray, gray.length, binary);
+        return binary;
+    }
+
+    /**
+     * Decodes the first {@code length} words of {@code gray} into {@code binary}.
+     *
+     * Each binary bit is the parity of the Gray bits at or above it, so every word is a prefix xor
+     * of its own bits, inverted when the words above it have odd parity.
+     */
+    public static void grayToBinary(long[] gray, int length, long[] binary)
+    {
+        long parity = 0L;
+        for (int i = length - 1; i >= 0; i--)
         {
-            BitSet binary = (BitSet) gray.clone();
-            BitSet bs = gray.get(1, gray.length());
+            long word = gray[i];
+            word ^= word >>> 1;
+            word ^= word >>> 2;
+            word ^= word >>> 4;
+            word ^= word >>> 8;
+            word ^= word >>> 16;
+            word ^= word >>> 32;
+            word ^= parity;
+            binary[i] = word;
+            parity = -(word & 1L);
+        }
+    }
 
-            while (!bs.equals(ZERO))
-            {
-                binary.xor(bs);
-                bs = bs.get(1, bs.length());
-            }
+    /**
+     * Compares two trimmed binary ranks as unsigned integers.
+     */
+    public static int compare(long[] binary1, long[] binary2)
+    {
+        if (binary1.length != binary2.length)
+            return binary1.length < binary2.length ? -1 : 1;
 
-            return binary;
+        for (int i = binary1.length - 1; i >= 0; i--)
+        {
+            if (binary1[i] != binary2[i])
+                return UnsignedLongs.compare(binary1[i], binary2[i]) < 0 ? -1 : 1;
         }
+        return 0;
+    }
+
+    /**
+     * @return the number of words of {@code words} that remain once trailing zero words are dropped
+     */
+    public static int trimmedLength(long[] words, int length)
+    {
+        while (length > 0 && words[length - 1] == 0L)
+            length--;
+        return length;
     }
 }
@@ -17,7 +17,11 @@
  */
 package org.apache.cassandra.utils;
 
+import java.io.BufferedInputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
@@ -51,7 +55,22 @@ public class FilterFactory
 
     public static IFilter deserialize(DataInput input, boolean offheap) throws IOException
     {
-        return isSimilarityPartitioner() ? SimilarityBloomFilter.serializer.deserialize(input) : BloomFilter.serializer.deserialize(input, offheap);
+        return isSimilarityPartitioner() ? SimilarityBloomFilter.serializer.deserialize(input, offheap) : BloomFilter.serializer.deserialize(input, offheap);
+    }
+
+    /**
+     * Loads a filter from a Filter.db file; the tables of a SimilarityBloomFilter are copied in bulk from
+     * the mapped file.
+     */
+    public static IFilter load(File file, boolean offheap) throws IOException
+    {
+        if (isSimilarityPartitioner())
+            return SimilarityBloomFilter.serializer.load(file, offheap);
+
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            return BloomFilter.serializer.deserialize(stream, offheap);
+        }
     }
 
     /**
@@ -67,7 +86,7 @@ public class FilterFactory
             logger.warn(String.format("Cannot provide an optimal BloomFilter for %d elements (%d/%d buckets per element).", numElements, bucketsPerElement, targetBucketsPerElem));
         }
         BloomCalculations.BloomSpecification spec = BloomCalculations.computeBloomSpec(bucketsPerElement);
-        return createFilter(spec.K, numElements, spec.bucketsPerElement, offheap);
+        return createFilter(spec.K, (numElements * spec.bucketsPerElement) + BITSET_EXCESS, offheap);
     }
 
     /**
@@ -84,29 +103,46 @@ public class FilterFactory
             return new AlwaysPresentFilter();
         int bucketsPerElement = BloomCalculations.maxBucketsPerElement(numElements);
         BloomCalculations.BloomSpecification spec = BloomCalculations.computeBloomSpec(bucketsPerElement, maxFalsePosProbability);
-        return createFilter(spec.K, numElements, spec.bucketsPerElement, offheap);
+        long numBits = isSimilarityPartitioner()
+                     ? SimilarityBloomFilter.bitsPerTable(numElements, maxFalsePosProbability, SimilarityHashUtil.configured()) + BITSET_EXCESS
+                     : (numElements * spec.bucketsPerElement) + BITSET_EXCESS;
+        return createFilter(spec.K, numBits, offheap);
     }
 
-    @SuppressWarnings("resource")
-    private static IFilter createFilter(int hash, long numElements, int bucketsPer, boolean offheap)
+    /**
+     * @return The smallest SimilarityBloomFilter, with the tables of the given specification, that can provide
+     *         the given false positive probability rate for the given number of elements, whichever the
+     *         partitioner configured.
+     */
+    public static IFilter getSimilarityFilter(long numElements, double maxFalsePosProbability, SimilarityHashUtil.Specification specification, boolean offheap)
     {
-        long numBits = (numElements * bucketsPer) + BITSET_EXCESS;
+        assert maxFalsePosProbability < 1.0 : "Invalid probability";
+        int bucketsPerElement = BloomCalculations.maxBucketsPerElement(numElements);
+        BloomCalculations.BloomSpecification spec = BloomCalculations.computeBloomSpec(bucketsPerElement, maxFalsePosProbability);
+        long numBits = SimilarityBloomFilter.bitsPerTable(numElements, maxFalsePosProbability, specification) + BITSET_EXCESS;
+        return createSimilarityFilter(spec.K, numBits, specification, offheap);
+    }
 
+    @SuppressWarnings("resource")
+    private static IFilter createFilter(int hash, long numBits, boolean offheap)
+    {
         if (isSimilarityPartitioner())
-        {
-            IBitSet[] bitSet = new IBitSet[SimilarityBloomFilter.getBitSetNum()];
-            for (int i = 0; i < bitSet.length; i++) {
-                bitSet[i] = new LocalitySensitiveBitSet(SimilarityHashUtil.RANDOM_GAUSSIAN[i], SimilarityHashUtil.RANDOM_UNIFORM[i]);
-                // bitSet[i] = new LocalitySensitiveBitSet(numBits, SimilarityHashUtil.RANDOM_GAUSSIAN[i], SimilarityHashUtil.RANDOM_UNIFORM[i]);
-            }
-            return new SimilarityBloomFilter(hash, bitSet);
-        }
+            return createSimilarityFilter(hash, numBits, SimilarityHashUtil.configured(), offheap);
 
         IBitSet bitset = offheap ? new OffHeapBitSet(numBits) : new OpenBitSet(numBits);
         return new BloomFilter(hash, bitset);
     }
 
-    private static boolean isSimilarityPartitioner()
+    @SuppressWarnings("resource")
+    private static IFilter createSimilarityFilter(int hash, long numBits, SimilarityHashUtil.Specification specification, boolean offheap)
+    {
+        IBitSet[] bitSet = new IBitSet[specification.tables];
+        for (int i = 0; i < bitSet.length; i++)
+            bitSet[i] = new LocalitySensitiveBitSet(numBits, specification.parameters(i), offheap);
+        return new SimilarityBloomFilter(hash, bitSet, specification);
+    }
+
+    public static boolean isSimilarityPartitioner()
     {
         return "org.apache.cassandra.dht.SimilarityPartitioner".equals(DatabaseDescriptor.getPartitionerName());
     }
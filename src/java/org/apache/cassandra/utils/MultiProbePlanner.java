@@ -0,0 +1,307 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.math3.special.Erf;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.RowPosition;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.serializers.VectorSerializer;
+
+/**
+ * Plans the buckets to read for the neighbours of a query vector (multi-probe LSH).
+ *
+ * A neighbour lands in another bucket than the query when it lies on the other side of some hyperplanes. The
+ * closer the query is to a hyperplane, the likelier that is: modelling the neighbour as the query shifted by a
+ * gaussian of standard deviation {@code radius * |query| / sqrt(dimension)} in every direction, bit i flips with
+ * probability {@code p(i) = Phi(-margin(i) / sigma)}, margin(i) being the distance from the query to hyperplane i.
+ * The model is angular, sigma scaling with the query's norm, so it assumes hyperplanes through the origin: with
+ * vector_offsets the estimated recall overstates the real one.
+ *
+ * The flip cost of bit i is {@code log((1 - p(i)) / p(i))}, so that a bucket's probability decreases with the
+ * total flip cost of the bits it differs on. Buckets are generated in order of increasing total cost, with the
+ * shift/expand enumeration of perturbation sets over the bits sorted by cost, until the probe budget is spent or
+ * the estimated recall - the probability mass of the buckets planned so far - reaches the target.
+ */
+public class MultiProbePlanner
+{
+    private static class InstanceHolder
+    {
+        private static final MultiProbePlanner instance = new MultiProbePlanner(RandomHyperplaneHash.instance(),
+                                                                                DatabaseDescriptor.getSimilarityProbeRadius());
+    }
+
+    private final RandomHyperplaneHash hash;
+    private final double radius;
+
+    private final ThreadLocal<double[]> reusableProjections = new ThreadLocal<double[]>()
+    {
+        protected double[] initialValue()
+        {
+            return new double[hash.planes()];
+        }
+    };
+
+    /**
+     * @param hash the hyperplanes the keys are hashed with
+     * @param radius the expected angular distance, in radians, between a query and its neighbours
+     */
+    public MultiProbePlanner(RandomHyperplaneHash hash, double radius)
+    {
+        assert radius > 0 : radius;
+        this.hash = hash;
+        this.radius = radius;
+    }
+
+    /**
+     * @return the planner for the hyperplanes and the radius configured in cassandra.yaml
+     */
+    public static MultiProbePlanner instance()
+    {
+        return InstanceHolder.instance;
+    }
+
+    /**
+     * Plans the buckets to read for the neighbours of {@code key}, with the budget and target recall configured
+     * in cassandra.yaml.
+     */
+    public Plan plan(ByteBuffer key, VectorSerializer layout)
+    {
+        return plan(key, layout, DatabaseDescriptor.getSimilarityProbeBudget(), DatabaseDescriptor.getSimilarityTargetRecall());
+    }
+
+    /**
+     * Plans the buckets to read for the neighbours of {@code key}, a key of no vector type.
+     */
+    public Plan plan(ByteBuffer key, int budget, double targetRecall)
+    {
+        return plan(key, null, budget, targetRecall);
+    }
+
+    /**
+     * Plans the buckets to read for the neighbours of {@code key}. The bucket of the key itself is always planned.
+     *
+     * @param key the query vector, in the layout of the partition keys
+     * @param layout the layout of the partition keys as packed vectors, or null if they are not of a vector type
+     * @param budget the maximum number of buckets to plan
+     * @param targetRecall the estimated recall at which to stop planning
+     */
+    public Plan plan(ByteBuffer key, VectorSerializer layout, int budget, double targetRecall)
+    {
+        assert budget > 0 : budget;
+
+        int planes = hash.planes();
+        double[] projections = reusableProjections.get();
+        hash.project(key, layout, projections);
+        long[] signature = hash.hash(key, layout).clone();
+
+        double sigma = radius * norm(RandomHyperplaneHash.vector(key, layout), hash.dimension()) / Math.sqrt(Math.max(1, hash.dimension()));
+
+        // bits that can flip, cheapest first; a null hyperplane puts every key on the same side
+        Integer[] flippable = new Integer[planes];
+        final double[] costs = new double[planes];
+        double logBase = 0;
+        int count = 0;
+        for (int i = 0; i < planes; i++)
+        {
+            if (hash.norm(i) == 0)
+                continue;
+
+            double margin = Math.abs(projections[i]) / hash.norm(i);
+            double p = sigma == 0 ? 0.5 : 0.5 * Erf.erfc(margin / (sigma * Math.sqrt(2)));
+            if (p == 0)
+                continue;
+
+            costs[i] = Math.log1p(-p) - Math.log(p);
+            logBase += Math.log1p(-p);
+            flippable[count++] = i;
+        }
+        Arrays.sort(flippable, 0, count, new Comparator<Integer>()
+        {
+            public int compare(Integer i1, Integer i2)
+            {
+                return Double.compare(costs[i1], costs[i2]);
+            }
+        });
+
+        int[] order = new int[count];
+        double[] sortedCosts = new double[count];
+        for (int i = 0; i < count; i++)
+        {
+            order[i] = flippable[i];
+            sortedCosts[i] = costs[order[i]];
+        }
+
+        List<long[]> probes = new ArrayList<>(Math.min(budget, 64));
+        List<Double> recalls = new ArrayList<>(Math.min(budget, 64));
+        double recall = Math.exp(logBase);
+        probes.add(signature);
+        recalls.add(recall);
+
+        PriorityQueue<Perturbation> perturbations = new PriorityQueue<>();
+        if (count > 0)
+            perturbations.add(new Perturbation(new int[]{ 0 }, sortedCosts[0]));
+
+        while (probes.size() < budget && recall < targetRecall && !perturbations.isEmpty())
+        {
+            Perturbation perturbation = perturbations.poll();
+
+            long[] probe = signature.clone();
+            for (int position : perturbation.positions)
+            {
+                int bit = order[position];
+                probe[bit >>> 6] ^= 1L << bit;
+            }
+            recall += Math.exp(logBase - perturbation.cost);
+            probes.add(probe);
+            recalls.add(recall);
+
+            int last = perturbation.positions[perturbation.positions.length - 1];
+            if (last + 1 < count)
+            {
+                perturbations.add(perturbation.shift(sortedCosts));
+                perturbations.add(perturbation.expand(sortedCosts));
+            }
+        }
+
+        double[] cumulativeRecall = new double[recalls.size()];
+        for (int i = 0; i < cumulativeRecall.length; i++)
+            cumulativeRecall[i] = Math.min(1.0, recalls.get(i));
+
+        return new Plan(probes, cumulativeRecall, SimilarityPartitioner.instance.getKeyBounds(probes));
+    }
+
+    // the norm of the components of a vector that the hyperplanes project
+    private static double norm(double[] vector, int dimension)
+    {
+        double norm = 0;
+        for (int j = 0, length = Math.min(vector.length, dimension); j < length; j++)
+            norm += vector[j] * vector[j];
+        return Math.sqrt(norm);
+    }
+
+    /**
+     * A set of bits to flip, as positions in the bits sorted by cost, in increasing order.
+     */
+    private static final class Perturbation implements Comparable<Perturbation>
+    {
+        private final int[] positions;
+        private final double cost;
+
+        private Perturbation(int[] positions, double cost)
+        {
+            this.positions = positions;
+            this.cost = cost;
+        }
+
+        /**
+         * @return the perturbation with the last bit replaced by the next one
+         */
+        private Perturbation shift(double[] costs)
+        {
+            int[] shifted = positions.clone();
+            int last = shifted[shifted.length - 1]++;
+            return new Perturbation(shifted, cost - costs[last] + costs[last + 1]);
+        }
+
+        /**
+         * @return the perturbation with the bit following the last one added
+         */
+        private Perturbation expand(double[] costs)
+        {
+            int[] expanded = Arrays.copyOf(positions, positions.length + 1);
+            int last = positions[positions.length - 1];
+            expanded[positions.length] = last + 1;
+            return new Perturbation(expanded, cost + costs[last + 1]);
+        }
+
+        public int compareTo(Perturbation other)
+        {
+            return Double.compare(cost, other.cost);
+        }
+    }
+
+    /**
+     * The buckets planned for a query, and the ranges of the ring holding them.
+     */
+    public static final class Plan
+    {
+        /**
+         * The signatures of the buckets, most probable first.
+         */
+        public final List<long[]> probes;
+
+        /**
+         * The key bounds covering the buckets, adjacent buckets merged, in ring order.
+         */
+        public final List<AbstractBounds<RowPosition>> bounds;
+
+        /**
+         * {@code recall[i]} is the estimated recall of reading the first i + 1 buckets.
+         */
+        private final double[] recall;
+
+        private Plan(List<long[]> probes, double[] recall, List<AbstractBounds<RowPosition>> bounds)
+        {
+            this.probes = Collections.unmodifiableList(probes);
+            this.recall = recall;
+            this.bounds = Collections.unmodifiableList(bounds);
+        }
+
+        /**
+         * @return the estimated recall of reading all the buckets planned
+         */
+        public double estimatedRecall()
+        {
+            return recall[recall.length - 1];
+        }
+
+        /**
+         * @return the estimated recall of reading the {@code probes} most probable buckets
+         */
+        public double estimatedRecall(int probes)
+        {
+            return recall[Math.min(probes, recall.length) - 1];
+        }
+
+        /**
+         * @return the number of ranges to read
+         */
+        public int ranges()
+        {
+            return bounds.size();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%d buckets in %d ranges, estimated recall %.3f", probes.size(), ranges(), estimatedRecall());
+        }
+    }
+}
@@ -19,151 +19,487 @@
 package org.apache.cassandra.utils;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.serializers.VectorSerializer;
 
+/**
+ * Random hyperplane hashing: bit i of a key's signature is set when the scalar product of the key
+ * vector with hyperplane i is at least the hyperplane's offset, zero unless configured otherwise.
+ *
+ * The hyperplanes are kept in a single dimension-major array so that a key can be projected while it
+ * is being parsed, one component at a time, without materializing the key vector. Projections and
+ * signature words are written to thread-local buffers; the only allocation left to callers is the
+ * token built from the signature.
+ *
+ * The keys of a table whose partition key is a {@code vector<float, N>} or {@code vector<double, N>} are read
+ * in place as packed little-endian floats or doubles, with the {@link VectorSerializer} of that type as layout.
+ * Other keys are expected in the composite layout (a 2 byte length, the value and an end-of-component byte per
+ * dimension), with 4 byte components read as ints, 8 byte ones as doubles and any other length as its
+ * first byte, which the original parser read as a single byte followed by the end-of-component byte. Keys
+ * that do not follow either layout are read as one dimension per byte.
+ */
 public class RandomHyperplaneHash
 {
-    public BitSet rhh(ByteBuffer key)
+    private static class InstanceHolder
     {
-        return rhh(key, DatabaseDescriptor.getIdentifierLength(), DatabaseDescriptor.getVectors());
+        private static final RandomHyperplaneHash instance = new RandomHyperplaneHash(DatabaseDescriptor.getVectors(),
+                                                                                      DatabaseDescriptor.getVectorOffsets());
     }
 
-    private static BitSet rhh(ByteBuffer key, int bits, double[][] vectors)
+    private final int planes;
+    private final int dimension;
+    private final int words;
+    // component j of hyperplane i is at j * planes + i
+    private final double[] matrix;
+    private final double[] norms;
+    private final double[] offsets;
+
+    private final ThreadLocal<double[]> reusableProjections = new ThreadLocal<double[]>()
     {
-        double[] vectorKey = getVectorKey(key);
+        protected double[] initialValue()
+        {
+            return new double[planes];
+        }
+    };
 
-        BitSet hash = new BitSet(bits);
+    private final ThreadLocal<long[]> reusableSignature = new ThreadLocal<long[]>()
+    {
+        protected long[] initialValue()
+        {
+            return new long[words];
+        }
+    };
 
-        double sum;
+    public RandomHyperplaneHash()
+    {
+        this(DatabaseDescriptor.getVectors(), DatabaseDescriptor.getVectorOffsets());
+    }
 
-        int i = 0;
-        int j = 0;
+    /**
+     * @param vectors the hyperplanes, through the origin; shorter rows behave as if padded with zeros
+     */
+    public RandomHyperplaneHash(double[][] vectors)
+    {
+        this(vectors, null);
+    }
 
-        while (i < vectors.length)
+    /**
+     * @param vectors the normal vectors of the hyperplanes; shorter rows behave as if padded with zeros
+     * @param offsets the offset of each hyperplane along its normal vector, scaled by its norm, or null
+     */
+    public RandomHyperplaneHash(double[][] vectors, double[] offsets)
+    {
+        assert offsets == null || offsets.length == vectors.length;
+        int dimension = 0;
+        for (double[] vector : vectors)
+            dimension = Math.max(dimension, vector.length);
+
+        this.planes = vectors.length;
+        this.dimension = dimension;
+        this.words = (planes + 63) / 64;
+        this.matrix = new double[planes * dimension];
+        this.norms = new double[planes];
+        for (int i = 0; i < planes; i++)
         {
-            sum = scalarProduct(vectorKey, vectors[i]);
-            if (sum >= 0.0)
-            {
-                hash.set(j, true);
-            }
-            else
+            double norm = 0;
+            for (int j = 0; j < vectors[i].length; j++)
             {
-                hash.set(j, false);
+                matrix[j * planes + i] = vectors[i][j];
+                norm += vectors[i][j] * vectors[i][j];
             }
-            i++;
-            j++;
+            norms[i] = Math.sqrt(norm);
         }
+        this.offsets = offsets == null ? new double[planes] : offsets.clone();
+    }
+
+    /**
+     * @return the engine for the hyperplanes configured in cassandra.yaml
+     */
+    public static RandomHyperplaneHash instance()
+    {
+        return InstanceHolder.instance;
+    }
 
-        return hash;
+    /**
+     * @return the number of hyperplanes, which is also the number of signature bits
+     */
+    public int planes()
+    {
+        return planes;
+    }
+
+    public int dimension()
+    {
+        return dimension;
+    }
+
+    /**
+     * @return the euclidean norm of hyperplane {@code plane}'s normal vector
+     */
+    public double norm(int plane)
+    {
+        return norms[plane];
+    }
+
+    /**
+     * @return the scalar product with hyperplane {@code plane}'s normal vector above which keys are on its positive side
+     */
+    public double offset(int plane)
+    {
+        return offsets[plane];
+    }
+
+    /**
+     * @return the number of words of a signature
+     */
+    public int words()
+    {
+        return words;
+    }
+
+    public BitSet rhh(ByteBuffer key)
+    {
+        return BitSet.valueOf(hash(key));
     }
 
     public BitSet rhh()
     {
-        return rhh(DatabaseDescriptor.getIdentifierLength(), DatabaseDescriptor.getVectors());
+        return BitSet.valueOf(hash(ThreadLocalRandom.current()));
+    }
+
+    /**
+     * Hashes a key into a thread-local buffer, which is overwritten by the next call on this thread.
+     *
+     * @return the signature words, in the layout of {@link BitSet#toLongArray()} but not trimmed
+     */
+    public long[] hash(ByteBuffer key)
+    {
+        return hash(key, null);
+    }
+
+    /**
+     * Same as {@link #hash(ByteBuffer)}, for a key of the given layout.
+     *
+     * @param layout the serializer of the packed vectors of the table's partition key type, or null if it is not
+     * a vector type
+     */
+    public long[] hash(ByteBuffer key, VectorSerializer layout)
+    {
+        double[] projections = reusableProjections.get();
+        project(key, layout, projections);
+        long[] signature = reusableSignature.get();
+        signature(projections, signature, 0);
+        return signature;
+    }
+
+    /**
+     * Hashes a random direction, drawn uniformly from the unit sphere of the key space, into a
+     * thread-local buffer as {@link #hash(ByteBuffer)} does.
+     */
+    public long[] hash(Random random)
+    {
+        double[] projections = reusableProjections.get();
+        Arrays.fill(projections, 0.0);
+        for (int j = 0; j < dimension; j++)
+            accumulate(projections, j, random.nextGaussian());
+        subtractOffsets(projections);
+        long[] signature = reusableSignature.get();
+        signature(projections, signature, 0);
+        return signature;
     }
 
-    private static BitSet rhh(int bits, double[][] vectors)
+    /**
+     * Hashes a batch of keys of the given layout. The signature of the i-th key is written to
+     * {@code signatures[i * words() .. (i + 1) * words())}.
+     */
+    public void hash(List<ByteBuffer> keys, VectorSerializer layout, long[] signatures)
     {
-        int dataSize = 8;
-        int size = vectors[0].length;
+        assert signatures.length >= keys.size() * words;
 
-        Random seed = new Random();
-        ByteBuffer key = ByteBuffer.allocate((dataSize * size) + (3 * size));
-        for (int i = 0; i < size; i++)
+        double[] projections = reusableProjections.get();
+        for (int i = 0; i < keys.size(); i++)
         {
-            byte[] bytes = new byte[dataSize];
-            seed.nextBytes(bytes);
-            ByteBufferUtil.writeShortLength(key, dataSize);
-            key.put(ByteBuffer.wrap(bytes));
-            key.put((byte) 0);
+            project(keys.get(i), layout, projections);
+            signature(projections, signatures, i * words);
         }
+    }
 
-        key.rewind();
-
-        return rhh(key, bits, vectors);
+    /**
+     * Writes the scalar product of the key with each hyperplane, minus the hyperplane's offset, to
+     * {@code projections[0 .. planes())}: the key is on the positive side of hyperplane i if
+     * {@code projections[i] >= 0}, at a distance of {@code |projections[i]| / norm(i)}.
+     * The key's position is left untouched.
+     */
+    public void project(ByteBuffer key, double[] projections)
+    {
+        project(key, null, projections);
     }
 
-    private static double[] getVectorKey(ByteBuffer key)
+    /**
+     * Same as {@link #project(ByteBuffer, double[])}, for a key of the given layout.
+     */
+    public void project(ByteBuffer key, VectorSerializer layout, double[] projections)
     {
-        double[] vector;
-        if (key.remaining() < 2)
+        Arrays.fill(projections, 0, planes, 0.0);
+        if (isPacked(key, layout))
         {
-            vector = getVectorKeyByteByByte(key);
+            projectPacked(key, layout, projections);
         }
-        else
+        else if (key.remaining() < 2 || !projectComponents(bigEndian(key), projections))
         {
-            try
+            Arrays.fill(projections, 0, planes, 0.0);
+            projectBytes(key, projections);
+        }
+        subtractOffsets(projections);
+    }
+
+    /**
+     * Same as {@link #project(ByteBuffer, double[])}, for a key already read as a vector.
+     */
+    public void project(double[] vector, double[] projections)
+    {
+        Arrays.fill(projections, 0, planes, 0.0);
+        for (int j = 0, length = Math.min(vector.length, dimension); j < length; j++)
+            accumulate(projections, j, vector[j]);
+        subtractOffsets(projections);
+    }
+
+    /**
+     * Hashes a key already read as a vector into a thread-local buffer, as {@link #hash(ByteBuffer)} does.
+     */
+    public long[] hash(double[] vector)
+    {
+        double[] projections = reusableProjections.get();
+        project(vector, projections);
+        long[] signature = reusableSignature.get();
+        signature(projections, signature, 0);
+        return signature;
+    }
+
+    private void subtractOffsets(double[] projections)
+    {
+        for (int i = 0; i < planes; i++)
+            projections[i] -= offsets[i];
+    }
+
+    private void projectPacked(ByteBuffer key, VectorSerializer layout, double[] projections)
+    {
+        for (int j = 0, length = Math.min(layout.dimension, dimension); j < length; j++)
+            accumulate(projections, j, layout.get(key, j));
+    }
+
+    /**
+     * @return whether {@code key} is a packed vector of {@code layout}; keys of any other size, as the empty key
+     * bounding the ring, are read in the composite or per-byte layout
+     */
+    private static boolean isPacked(ByteBuffer key, VectorSerializer layout)
+    {
+        return layout != null && key.remaining() == layout.serializedSize();
+    }
+
+    /**
+     * Projects a key in the composite layout, read the way keys have always been placed on the ring: after its 2 byte
+     * length, a component is read as an int if it is 4 bytes long, as a double if it is 8 bytes long and as its first
+     * byte otherwise, then a single end-of-component byte is skipped. Components of any other length than 1, 4 and 8
+     * therefore throw the ones after them out of step, and the number of components is counted apart once one is
+     * met. Changing any of this would move existing keys to other tokens.
+     *
+     * @return false if the key is not in that layout, or the parse runs past its end
+     */
+    private boolean projectComponents(ByteBuffer key, double[] projections)
+    {
+        int position = key.position();
+        int limit = key.limit();
+        // only counted once a component throws the parse out of step; until then it ends at the end of the key
+        int components = -1;
+        for (int component = 0; components < 0 ? position < limit : component < components; component++)
+        {
+            if (limit - position < 2)
+                return false;
+
+            int length = key.getShort(position) & 0xFFFF;
+            if (components < 0 && valueSize(length) != length)
             {
-                int length;
-                int dataSize = 0;
-                int dimension = getKeyDimension(key, dataSize);
-                vector = new double[dimension];
-                for (int i = 0; i < dimension; i++)
-                {
-                    length = ByteBufferUtil.readShortLength(key);
-                    double value;
-                    if (length == 4)
-                        value = key.getInt();
-                    else if (length == 8)
-                        value = key.getDouble();
-                    else
-                        value = key.get();
-                    key.get();
-                    vector[i] = value;
-                }
-            } catch (Exception e) {
-                key.rewind();
-                vector = getVectorKeyByteByByte(key);
+                components = countComponents(key);
+                if (components < 0)
+                    return false;
             }
+            int start = position + 2;
+            position = start + valueSize(length) + 1;
+            if (position > limit)
+                return false;
+
+            if (component < dimension)
+                accumulate(projections, component, value(key, start, length));
         }
-        key.rewind();
-        return vector;
+        return true;
+    }
+
+    /**
+     * The composite layout is big-endian, while the keys of off-heap memtables are held in buffers of the native
+     * byte order: those are read through a big-endian view.
+     */
+    private static ByteBuffer bigEndian(ByteBuffer key)
+    {
+        return key.order() == ByteOrder.BIG_ENDIAN ? key : key.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * @return the number of bytes read for the value of a composite component of {@code length} bytes
+     */
+    private static int valueSize(int length)
+    {
+        return length == 4 || length == 8 ? length : 1;
+    }
+
+    private static double value(ByteBuffer key, int start, int length)
+    {
+        if (length == 4)
+            return key.getInt(start);
+        if (length == 8)
+            return key.getDouble(start);
+        return key.get(start);
     }
 
-    private static double[] getVectorKeyByteByByte(ByteBuffer key)
+    private void projectBytes(ByteBuffer key, double[] projections)
     {
-        double[] vector = new double[key.remaining()];
-        int i = 0;
-        while (key.hasRemaining())
+        int length = Math.min(key.remaining(), dimension);
+        for (int j = 0; j < length; j++)
+            accumulate(projections, j, key.get(key.position() + j));
+    }
+
+    /**
+     * Reads a key of the given layout as a vector, following the same rules as the projection.
+     */
+    public static double[] vector(ByteBuffer key, VectorSerializer layout)
+    {
+        return isPacked(key, layout) ? layout.deserialize(key) : vector(key);
+    }
+
+    /**
+     * Reads a key as a vector, following the same layout rules as the projection of keys of no vector type.
+     */
+    public static double[] vector(ByteBuffer key)
+    {
+        double[] vector = key.remaining() >= 2 ? components(bigEndian(key)) : null;
+        if (vector == null)
         {
-            vector[i] = key.get();
-            i++;
+            vector = new double[key.remaining()];
+            for (int j = 0; j < vector.length; j++)
+                vector[j] = key.get(key.position() + j);
         }
         return vector;
     }
 
-    private static int getKeyDimension(ByteBuffer key, int dataSize)
+    /**
+     * @return the components of a key in the composite layout, read as {@link #projectComponents} does, or null if
+     * it is not in that layout or the parse runs past its end
+     */
+    private static double[] components(ByteBuffer key)
     {
-        int dimension = 0;
+        int components = countComponents(key);
+        if (components < 0)
+            return null;
 
-        int pos = 0;
-        while (key.hasRemaining())
+        double[] vector = new double[components];
+        int position = key.position();
+        int limit = key.limit();
+        for (int j = 0; j < components; j++)
         {
-            int length = ByteBufferUtil.readShortLength(key);
-            dataSize += length;
-            pos += 3 + length;
-            key.position(pos);
-            dimension++;
-        }
+            if (limit - position < 2)
+                return null;
 
-        key.rewind();
+            int length = key.getShort(position) & 0xFFFF;
+            int start = position + 2;
+            position = start + valueSize(length) + 1;
+            if (position > limit)
+                return null;
 
-        return dimension;
+            vector[j] = value(key, start, length);
+        }
+        return vector;
+    }
+
+    /**
+     * @return the number of components of a key in the composite layout, or -1 if it is not in that layout
+     */
+    private static int countComponents(ByteBuffer key)
+    {
+        int position = key.position();
+        int limit = key.limit();
+        int components = 0;
+        while (position < limit)
+        {
+            if (limit - position < 2)
+                return -1;
+            position += 3 + (key.getShort(position) & 0xFFFF);
+            if (position > limit)
+                return -1;
+            components++;
+        }
+        return components;
     }
 
-    private static double scalarProduct(double[] v1, double[] v2)
+    /**
+     * The angular distance that random hyperplane signatures approximate: one minus the cosine of the
+     * angle between the vectors, over the dimensions they have in common. Zero vectors are at distance 1
+     * from everything.
+     */
+    public static double cosineDistance(double[] v1, double[] v2)
     {
-        double scalarProduct = 0;
         int length = Math.min(v1.length, v2.length);
+        double product = 0, norm1 = 0, norm2 = 0;
+        for (int i = 0; i < length; i++)
+        {
+            product += v1[i] * v2[i];
+            norm1 += v1[i] * v1[i];
+            norm2 += v2[i] * v2[i];
+        }
+        if (norm1 == 0 || norm2 == 0)
+            return 1.0;
+        return 1.0 - product / Math.sqrt(norm1 * norm2);
+    }
 
+    /**
+     * Same as {@link #cosineDistance(double[], double[])}, reading {@code v2} in place as a serialized vector.
+     */
+    public static double cosineDistance(double[] v1, ByteBuffer v2, VectorSerializer serializer)
+    {
+        int length = Math.min(v1.length, serializer.dimension);
+        double product = 0, norm1 = 0, norm2 = 0;
         for (int i = 0; i < length; i++)
         {
-            scalarProduct = scalarProduct + (v1[i] * v2[i]);
+            double component = serializer.get(v2, i);
+            product += v1[i] * component;
+            norm1 += v1[i] * v1[i];
+            norm2 += component * component;
         }
+        if (norm1 == 0 || norm2 == 0)
+            return 1.0;
+        return 1.0 - product / Math.sqrt(norm1 * norm2);
+    }
+
+    private void accumulate(double[] projections, int component, double value)
+    {
+        int offset = component * planes;
+        for (int i = 0; i < planes; i++)
+            projections[i] += value * matrix[offset + i];
+    }
 
-        return scalarProduct;
+    private void signature(double[] projections, long[] signature, int offset)
+    {
+        Arrays.fill(signature, offset, offset + words, 0L);
+        for (int i = 0; i < planes; i++)
+        {
+            if (projections[i] >= 0.0)
+                signature[offset + (i >>> 6)] |= 1L << i;
+        }
     }
 }
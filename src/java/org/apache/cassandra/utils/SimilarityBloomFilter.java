@@ -17,10 +17,15 @@
  */
 package org.apache.cassandra.utils;
 
+import java.util.BitSet;
+
+import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.SimilarityDecoratedKey;
 import org.apache.cassandra.db.TypeSizes;
 import org.apache.cassandra.utils.concurrent.WrappedSharedCloseable;
 import org.apache.cassandra.utils.obs.IBitSet;
@@ -32,28 +37,75 @@ public class SimilarityBloomFilter extends WrappedSharedCloseable implements IFi
 
     public static final float R = 2F;
 
-    private static final int BLOOM_L = 4;    // the number of bloom(parameter L in lsh)
-    private static final int W = 4;        // The default value for lsh algorithm parameter W
-
     private static final long UH_PRIME_DEFAULT = 4294967291L & 0xffffffff;   // 2^29
-    // private static final long MAX_HASH_RND = 536870912L & 0xffffffff;     // lsh_r(1,MAX_HASH_RND)
 
-    private long lsh_r[];    //used to calculate the gindex of lsh, gindex=((lsh_r*a)mod prime)mod tableSize
     public final IBitSet bitset[];
     public final int hashCount;
+    // what the parameters of the tables were generated from, or null if they were not
+    public final SimilarityHashUtil.Specification specification;
+
+    private static final ThreadLocal<long[]> reusableBuckets = new ThreadLocal<long[]>()
+    {
+        protected long[] initialValue()
+        {
+            return new long[0];
+        }
+    };
+
+    private static long[] reusableBuckets(int functions)
+    {
+        long[] buckets = reusableBuckets.get();
+        if (buckets.length < functions)
+        {
+            buckets = new long[functions];
+            reusableBuckets.set(buckets);
+        }
+        return buckets;
+    }
+
+    /**
+     * Each table holds one bit per key and is probed 2K + 1 times per lookup, and a lookup is positive
+     * only if every table is: with n keys in m bits per table, that is (1 - (1 - n/m)^(2K + 1))^L,
+     * which we bound by ((2K + 1) * n / m)^L. Reaching {@code fpChance} that way can take several times
+     * the memory of a plain Bloom filter, so the L tables share at most
+     * {@code similarity_filter_max_bits_per_key} bits per key, and above that cap the filter is less
+     * selective than asked for.
+     *
+     * @return the number of bits per table giving a false positive chance of at most {@code fpChance}, or
+     * the share of the capped size of each table if that takes more
+     */
+    public static long bitsPerTable(long numElements, double fpChance, SimilarityHashUtil.Specification specification)
+    {
+        return bitsPerTable(numElements, fpChance, specification, DatabaseDescriptor.getSimilarityFilterMaxBitsPerKey());
+    }
+
+    @VisibleForTesting
+    static long bitsPerTable(long numElements, double fpChance, SimilarityHashUtil.Specification specification, int maxBitsPerKey)
+    {
+        int probes = 2 * specification.functions + 1;
+        double tableFpChance = Math.pow(fpChance, 1.0 / specification.tables);
+        double bitsPerKey = Math.min(probes / tableFpChance, (double) maxBitsPerKey / specification.tables);
+        if (bitsPerKey < probes / tableFpChance)
+            logger.debug("Capping similarity filter at {} bits per key, for a false positive chance of about {} instead of {}",
+                         maxBitsPerKey, falsePositiveChance(bitsPerKey, specification), fpChance);
+        return Math.max(1L, (long) Math.ceil(bitsPerKey * numElements));
+    }
 
-    public static int getBitSetNum()
+    /**
+     * @return the false positive chance of a filter with {@code bitsPerKey} bits per key in each table
+     */
+    public static double falsePositiveChance(double bitsPerKey, SimilarityHashUtil.Specification specification)
     {
-        return BLOOM_L;
+        double tableFpChance = 1 - Math.exp(-(2 * specification.functions + 1) / bitsPerKey);
+        return Math.pow(tableFpChance, specification.tables);
     }
 
-    SimilarityBloomFilter(int hashCount, IBitSet[] bitset)
+    SimilarityBloomFilter(int hashCount, IBitSet[] bitset, SimilarityHashUtil.Specification specification)
     {
         super(bitset);
         this.hashCount = hashCount;
         this.bitset = bitset;
-
-        this.lsh_r = SimilarityHashUtil.RANDOM_INTS;
+        this.specification = specification;
     }
 
     SimilarityBloomFilter(SimilarityBloomFilter copy)
@@ -61,8 +113,7 @@ public class SimilarityBloomFilter extends WrappedSharedCloseable implements IFi
         super(copy);
         this.hashCount = copy.hashCount;
         this.bitset = copy.bitset;
-
-        this.lsh_r = copy.lsh_r;
+        this.specification = copy.specification;
     }
 
     public static final SimilarityBloomFilterSerializer serializer = new SimilarityBloomFilterSerializer();
@@ -74,25 +125,68 @@ public class SimilarityBloomFilter extends WrappedSharedCloseable implements IFi
 
     public void add(FilterKey key)
     {
-        float data[] = getData(key);
-        long index, temp[];
-        for (int i = 0; i < BLOOM_L; i++)
+        Signature signature = getSignature(key);
+        for (int i = 0; i < this.bitset.length; i++)
+        {
+            LocalitySensitiveBitSet bitset = (LocalitySensitiveBitSet) this.bitset[i];
+            long[] temp = reusableBuckets(bitset.getnFuncs());
+            signature.buckets(i, temp);
+            bitset.set(getIndex(bitset, temp));
+        }
+    }
+
+    /**
+     * @return the buckets of the key in each table, cached on the key when it supports it
+     */
+    private Signature getSignature(FilterKey key)
+    {
+        if (!(key instanceof SimilarityDecoratedKey))
+            return computeSignature((DecoratedKey) key);
+
+        SimilarityDecoratedKey similarityKey = (SimilarityDecoratedKey) key;
+        Signature signature = similarityKey.getSignature();
+        if (signature == null || !signature.matches(bitset))
+        {
+            signature = computeSignature(similarityKey);
+            similarityKey.setSignature(signature);
+        }
+        return signature;
+    }
+
+    private Signature computeSignature(DecoratedKey key)
+    {
+        int dimension = 0;
+        for (IBitSet bs : bitset)
         {
-            temp = getVector((LocalitySensitiveBitSet) bitset[i], data, R);
-            index = getIndex((LocalitySensitiveBitSet) bitset[i], temp);
-            bitset[i].set(index);
+            for (float[] row : ((LocalitySensitiveBitSet) bs).getLshParamA())
+                dimension = Math.max(dimension, row.length);
         }
+
+        float data[] = getData(key, dimension);
+        LocalitySensitiveBitSet.Parameters[] parameters = new LocalitySensitiveBitSet.Parameters[bitset.length];
+        long[][] buckets = new long[bitset.length][];
+        for (int i = 0; i < this.bitset.length; i++)
+        {
+            LocalitySensitiveBitSet bitset = (LocalitySensitiveBitSet) this.bitset[i];
+            parameters[i] = bitset.getParameters();
+            buckets[i] = getVector(bitset, data, R);
+        }
+        return new Signature(parameters, buckets);
     }
 
-    private float[] getData(FilterKey key)
+    /**
+     * Reads the Gray code of the key's token as a vector, most significant bit first, zero-padded to the
+     * dimension of the parameters.
+     */
+    private float[] getData(DecoratedKey key, int dimension)
     {
-        String token = ((DecoratedKey) key).getToken().toString();
-        float[] data = new float[SimilarityHashUtil.dimention];
+        BitSet token = (BitSet) key.getToken().getTokenValue();
+        float[] data = new float[dimension];
 
-        int i = 0;
-        for (char bit : token.toCharArray()) {
-            data[i] = (bit == '1') ? 1 : 0;
-            i++;
+        int width = Math.max(token.length(), dimension);
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = token.get(width - 1 - i) ? 1 : 0;
         }
 
         return data;
@@ -104,12 +198,13 @@ public class SimilarityBloomFilter extends WrappedSharedCloseable implements IFi
         float result;
         for (int i = 0; i < lsbs.getnFuncs(); i++)
         {
+            float[] a = lsbs.getLshParamA()[i];
             result = lsbs.getLshParamB()[i];
-            for (int k = 0; k < SimilarityHashUtil.dimention; k++)
+            for (int k = 0; k < a.length; k++)
             {
-                result += f[k] * (lsbs.getLshParamA()[i][k] / R);
+                result += f[k] * (a[k] / R);
             }
-            result /= W;
+            result /= lsbs.getLshParamW();
             temp[i] = (long) Math.floor(result); // h(v) = (a.v+b)/w
             temp[i] = unsignedRepresentation(temp[i]);
         }
@@ -128,6 +223,7 @@ public class SimilarityBloomFilter extends WrappedSharedCloseable implements IFi
     private long getIndex(LocalitySensitiveBitSet lsbs, long[] temp)
     {
         long index = 0;
+        long[] lsh_r = lsbs.getLshParamR();    // gindex=((lsh_r*a)mod prime)mod tableSize
         for (int i = 0; i < lsbs.getnFuncs(); i++)
         {
             index += temp[i] * lsh_r[i];
@@ -135,6 +231,9 @@ public class SimilarityBloomFilter extends WrappedSharedCloseable implements IFi
         }
         index %= UH_PRIME_DEFAULT;
         index %= lsbs.getBitsSize();
+        // a neighbouring bucket of bucket 0 makes the index negative
+        if (index < 0)
+            index += lsbs.getBitsSize();
         return index;    //gIndex = g(v) =((lsh_r*h(v))mod prime)mod tableSize
     }
 
@@ -143,15 +242,16 @@ public class SimilarityBloomFilter extends WrappedSharedCloseable implements IFi
         // check whether a point is similar to a Set for one bloom,
         // if the point's index +1 or -1 bit is 1, then we can say this bloom is true
         // if all bloom are true, then return true
-        float data[] = getData(key);
+        Signature signature = getSignature(key);
         long temp[], index;
         int j;
 
-        for (int i = 0; i < BLOOM_L; i++)
+        for (int i = 0; i < this.bitset.length; i++)
         {
             LocalitySensitiveBitSet bitset = (LocalitySensitiveBitSet) this.bitset[i];
 
-            temp = getVector(bitset, data, R);
+            temp = reusableBuckets(bitset.getnFuncs());
+            signature.buckets(i, temp);
             index = getIndex(bitset, temp);
 
             if (bitset.get(index))
@@ -209,4 +309,38 @@ public class SimilarityBloomFilter extends WrappedSharedCloseable implements IFi
         }
         return offHeapSize;
     }
+
+    /**
+     * The buckets h(v) = (a.v + b) / W of a key for the K functions of each table, valid for any filter whose
+     * tables have the same parameters.
+     */
+    public static final class Signature
+    {
+        private final LocalitySensitiveBitSet.Parameters[] parameters;
+        private final long[][] buckets;
+
+        private Signature(LocalitySensitiveBitSet.Parameters[] parameters, long[][] buckets)
+        {
+            this.parameters = parameters;
+            this.buckets = buckets;
+        }
+
+        // parameters are interned, so comparing them by identity is enough
+        private boolean matches(IBitSet[] bitset)
+        {
+            if (bitset.length != parameters.length)
+                return false;
+            for (int i = 0; i < bitset.length; i++)
+            {
+                if (((LocalitySensitiveBitSet) bitset[i]).getParameters() != parameters[i])
+                    return false;
+            }
+            return true;
+        }
+
+        private void buckets(int table, long[] dest)
+        {
+            System.arraycopy(buckets[table], 0, dest, 0, buckets[table].length);
+        }
+    }
 }
@@ -17,52 +17,285 @@
  */
 package org.apache.cassandra.utils;
 
+import java.io.BufferedInputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 import org.apache.cassandra.db.TypeSizes;
 import org.apache.cassandra.io.ISerializer;
+import org.apache.cassandra.io.util.ByteBufferDataInput;
 import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.utils.obs.IBitSet;
 import org.apache.cassandra.utils.obs.LocalitySensitiveBitSet;
 
+/**
+ * Serializes a SimilarityBloomFilter as:
+ * <pre>
+ *   int    MAGIC, negative so that it cannot be mistaken for the hash count starting a legacy filter
+ *   int    VERSION
+ *   int    hash count
+ *   int    number of tables L
+ *   int    PARAMETERS_SEEDED followed by the seed (long), K (int), W (float) and dimension (int) the
+ *          parameters were generated from, or PARAMETERS_INLINE followed, for each table, by K, the width
+ *          of a, W, the K longs r, the K floats b and the K rows of a
+ *   long   number of bits, then number of words, of each table
+ *          zero padding to a multiple of 8 bytes
+ *   long   words of each table, little-endian, table after table
+ * </pre>
+ * The words are laid out as the off-heap bitsets hold them and start 8 byte aligned, so that loading a table
+ * from a mapped file is a single copy. The filters of sstables older than this layout are not read, but
+ * rebuilt from their primary index: see {@link org.apache.cassandra.io.sstable.format.Version#hasAlignedSimilarityFilter()}.
+ */
 public class SimilarityBloomFilterSerializer implements ISerializer<SimilarityBloomFilter>
 {
+    public static final int MAGIC = 0xB100F117;
+    public static final int VERSION = 1;
+
+    private static final int PARAMETERS_INLINE = 1;
+    private static final int PARAMETERS_SEEDED = 2;
+
     public void serialize(SimilarityBloomFilter bf, DataOutputPlus out) throws IOException
     {
+        SimilarityHashUtil.Specification specification = bf.specification;
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
         out.writeInt(bf.hashCount);
         out.writeInt(bf.bitset.length);
+        if (specification != null)
+        {
+            out.writeInt(PARAMETERS_SEEDED);
+            out.writeLong(specification.seed);
+            out.writeInt(specification.functions);
+            out.writeFloat(specification.bucketWidth);
+            out.writeInt(specification.dimension);
+        }
+        else
+        {
+            out.writeInt(PARAMETERS_INLINE);
+            for (IBitSet bs : bf.bitset)
+                serializeParameters((LocalitySensitiveBitSet) bs, out);
+        }
         for (IBitSet bs : bf.bitset)
         {
-            bs.serialize(out);
+            LocalitySensitiveBitSet lsbs = (LocalitySensitiveBitSet) bs;
+            out.writeLong(lsbs.getBitsSize());
+            out.writeLong(lsbs.words());
+        }
+        for (int i = padding(headerSize(bf, TypeSizes.NATIVE)); i > 0; i--)
+            out.writeByte(0);
+
+        for (IBitSet bs : bf.bitset)
+            ((LocalitySensitiveBitSet) bs).serializeWords(out);
+    }
+
+    private static void serializeParameters(LocalitySensitiveBitSet bs, DataOutputPlus out) throws IOException
+    {
+        float[][] a = bs.getLshParamA();
+        float[] b = bs.getLshParamB();
+        long[] r = bs.getLshParamR();
+        int width = width(a);
+
+        out.writeInt(b.length);
+        out.writeInt(width);
+        out.writeFloat(bs.getLshParamW());
+        for (int i = 0; i < b.length; i++)
+            out.writeLong(r[i]);
+        for (float f : b)
+            out.writeFloat(f);
+        for (float[] row : a)
+        {
+            assert row.length == width;
+            for (float f : row)
+                out.writeFloat(f);
         }
     }
 
     public SimilarityBloomFilter deserialize(DataInput in) throws IOException
     {
+        return deserialize(in, false);
+    }
+
+    public SimilarityBloomFilter deserialize(DataInput in, boolean offheap) throws IOException
+    {
+        return deserialize(in, null, offheap);
+    }
+
+    /**
+     * Loads a filter from a file, copying the words of each table straight from the mapped file.
+     */
+    public SimilarityBloomFilter load(File file, boolean offheap) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            if (channel.size() <= Integer.MAX_VALUE)
+            {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                try
+                {
+                    return deserialize(new ByteBufferDataInput(mapped, file.getPath(), 0, 0), mapped, offheap);
+                }
+                finally
+                {
+                    FileUtils.clean(mapped);
+                }
+            }
+        }
+
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            return deserialize(stream, null, offheap);
+        }
+    }
+
+    /**
+     * @param mapped the whole serialized filter, which {@code in} reads from the start, or null to read the
+     *               words from {@code in}
+     */
+    private SimilarityBloomFilter deserialize(DataInput in, ByteBuffer mapped, boolean offheap) throws IOException
+    {
+        int magic = in.readInt();
+        if (magic != MAGIC)
+            throw new IOException("Not a similarity filter, or one of a layout older than sstable version lb");
+
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported similarity filter version " + version);
+
         int hashes = in.readInt();
         int length = in.readInt();
+        int kind = in.readInt();
+        long headerSize = 5 * TypeSizes.NATIVE.sizeof(0) + 2 * length * TypeSizes.NATIVE.sizeof(0L);
+
+        SimilarityHashUtil.Specification specification = null;
+        LocalitySensitiveBitSet.Parameters[] parameters = new LocalitySensitiveBitSet.Parameters[length];
+        if (kind == PARAMETERS_SEEDED)
+        {
+            long seed = in.readLong();
+            int functions = in.readInt();
+            float bucketWidth = in.readFloat();
+            int dimension = in.readInt();
+            specification = new SimilarityHashUtil.Specification(seed, length, functions, bucketWidth, dimension);
+            for (int i = 0; i < length; i++)
+                parameters[i] = specification.parameters(i);
+            headerSize += TypeSizes.NATIVE.sizeof(seed) + 3 * TypeSizes.NATIVE.sizeof(0);
+        }
+        else if (kind == PARAMETERS_INLINE)
+        {
+            for (int i = 0; i < length; i++)
+            {
+                int functions = in.readInt();
+                int width = in.readInt();
+                float w = in.readFloat();
+                long[] r = new long[functions];
+                for (int j = 0; j < functions; j++)
+                    r[j] = in.readLong();
+                float[] b = new float[functions];
+                for (int j = 0; j < functions; j++)
+                    b[j] = in.readFloat();
+                float[][] a = new float[functions][width];
+                for (int j = 0; j < functions; j++)
+                {
+                    for (int k = 0; k < width; k++)
+                        a[j][k] = in.readFloat();
+                }
+                parameters[i] = new LocalitySensitiveBitSet.Parameters(a, b, w, r);
+                headerSize += inlineParametersSize(functions, width, TypeSizes.NATIVE);
+            }
+        }
+        else
+        {
+            throw new IOException("Unknown similarity filter parameters " + kind);
+        }
+
+        long[] numBits = new long[length];
+        long[] words = new long[length];
+        for (int i = 0; i < length; i++)
+        {
+            numBits[i] = in.readLong();
+            words[i] = in.readLong();
+        }
+        int padding = padding(headerSize);
+        in.skipBytes(padding);
+
+        long position = headerSize + padding;
         IBitSet[] bs = new IBitSet[length];
         for (int i = 0; i < length; i++)
         {
-            bs[i] = LocalitySensitiveBitSet.deserialize(in);
+            if (mapped == null)
+            {
+                bs[i] = LocalitySensitiveBitSet.deserializeWords(in, words[i], numBits[i], parameters[i], offheap);
+                continue;
+            }
+
+            ByteBuffer table = mapped.duplicate();
+            table.position((int) position).limit((int) (position + words[i] * 8));
+            bs[i] = LocalitySensitiveBitSet.deserializeWords(table, numBits[i], parameters[i], offheap);
+            position += words[i] * 8;
         }
-        return createFilter(hashes, bs);
+        return createFilter(hashes, bs, specification);
     }
 
-    SimilarityBloomFilter createFilter(int hashes, IBitSet[] bs)
+    SimilarityBloomFilter createFilter(int hashes, IBitSet[] bs, SimilarityHashUtil.Specification specification)
     {
-        return new SimilarityBloomFilter(hashes, bs);
+        return new SimilarityBloomFilter(hashes, bs, specification);
     }
 
     public long serializedSize(SimilarityBloomFilter bf, TypeSizes typeSizes)
     {
-        int size = typeSizes.sizeof(bf.hashCount); // hash count
+        long size = headerSize(bf, typeSizes);
+        size += padding(size);
+        for (IBitSet bs : bf.bitset)
+        {
+            size += ((LocalitySensitiveBitSet) bs).words() * 8;
+        }
+        return size;
+    }
+
+    private static long headerSize(SimilarityBloomFilter bf, TypeSizes typeSizes)
+    {
+        long size = typeSizes.sizeof(MAGIC) + typeSizes.sizeof(VERSION);
+        size += typeSizes.sizeof(bf.hashCount);
         size += typeSizes.sizeof(bf.bitset.length);
+        size += typeSizes.sizeof(PARAMETERS_SEEDED);
+        if (bf.specification != null)
+        {
+            size += typeSizes.sizeof(bf.specification.seed) + typeSizes.sizeof(bf.specification.functions);
+            size += Float.SIZE / Byte.SIZE + typeSizes.sizeof(bf.specification.dimension);
+        }
         for (IBitSet bs : bf.bitset)
         {
-            size += bs.serializedSize(typeSizes);
+            LocalitySensitiveBitSet lsbs = (LocalitySensitiveBitSet) bs;
+            if (bf.specification == null)
+                size += inlineParametersSize(lsbs.getnFuncs(), width(lsbs.getLshParamA()), typeSizes);
+            size += typeSizes.sizeof(lsbs.getBitsSize()) + typeSizes.sizeof(lsbs.words());
         }
         return size;
     }
+
+    private static long inlineParametersSize(int functions, int width, TypeSizes typeSizes)
+    {
+        long size = typeSizes.sizeof(functions) + typeSizes.sizeof(width) + Float.SIZE / Byte.SIZE;
+        size += functions * typeSizes.sizeof(0L);
+        size += functions * (1 + width) * (Float.SIZE / Byte.SIZE);
+        return size;
+    }
+
+    private static int width(float[][] a)
+    {
+        return a.length == 0 ? 0 : a[0].length;
+    }
+
+    private static int padding(long size)
+    {
+        return (int) (-size & 7);
+    }
 }
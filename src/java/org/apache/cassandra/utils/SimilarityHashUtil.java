@@ -17,67 +17,131 @@
  */
 package org.apache.cassandra.utils;
 
+import java.util.Random;
+
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.utils.obs.LocalitySensitiveBitSet;
 
+/**
+ * The parameters of the LSH functions of SimilarityBloomFilter tables.
+ *
+ * A filter has L tables, each indexed by K functions h(v) = floor((a.v / R + b) / W) of the Gray code v of
+ * the key's token, which the multipliers r combine into a table index. Every a is drawn from a gaussian,
+ * every b uniformly from [0, W) and every r from [1, 2^29), all from one seed, so that the parameters of a
+ * filter are fully described by its {@link Specification}.
+ */
 public class SimilarityHashUtil
 {
-    public static final long[] RANDOM_INTS = {
-        (451072346 & 0xffffffff), (211732722 & 0xffffffff), (420423195 & 0xffffffff)
-    };
+    // filters written before their parameters were seeded only recorded a and b
+    public static final long[] LEGACY_RANDOM_INTS = { 451072346L, 211732722L, 420423195L };
+    public static final float LEGACY_BUCKET_WIDTH = 4f;
 
-    // public static final int dimention = 6;    // dimension
-    public static final int dimention = DatabaseDescriptor.getIdentifierLength();    // dimension
+    private static final int MAX_HASH_RND = 536870912;
 
-    public static final float[][] RANDOM_UNIFORM = {
-        {3.6f, 3.9f, 3.0f},
-        {3.4f, 2.5f, 3.6f},
-        {2.3f, 0.9f, 1.8f},
-        {2.3f, 0.9f, 1.8f}
-    };
+    private static class ConfiguredHolder
+    {
+        private static final Specification instance = new Specification(DatabaseDescriptor.getSimilarityFilterSeed(),
+                                                                         DatabaseDescriptor.getSimilarityFilterTables(),
+                                                                         DatabaseDescriptor.getSimilarityFilterFunctions(),
+                                                                         DatabaseDescriptor.getSimilarityFilterBucketWidth(),
+                                                                         DatabaseDescriptor.getIdentifierLength());
+    }
 
-    public static final float[][][] RANDOM_GAUSSIAN = {
-        {
-            {-0.5f, 0.2f, 0.1f, 0.2f, -1.5f, -0.8f, -1.4f, 0.3f, -0.2f, -1.5f, 0.1f, 0.7f, -1.6f, 1.6f, 0.0f, 0.6f, -0.3f, -0.9f, 1.2f, 0.2f, 0.1f, 1.1f, -1.0f, 0.6f, 2.2f, 1.0f, -0.9f, -0.3f, 2.3f, 1.2f, 1.7f, 0.3f},
-            {-1.6f, 0.1f, -0.6f, 1.1f, 1.2f, -0.1f, -0.1f, -0.6f, 0.4f, 0.9f, -0.3f, 1.3f, -0.6f, -0.3f, 0.6f, 1.1f, 0.5f, 0.7f, 0.3f, 0.3f, 1.4f, -0.9f, -0.2f, -0.2f, 0.2f, -0.3f, -0.9f, 1.6f, 1.5f, 0.1f, 0.2f, -0.6f},
-            {-0.5f, 0.2f, 0.0f, -0.2f, 0.5f, -0.1f, 2.2f, -2.4f, 0.1f, -0.1f, 0.9f, 0.1f, 1.4f, 1.0f, 0.6f, 0.5f, 0.0f, 1.3f, 0.0f, 0.3f, 0.1f, 0.5f, 2.9f, 0.4f, -1.5f, 0.2f, -1.4f, -1.0f, 0.7f, 0.1f, 1.5f, 0.8f}
-        },
-        {
-            {-0.5f, -0.0f, 0.5f, 0.3f, -0.0f, 0.4f, -0.9f, 0.9f, 0.4f, 0.0f, 0.1f, -0.3f, 0.2f, -1.5f, -1.0f, 1.1f, -1.5f, 0.6f, -1.0f, -0.3f, 0.9f, 1.3f, -1.2f, 0.1f, -0.9f, -0.4f, 0.3f, 0.9f, -0.4f, -0.6f, 0.6f, -0.7f},
-            {-0.4f, 0.2f, -0.2f, -0.0f, 1.0f, 1.2f, 0.7f, -1.4f, -0.9f, -0.2f, -0.2f, 0.6f, 0.2f, -0.3f, -1.7f, 0.3f, -0.2f, -0.8f, 0.2f, 0.3f, 0.2f, -0.6f, 1.3f, 0.3f, -1.0f, -0.3f, -0.5f, 0.7f, -0.3f, -0.7f, 0.5f, -1.0f},
-            {-0.1f, 0.3f, 0.9f, -1.3f, 1.4f, -0.3f, 0.2f, -0.6f, -0.7f, -0.1f, 1.7f, -1.3f, -0.3f, 1.2f, 1.2f, -0.1f, 0.1f, 0.7f, -0.4f, 0.3f, -1.0f, -0.5f, -0.8f, -0.5f, -0.1f, 0.3f, 1.3f, 0.1f, 1.2f, -0.1f, -2.3f, -0.0f}
-        },
+    /**
+     * @return the specification configured in cassandra.yaml, for a dimension of identifier_length
+     */
+    public static Specification configured()
+    {
+        return ConfiguredHolder.instance;
+    }
+
+    /**
+     * The seed, L, K, W and dimension the parameters of a filter are generated from.
+     */
+    public static final class Specification
+    {
+        public final long seed;
+        public final int tables;
+        public final int functions;
+        public final float bucketWidth;
+        public final int dimension;
+
+        private final LocalitySensitiveBitSet.Parameters[] parameters;
+
+        public Specification(long seed, int tables, int functions, float bucketWidth, int dimension)
         {
-            {-1.7f, 0.4f, -1.6f, -0.9f, 0.4f, 2.3f, 0.2f, -0.8f, -1.7f, -1.0f, -0.7f, 1.2f, 0.6f, -1.0f, -0.8f, 0.8f, 1.9f, 0.2f, 0.2f, -0.2f, 1.0f, 0.6f, 0.9f, 0.3f, 0.5f, 0.3f, -1.4f, -1.0f, -0.1f, -1.5f, -1.4f, -1.3f},
-            {0.6f, 1.1f, -1.0f, -0.1f, -1.0f, 1.0f, 0.3f, -0.3f, 0.9f, 0.6f, -0.6f, -0.9f, -0.3f, -0.3f, 1.9f, -0.9f, -1.3f, -0.8f, 3.7f, -0.1f, 0.6f, -1.0f, 0.7f, -0.4f, 0.2f, -1.9f, -0.3f, 0.2f, -0.4f, -0.5f, 0.7f, 1.5f},
-            {1.0f, -1.1f, 0.1f, -0.5f, 0.9f, -0.2f, -0.4f, 0.1f, 0.2f, -1.3f, 0.6f, 0.4f, -0.3f, -1.0f, -0.6f, 0.7f, 1.0f, -0.8f, -0.6f, -2.1f, 1.1f, -0.5f, -0.9f, -1.7f, -1.4f, -0.6f, 0.4f, -1.0f, 1.2f, 2.1f, -0.8f, 0.3f}
-        },
+            assert tables > 0 && functions > 0 && bucketWidth > 0 && dimension >= 0;
+            this.seed = seed;
+            this.tables = tables;
+            this.functions = functions;
+            this.bucketWidth = bucketWidth;
+            this.dimension = dimension;
+            this.parameters = generate();
+        }
+
+        private LocalitySensitiveBitSet.Parameters[] generate()
         {
-            {0.9f, -0.8f, 0.8f, 0.3f, 0.0f, -1.4f, -1.7f, -0.3f, 0.5f, -1.8f, 0.1f, -0.0f, 0.7f, -1.2f, -1.0f, 0.4f, -0.8f, 0.8f, -1.4f, 0.4f, 0.4f, -0.8f, -0.7f, -2.2f, 0.0f, -1.6f, 2.7f, 0.1f, 0.4f, -1.8f, 0.3f, 0.9f},
-            {-0.5f, -0.3f, -0.0f, -0.2f, 0.2f, -0.4f, 0.7f, -0.4f, 0.6f, 0.4f, 0.3f, 0.3f, 1.4f, -0.7f, 0.3f, 0.9f, -1.4f, -0.3f, 1.4f, 0.4f, -2.4f, 0.0f, 1.4f, -2.6f, -0.9f, -0.4f, -0.3f, 1.4f, 0.2f, -0.4f, -0.2f, -0.2f},
-            {0.2f, 1.0f, 1.2f, 1.1f, 1.0f, 0.5f, 2.1f, -0.1f, 0.5f, -1.0f, 0.6f, -1.0f, 0.1f, -1.1f, 1.1f, -0.2f, -1.8f, -0.5f, -0.5f, -0.2f, -0.4f, 0.1f, -0.7f, 1.6f, -0.5f, -0.7f, 0.7f, -0.1f, -2.3f, -0.4f, 0.5f, -0.0f}
+            Random random = new Random(seed);
+
+            long[] lshParamR = new long[functions];
+            for (int i = 0; i < functions; i++)
+                lshParamR[i] = 1 + random.nextInt(MAX_HASH_RND - 1);
+
+            LocalitySensitiveBitSet.Parameters[] parameters = new LocalitySensitiveBitSet.Parameters[tables];
+            for (int t = 0; t < tables; t++)
+            {
+                float[][] lshParamA = new float[functions][dimension];
+                float[] lshParamB = new float[functions];
+                for (int i = 0; i < functions; i++)
+                {
+                    for (int k = 0; k < dimension; k++)
+                        lshParamA[i][k] = (float) random.nextGaussian();
+                    lshParamB[i] = random.nextFloat() * bucketWidth;
+                }
+                parameters[t] = new LocalitySensitiveBitSet.Parameters(lshParamA, lshParamB, bucketWidth, lshParamR);
+            }
+            return parameters;
         }
-    };
 
-    /*public static final float[][][] RANDOM_GAUSSIAN = {
+        /**
+         * @return the parameters of table {@code table}, equal to those of any equal specification
+         */
+        public LocalitySensitiveBitSet.Parameters parameters(int table)
         {
-            {0.5f, -0.9f, -0.1f, -1.0f, -0.6f, 1.1f},
-            {-0.2f, 0.5f, 0.9f, 1.0f, 0.3f, 0.9f},
-            {2.1f, -1.7f, -0.4f, -1.0f, -1.1f, -0.6f}
-        },
+            return parameters[table];
+        }
+
+        @Override
+        public boolean equals(Object o)
         {
-            {-0.7f, -0.5f, -0.9f, 0.5f, 0.3f, -0.3f},
-            {0.7f, 0.6f, 1.3f, -2.6f, 0.1f, 0.1f},
-            {-0.5f, -0.7f, -0.7f, -0.8f, -2.3f, 0.3f}
-        },
+            if (this == o)
+                return true;
+            if (!(o instanceof Specification))
+                return false;
+
+            Specification that = (Specification) o;
+            return seed == that.seed
+                   && tables == that.tables
+                   && functions == that.functions
+                   && Float.compare(bucketWidth, that.bucketWidth) == 0
+                   && dimension == that.dimension;
+        }
+
+        @Override
+        public int hashCode()
         {
-            {-0.1f, -0.4f, -0.5f, -1.7f, 0.2f, 0.1f},
-            {-0.2f, 0.8f, -0.5f, -0.5f, -0.3f, -0.2f},
-            {-0.4f, 1.6f, 0.2f, -0.3f, -0.9f, 0.3f}
-        },
+            int result = (int) (seed ^ (seed >>> 32));
+            result = 31 * result + tables;
+            result = 31 * result + functions;
+            result = 31 * result + Float.floatToIntBits(bucketWidth);
+            result = 31 * result + dimension;
+            return result;
+        }
+
+        @Override
+        public String toString()
         {
-            {-1.4f, 0.6f, -1.5f, 0.6f, 0.3f, -2.0f},
-            {0.7f, -0.1f, -0.1f, -0.3f, -1.4f, 0.9f},
-            {0.5f, 0.3f, 0.6f, 0.3f, 0.5f, 0.4f}
+            return String.format("L=%d K=%d W=%s dimension=%d seed=%d", tables, functions, bucketWidth, dimension, seed);
         }
-    };*/
+    }
 }
@@ -79,6 +79,11 @@ public class TopKSampler<T>
         return new SamplerResult<T>(results, cardinality);
     }
 
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
     public void addSample(T item)
     {
         addSample(item, item.hashCode(), 1);
@@ -21,75 +21,86 @@ package org.apache.cassandra.utils.obs;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
 import java.util.Arrays;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.utils.SimilarityHashUtil;
 
+/**
+ * The bits of one table of a SimilarityBloomFilter, with the parameters of the LSH functions indexing it.
+ *
+ * The bits are packed in 64 bit words by an OffHeapBitSet, or an OpenBitSet when the filter is kept on
+ * heap, so the table is laid out and serialized as the bitset of a BloomFilter is.
+ */
 public class LocalitySensitiveBitSet implements IBitSet
 {
-    private static final int K_hfun = 3;    // the number of h_function(parameter K in lsh)
-    private static final int CHAR_BIT = 8;  // 4294967291 = 2^32-5
+    // the bytes of words read at once from a stream
+    private static final int WORDS_CHUNK_SIZE = 64 * 1024;
 
-    private int bitsSize;           // the size of bits
-    private short bits[];
-    private int nFuncs;             // there are nFuncs function in a bloom(= K)
-    private float lshParamA[][];    // parameter a for lsh
-    private float lshParamB[];      // parameter b for lsh
+    // tables with equal parameters share them, so that the buckets of a key can be reused across sstables
+    private static final Interner<Parameters> parametersInterner = Interners.newWeakInterner();
 
-    public LocalitySensitiveBitSet(long numBits, float[][] lshParamA, float[] lshParamB)
-    {
-        this.bitsSize = (int) numBits;
-        this.bits = new short[intCapacity()];
-        this.nFuncs = K_hfun;
-        this.lshParamA = lshParamA;
-        this.lshParamB = lshParamB;
-    }
+    private final long bitsSize;            // the number of addressable bits
+    private final IBitSet bits;
+    private final int nFuncs;               // there are nFuncs function in a bloom(= K)
+    private final Parameters parameters;
 
-    public LocalitySensitiveBitSet(float[][] lshParamA, float[] lshParamB)
+    public LocalitySensitiveBitSet(long numBits, Parameters parameters, boolean offheap)
     {
-        this(5000L, lshParamA, lshParamB);
+        this(numBits, offheap ? new OffHeapBitSet(numBits) : new OpenBitSet(numBits), parameters);
     }
 
-    public long capacity()
+    private LocalitySensitiveBitSet(long numBits, IBitSet bits, Parameters parameters)
     {
-        return intCapacity();
+        assert numBits > 0 && numBits <= bits.capacity() : numBits;
+        this.bitsSize = numBits;
+        this.bits = bits;
+        this.parameters = parametersInterner.intern(parameters);
+        this.nFuncs = parameters.lshParamB.length;
     }
 
-    private int intCapacity()
+    public long capacity()
     {
-        return (bitsSize + CHAR_BIT - 1) / CHAR_BIT;
+        return bits.capacity();
     }
 
     @Override
     public long offHeapSize()
     {
-        return 0;
+        return bits.offHeapSize();
     }
 
     public boolean get(long index)
     {
-        int pos = (int) (index / CHAR_BIT);
-        int posUnsigned = (pos < 0) ? (pos * -1) : pos;
-        int result = bits[posUnsigned] & (1 << (index % CHAR_BIT));
-        return result != 0;
+        return bits.get(index);
     }
 
     public void set(long index)
     {
-        int pos = (int) (index / CHAR_BIT);
-        int posUnsigned = (pos < 0) ? (pos * -1) : pos;
-        bits[posUnsigned] = (short) (bits[posUnsigned] | (1 << (index % CHAR_BIT)));
+        bits.set(index);
     }
 
     public void clear(long index)
     {
-        int pos = (int) (index / CHAR_BIT);
-        int posUnsigned = (pos < 0) ? (pos * -1) : pos;
-        bits[posUnsigned] = (short) 0;
+        bits.clear(index);
     }
 
+    /**
+     * Writes the table in the layout of the filters written before SimilarityBloomFilterSerializer recorded
+     * their parameters once, which has room for a and b only.
+     */
     public void serialize(DataOutput out) throws IOException
     {
+        float[][] lshParamA = parameters.lshParamA;
+        float[] lshParamB = parameters.lshParamB;
+
         // serialize LSH Param B
         out.writeInt(lshParamB.length);
         for (int i = 0; i < lshParamB.length; i++)
@@ -109,29 +120,112 @@ public class LocalitySensitiveBitSet implements IBitSet
         }
 
         // serialize bits
-        out.writeInt(intCapacity());
-        for (int i = 0; i < intCapacity(); i++)
-        {
-            out.writeShort(bits[i]);
-        }
+        out.writeLong(bitsSize);
+        bits.serialize(out);
     }
 
     public long serializedSize(TypeSizes type)
     {
+        float[][] lshParamA = parameters.lshParamA;
+        float[] lshParamB = parameters.lshParamB;
         long size = 0L;
 
-        size += type.sizeof(lshParamB.length) + (lshParamB.length * Float.SIZE);
+        size += type.sizeof(lshParamB.length) + (lshParamB.length * (Float.SIZE / Byte.SIZE));
         size += type.sizeof(lshParamA.length);
         for (int i = 0; i < lshParamA.length; i++)
         {
-            size += type.sizeof(lshParamA[i].length) + (lshParamA[i].length * Float.SIZE);
+            size += type.sizeof(lshParamA[i].length) + (lshParamA[i].length * (Float.SIZE / Byte.SIZE));
         }
-        size += type.sizeof(intCapacity()) + (intCapacity() * Short.SIZE);
+        size += type.sizeof(bitsSize) + bits.serializedSize(type);
 
         return size;
     }
 
-    public static LocalitySensitiveBitSet deserialize(DataInput in) throws IOException
+    /**
+     * Writes the words of the table as they are laid out in memory, i.e. little-endian, lowest bits first,
+     * so that {@link #deserializeWords} can copy them back in bulk. Neither the parameters nor the sizes
+     * are written.
+     */
+    public void serializeWords(DataOutputPlus out) throws IOException
+    {
+        if (bits instanceof OffHeapBitSet)
+        {
+            ((OffHeapBitSet) bits).serializeWords(out);
+            return;
+        }
+
+        OpenBitSet words = (OpenBitSet) bits;
+        int remaining = words.getNumWords();
+        for (int p = 0; p < words.getPageCount(); p++)
+        {
+            long[] page = words.getPage(p);
+            for (int i = 0; i < page.length && remaining-- > 0; i++)
+                out.writeLong(Long.reverseBytes(page[i]));
+        }
+    }
+
+    /**
+     * @return the number of 64 bit words written by {@link #serializeWords}
+     */
+    public long words()
+    {
+        return bits.capacity() / 64;
+    }
+
+    /**
+     * Reads a table written by {@link #serializeWords} from a buffer, e.g. a mapped file, in one copy.
+     *
+     * @param words the words of the table, from their position to their limit
+     */
+    public static LocalitySensitiveBitSet deserializeWords(ByteBuffer words, long numBits, Parameters parameters, boolean offheap)
+    {
+        assert words.remaining() % 8 == 0 : words.remaining();
+        long count = words.remaining() / 8;
+        IBitSet bits = offheap ? new OffHeapBitSet(count * 64) : new OpenBitSet(count * 64);
+        copyWords(bits, 0, words);
+        return new LocalitySensitiveBitSet(numBits, bits, parameters);
+    }
+
+    /**
+     * Reads a table written by {@link #serializeWords} from a stream, in chunks.
+     */
+    public static LocalitySensitiveBitSet deserializeWords(DataInput in, long words, long numBits, Parameters parameters, boolean offheap) throws IOException
+    {
+        IBitSet bits = offheap ? new OffHeapBitSet(words * 64) : new OpenBitSet(words * 64);
+        byte[] chunk = new byte[(int) Math.min(words * 8, WORDS_CHUNK_SIZE)];
+        for (long offset = 0, length = words * 8; offset < length; offset += chunk.length)
+        {
+            int count = (int) Math.min(chunk.length, length - offset);
+            in.readFully(chunk, 0, count);
+            copyWords(bits, offset, ByteBuffer.wrap(chunk, 0, count));
+        }
+        return new LocalitySensitiveBitSet(numBits, bits, parameters);
+    }
+
+    private static void copyWords(IBitSet bits, long offset, ByteBuffer words)
+    {
+        if (bits instanceof OffHeapBitSet)
+        {
+            ((OffHeapBitSet) bits).setBytes(offset, words);
+            return;
+        }
+
+        OpenBitSet dest = (OpenBitSet) bits;
+        LongBuffer source = words.duplicate().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        long word = offset / 8;
+        while (source.hasRemaining())
+        {
+            int start = (int) (word % dest.getPageSize());
+            int count = Math.min(dest.getPageSize() - start, source.remaining());
+            source.get(dest.getPage((int) (word / dest.getPageSize())), start, count);
+            word += count;
+        }
+    }
+
+    /**
+     * Reads a table written by {@link #serialize}, with the W and r all the filters of that layout used.
+     */
+    public static LocalitySensitiveBitSet deserialize(DataInput in, boolean offheap) throws IOException
     {
         float[][] lshParamA;
         float[] lshParamB;
@@ -155,27 +249,19 @@ public class LocalitySensitiveBitSet implements IBitSet
         }
 
         // deserialize bits
-        int numBits = in.readInt();
-        LocalitySensitiveBitSet bitSet = new LocalitySensitiveBitSet(numBits, lshParamA, lshParamB);
-        for (int i = 0; i < bitSet.bits.length; i++)
-        {
-            bitSet.bits[i] = in.readShort();
-        }
-
-        return bitSet;
+        long numBits = in.readLong();
+        IBitSet bits = offheap ? OffHeapBitSet.deserialize(in) : OpenBitSet.deserialize(in);
+        return new LocalitySensitiveBitSet(numBits, bits, new Parameters(lshParamA, lshParamB, SimilarityHashUtil.LEGACY_BUCKET_WIDTH, SimilarityHashUtil.LEGACY_RANDOM_INTS));
     }
 
     public void clear()
     {
-        for (long i = 0; i < intCapacity(); i++)
-        {
-            clear(i);
-        }
+        bits.clear();
     }
 
     public void close()
     {
-        // noop, let GC do the cleanup.
+        bits.close();
     }
 
     @Override
@@ -188,23 +274,21 @@ public class LocalitySensitiveBitSet implements IBitSet
 
         if (bitsSize != bitSet.bitsSize) return false;
         if (nFuncs != bitSet.nFuncs) return false;
-        if (!Arrays.equals(bits, bitSet.bits)) return false;
-        if (!Arrays.deepEquals(lshParamA, bitSet.lshParamA)) return false;
-        return Arrays.equals(lshParamB, bitSet.lshParamB);
+        if (!bits.equals(bitSet.bits)) return false;
+        return parameters.equals(bitSet.parameters);
     }
 
     @Override
     public int hashCode()
     {
-        int result = bitsSize;
-        result = 31 * result + Arrays.hashCode(bits);
+        int result = (int) (bitsSize ^ (bitsSize >>> 32));
+        result = 31 * result + bits.hashCode();
         result = 31 * result + nFuncs;
-        result = 31 * result + Arrays.deepHashCode(lshParamA);
-        result = 31 * result + Arrays.hashCode(lshParamB);
+        result = 31 * result + parameters.hashCode();
         return result;
     }
 
-    public int getBitsSize()
+    public long getBitsSize()
     {
         return bitsSize;
     }
@@ -216,11 +300,83 @@ public class LocalitySensitiveBitSet implements IBitSet
 
     public float[][] getLshParamA()
     {
-        return lshParamA;
+        return parameters.lshParamA;
     }
 
     public float[] getLshParamB()
     {
-        return lshParamB;
+        return parameters.lshParamB;
+    }
+
+    public float getLshParamW()
+    {
+        return parameters.lshParamW;
+    }
+
+    public long[] getLshParamR()
+    {
+        return parameters.lshParamR;
+    }
+
+    /**
+     * @return the parameters of the LSH functions, the same instance for every table built with equal ones
+     */
+    public Parameters getParameters()
+    {
+        return parameters;
+    }
+
+    /**
+     * The parameters a, b and W of the K functions h(v) = (a.v + b) / W indexing a table, and the multipliers
+     * r combining them into an index.
+     */
+    public static final class Parameters
+    {
+        private final float lshParamA[][];
+        private final float lshParamB[];
+        private final float lshParamW;
+        private final long lshParamR[];
+
+        public Parameters(float[][] lshParamA, float[] lshParamB, float lshParamW, long[] lshParamR)
+        {
+            assert lshParamA.length == lshParamB.length && lshParamR.length >= lshParamB.length;
+            this.lshParamA = lshParamA;
+            this.lshParamB = lshParamB;
+            this.lshParamW = lshParamW;
+            this.lshParamR = lshParamR;
+        }
+
+        public float[][] getLshParamA()
+        {
+            return lshParamA;
+        }
+
+        public float[] getLshParamB()
+        {
+            return lshParamB;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) return true;
+            if (!(o instanceof Parameters)) return false;
+
+            Parameters that = (Parameters) o;
+            return Float.compare(lshParamW, that.lshParamW) == 0
+                   && Arrays.deepEquals(lshParamA, that.lshParamA)
+                   && Arrays.equals(lshParamB, that.lshParamB)
+                   && Arrays.equals(lshParamR, that.lshParamR);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = Arrays.deepHashCode(lshParamA);
+            result = 31 * result + Arrays.hashCode(lshParamB);
+            result = 31 * result + Float.floatToIntBits(lshParamW);
+            result = 31 * result + Arrays.hashCode(lshParamR);
+            return result;
+        }
     }
 }
@@ -20,8 +20,10 @@ package org.apache.cassandra.utils.obs;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.io.util.DataOutputPlus;
 import org.apache.cassandra.io.util.Memory;
 
 /**
@@ -88,6 +90,14 @@ public class OffHeapBitSet implements IBitSet
         bytes.setByte(offset, b);
     }
 
+    /**
+     * Copies the remaining bytes of {@code buffer} to the bitset, starting at byte {@code offset}.
+     */
+    public void setBytes(long offset, ByteBuffer buffer)
+    {
+        bytes.setBytes(offset, buffer);
+    }
+
     public void clear(long index)
     {
         long i = index >> 3;
@@ -125,6 +135,15 @@ public class OffHeapBitSet implements IBitSet
         return type.sizeof((int) bytes.size()) + bytes.size();
     }
 
+    /**
+     * Writes the words as they are laid out in memory, i.e. little-endian, without a length. Unlike
+     * {@link #serialize(DataOutput)}, the output can be copied back in bulk with {@link #setBytes}.
+     */
+    public void serializeWords(DataOutputPlus out) throws IOException
+    {
+        out.write(bytes, 0, bytes.size());
+    }
+
     @SuppressWarnings("resource")
     public static OffHeapBitSet deserialize(DataInput in) throws IOException
     {
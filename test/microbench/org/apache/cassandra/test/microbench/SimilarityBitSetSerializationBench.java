@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.test.microbench;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.utils.SimilarityHashUtil;
+import org.apache.cassandra.utils.obs.LocalitySensitiveBitSet;
+import org.apache.cassandra.utils.obs.OffHeapBitSet;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Writing and reading the tables of a SimilarityBloomFilter, against the bitset of a BloomFilter of the same size.
+ *
+ * The word layout of {@link LocalitySensitiveBitSet#serializeWords} is read back in one copy from a buffer, as
+ * from a mapped Filter.db, or in chunks from a stream; the legacy layout of {@link LocalitySensitiveBitSet#serialize}
+ * is read a long at a time, as a BloomFilter is.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1G")
+@Threads(1)
+@State(Scope.Benchmark)
+public class SimilarityBitSetSerializationBench
+{
+    @Param({"1048576", "16777216"})
+    private long numBits;
+
+    private LocalitySensitiveBitSet table;
+    private OffHeapBitSet bitset;
+
+    private ByteBuffer words;
+    private byte[] wordBytes;
+    private byte[] legacyBytes;
+    private byte[] bitsetBytes;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        SimilarityHashUtil.Specification specification = new SimilarityHashUtil.Specification(0, 4, 3, 4f, 32);
+        table = new LocalitySensitiveBitSet(numBits, specification.parameters(0), true);
+        bitset = new OffHeapBitSet(numBits);
+
+        // half full, as a filter sized for its keys ends up
+        Random random = new Random(42);
+        for (long i = 0; i < numBits / 2; i++)
+        {
+            long index = (random.nextLong() >>> 1) % numBits;
+            table.set(index);
+            bitset.set(index);
+        }
+
+        wordBytes = serializeWords().toByteArray();
+        words = ByteBuffer.wrap(wordBytes);
+        legacyBytes = serializeLegacy().toByteArray();
+        bitsetBytes = murmur3Serialize().toByteArray();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        table.close();
+        bitset.close();
+    }
+
+    @Benchmark
+    public DataOutputBuffer serializeWords() throws IOException
+    {
+        DataOutputBuffer out = new DataOutputBuffer((int) (table.words() * 8));
+        table.serializeWords(out);
+        return out;
+    }
+
+    @Benchmark
+    public long deserializeWordsFromBuffer()
+    {
+        LocalitySensitiveBitSet copy = LocalitySensitiveBitSet.deserializeWords(words.duplicate(), numBits, table.getParameters(), true);
+        long capacity = copy.capacity();
+        copy.close();
+        return capacity;
+    }
+
+    @Benchmark
+    public long deserializeWordsFromStream() throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(wordBytes));
+        LocalitySensitiveBitSet copy = LocalitySensitiveBitSet.deserializeWords(in, table.words(), numBits, table.getParameters(), true);
+        long capacity = copy.capacity();
+        copy.close();
+        return capacity;
+    }
+
+    @Benchmark
+    public DataOutputBuffer serializeLegacy() throws IOException
+    {
+        DataOutputBuffer out = new DataOutputBuffer(legacyBytes == null ? 1024 : legacyBytes.length);
+        table.serialize(out);
+        return out;
+    }
+
+    @Benchmark
+    public long deserializeLegacy() throws IOException
+    {
+        LocalitySensitiveBitSet copy = LocalitySensitiveBitSet.deserialize(new DataInputStream(new ByteArrayInputStream(legacyBytes)), true);
+        long capacity = copy.capacity();
+        copy.close();
+        return capacity;
+    }
+
+    @Benchmark
+    public DataOutputBuffer murmur3Serialize() throws IOException
+    {
+        DataOutputBuffer out = new DataOutputBuffer(bitsetBytes == null ? 1024 : bitsetBytes.length);
+        bitset.serialize(out);
+        return out;
+    }
+
+    @Benchmark
+    public long murmur3Deserialize() throws IOException
+    {
+        OffHeapBitSet copy = OffHeapBitSet.deserialize(new DataInputStream(new ByteArrayInputStream(bitsetBytes)));
+        long capacity = copy.capacity();
+        copy.close();
+        return capacity;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.test.microbench;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.db.BufferDecoratedKey;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.SimilarityDecoratedKey;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.SimilarityPartitioner.BinaryToken;
+import org.apache.cassandra.utils.BloomFilter;
+import org.apache.cassandra.utils.FilterFactory;
+import org.apache.cassandra.utils.IFilter;
+import org.apache.cassandra.utils.SimilarityHashUtil;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * SimilarityBloomFilter adds and lookups, against the BloomFilter of a Murmur3Partitioner table.
+ *
+ * Both filters are sized for {@code capacity} keys at a false positive chance of 1%, as an sstable of that many
+ * keys would be, and hold {@code fill * capacity} keys. Lookups of keys that were not added are the common case of
+ * a read skipping an sstable. A SimilarityDecoratedKey computes the buckets of the key once and reuses them across
+ * filters, as a read checking several sstables does; a plain DecoratedKey computes them on every call.
+ *
+ * The baseline filter is built with the partitioner configured by the test cassandra.yaml, which is not the
+ * SimilarityPartitioner.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1G")
+@Threads(1)
+@State(Scope.Benchmark)
+public class SimilarityBloomFilterBench
+{
+    private static final double FP_CHANCE = 0.01;
+
+    @Param({"100000"})
+    private int capacity;
+
+    @Param({"0.25", "0.5", "1.0"})
+    private double fill;
+
+    @Param({"32", "128"})
+    private int identifierLength;
+
+    private IFilter similarityFilter;
+    private IFilter similarityScratch;
+    private IFilter murmur3Filter;
+    private IFilter murmur3Scratch;
+
+    private DecoratedKey[] similarityPresent;
+    private DecoratedKey[] similarityAbsent;
+    private DecoratedKey[] similarityAbsentCached;
+    private DecoratedKey[] murmur3Present;
+    private DecoratedKey[] murmur3Absent;
+
+    private int next;
+
+    @Setup
+    public void setUp()
+    {
+        SimilarityHashUtil.Specification specification = new SimilarityHashUtil.Specification(0, 4, 3, 4f, identifierLength);
+        similarityFilter = FilterFactory.getSimilarityFilter(capacity, FP_CHANCE, specification, true);
+        similarityScratch = FilterFactory.getSimilarityFilter(capacity, FP_CHANCE, specification, true);
+        murmur3Filter = FilterFactory.getFilter(capacity, FP_CHANCE, true);
+        murmur3Scratch = FilterFactory.getFilter(capacity, FP_CHANCE, true);
+        if (!(murmur3Filter instanceof BloomFilter))
+            throw new IllegalStateException("The baseline needs a configured partitioner other than the SimilarityPartitioner");
+
+        Random random = new Random(42);
+        int present = Math.max(1, (int) (capacity * fill));
+        similarityPresent = new DecoratedKey[present];
+        murmur3Present = new DecoratedKey[present];
+        for (int i = 0; i < present; i++)
+        {
+            similarityPresent[i] = similarityKey(random);
+            murmur3Present[i] = murmur3Key(random);
+            similarityFilter.add(similarityPresent[i]);
+            murmur3Filter.add(murmur3Present[i]);
+        }
+
+        similarityAbsent = new DecoratedKey[capacity];
+        similarityAbsentCached = new DecoratedKey[capacity];
+        murmur3Absent = new DecoratedKey[capacity];
+        for (int i = 0; i < capacity; i++)
+        {
+            similarityAbsent[i] = similarityKey(random);
+            similarityAbsentCached[i] = new SimilarityDecoratedKey(similarityAbsent[i].getToken(), similarityAbsent[i].getKey());
+            murmur3Absent[i] = murmur3Key(random);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        similarityFilter.close();
+        similarityScratch.close();
+        murmur3Filter.close();
+        murmur3Scratch.close();
+    }
+
+    private DecoratedKey similarityKey(Random random)
+    {
+        int words = (identifierLength + 63) / 64;
+        long[] gray = new long[words];
+        for (int i = 0; i < words; i++)
+            gray[i] = random.nextLong();
+        int unused = 64 * words - identifierLength;
+        if (unused > 0)
+            gray[words - 1] &= -1L >>> unused;
+        ByteBuffer key = ByteBuffer.allocate(8).putLong(0, random.nextLong());
+        return new BufferDecoratedKey(new BinaryToken(gray, words), key);
+    }
+
+    private DecoratedKey murmur3Key(Random random)
+    {
+        return Murmur3Partitioner.instance.decorateKey(ByteBuffer.allocate(8).putLong(0, random.nextLong()));
+    }
+
+    private DecoratedKey next(DecoratedKey[] keys)
+    {
+        if (++next >= keys.length)
+            next = 0;
+        return keys[next];
+    }
+
+    @Benchmark
+    public void similarityAdd()
+    {
+        similarityScratch.add(next(similarityAbsent));
+    }
+
+    @Benchmark
+    public boolean similarityIsPresentHit()
+    {
+        return similarityFilter.isPresent(next(similarityPresent));
+    }
+
+    @Benchmark
+    public boolean similarityIsPresentMiss()
+    {
+        return similarityFilter.isPresent(next(similarityAbsent));
+    }
+
+    @Benchmark
+    public boolean similarityIsPresentMissCachedBuckets()
+    {
+        return similarityFilter.isPresent(next(similarityAbsentCached));
+    }
+
+    @Benchmark
+    public void murmur3Add()
+    {
+        murmur3Scratch.add(next(murmur3Absent));
+    }
+
+    @Benchmark
+    public boolean murmur3IsPresentHit()
+    {
+        return murmur3Filter.isPresent(next(murmur3Present));
+    }
+
+    @Benchmark
+    public boolean murmur3IsPresentMiss()
+    {
+        return murmur3Filter.isPresent(next(murmur3Absent));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.test.microbench;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.utils.BinaryReflectedGrayCodeUtil;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The Gray code conversions of BinaryReflectedGrayCodeUtil, and the token serialization built on them, against
+ * the serialization of the tokens of the Murmur3Partitioner.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512M")
+@Threads(1)
+@State(Scope.Benchmark)
+public class SimilarityGrayCodeBench
+{
+    private static final int CODES = 1024;
+
+    @Param({"32", "64", "256", "1024"})
+    private int identifierLength;
+
+    private long[][] codes;
+    private BitSet[] bitSets;
+    private long[] binary;
+
+    private Token[] binaryTokens;
+    private ByteBuffer[] binaryTokenBytes;
+    private Token[] longTokens;
+    private ByteBuffer[] longTokenBytes;
+
+    private int next;
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(42);
+        int words = (identifierLength + 63) / 64;
+        codes = new long[CODES][words];
+        bitSets = new BitSet[CODES];
+        binaryTokens = new Token[CODES];
+        binaryTokenBytes = new ByteBuffer[CODES];
+        longTokens = new Token[CODES];
+        longTokenBytes = new ByteBuffer[CODES];
+
+        Token.TokenFactory binaryFactory = SimilarityPartitioner.instance.getTokenFactory();
+        Token.TokenFactory longFactory = Murmur3Partitioner.instance.getTokenFactory();
+        for (int i = 0; i < CODES; i++)
+        {
+            for (int j = 0; j < words; j++)
+                codes[i][j] = random.nextLong();
+            int unused = 64 * words - identifierLength;
+            if (unused > 0)
+                codes[i][words - 1] &= -1L >>> unused;
+            // keep the most significant bit set, so that every code is identifierLength bits long
+            codes[i][words - 1] |= 1L << ((identifierLength - 1) & 63);
+
+            bitSets[i] = BitSet.valueOf(codes[i]);
+            binaryTokens[i] = new SimilarityPartitioner.BinaryToken(codes[i], words);
+            binaryTokenBytes[i] = binaryFactory.toByteArray(binaryTokens[i]);
+            longTokens[i] = new Murmur3Partitioner.LongToken(random.nextLong());
+            longTokenBytes[i] = longFactory.toByteArray(longTokens[i]);
+        }
+        binary = new long[words];
+    }
+
+    private int next()
+    {
+        next = (next + 1) & (CODES - 1);
+        return next;
+    }
+
+    @Benchmark
+    public long[] binaryToGray()
+    {
+        return BinaryReflectedGrayCodeUtil.binaryToGray(codes[next()]);
+    }
+
+    @Benchmark
+    public long[] grayToBinary()
+    {
+        return BinaryReflectedGrayCodeUtil.grayToBinary(codes[next()]);
+    }
+
+    @Benchmark
+    public long[] grayToBinaryReused()
+    {
+        long[] gray = codes[next()];
+        BinaryReflectedGrayCodeUtil.grayToBinary(gray, gray.length, binary);
+        return binary;
+    }
+
+    @Benchmark
+    public BitSet grayToBinaryBitSet()
+    {
+        return BinaryReflectedGrayCodeUtil.grayToBinary(bitSets[next()]);
+    }
+
+    @Benchmark
+    public ByteBuffer similarityTokenToBytes()
+    {
+        return SimilarityPartitioner.instance.getTokenFactory().toByteArray(binaryTokens[next()]);
+    }
+
+    @Benchmark
+    public Token similarityTokenFromBytes()
+    {
+        return SimilarityPartitioner.instance.getTokenFactory().fromByteArray(binaryTokenBytes[next()]);
+    }
+
+    @Benchmark
+    public ByteBuffer murmur3TokenToBytes()
+    {
+        return Murmur3Partitioner.instance.getTokenFactory().toByteArray(longTokens[next()]);
+    }
+
+    @Benchmark
+    public Token murmur3TokenFromBytes()
+    {
+        return Murmur3Partitioner.instance.getTokenFactory().fromByteArray(longTokenBytes[next()]);
+    }
+}
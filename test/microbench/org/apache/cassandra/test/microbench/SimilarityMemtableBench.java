@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.test.microbench;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.db.BufferDecoratedKey;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.RowPosition;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.SimilarityPartitioner.BinaryToken;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Filling the partition map of a Memtable, a ConcurrentSkipListMap ordered by token, with keys of BinaryTokens,
+ * against keys of the Murmur3Partitioner.
+ *
+ * Keys are inserted with putIfAbsent as Memtable.put does. {@code buckets} distinct signatures are shared by the
+ * keys, as when vectors cluster into few buckets and the map falls back to comparing the keys themselves.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1G")
+@Threads(1)
+@State(Scope.Benchmark)
+public class SimilarityMemtableBench
+{
+    private static final int KEYS = 65536;
+
+    @Param({"32", "256"})
+    private int identifierLength;
+
+    @Param({"65536", "256"})
+    private int buckets;
+
+    private DecoratedKey[] similarityKeys;
+    private DecoratedKey[] murmur3Keys;
+    private Object value = new Object();
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(42);
+        int words = (identifierLength + 63) / 64;
+        BinaryToken[] tokens = new BinaryToken[buckets];
+        for (int i = 0; i < buckets; i++)
+        {
+            long[] gray = new long[words];
+            for (int j = 0; j < words; j++)
+                gray[j] = random.nextLong();
+            int unused = 64 * words - identifierLength;
+            if (unused > 0)
+                gray[words - 1] &= -1L >>> unused;
+            tokens[i] = new BinaryToken(gray, words);
+        }
+
+        similarityKeys = new DecoratedKey[KEYS];
+        murmur3Keys = new DecoratedKey[KEYS];
+        for (int i = 0; i < KEYS; i++)
+        {
+            ByteBuffer key = ByteBuffer.allocate(16);
+            key.putLong(0, random.nextLong()).putLong(8, random.nextLong());
+            similarityKeys[i] = new BufferDecoratedKey(tokens[i % buckets], key);
+            murmur3Keys[i] = Murmur3Partitioner.instance.decorateKey(key);
+        }
+    }
+
+    private ConcurrentNavigableMap<RowPosition, Object> fill(DecoratedKey[] keys)
+    {
+        ConcurrentNavigableMap<RowPosition, Object> rows = new ConcurrentSkipListMap<>();
+        for (DecoratedKey key : keys)
+            rows.putIfAbsent(key, value);
+        return rows;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public ConcurrentNavigableMap<RowPosition, Object> similarityInserts()
+    {
+        return fill(similarityKeys);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public ConcurrentNavigableMap<RowPosition, Object> murmur3Inserts()
+    {
+        return fill(murmur3Keys);
+    }
+}
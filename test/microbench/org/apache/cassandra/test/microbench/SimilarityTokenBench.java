@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.test.microbench;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.SimilarityPartitioner.BinaryToken;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The cost of hashing a partition key into its token, against the Murmur3Partitioner.
+ *
+ * SimilarityPartitioner.getToken hashes with the hyperplanes configured in cassandra.yaml; to cover several shapes
+ * in one run, the benchmark builds the engine for {@code identifierLength} gaussian hyperplanes of {@code dimension}
+ * components and hashes with it as getToken and getTokens do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512M")
+@Threads(1)
+@State(Scope.Benchmark)
+public class SimilarityTokenBench
+{
+    private static final int KEYS = 1024;
+
+    // the number of components of a key, one per byte
+    @Param({"16", "128", "768"})
+    private int dimension;
+
+    // the number of hyperplanes, hence of signature bits
+    @Param({"32", "64", "256"})
+    private int identifierLength;
+
+    private RandomHyperplaneHash hash;
+    private ByteBuffer[] keys;
+    private List<ByteBuffer> batch;
+    private long[] signatures;
+    private int next;
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(42);
+        double[][] vectors = new double[identifierLength][dimension];
+        for (double[] vector : vectors)
+            for (int j = 0; j < dimension; j++)
+                vector[j] = random.nextGaussian();
+        hash = new RandomHyperplaneHash(vectors);
+
+        keys = new ByteBuffer[KEYS];
+        for (int i = 0; i < KEYS; i++)
+        {
+            byte[] bytes = new byte[dimension];
+            random.nextBytes(bytes);
+            keys[i] = ByteBuffer.wrap(bytes);
+        }
+        batch = Arrays.asList(keys);
+        signatures = new long[KEYS * hash.words()];
+    }
+
+    private ByteBuffer nextKey()
+    {
+        next = (next + 1) & (KEYS - 1);
+        return keys[next];
+    }
+
+    @Benchmark
+    public Token similarityToken()
+    {
+        long[] signature = hash.hash(nextKey());
+        return new BinaryToken(signature, signature.length);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public long[] similarityTokenBatch()
+    {
+        hash.hash(batch, null, signatures);
+        return signatures;
+    }
+
+    @Benchmark
+    public Token murmur3Token()
+    {
+        return Murmur3Partitioner.instance.getToken(nextKey());
+    }
+}
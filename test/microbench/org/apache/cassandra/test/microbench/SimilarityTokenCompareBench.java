@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.test.microbench;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.dht.Murmur3Partitioner.LongToken;
+import org.apache.cassandra.dht.SimilarityPartitioner.BinaryToken;
+import org.apache.cassandra.dht.Token;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Comparing and sorting BinaryTokens, against the LongTokens of the Murmur3Partitioner.
+ *
+ * The tokens are random signatures of {@code identifierLength} bits; {@code sharedPrefix} of their most significant
+ * bits are equal, as for the keys of neighbouring buckets.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512M")
+@Threads(1)
+@State(Scope.Benchmark)
+public class SimilarityTokenCompareBench
+{
+    private static final int TOKENS = 4096;
+
+    @Param({"32", "64", "256"})
+    private int identifierLength;
+
+    @Param({"0", "24"})
+    private int sharedPrefix;
+
+    private BinaryToken[] binaryTokens;
+    private LongToken[] longTokens;
+    private Token[] sorted;
+    private int next;
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(42);
+        int words = (identifierLength + 63) / 64;
+        long[] prefix = signature(random, words);
+
+        binaryTokens = new BinaryToken[TOKENS];
+        longTokens = new LongToken[TOKENS];
+        for (int i = 0; i < TOKENS; i++)
+        {
+            long[] signature = signature(random, words);
+            for (int bit = identifierLength - sharedPrefix; bit < identifierLength; bit++)
+            {
+                long mask = 1L << bit;
+                signature[bit >>> 6] = (signature[bit >>> 6] & ~mask) | (prefix[bit >>> 6] & mask);
+            }
+            binaryTokens[i] = new BinaryToken(signature, words);
+            longTokens[i] = new LongToken(random.nextLong());
+        }
+        sorted = new Token[TOKENS];
+    }
+
+    private long[] signature(Random random, int words)
+    {
+        long[] signature = new long[words];
+        for (int i = 0; i < words; i++)
+            signature[i] = random.nextLong();
+        int unused = 64 * words - identifierLength;
+        if (unused > 0)
+            signature[words - 1] &= -1L >>> unused;
+        return signature;
+    }
+
+    @Benchmark
+    public int compareBinaryToken()
+    {
+        next = (next + 1) & (TOKENS - 1);
+        return binaryTokens[next].compareTo(binaryTokens[(next + 1) & (TOKENS - 1)]);
+    }
+
+    @Benchmark
+    public int compareLongToken()
+    {
+        next = (next + 1) & (TOKENS - 1);
+        return longTokens[next].compareTo(longTokens[(next + 1) & (TOKENS - 1)]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TOKENS)
+    public Token[] sortBinaryTokens()
+    {
+        System.arraycopy(binaryTokens, 0, sorted, 0, TOKENS);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TOKENS)
+    public Token[] sortLongTokens()
+    {
+        System.arraycopy(longTokens, 0, sorted, 0, TOKENS);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
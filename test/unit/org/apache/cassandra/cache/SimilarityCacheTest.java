@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.Pair;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SimilarityCacheTest
+{
+    private static final Pair<String, String> TABLE = Pair.create("ks", "cf");
+    private static final Pair<String, String> OTHER_TABLE = Pair.create("ks", "other");
+
+    private static final List<long[]> PROBES = Arrays.asList(new long[]{ 1L }, new long[]{ 3L });
+    private static final List<ByteBuffer> NEIGHBOURS = Arrays.asList(ByteBufferUtil.bytes("a"), ByteBufferUtil.bytes("b"));
+
+    @Test
+    public void testInvalidatedByProbedBuckets()
+    {
+        SimilarityCache cache = new SimilarityCache(new SimilarityCacheProvider().create(1));
+        SimilarityCacheKey key = new SimilarityCacheKey(TABLE, ByteBufferUtil.bytes("query"), 10, PROBES);
+
+        int[] slots = cache.slots(TABLE, PROBES);
+        cache.put(key, NEIGHBOURS, slots, cache.version(slots));
+        assertEquals(NEIGHBOURS, cache.getNeighbours(key));
+
+        // writes to other buckets or tables leave the entry alone, unless they share a slot with a probed bucket
+        SimilarityPartitioner.BinaryToken other = new SimilarityPartitioner.BinaryToken(new long[]{ 2L }, 1);
+        if (!contains(slots, cache.slots(TABLE, Collections.singletonList(new long[]{ 2L }))[0]))
+        {
+            cache.invalidate(TABLE, other);
+            assertEquals(NEIGHBOURS, cache.getNeighbours(key));
+        }
+        if (!contains(slots, cache.slots(OTHER_TABLE, PROBES.subList(0, 1))[0]))
+        {
+            cache.invalidate(OTHER_TABLE, new SimilarityPartitioner.BinaryToken(PROBES.get(0), 1));
+            assertEquals(NEIGHBOURS, cache.getNeighbours(key));
+        }
+
+        long invalidations = cache.invalidations.getCount();
+        cache.invalidate(TABLE, new SimilarityPartitioner.BinaryToken(PROBES.get(1), 1));
+        assertNull(cache.getNeighbours(key));
+        assertEquals(invalidations + 1, cache.invalidations.getCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testWriteDuringSearch()
+    {
+        SimilarityCache cache = new SimilarityCache(new SimilarityCacheProvider().create(1));
+        SimilarityCacheKey key = new SimilarityCacheKey(TABLE, ByteBufferUtil.bytes("query"), 10, PROBES);
+
+        // a write racing with the search makes its result stale as soon as it is cached
+        int[] slots = cache.slots(TABLE, PROBES);
+        long version = cache.version(slots);
+        cache.invalidate(TABLE, new SimilarityPartitioner.BinaryToken(PROBES.get(0), 1));
+        cache.put(key, NEIGHBOURS, slots, version);
+        assertNull(cache.getNeighbours(key));
+    }
+
+    @Test
+    public void testInvalidateTable()
+    {
+        SimilarityCache cache = new SimilarityCache(new SimilarityCacheProvider().create(1));
+        SimilarityCacheKey key = new SimilarityCacheKey(TABLE, ByteBufferUtil.bytes("query"), 10, PROBES);
+        SimilarityCacheKey otherKey = new SimilarityCacheKey(OTHER_TABLE, ByteBufferUtil.bytes("query"), 10, PROBES);
+
+        int[] slots = cache.slots(TABLE, PROBES);
+        cache.put(key, NEIGHBOURS, slots, cache.version(slots));
+        int[] otherSlots = cache.slots(OTHER_TABLE, PROBES);
+        cache.put(otherKey, NEIGHBOURS, otherSlots, cache.version(otherSlots));
+
+        cache.invalidate(TABLE);
+        assertNull(cache.getNeighbours(key));
+        assertEquals(NEIGHBOURS, cache.getNeighbours(otherKey));
+
+        // the probed buckets are part of the key
+        assertNull(cache.getNeighbours(new SimilarityCacheKey(OTHER_TABLE, ByteBufferUtil.bytes("query"), 10, PROBES.subList(0, 1))));
+    }
+
+    private static boolean contains(int[] slots, int slot)
+    {
+        for (int s : slots)
+            if (s == slot)
+                return true;
+        return false;
+    }
+}
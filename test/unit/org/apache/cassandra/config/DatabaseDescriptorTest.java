@@ -33,6 +33,7 @@ import org.junit.runner.RunWith;
 import org.apache.cassandra.OrderedJUnit4ClassRunner;
 import org.apache.cassandra.SchemaLoader;
 import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.dht.SimilarityPartitioner;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.exceptions.InvalidRequestException;
 import org.apache.cassandra.gms.Gossiper;
@@ -41,8 +42,11 @@ import org.apache.cassandra.service.MigrationManager;
 import org.apache.cassandra.thrift.ThriftConversion;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(OrderedJUnit4ClassRunner.class)
 public class DatabaseDescriptorTest
@@ -266,4 +270,22 @@ public class DatabaseDescriptorTest
         DatabaseDescriptor.applyAddressConfig(testConfig);
 
     }
+
+    @Test
+    public void testSimilarityPartitionerRequiresVectors() throws Exception
+    {
+        Config testConfig = new YamlConfigurationLoader().loadConfig();
+        testConfig.partitioner = SimilarityPartitioner.class.getName();
+        testConfig.vectors = null;
+        try
+        {
+            DatabaseDescriptor.applyConfig(testConfig);
+            fail("SimilarityPartitioner should require vectors");
+        }
+        catch (ConfigurationException e)
+        {
+            assertTrue(e.getMessage().contains("vectors"));
+        }
+        assertFalse(DatabaseDescriptor.getPartitioner() instanceof SimilarityPartitioner);
+    }
 }
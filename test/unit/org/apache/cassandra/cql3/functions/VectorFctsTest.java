@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cql3.functions;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.DoubleType;
+import org.apache.cassandra.db.marshal.FloatType;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.ListType;
+import org.apache.cassandra.db.marshal.VectorType;
+import org.apache.cassandra.exceptions.InvalidRequestException;
+import org.apache.cassandra.transport.Server;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class VectorFctsTest
+{
+    private static final VectorType type = VectorType.getInstance(FloatType.instance, 3);
+    private static final List<AbstractType<?>> argTypes = Arrays.<AbstractType<?>>asList(type, type);
+
+    @Test
+    public void testDistances() throws InvalidRequestException
+    {
+        ByteBuffer v1 = type.fromString("[1, 2, 2]");
+        ByteBuffer v2 = type.fromString("[2, 0, 0]");
+
+        assertEquals(1.0 / 3, execute(VectorFcts.COSINE_SIMILARITY, v1, v2), 1e-9);
+        assertEquals(2.0, execute(VectorFcts.DOT_PRODUCT, v1, v2), 1e-9);
+        assertEquals(3.0, execute(VectorFcts.L2_DISTANCE, v1, v2), 1e-9);
+
+        // the zero vector is orthogonal to every vector
+        assertEquals(0.0, execute(VectorFcts.COSINE_SIMILARITY, v1, type.fromString("[0, 0, 0]")), 0.0);
+    }
+
+    @Test
+    public void testNullAndEmpty() throws InvalidRequestException
+    {
+        ScalarFunction fct = (ScalarFunction) VectorFcts.getInstance(VectorFcts.L2_DISTANCE, argTypes);
+        assertNull(fct.execute(Server.CURRENT_VERSION, Arrays.asList(null, type.fromString("[1, 2, 2]"))));
+        assertNull(fct.execute(Server.CURRENT_VERSION, Arrays.asList(ByteBufferUtil.EMPTY_BYTE_BUFFER, type.fromString("[1, 2, 2]"))));
+    }
+
+    @Test
+    public void testInstancesPerType() throws InvalidRequestException
+    {
+        assertSame(VectorFcts.getInstance(VectorFcts.DOT_PRODUCT, argTypes),
+                   VectorFcts.getInstance(VectorFcts.DOT_PRODUCT, argTypes));
+
+        VectorType other = VectorType.getInstance(FloatType.instance, 4);
+        try
+        {
+            VectorFcts.getInstance(VectorFcts.DOT_PRODUCT, Arrays.<AbstractType<?>>asList(type, other));
+            fail("Expected InvalidRequestException");
+        }
+        catch (InvalidRequestException e)
+        {
+        }
+    }
+
+    @Test
+    public void testHammingDistance()
+    {
+        ByteBuffer t1 = ByteBuffer.wrap(new byte[]{ 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xFF, 1 });
+        ByteBuffer t2 = ByteBuffer.wrap(new byte[]{ 0, 0, 0, 0, 0, 0, 0, 3, (byte) 0x0F });
+
+        ScalarFunction fct = (ScalarFunction) VectorFcts.hammingDistanceFct;
+        assertEquals(2 + 4 + 1, Int32Type.instance.compose(fct.execute(Server.CURRENT_VERSION, Arrays.asList(t1, t2))).intValue());
+        assertEquals(0, Int32Type.instance.compose(fct.execute(Server.CURRENT_VERSION, Arrays.asList(t1, t1))).intValue());
+    }
+
+    @Test
+    public void testTopK() throws InvalidRequestException
+    {
+        AggregateFunction.Aggregate aggregate = AggregateFcts.topKFunction.newAggregate();
+        ByteBuffer k = ByteBufferUtil.bytes(3);
+        for (double distance : new double[]{ 5, 1, Double.NaN, 4, 0.5, 3, 2 })
+            aggregate.addInput(Server.CURRENT_VERSION, Arrays.asList(ByteBufferUtil.bytes(distance), k));
+        aggregate.addInput(Server.CURRENT_VERSION, Arrays.asList(null, k));
+
+        ListType<Double> listType = ListType.getInstance(DoubleType.instance, false);
+        ByteBuffer output = aggregate.compute(Server.CURRENT_VERSION);
+        assertEquals(Arrays.asList(0.5, 1.0, 2.0), listType.getSerializer().deserializeForNativeProtocol(output, Server.CURRENT_VERSION));
+
+        aggregate.reset();
+        try
+        {
+            aggregate.addInput(Server.CURRENT_VERSION, Arrays.asList(ByteBufferUtil.bytes(1.0), ByteBufferUtil.bytes(0)));
+            fail("Expected InvalidRequestException");
+        }
+        catch (InvalidRequestException e)
+        {
+        }
+    }
+
+    private static double execute(FunctionName name, ByteBuffer v1, ByteBuffer v2) throws InvalidRequestException
+    {
+        ScalarFunction fct = (ScalarFunction) VectorFcts.getInstance(name, argTypes);
+        return DoubleType.instance.compose(fct.execute(Server.CURRENT_VERSION, Arrays.asList(v1, v2)));
+    }
+}
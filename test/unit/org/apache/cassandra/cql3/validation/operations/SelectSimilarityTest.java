@@ -0,0 +1,212 @@
+package org.apache.cassandra.cql3.validation.operations;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.apache.cassandra.cache.SimilarityCache;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.cql3.CQLTester;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.serializers.CollectionSerializer;
+import org.apache.cassandra.service.CacheService;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.transport.Server;
+
+/**
+ * SIMILAR TO queries, which require the SimilarityPartitioner. They are executed both locally and through the
+ * native protocol, which goes through the coordinator.
+ */
+public class SelectSimilarityTest extends CQLTester
+{
+    private static final int PAGE_SIZE = DatabaseDescriptor.getSimilarityProbePageSize();
+
+    @BeforeClass
+    public static void setUp()
+    {
+        StorageService.instance.setPartitionerUnsafe(SimilarityPartitioner.instance);
+    }
+
+    @After
+    public void resetPageSize()
+    {
+        DatabaseDescriptor.setSimilarityProbePageSize(PAGE_SIZE);
+    }
+
+    @Test
+    public void testNearestFirst() throws Throwable
+    {
+        createTable("CREATE TABLE %s (k vector<float, 4>, v int, PRIMARY KEY (k))");
+        execute("INSERT INTO %s (k, v) VALUES ([1, 0, 0, 0], 1)");
+        execute("INSERT INTO %s (k, v) VALUES ([0.9, 0.3, 0, 0], 2)");
+        execute("INSERT INTO %s (k, v) VALUES ([0.9, 0.1, 0, 0], 3)");
+        execute("INSERT INTO %s (k, v) VALUES ([0, 0, 0, 1], 4)");
+
+        String query = "SELECT v FROM %s WHERE k SIMILAR TO [1, 0.05, 0, 0] LIMIT 2";
+        assertRows(execute(query), row(1), row(3));
+        assertEquals(values(1, 3), values(executeNet(query)));
+    }
+
+    @Test
+    public void testPagedProbes() throws Throwable
+    {
+        createTable("CREATE TABLE %s (k vector<float, 4>, v int, PRIMARY KEY (k))");
+        // neighbours all around the query vector, the nearest ones inserted last
+        for (int i = 20; i > 0; i--)
+            execute(String.format("INSERT INTO %%s (k, v) VALUES ([1, %s, %s, %s], %d)", 0.01f * i, -0.01f * i, 0.005f * (i % 3), i));
+
+        DatabaseDescriptor.setSimilarityProbePageSize(3);
+        assertEquals(values(1, 2, 3, 4, 5), values(executeNet("SELECT v FROM %s WHERE k SIMILAR TO [1, 0, 0, 0] LIMIT 5")));
+    }
+
+    @Test
+    public void testRecallOption() throws Throwable
+    {
+        createTable("CREATE TABLE %s (k vector<float, 4>, v int, PRIMARY KEY (k))");
+
+        // the nearest vector across a hyperplane from the query vector
+        Token bucket = currentTableMetadata().partitioner().getToken(vector("[1, 0, 0, 0]"));
+        String neighbour = null;
+        for (int i = 1; neighbour == null; i++)
+        {
+            String literal = String.format("[1, %s, 0, 0]", 0.01f * i);
+            if (!currentTableMetadata().partitioner().getToken(vector(literal)).equals(bucket))
+                neighbour = literal;
+        }
+        execute("INSERT INTO %s (k, v) VALUES (" + neighbour + ", 1)");
+
+        // a low recall only probes the bucket of the query vector
+        assertEmpty(execute("SELECT v FROM %s WHERE k SIMILAR TO [1, 0, 0, 0] LIMIT 1 WITH recall = 0.001"));
+        assertRows(execute("SELECT v FROM %s WHERE k SIMILAR TO [1, 0, 0, 0] LIMIT 1 WITH recall = 1"), row(1));
+        assertRows(execute("SELECT v FROM %s WHERE k SIMILAR TO IN ([1, 0, 0, 0]) LIMIT 1 WITH recall = ?", 1.0), row(1));
+        assertEquals(values(), values(executeNet("SELECT v FROM %s WHERE k SIMILAR TO IN ([1, 0, 0, 0], [0, 1, 0, 0]) LIMIT 1 WITH recall = 0.001")));
+
+        // unset, it falls back to similarity_target_recall
+        assertRowCount(execute("SELECT v FROM %s WHERE k SIMILAR TO [1, 0, 0, 0] LIMIT 1 WITH recall = ?", unset()),
+                       execute("SELECT v FROM %s WHERE k SIMILAR TO [1, 0, 0, 0] LIMIT 1").size());
+
+        assertInvalidMessage("recall must be in (0, 1]", "SELECT v FROM %s WHERE k SIMILAR TO [1, 0, 0, 0] WITH recall = 0");
+        assertInvalidMessage("recall must be in (0, 1]", "SELECT v FROM %s WHERE k SIMILAR TO [1, 0, 0, 0] WITH recall = 1.5");
+        assertInvalidMessage("Invalid null value of recall", "SELECT v FROM %s WHERE k SIMILAR TO [1, 0, 0, 0] WITH recall = ?", (Object) null);
+        assertInvalidMessage("WITH recall is only supported with SIMILAR TO", "SELECT v FROM %s WITH recall = 0.9");
+    }
+
+    private ByteBuffer vector(String literal)
+    {
+        return currentTableMetadata().getKeyValidator().fromString(literal);
+    }
+
+    @Test
+    public void testDeletedNeighboursAreSkipped() throws Throwable
+    {
+        createTable("CREATE TABLE %s (k vector<float, 4>, v int, PRIMARY KEY (k))");
+        for (int i = 1; i <= 6; i++)
+            execute(String.format("INSERT INTO %%s (k, v) VALUES ([1, %s, 0, 0], %d)", 0.01f * i, i));
+
+        // the nearest partitions are deleted in the memtable, while the vector indexes of the sstable still have them
+        flush();
+        execute(String.format("DELETE FROM %%s WHERE k = [1, %s, 0, 0]", 0.01f));
+        execute(String.format("DELETE FROM %%s WHERE k = [1, %s, 0, 0]", 0.02f));
+
+        String query = "SELECT v FROM %s WHERE k SIMILAR TO [1, 0, 0, 0] LIMIT 2";
+        assertRows(execute(query), row(3), row(4));
+        assertEquals(values(3, 4), values(executeNet(query)));
+
+        // and once both are in sstables
+        flush();
+        assertRows(execute(query), row(3), row(4));
+        assertEquals(values(3, 4), values(executeNet(query)));
+    }
+
+    @Test
+    public void testCachedOnReplicas() throws Throwable
+    {
+        createTable("CREATE TABLE %s (k vector<float, 4>, v int, PRIMARY KEY (k))");
+        for (int i = 2; i <= 6; i++)
+            execute(String.format("INSERT INTO %%s (k, v) VALUES ([1, %s, 0, 0], %d)", 0.01f * i, i));
+        flush();
+
+        SimilarityCache cache = CacheService.instance.similarityCache;
+        String query = "SELECT v FROM %s WHERE k SIMILAR TO [1, 0, 0, 0] LIMIT 2";
+        assertEquals(values(2, 3), values(executeNet(query)));
+
+        // both the coordinated and the local queries are served by the searches cached by the replica
+        long hits = cache.getMetrics().hits.getCount();
+        assertEquals(values(2, 3), values(executeNet(query)));
+        assertTrue(cache.getMetrics().hits.getCount() > hits);
+        hits = cache.getMetrics().hits.getCount();
+        assertRows(execute(query), row(2), row(3));
+        assertTrue(cache.getMetrics().hits.getCount() > hits);
+
+        // a nearer partition invalidates the search of its bucket
+        execute(String.format("INSERT INTO %%s (k, v) VALUES ([1, %s, 0, 0], 1)", 0.01f));
+        assertEquals(values(1, 2), values(executeNet(query)));
+        assertRows(execute(query), row(1), row(2));
+
+        // and so does a deleted one
+        execute(String.format("DELETE FROM %%s WHERE k = [1, %s, 0, 0]", 0.02f));
+        assertEquals(values(1, 3), values(executeNet(query)));
+        assertRows(execute(query), row(1), row(3));
+    }
+
+    @Test
+    public void testSimilarToIn() throws Throwable
+    {
+        createTable("CREATE TABLE %s (k vector<float, 4>, v int, PRIMARY KEY (k))");
+        for (int i = 1; i <= 3; i++)
+        {
+            execute(String.format("INSERT INTO %%s (k, v) VALUES ([1, %s, 0, 0], %d)", 0.01f * i, i));
+            execute(String.format("INSERT INTO %%s (k, v) VALUES ([0, 0, %s, 1], %d)", 0.01f * i, 10 + i));
+        }
+        flush();
+
+        // the neighbours of each query vector in turn, in the order of the relation
+        String query = "SELECT v FROM %s WHERE k SIMILAR TO IN ([0, 0, 0, 1], [1, 0, 0, 0]) LIMIT 2";
+        assertRows(execute(query), row(11), row(12), row(1), row(2));
+        assertEquals(values(11, 12, 1, 2), values(executeNet(query)));
+
+        // a partition near both query vectors is returned for each, and duplicate query vectors are ignored
+        query = "SELECT v FROM %s WHERE k SIMILAR TO IN ([1, 0, 0, 0], [1, 0.03, 0, 0], [1, 0, 0, 0]) LIMIT 1";
+        assertRows(execute(query), row(1), row(3));
+        query = "SELECT v FROM %s WHERE k SIMILAR TO IN ([1, 0.012, 0, 0], [1, 0.022, 0, 0]) LIMIT 2";
+        assertEquals(values(1, 2, 2, 3), values(executeNet(query)));
+
+        ByteBuffer north = vector("[0, 0, 0, 1]");
+        ByteBuffer east = vector("[1, 0, 0, 0]");
+        assertRows(execute("SELECT v FROM %s WHERE k SIMILAR TO IN (?, ?) LIMIT 1", north, east), row(11), row(1));
+        assertRows(execute("SELECT v FROM %s WHERE k SIMILAR TO IN ? LIMIT 1", CollectionSerializer.pack(Arrays.asList(east, north), 2, Server.CURRENT_VERSION)),
+                   row(1), row(11));
+        assertEmpty(execute("SELECT v FROM %s WHERE k SIMILAR TO IN () LIMIT 1"));
+
+        assertInvalidMessage("Invalid null value", "SELECT v FROM %s WHERE k SIMILAR TO IN (?, ?)", east, null);
+    }
+
+    private com.datastax.driver.core.ResultSet executeNet(String query) throws Throwable
+    {
+        return executeNet(Server.CURRENT_VERSION, String.format(query, KEYSPACE + "." + currentTable()));
+    }
+
+    private static List<Integer> values(int... values)
+    {
+        List<Integer> list = new ArrayList<>(values.length);
+        for (int value : values)
+            list.add(value);
+        return list;
+    }
+
+    private static List<Integer> values(com.datastax.driver.core.ResultSet rows)
+    {
+        List<Integer> list = new ArrayList<>();
+        for (com.datastax.driver.core.Row row : rows)
+            list.add(row.getInt("v"));
+        return list;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import org.apache.cassandra.db.marshal.FloatType;
+import org.apache.cassandra.db.marshal.VectorType;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MemtableVectorIndexTest
+{
+    private static final int DIMENSION = 8;
+    private static final VectorType type = VectorType.getInstance(FloatType.instance, DIMENSION);
+
+    private final Random random = new Random(42);
+    private final RandomHyperplaneHash hash = new RandomHyperplaneHash(gaussians(4));
+
+    private double[][] gaussians(int count)
+    {
+        double[][] vectors = new double[count][DIMENSION];
+        for (double[] vector : vectors)
+            for (int j = 0; j < DIMENSION; j++)
+                vector[j] = random.nextGaussian();
+        return vectors;
+    }
+
+    private DecoratedKey key(double[] vector)
+    {
+        ByteBuffer key = type.decompose(vector);
+        return new BufferDecoratedKey(new SimilarityPartitioner.BinaryToken(hash.hash(key, type.getSerializer()), hash.words()), key);
+    }
+
+    private List<long[]> allBuckets()
+    {
+        List<long[]> probes = new ArrayList<>();
+        for (long signature = 0; signature < 1 << hash.planes(); signature++)
+            probes.add(new long[]{ signature });
+        return probes;
+    }
+
+    private static List<DecoratedKey> bruteForce(final double[] query, List<DecoratedKey> keys, int limit)
+    {
+        List<DecoratedKey> sorted = new ArrayList<>(keys);
+        Collections.sort(sorted, new Comparator<DecoratedKey>()
+        {
+            public int compare(DecoratedKey k1, DecoratedKey k2)
+            {
+                return Double.compare(RandomHyperplaneHash.cosineDistance(query, type.compose(k1.getKey())),
+                                      RandomHyperplaneHash.cosineDistance(query, type.compose(k2.getKey())));
+            }
+        });
+        return sorted.subList(0, Math.min(limit, sorted.size()));
+    }
+
+    @Test
+    public void testSearch()
+    {
+        MemtableVectorIndex index = new MemtableVectorIndex(hash, type.getSerializer());
+        List<DecoratedKey> keys = new ArrayList<>();
+        for (double[] vector : gaussians(300))
+        {
+            DecoratedKey key = key(vector);
+            assertTrue(index.add(key) > 4 * DIMENSION);
+            keys.add(key);
+        }
+
+        double[] query = gaussians(1)[0];
+        assertEquals(bruteForce(query, keys, 10), index.search(query, allBuckets(), 10));
+
+        // only the buckets probed are searched
+        long[] bucket = hash.hash(query).clone();
+        List<DecoratedKey> inBucket = new ArrayList<>();
+        for (DecoratedKey key : keys)
+        {
+            if (bucket[0] == hash.hash(key.getKey(), type.getSerializer())[0])
+                inBucket.add(key);
+        }
+        assertEquals(bruteForce(query, inBucket, 300), index.search(query, Collections.singletonList(bucket), 300));
+    }
+
+    @Test
+    public void testConcurrentAdd() throws InterruptedException
+    {
+        final MemtableVectorIndex index = new MemtableVectorIndex(hash, type.getSerializer());
+        final double[][] vectors = gaussians(4000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++)
+        {
+            final int thread = t;
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    for (int i = thread; i < vectors.length; i += 4)
+                        index.add(key(vectors[i]));
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertEquals(vectors.length, index.search(vectors[0], allBuckets(), vectors.length).size());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.cql3.CQLTester;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.net.MessageOut;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.service.SimilarityBatch;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.MultiProbePlanner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SimilarityRangeCommandTest extends CQLTester
+{
+    @BeforeClass
+    public static void setUp()
+    {
+        StorageService.instance.setPartitionerUnsafe(SimilarityPartitioner.instance);
+    }
+
+    @Test
+    public void testProbesWithin() throws Throwable
+    {
+        CFMetaData cfm = createVectorTable();
+        MultiProbePlanner.Plan plan = plan(cfm, "[1, 0.2, -0.3, 0.1]");
+
+        // every bucket probed lies within exactly one of the bounds planned
+        int probes = 0;
+        for (AbstractBounds<RowPosition> bounds : plan.bounds)
+            probes += SimilarityRangeCommand.probesWithin(bounds, plan.probes).size();
+        assertEquals(plan.probes.size(), probes);
+    }
+
+    @Test
+    public void testSerialization() throws Throwable
+    {
+        CFMetaData cfm = createVectorTable();
+        ByteBuffer query = cfm.getKeyValidator().fromString("[1, 0.2, -0.3, 0.1]");
+        ByteBuffer other = cfm.getKeyValidator().fromString("[1, 0.3, -0.2, 0.1]");
+        MultiProbePlanner.Plan plan = plan(cfm, "[1, 0.2, -0.3, 0.1]");
+        AbstractBounds<RowPosition> bounds = plan.bounds.get(0);
+        List<long[]> probes = SimilarityRangeCommand.probesWithin(bounds, plan.probes);
+        SimilarityRangeCommand command = new SimilarityRangeCommand(KEYSPACE, currentTable(), 42, bounds, Arrays.asList(query, other), Arrays.asList(probes, probes.subList(0, 1)), 5);
+
+        DataOutputBuffer out = new DataOutputBuffer();
+        SimilarityRangeCommand.serializer.serialize(command, out, MessagingService.current_version);
+        assertEquals(SimilarityRangeCommand.serializer.serializedSize(command, MessagingService.current_version), out.getLength());
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.getData(), 0, out.getLength());
+        SimilarityRangeCommand deserialized = SimilarityRangeCommand.serializer.deserialize(new DataInputStream(in), MessagingService.current_version);
+        assertEquals(command.toString(), deserialized.toString());
+        assertEquals(command.keyRange, deserialized.keyRange);
+        assertEquals(command.queries, deserialized.queries);
+        assertEquals(command.probes.size(), deserialized.probes.size());
+        for (int q = 0; q < command.probes.size(); q++)
+        {
+            assertEquals(command.probes.get(q).size(), deserialized.probes.get(q).size());
+            for (int i = 0; i < command.probes.get(q).size(); i++)
+                assertArrayEquals(command.probes.get(q).get(i), deserialized.probes.get(q).get(i));
+        }
+    }
+
+    @Test
+    public void testBatchReturnsTheLimitPerQuery() throws Throwable
+    {
+        CFMetaData cfm = createVectorTable();
+        for (int i = 1; i <= 3; i++)
+        {
+            execute(String.format("INSERT INTO %%s (k, v) VALUES ([1, %s, 0, 0], %d)", 0.01f * i, i));
+            execute(String.format("INSERT INTO %%s (k, v) VALUES ([0, 0, %s, 1], %d)", 0.01f * i, 10 + i));
+        }
+        flush();
+
+        ByteBuffer east = cfm.getKeyValidator().fromString("[1, 0, 0, 0]");
+        ByteBuffer north = cfm.getKeyValidator().fromString("[0, 0, 0, 1]");
+        SimilarityBatch batch = SimilarityBatch.create(cfm, Arrays.asList(east, north), 1.0);
+
+        // each range only returns the nearest partition of each query vector probing it
+        Set<ByteBuffer> keys = new HashSet<>();
+        for (SimilarityRangeCommand command : batch.getCommands(System.currentTimeMillis(), 1))
+        {
+            assertEquals(1, command.limit);
+            assertFalse(command.queries.isEmpty());
+            for (List<long[]> probes : command.probes)
+                assertFalse(probes.isEmpty());
+
+            List<Row> rows = command.executeLocally();
+            assertTrue(rows.size() <= command.queries.size());
+            for (Row row : rows)
+                keys.add(row.key.getKey());
+        }
+        assertTrue(keys.contains(cfm.getKeyValidator().fromString("[1, 0.01, 0, 0]")));
+        assertTrue(keys.contains(cfm.getKeyValidator().fromString("[0, 0, 0.01, 1]")));
+    }
+
+    @Test
+    public void testMessageForOlderVersions() throws Throwable
+    {
+        CFMetaData cfm = createVectorTable();
+        ByteBuffer query = cfm.getKeyValidator().fromString("[1, 0.2, -0.3, 0.1]");
+        MultiProbePlanner.Plan plan = plan(cfm, "[1, 0.2, -0.3, 0.1]");
+        AbstractBounds<RowPosition> bounds = plan.bounds.get(0);
+        SimilarityRangeCommand command = new SimilarityRangeCommand(KEYSPACE, currentTable(), 42, bounds, query, SimilarityRangeCommand.probesWithin(bounds, plan.probes), 5);
+
+        MessageOut<? extends AbstractRangeCommand> message = command.createMessage(MessagingService.current_version);
+        assertEquals(MessagingService.Verb.SIMILARITY_RANGE, message.verb);
+        assertSame(command, message.payload);
+
+        // the nodes that don't know the verb scan the whole range instead
+        message = command.createMessage(MessagingService.VERSION_22);
+        assertEquals(MessagingService.Verb.RANGE_SLICE, message.verb);
+        RangeSliceCommand slice = (RangeSliceCommand) message.payload;
+        assertEquals(command.keyRange, slice.keyRange);
+        assertEquals(command.timestamp, slice.timestamp);
+        assertEquals(Integer.MAX_VALUE, slice.maxResults);
+    }
+
+    private CFMetaData createVectorTable()
+    {
+        createTable("CREATE TABLE %s (k vector<float, 4>, v int, PRIMARY KEY (k))");
+        return Schema.instance.getCFMetaData(KEYSPACE, currentTable());
+    }
+
+    private static MultiProbePlanner.Plan plan(CFMetaData cfm, String vector)
+    {
+        return MultiProbePlanner.instance().plan(cfm.getKeyValidator().fromString(vector), SimilarityPartitioner.keyLayout(cfm.partitioner()));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.exceptions.ConfigurationException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SimilarityCompactionStrategyTest
+{
+    private static SimilarityPartitioner.BinaryToken token(long rank)
+    {
+        return new SimilarityPartitioner.BinaryToken(new long[]{ rank ^ (rank >>> 1) }, 1);
+    }
+
+    @Test
+    public void testFamilies()
+    {
+        int planes = 8;
+        for (int bits = 0; bits <= planes; bits++)
+        {
+            for (long rank = 0; rank < 1 << planes; rank++)
+                assertEquals(rank >>> (planes - bits), SimilarityCompactionStrategy.family(token(rank), planes, bits));
+        }
+
+        // adjacent ranks are in the same family but at the family boundaries
+        SimilarityPartitioner.BinaryToken last = token(63);
+        SimilarityPartitioner.BinaryToken first = token(64);
+        assertEquals(0, SimilarityCompactionStrategy.family(last, planes, 2));
+        assertEquals(1, SimilarityCompactionStrategy.family(first, planes, 2));
+    }
+
+    @Test
+    public void testOtherPartitioner()
+    {
+        assertEquals(0, SimilarityCompactionStrategy.family(new Murmur3Partitioner.LongToken(42L), 8, 4));
+    }
+
+    @Test
+    public void testValidateOptions() throws ConfigurationException
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put(SimilarityCompactionStrategyOptions.PREFIX_BITS_KEY, "6");
+        options.put(SizeTieredCompactionStrategyOptions.BUCKET_LOW_KEY, "0.5");
+        options.put("bad_option", "1.0");
+        Map<String, String> unvalidated = SimilarityCompactionStrategy.validateOptions(options);
+        assertEquals(1, unvalidated.size());
+        assertTrue(unvalidated.containsKey("bad_option"));
+
+        for (String invalid : new String[]{ "-1", "17", "four" })
+        {
+            options.put(SimilarityCompactionStrategyOptions.PREFIX_BITS_KEY, invalid);
+            try
+            {
+                SimilarityCompactionStrategy.validateOptions(options);
+                fail(invalid + " should be rejected");
+            }
+            catch (ConfigurationException e)
+            {
+                // expected
+            }
+        }
+    }
+}
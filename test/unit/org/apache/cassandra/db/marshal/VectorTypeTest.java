@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.marshal;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.serializers.MarshalException;
+import org.apache.cassandra.serializers.VectorSerializer;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VectorTypeTest
+{
+    private static final VectorType floats = VectorType.getInstance(FloatType.instance, 3);
+    private static final VectorType doubles = VectorType.getInstance(DoubleType.instance, 3);
+
+    @Test
+    public void testRoundTrip()
+    {
+        double[] vector = { 1.5, -2, 0.25 };
+        for (VectorType type : new VectorType[]{ floats, doubles })
+        {
+            ByteBuffer bytes = type.decompose(vector);
+            assertEquals(type.getSerializer().serializedSize(), bytes.remaining());
+            assertArrayEquals(vector, type.compose(bytes), 0);
+            assertArrayEquals(vector, type.compose(type.fromString(type.getString(bytes))), 0);
+        }
+    }
+
+    @Test
+    public void testLittleEndianInPlace()
+    {
+        ByteBuffer bytes = ByteBuffer.allocate(13).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.put((byte) 0).putFloat(1.5f).putFloat(-2f).putFloat(0.25f);
+        bytes.position(1);
+
+        // the accessors read the packed layout whatever the byte order of the buffer
+        for (ByteBuffer view : new ByteBuffer[]{ bytes, bytes.duplicate() })
+        {
+            assertEquals(1.5, VectorSerializer.getFloat(view, 0), 0);
+            assertEquals(-2, floats.get(view, 1), 0);
+            assertEquals(0.25, floats.get(view, 2), 0);
+            assertEquals(1, view.position());
+        }
+    }
+
+    @Test
+    public void testValidate()
+    {
+        floats.validate(floats.fromString("1, 2, 3"));
+        floats.validate(ByteBuffer.allocate(0));
+        try
+        {
+            floats.validate(doubles.fromString("1, 2, 3"));
+            fail();
+        }
+        catch (MarshalException e)
+        {
+            // expected
+        }
+        try
+        {
+            floats.fromString("[1, 2]");
+            fail();
+        }
+        catch (MarshalException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCompare()
+    {
+        assertTrue(floats.compare(floats.fromString("1, 2, 3"), floats.fromString("1, 3, 0")) < 0);
+        assertTrue(floats.compare(floats.fromString("[2, 0, 0]"), floats.fromString("1, 3, 0")) > 0);
+        assertEquals(0, floats.compare(floats.fromString("1, 2, 3"), floats.fromString("[1,2,3]")));
+    }
+
+    @Test
+    public void testParse()
+    {
+        AbstractType<?> type = TypeParser.parse("org.apache.cassandra.db.marshal.VectorType(org.apache.cassandra.db.marshal.FloatType,3)");
+        assertSame(floats, type);
+        assertSame(floats, TypeParser.parse(floats.toString()));
+        assertSame(doubles, TypeParser.parse("VectorType(DoubleType,3)"));
+    }
+
+    @Test
+    public void testHashedInPlace()
+    {
+        // a packed key projects as the vector it holds
+        RandomHyperplaneHash hash = new RandomHyperplaneHash(new double[][]{ { 1, 0, 0 }, { 0, 1, 0 }, { 0, 0, -1 } });
+        double[] vector = { 1.5, -2, 0.25 };
+        for (VectorType type : new VectorType[]{ floats, doubles })
+        {
+            ByteBuffer key = type.decompose(vector);
+            assertArrayEquals(hash.hash(vector), hash.hash(key, type.getSerializer()));
+            assertArrayEquals(vector, RandomHyperplaneHash.vector(key, type.getSerializer()), 0);
+            assertEquals(0, RandomHyperplaneHash.cosineDistance(vector, key, type.getSerializer()), 1e-9);
+        }
+    }
+
+    @Test
+    public void testLayoutFromType()
+    {
+        RandomHyperplaneHash hash = new RandomHyperplaneHash(new double[][]{ { 1, 0, 0 }, { 0, 1, 0 }, { 0, 0, -1 } });
+
+        // a blob of the size of a packed vector is still read byte per byte, as any key of no vector type
+        ByteBuffer blob = floats.decompose(new double[]{ 1.5, -2, 0.25 });
+        assertArrayEquals(RandomHyperplaneHash.vector(blob), RandomHyperplaneHash.vector(blob, null), 0);
+        assertArrayEquals(hash.hash(blob), hash.hash(blob, null));
+
+        // a vector<float, 6> key has the size of a vector<double, 3> one, but is read as the six floats it holds
+        VectorType floats6 = VectorType.getInstance(FloatType.instance, 6);
+        double[] vector = { 1.5, -2, 0.25, 3, 4, 5 };
+        ByteBuffer key = floats6.decompose(vector);
+        assertEquals(doubles.getSerializer().serializedSize(), key.remaining());
+        assertArrayEquals(vector, RandomHyperplaneHash.vector(key, floats6.getSerializer()), 0);
+        assertArrayEquals(hash.hash(vector), hash.hash(key, floats6.getSerializer()));
+
+        // and the partitioners of the tables keyed by either type read their keys in their own layout
+        IPartitioner partitioner = SimilarityPartitioner.forKeyValidator(SimilarityPartitioner.instance, floats6);
+        assertSame(partitioner, SimilarityPartitioner.forKeyValidator(SimilarityPartitioner.instance, floats6));
+        assertSame(floats6.getSerializer(), ((SimilarityPartitioner) partitioner).getKeyLayout());
+        assertSame(SimilarityPartitioner.instance, SimilarityPartitioner.forKeyValidator(SimilarityPartitioner.instance, BytesType.instance));
+        assertSame(Murmur3Partitioner.instance, SimilarityPartitioner.forKeyValidator(Murmur3Partitioner.instance, floats6));
+
+        // their tokens are those of the global partitioner, and bound ranges along with ring tokens
+        Token token = partitioner.getToken(key);
+        assertSame(SimilarityPartitioner.instance, token.getPartitioner());
+        assertEquals(token, SimilarityPartitioner.instance.getTokenFactory().fromString(partitioner.getTokenFactory().toString(token)));
+        assertTrue(new Range<>(SimilarityPartitioner.instance.getMinimumToken(), token).contains(token));
+    }
+}
@@ -150,6 +150,11 @@ public abstract class PartitionerTestCase
             if (!tokens.contains(randomToken))
                 tokens.add(randomToken);
         }
+        assertOwnershipSumsToOne(tokens);
+    }
+
+    protected void assertOwnershipSumsToOne(List<Token> tokens)
+    {
         Collections.sort(tokens);
         Map<Token, Float> owns = partitioner.describeOwnership(tokens);
 
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.dht;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.locator.TokenMetadata;
+import org.apache.cassandra.net.MessagingService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SimilarityOccupancyTest
+{
+    private static final int PLANES = 8;
+
+    private static Token token(long rank)
+    {
+        return SimilarityPartitioner.BinaryToken.fromRank(new long[]{ rank });
+    }
+
+    /**
+     * @return a histogram of 2^PLANES cells holding one key per cell in [from, to)
+     */
+    private static SimilarityOccupancy.Histogram histogram(int from, int to)
+    {
+        double[] counts = new double[1 << PLANES];
+        for (int i = from; i < to; i++)
+            counts[i] = 1;
+        return new SimilarityOccupancy.Histogram(PLANES, counts);
+    }
+
+    @Test
+    public void testPosition()
+    {
+        assertEquals(0.0, SimilarityOccupancy.position(SimilarityPartitioner.MINIMUM, PLANES), 0.0);
+        assertEquals(0.25, SimilarityOccupancy.position(token(64), PLANES), 0.0);
+        assertEquals(token(64), SimilarityOccupancy.tokenAt(0.25, PLANES));
+        assertEquals(token(255), SimilarityOccupancy.tokenAt(0.999, PLANES));
+
+        // ranks wider than a word
+        Token wide = SimilarityPartitioner.BinaryToken.fromRank(new long[]{ 0L, 1L << 35 });
+        assertEquals(0.5, SimilarityOccupancy.position(wide, 100), 0.0);
+        assertEquals(wide, SimilarityOccupancy.tokenAt(0.5, 100));
+    }
+
+    @Test
+    public void testShare()
+    {
+        // all the keys in the first quarter of the ring
+        SimilarityOccupancy.Histogram histogram = histogram(0, 64);
+        assertEquals(64, histogram.total(), 0.0);
+        assertEquals(1.0, histogram.share(token(192), token(64)), 1e-9);
+        assertEquals(0.0, histogram.share(token(64), token(192)), 1e-9);
+        assertEquals(0.5, histogram.share(token(32), token(192)), 1e-9);
+        assertEquals(1.0, histogram.share(token(32), token(32)), 1e-9);
+
+        // without keys, ranges are weighted by their width
+        histogram = histogram(0, 0);
+        assertEquals(0.75, histogram.share(token(64), SimilarityPartitioner.MINIMUM), 1e-9);
+        assertEquals(0.5, histogram.share(token(64), token(192)), 1e-9);
+        assertEquals(0.5, histogram.share(token(192), token(64)), 1e-9);
+    }
+
+    @Test
+    public void testSplit()
+    {
+        // half of the keys of the range are before rank 96
+        assertEquals(token(96), histogram(64, 128).split(token(32), token(192)));
+        // the middle of an empty range, across the minimum token
+        assertEquals(token(16), histogram(0, 0).split(token(224), token(64)));
+        assertEquals(token(1), histogram(0, 0).split(token(192), token(64)));
+        // adjacent ranks
+        assertNull(histogram(0, 0).split(token(64), token(65)));
+    }
+
+    @Test
+    public void testBalancedTokens() throws Exception
+    {
+        InetAddress first = InetAddress.getByName("127.0.0.1");
+        InetAddress second = InetAddress.getByName("127.0.0.2");
+        TokenMetadata metadata = new TokenMetadata();
+        metadata.updateNormalToken(token(32), first);
+        metadata.updateNormalToken(token(192), second);
+
+        // without loads, the widest range is split
+        List<Token> tokens = SimilarityOccupancy.balancedTokens(metadata, Collections.<InetAddress, Double>emptyMap(), histogram(0, 0), 1);
+        assertEquals(Collections.singletonList(token(112)), tokens);
+
+        // the first endpoint is the most loaded one
+        Map<InetAddress, Double> loads = new HashMap<>();
+        loads.put(first, 1000.0);
+        loads.put(second, 100.0);
+        tokens = SimilarityOccupancy.balancedTokens(metadata, loads, histogram(0, 0), 3);
+        assertEquals(3, tokens.size());
+        for (Token token : tokens)
+            assertTrue(new Range<>(token(192), token(32)).contains(token));
+    }
+
+    @Test
+    public void testMerge()
+    {
+        // the coarsest histogram sets the cells of the sum, histograms of other planes are ignored
+        SimilarityOccupancy.Histogram coarse = histogram(0, 128).coarsen(4);
+        assertEquals(4, coarse.cells());
+        assertEquals(128, coarse.total(), 0.0);
+        SimilarityOccupancy.Histogram other = new SimilarityOccupancy.Histogram(PLANES + 1, new double[]{ 1000, 1000 });
+
+        SimilarityOccupancy.Histogram merged = SimilarityOccupancy.merge(PLANES, Arrays.asList(histogram(64, 256), coarse, other));
+        assertEquals(4, merged.cells());
+        assertEquals(320, merged.total(), 0.0);
+        assertEquals(64, merged.count(SimilarityPartitioner.MINIMUM, token(64)), 0.0);
+        assertEquals(128, merged.count(token(64), token(128)), 0.0);
+        assertEquals(token(112), merged.split(token(64), token(192)));
+
+        assertNull(SimilarityOccupancy.merge(PLANES, Collections.singletonList(other)));
+        assertNull(SimilarityOccupancy.merge(PLANES, Collections.<SimilarityOccupancy.Histogram>emptyList()));
+    }
+
+    @Test
+    public void testSerialization() throws IOException
+    {
+        SimilarityOccupancy.Histogram histogram = histogram(32, 96);
+        DataOutputBuffer out = new DataOutputBuffer();
+        SimilarityOccupancy.Histogram.serializer.serialize(histogram, out, MessagingService.current_version);
+        assertEquals(SimilarityOccupancy.Histogram.serializer.serializedSize(histogram, MessagingService.current_version), out.getLength());
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.getData(), 0, out.getLength());
+        SimilarityOccupancy.Histogram deserialized = SimilarityOccupancy.Histogram.serializer.deserialize(new DataInputStream(in), MessagingService.current_version);
+        assertEquals(histogram.planes, deserialized.planes);
+        assertEquals(histogram.cells(), deserialized.cells());
+        assertEquals(histogram.count(token(16), token(64)), deserialized.count(token(16), token(64)), 0.0);
+    }
+}
@@ -1,15 +1,22 @@
 package org.apache.cassandra.dht;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import org.apache.cassandra.db.BufferDecoratedKey;
+import org.apache.cassandra.db.RowPosition;
 import org.apache.cassandra.db.marshal.BinaryType;
 import org.apache.cassandra.utils.ObjectSizes;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -44,15 +51,17 @@ public class SimilarityPartitionerInitialTest
 
     private void initKeyHash()
     {
+        // the key is not in the composite layout, so the hyperplanes of the test configuration read its first bytes,
+        // 64, 36, 0 and 0, as its components
         keyHash = new BitSet(8);
-        keyHash.set(7, true);
-        keyHash.set(6, false);
-        keyHash.set(5, true);
-        keyHash.set(4, false);
-        keyHash.set(3, true);
+        keyHash.set(7, false);
+        keyHash.set(6, true);
+        keyHash.set(5, false);
+        keyHash.set(4, true);
+        keyHash.set(3, false);
         keyHash.set(2, true);
         keyHash.set(1, true);
-        keyHash.set(0, false);
+        keyHash.set(0, true);
     }
 
     @Test
@@ -64,7 +73,42 @@ public class SimilarityPartitionerInitialTest
     @Test
     public void testMidpoint() throws Exception
     {
+        // the whole ring, from the minimum token
+        assertArrayEquals(new long[]{ 128 }, SimilarityPartitioner.midpoint(new long[0], new long[0], 8));
+        assertArrayEquals(new long[]{ 128 }, SimilarityPartitioner.midpoint(new long[]{ 64 }, new long[]{ 192 }, 8));
+        // wrapping around the minimum token
+        assertArrayEquals(new long[0], SimilarityPartitioner.midpoint(new long[]{ 192 }, new long[]{ 64 }, 8));
+        assertArrayEquals(new long[]{ 224 }, SimilarityPartitioner.midpoint(new long[]{ 192 }, new long[]{ 0 }, 8));
+        // adjacent ranks cannot be split
+        assertArrayEquals(new long[]{ 64 }, SimilarityPartitioner.midpoint(new long[]{ 64 }, new long[]{ 65 }, 8));
+        // across words
+        assertArrayEquals(new long[]{ 0L, 1L }, SimilarityPartitioner.midpoint(new long[]{ -1L }, new long[]{ 1L, 1L }, 65));
+        assertArrayEquals(new long[]{ 1L << 63 }, SimilarityPartitioner.midpoint(new long[0], new long[0], 64));
+
+        Token left = SimilarityPartitioner.BinaryToken.fromRank(new long[]{ 5 });
+        Token right = SimilarityPartitioner.BinaryToken.fromRank(new long[]{ 1000 });
+        Token midpoint = partitioner.midpoint(left, right);
+        assertTrue(new Range<>(left, right).contains(midpoint));
+        assertTrue(new Range<>(right, left).contains(partitioner.midpoint(right, left)));
+    }
 
+    @Test
+    public void testSize() throws Exception
+    {
+        assertEquals(0.5, SimilarityPartitioner.size(new long[]{ 64 }, new long[]{ 192 }, 8), 0.0);
+        assertEquals(0.5, SimilarityPartitioner.size(new long[]{ 192 }, new long[]{ 64 }, 8), 0.0);
+        assertEquals(1.0, SimilarityPartitioner.size(new long[]{ 7 }, new long[]{ 7 }, 8), 0.0);
+        assertEquals(0.25, SimilarityPartitioner.size(new long[0], new long[]{ 0L, 1L << 34 }, 100), 0.0);
+
+        assertArrayEquals(new long[]{ 64 }, SimilarityPartitioner.rankAt(0.25, 8));
+        assertArrayEquals(new long[]{ 0L, 1L << 34 }, SimilarityPartitioner.rankAt(0.25, 100));
+
+        SimilarityPartitioner similarity = (SimilarityPartitioner) partitioner;
+        Token left = SimilarityPartitioner.BinaryToken.fromRank(new long[]{ 100 });
+        Token right = SimilarityPartitioner.BinaryToken.fromRank(new long[]{ 300 });
+        assertEquals(SimilarityPartitioner.BinaryToken.fromRank(new long[]{ 150 }), similarity.split(left, right, 0.25));
+        assertEquals(similarity.midpoint(left, right), similarity.split(left, right, 0.5));
+        assertEquals(similarity.size(left, right) + similarity.size(right, left), 1.0, 1e-12);
     }
 
     @Test
@@ -90,11 +134,11 @@ public class SimilarityPartitionerInitialTest
         assertEquals(partitioner, token.getPartitioner());
         // getHeapSize
         assertEquals(ObjectSizes.measure(new SimilarityPartitioner.BinaryToken(new BitSet())) +
-                     ObjectSizes.sizeOfArray(keyHash.toByteArray()), token.getHeapSize());
+                     ObjectSizes.sizeOfArray(keyHash.toLongArray()), token.getHeapSize());
         // getTokenValue
         assertEquals(keyHash, token.getTokenValue());
         // toString
-        assertEquals("10101110", token.toString());
+        assertEquals("00000000000000000000000001010111", token.toString());
     }
 
     @Test
@@ -117,12 +161,12 @@ public class SimilarityPartitionerInitialTest
         // fromByteArray
         assertEquals(partitioner.getToken(key).getTokenValue(), factory.fromByteArray(ByteBuffer.wrap(keyHash.toByteArray())).getTokenValue());
         // toString
-        assertEquals("10101110", factory.toString(token));
+        assertEquals("00000000000000000000000001010111", factory.toString(token));
         // validate
         // TODO test validate correctly, after changing the implementation
         factory.validate(token.toString());
         // fromString
-        assertEquals(0, token.compareTo(factory.fromString("10101110")));
+        assertEquals(0, token.compareTo(factory.fromString("00000000000000000000000001010111")));
     }
 
     @Test
@@ -137,6 +181,30 @@ public class SimilarityPartitionerInitialTest
 
     }
 
+    @Test
+    public void testGetKeyBounds() throws Exception
+    {
+        SimilarityPartitioner similarity = SimilarityPartitioner.instance;
+        // Gray codes 0, 1 and 11 have the consecutive ranks 0, 1 and 2, Gray code 110 has rank 4
+        List<AbstractBounds<RowPosition>> bounds = similarity.getKeyBounds(Arrays.asList(new long[]{ 6L },
+                                                                                           new long[]{ 1L },
+                                                                                           new long[]{ 0L },
+                                                                                           new long[]{ 3L }));
+        assertEquals(2, bounds.size());
+        assertEquals(Range.makeRowRange(similarity.getMinimumToken(), SimilarityPartitioner.BinaryToken.fromRank(new long[]{ 2L })),
+                     bounds.get(0));
+        assertEquals(Range.makeRowRange(SimilarityPartitioner.BinaryToken.fromRank(new long[]{ 3L }),
+                                        SimilarityPartitioner.BinaryToken.fromRank(new long[]{ 4L })),
+                     bounds.get(1));
+
+        // the minimum token alone must not turn into the whole ring
+        bounds = similarity.getKeyBounds(Collections.singletonList(new long[]{ 0L }));
+        assertEquals(1, bounds.size());
+        ByteBuffer empty = ByteBuffer.wrap(new byte[]{});
+        assertTrue(bounds.get(0).contains(new BufferDecoratedKey(similarity.getMinimumToken(), empty)));
+        assertFalse(bounds.get(0).contains(new BufferDecoratedKey(SimilarityPartitioner.BinaryToken.fromRank(new long[]{ 2L }), empty)));
+    }
+
     @Test
     public void testGetTokenValidator() throws Exception
     {
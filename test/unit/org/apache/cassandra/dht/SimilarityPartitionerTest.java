@@ -1,7 +1,23 @@
 package org.apache.cassandra.dht;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.apache.cassandra.service.StorageService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 public class SimilarityPartitionerTest extends PartitionerTestCase
 {
+    private static final int PLANES = 8;
+
     public void initPartitioner()
     {
         partitioner = SimilarityPartitioner.instance;
@@ -21,4 +37,118 @@ public class SimilarityPartitionerTest extends PartitionerTestCase
     {
 //        super.testMidpointWrapping();
     }
-}
\ No newline at end of file
+
+    private static Token token(long rank)
+    {
+        return new SimilarityPartitioner.BinaryToken(new long[]{ rank ^ (rank >>> 1) }, 1);
+    }
+
+    /**
+     * The 8 hyperplanes of the test configuration cut its 4 dimensional key space into at most 128 regions, too few
+     * for the 256 distinct random tokens of the shared test, so the ring is cut at evenly spaced ranks instead.
+     */
+    @Test
+    @Override
+    public void testDescribeOwnership()
+    {
+        StorageService.getPartitioner();
+
+        try
+        {
+            partitioner.describeOwnership(Collections.<Token>emptyList());
+            fail();
+        }
+        catch (RuntimeException e)
+        {
+            // success
+        }
+        for (int count : new int[]{ 1, 2, 1 << PLANES })
+        {
+            List<Token> tokens = new ArrayList<>();
+            for (long rank = 0; rank < count; rank++)
+                tokens.add(token(rank * ((1 << PLANES) / count)));
+            assertOwnershipSumsToOne(tokens);
+        }
+    }
+
+    @Test
+    public void testAlignedRanges()
+    {
+        for (int bits = 0; bits <= PLANES; bits++)
+        {
+            int block = 1 << (PLANES - bits);
+            for (long left = 0; left < 1 << PLANES; left += 11)
+            {
+                for (long right = 0; right < 1 << PLANES; right += 13)
+                {
+                    Range<Token> range = new Range<>(token(left), token(right));
+                    List<Range<Token>> pieces = SimilarityPartitioner.alignedRanges(token(left), token(right), PLANES, bits);
+                    for (Range<Token> piece : pieces)
+                        assertFalse(piece.isWrapAround());
+
+                    // every rank of the range is in exactly one piece, all the ranks of a piece in the same block
+                    long[] blocks = new long[pieces.size()];
+                    Arrays.fill(blocks, -1);
+                    for (long rank = 1; rank < 1 << PLANES; rank++)
+                    {
+                        int count = 0;
+                        for (int i = 0; i < pieces.size(); i++)
+                        {
+                            if (!pieces.get(i).contains(token(rank)))
+                                continue;
+                            count++;
+                            assertTrue(blocks[i] < 0 || blocks[i] == rank / block);
+                            blocks[i] = rank / block;
+                        }
+                        assertEquals(String.format("%d in (%d, %d] with %d bits", rank, left, right, bits),
+                                     range.contains(token(rank)) ? 1 : 0, count);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAlignedRangesOfTheWholeRing()
+    {
+        List<Range<Token>> pieces = SimilarityPartitioner.alignedRanges(token(100), token(100), PLANES, 2);
+        assertEquals(5, pieces.size());
+        assertTrue(pieces.get(0).contains(token(101)));
+        assertTrue(pieces.get(4).contains(token(100)));
+    }
+
+    private static boolean contains(List<Range<Token>> ranges, Token token)
+    {
+        for (Range<Token> range : ranges)
+        {
+            if (range.contains(token))
+                return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void testHammingNeighbours()
+    {
+        for (int bit = 0; bit < PLANES; bit++)
+        {
+            for (long left = 0; left < 1 << PLANES; left += 7)
+            {
+                for (long right = left + 1; right < 1 << PLANES; right += 5)
+                {
+                    List<Range<Token>> neighbours = SimilarityPartitioner.hammingNeighbours(token(left), token(right), bit, PLANES);
+                    boolean sameBlock = (left + 1) >>> (bit + 1) == right >>> (bit + 1);
+                    for (long rank = left + 1; rank <= right; rank++)
+                    {
+                        // the neighbours of the ends of the range are always covered, the others within a block
+                        if (!sameBlock && rank != left + 1 && rank != right)
+                            continue;
+                        long neighbour = rank ^ ((1L << (bit + 1)) - 1);
+                        assertTrue(String.format("bit %d of %d in (%d, %d]", bit, rank, left, right),
+                                   neighbour == 0 || contains(neighbours, token(neighbour)));
+                    }
+                }
+            }
+        }
+    }
+}
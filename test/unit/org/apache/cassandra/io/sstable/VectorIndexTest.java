@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.sstable;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import org.apache.cassandra.db.BufferDecoratedKey;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.marshal.FloatType;
+import org.apache.cassandra.db.marshal.VectorType;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VectorIndexTest
+{
+    private static final int DIMENSION = 8;
+    private static final VectorType type = VectorType.getInstance(FloatType.instance, DIMENSION);
+
+    private final Random random = new Random(42);
+    private final RandomHyperplaneHash hash = new RandomHyperplaneHash(gaussians(4));
+
+    private double[][] gaussians(int count)
+    {
+        double[][] vectors = new double[count][DIMENSION];
+        for (double[] vector : vectors)
+            for (int j = 0; j < DIMENSION; j++)
+                vector[j] = random.nextGaussian();
+        return vectors;
+    }
+
+    /**
+     * @return the keys of the vectors, in token order
+     */
+    private List<DecoratedKey> keys(double[][] vectors)
+    {
+        List<DecoratedKey> keys = new ArrayList<>();
+        for (double[] vector : vectors)
+        {
+            ByteBuffer key = type.decompose(vector);
+            keys.add(new BufferDecoratedKey(new SimilarityPartitioner.BinaryToken(hash.hash(key, type.getSerializer()), hash.words()), key));
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private Descriptor write(List<DecoratedKey> keys)
+    {
+        Descriptor descriptor = new Descriptor(Files.createTempDir(), "ks", "cf", 1, Descriptor.Type.FINAL);
+        try (VectorIndex.Writer writer = new VectorIndex.Writer(descriptor, hash, type.getSerializer(), null);
+             QuantizedVectors.Writer quantized = new QuantizedVectors.Writer(descriptor, DIMENSION, type.getSerializer()))
+        {
+            for (int i = 0; i < keys.size(); i++)
+            {
+                writer.append(keys.get(i), i);
+                quantized.append(keys.get(i));
+            }
+            writer.finish();
+            quantized.finish();
+        }
+        return descriptor;
+    }
+
+    private List<long[]> allBuckets()
+    {
+        List<long[]> probes = new ArrayList<>();
+        for (long signature = 0; signature < 1 << hash.planes(); signature++)
+            probes.add(new long[]{ signature });
+        return probes;
+    }
+
+    private long[] bruteForce(double[] query, List<DecoratedKey> keys, final long[] bucket, int limit)
+    {
+        final Map<Long, Double> distances = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++)
+        {
+            ByteBuffer key = keys.get(i).getKey();
+            if (bucket == null || Arrays.equals(bucket, hash.hash(key, type.getSerializer())))
+                distances.put((long) i, RandomHyperplaneHash.cosineDistance(query, type.compose(key)));
+        }
+        List<Long> positions = new ArrayList<>(distances.keySet());
+        Collections.sort(positions, new Comparator<Long>()
+        {
+            public int compare(Long p1, Long p2)
+            {
+                return Double.compare(distances.get(p1), distances.get(p2));
+            }
+        });
+
+        long[] nearest = new long[Math.min(limit, positions.size())];
+        for (int i = 0; i < nearest.length; i++)
+            nearest[i] = positions.get(i);
+        return nearest;
+    }
+
+    @Test
+    public void testSearch()
+    {
+        List<DecoratedKey> keys = keys(gaussians(500));
+        Descriptor descriptor = write(keys);
+        try (VectorIndex index = VectorIndex.open(descriptor, hash, false))
+        {
+            assertEquals(keys.size(), index.size());
+
+            double[] query = gaussians(1)[0];
+            assertArrayEquals(bruteForce(query, keys, null, 10), index.search(query, allBuckets(), 10));
+
+            // only the buckets probed are searched
+            long[] bucket = hash.hash(query).clone();
+            long[] nearest = index.search(query, Collections.singletonList(bucket), 500);
+            assertArrayEquals(bruteForce(query, keys, bucket, 500), nearest);
+            assertTrue(nearest.length > 0 && nearest.length < keys.size());
+        }
+    }
+
+    @Test
+    public void testQuantizedSearch()
+    {
+        List<DecoratedKey> keys = keys(gaussians(500));
+        Descriptor descriptor = write(keys);
+        try (VectorIndex index = VectorIndex.open(descriptor, hash, true))
+        {
+            // the nearest candidates by quantized vector hold the nearest partitions, ranked by their full vector
+            for (int i = 0; i < 20; i++)
+            {
+                double[] query = gaussians(1)[0];
+                assertArrayEquals(bruteForce(query, keys, null, 10), index.search(query, allBuckets(), 10, 50));
+            }
+
+            // with as many candidates as partitions to return, the ranking is only approximate
+            double[] query = gaussians(1)[0];
+            long[] exact = bruteForce(query, keys, null, 10);
+            long[] approximate = index.search(query, allBuckets(), 10, 10);
+            assertEquals(exact.length, approximate.length);
+            int found = 0;
+            for (long position : approximate)
+                for (long neighbour : exact)
+                    if (position == neighbour)
+                        found++;
+            assertTrue(found >= 8);
+        }
+    }
+
+    @Test
+    public void testQuantize()
+    {
+        byte[] codes = new byte[4];
+        QuantizedVectors.quantize(new double[]{ 0.5, -2.0, 1.0 }, codes);
+        assertArrayEquals(new byte[]{ 32, -127, 64, 0 }, codes);
+
+        QuantizedVectors.quantize(new double[]{ 0, 0, 0, 0 }, codes);
+        assertArrayEquals(new byte[4], codes);
+    }
+
+    @Test
+    public void testResetAndTruncate()
+    {
+        List<DecoratedKey> keys = keys(gaussians(200));
+        Descriptor descriptor = new Descriptor(Files.createTempDir(), "ks", "cf", 1, Descriptor.Type.FINAL);
+        try (VectorIndex.Writer writer = new VectorIndex.Writer(descriptor, hash, type.getSerializer(), null);
+             QuantizedVectors.Writer quantized = new QuantizedVectors.Writer(descriptor, DIMENSION, type.getSerializer()))
+        {
+            for (int i = 0; i < 100; i++)
+            {
+                writer.append(keys.get(i), i);
+                quantized.append(keys.get(i));
+            }
+            writer.mark();
+            quantized.mark();
+            for (int i = 100; i < 200; i++)
+            {
+                writer.append(keys.get(i), i);
+                quantized.append(keys.get(i));
+            }
+            writer.resetAndTruncate();
+            quantized.resetAndTruncate();
+            writer.finish();
+            quantized.finish();
+        }
+
+        try (VectorIndex index = VectorIndex.open(descriptor, hash, true))
+        {
+            assertEquals(100, index.size());
+            double[] query = gaussians(1)[0];
+            assertArrayEquals(bruteForce(query, keys.subList(0, 100), null, 100), index.search(query, allBuckets(), 200, 0));
+            assertArrayEquals(bruteForce(query, keys.subList(0, 100), null, 5), index.search(query, allBuckets(), 5, 20));
+        }
+    }
+
+    @Test
+    public void testOtherHyperplanes()
+    {
+        Descriptor descriptor = write(keys(gaussians(10)));
+        assertNull(VectorIndex.open(descriptor, new RandomHyperplaneHash(gaussians(5)), true));
+        assertTrue(new File(descriptor.filenameFor(Component.VECTORS)).exists());
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.sstable.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.format.SSTableFormat;
+import org.apache.cassandra.io.sstable.format.Version;
+import org.apache.cassandra.io.sstable.format.big.BigFormat;
+import org.apache.cassandra.io.util.ByteBufferDataInput;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SimilarityMetadataTest
+{
+    private static final int DIMENSION = 8;
+    private static final int PLANES = 16;
+
+    private static double[] randomVector(Random random)
+    {
+        double[] vector = new double[DIMENSION];
+        for (int j = 0; j < DIMENSION; j++)
+            vector[j] = random.nextGaussian();
+        return vector;
+    }
+
+    private static RandomHyperplaneHash randomHash(Random random)
+    {
+        double[][] planes = new double[PLANES][];
+        for (int i = 0; i < PLANES; i++)
+            planes[i] = randomVector(random);
+        return new RandomHyperplaneHash(planes);
+    }
+
+    @Test
+    public void testSerialization() throws IOException
+    {
+        Random random = new Random(42);
+        RandomHyperplaneHash hash = randomHash(random);
+        SimilarityMetadata.Builder builder = new SimilarityMetadata.Builder(DIMENSION, PLANES);
+        for (int i = 0; i < 100; i++)
+        {
+            double[] vector = randomVector(random);
+            builder.add(vector, hash.hash(vector).clone());
+        }
+        SimilarityMetadata metadata = builder.build();
+        assertEquals(100, metadata.count);
+
+        DataOutputBuffer out = new DataOutputBuffer();
+        SimilarityMetadata.serializer.serialize(metadata, out);
+        assertEquals(out.getLength(), SimilarityMetadata.serializer.serializedSize(metadata));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(metadata, SimilarityMetadata.serializer.deserialize(null, in));
+    }
+
+    @Test
+    public void testVersionGating() throws IOException
+    {
+        Random random = new Random(5);
+        RandomHyperplaneHash hash = randomHash(random);
+        SimilarityMetadata.Builder builder = new SimilarityMetadata.Builder(DIMENSION, PLANES);
+        double[] vector = randomVector(random);
+        builder.add(vector, hash.hash(vector).clone());
+        Map<MetadataType, MetadataComponent> components = new EnumMap<>(MetadataType.class);
+        components.put(MetadataType.SIMILARITY, builder.build());
+
+        Version older = BigFormat.instance.getVersion("la");
+        Version latest = BigFormat.instance.getLatestVersion();
+        assertFalse(older.hasSimilarityMetadata());
+        assertTrue(latest.hasSimilarityMetadata());
+
+        // the metadata is only written in, and read from, the versions that have room for it
+        for (Version version : new Version[]{ older, latest })
+        {
+            DataOutputBuffer out = new DataOutputBuffer();
+            new MetadataSerializer().serialize(components, out, version);
+            Descriptor descriptor = new Descriptor(version, new File("."), "ks", "cf", 1, Descriptor.Type.FINAL, SSTableFormat.Type.BIG);
+            try (ByteBufferDataInput in = new ByteBufferDataInput(ByteBuffer.wrap(out.toByteArray()), "Statistics.db", 0, 0))
+            {
+                MetadataComponent read = new MetadataSerializer().deserialize(descriptor, in, EnumSet.of(MetadataType.SIMILARITY)).get(MetadataType.SIMILARITY);
+                assertEquals(version.hasSimilarityMetadata() ? components.get(MetadataType.SIMILARITY) : null, read);
+            }
+        }
+    }
+
+    @Test
+    public void testMayContain()
+    {
+        Random random = new Random(7);
+        RandomHyperplaneHash hash = randomHash(random);
+        SimilarityMetadata.Builder builder = new SimilarityMetadata.Builder(DIMENSION, PLANES);
+        double[] vector = randomVector(random);
+        long[] signature = hash.hash(vector).clone();
+        builder.add(vector, signature);
+        SimilarityMetadata metadata = builder.build();
+
+        assertTrue(metadata.mayContain(Collections.singletonList(signature)));
+
+        // the bucket with the opposite signature shares no prefix with it
+        long[] opposite = signature.clone();
+        opposite[0] ^= (1L << PLANES) - 1;
+        assertFalse(metadata.mayContain(Collections.singletonList(opposite)));
+    }
+
+    @Test
+    public void testMinDistanceIsLowerBound()
+    {
+        Random random = new Random(3);
+        RandomHyperplaneHash hash = randomHash(random);
+        SimilarityMetadata.Builder builder = new SimilarityMetadata.Builder(DIMENSION, PLANES);
+        double[][] vectors = new double[50][];
+        for (int i = 0; i < vectors.length; i++)
+        {
+            vectors[i] = randomVector(random);
+            builder.add(vectors[i], hash.hash(vectors[i]).clone());
+        }
+        SimilarityMetadata metadata = builder.build();
+
+        for (int q = 0; q < 100; q++)
+        {
+            double[] query = randomVector(random);
+            double bound = metadata.minDistance(query);
+            for (double[] vector : vectors)
+                assertTrue(bound <= RandomHyperplaneHash.cosineDistance(query, vector) + 1e-9);
+        }
+
+        assertEquals(Double.POSITIVE_INFINITY, new SimilarityMetadata.Builder(DIMENSION, PLANES).build().minDistance(randomVector(random)), 0);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.metrics;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import org.apache.cassandra.db.BufferDecoratedKey;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.SimilarityPartitioner.BinaryToken;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SimilarityBucketMetricsTest
+{
+    // the Gray codes of the ranks 0 to 3, for two hyperplanes
+    private static final long[] GRAY = { 0, 1, 3, 2 };
+
+    private static DecoratedKey key(int rank, int i)
+    {
+        return new BufferDecoratedKey(new BinaryToken(new long[]{ GRAY[rank] }, 1), ByteBufferUtil.bytes(i));
+    }
+
+    @Test
+    public void testCells()
+    {
+        MetricNameFactory factory = new DefaultNameFactory("SimilarityBucketMetricsTest", "cells");
+        SimilarityBucketMetrics metrics = new SimilarityBucketMetrics(null, factory, 2);
+        try
+        {
+            for (int rank = 0; rank < 4; rank++)
+                assertEquals(rank, metrics.cell(key(rank, 0)));
+        }
+        finally
+        {
+            metrics.release(factory);
+        }
+    }
+
+    @Test
+    public void testWritesAndReads()
+    {
+        MetricNameFactory factory = new DefaultNameFactory("SimilarityBucketMetricsTest", "activity");
+        SimilarityBucketMetrics metrics = new SimilarityBucketMetrics(null, factory, 2);
+        try
+        {
+            // 100 distinct keys written twice to the cell 1, one key written 10 times to the cell 3
+            for (int round = 0; round < 2; round++)
+                for (int i = 0; i < 100; i++)
+                    metrics.markWrite(key(1, i));
+            for (int i = 0; i < 10; i++)
+                metrics.markWrite(key(3, 0));
+            for (int i = 0; i < 5; i++)
+                metrics.markRead(key(2, i));
+
+            assertArrayEquals(new long[]{ 0, 200, 0, 10 }, metrics.bucketWrites.getValue());
+            assertArrayEquals(new long[]{ 0, 0, 5, 0 }, metrics.bucketReads.getValue());
+
+            long[] cardinality = metrics.bucketCardinality.getValue();
+            assertEquals(0, cardinality[0]);
+            assertEquals(100, cardinality[1], 5);
+            assertEquals(0, cardinality[2]);
+            assertEquals(1, cardinality[3]);
+        }
+        finally
+        {
+            metrics.release(factory);
+        }
+    }
+
+    @Test
+    public void testConcurrentWriters() throws InterruptedException
+    {
+        MetricNameFactory factory = new DefaultNameFactory("SimilarityBucketMetricsTest", "concurrent");
+        final SimilarityBucketMetrics metrics = new SimilarityBucketMetrics(null, factory, 2);
+        try
+        {
+            // 4 threads write 100 keys of their own to each of the cells 1 and 2
+            Thread[] writers = new Thread[4];
+            for (int t = 0; t < writers.length; t++)
+            {
+                final int offset = 1000 * (t + 1);
+                writers[t] = new Thread()
+                {
+                    public void run()
+                    {
+                        for (int i = 0; i < 100; i++)
+                        {
+                            metrics.markWrite(key(1, offset + i));
+                            metrics.markWrite(key(2, offset + i));
+                        }
+                    }
+                };
+                writers[t].start();
+            }
+            for (Thread writer : writers)
+                writer.join();
+
+            assertArrayEquals(new long[]{ 0, 400, 400, 0 }, metrics.bucketWrites.getValue());
+            long[] cardinality = metrics.bucketCardinality.getValue();
+            assertEquals(400, cardinality[1], 20);
+            assertEquals(400, cardinality[2], 20);
+        }
+        finally
+        {
+            metrics.release(factory);
+        }
+    }
+
+    @Test
+    public void testCellsCapped()
+    {
+        MetricNameFactory factory = new DefaultNameFactory("SimilarityBucketMetricsTest", "capped");
+        SimilarityBucketMetrics metrics = new SimilarityBucketMetrics(null, factory, 16);
+        try
+        {
+            assertEquals(1 << SimilarityBucketMetrics.MAX_BITS, metrics.bucketWrites.getValue().length);
+            // the rank 0xFFFF, Gray code 0x8000, is in the last cell
+            metrics.markWrite(new BufferDecoratedKey(new BinaryToken(new long[]{ 0x8000 }, 1), ByteBuffer.allocate(0)));
+            assertEquals(1, metrics.bucketWrites.getValue()[(1 << SimilarityBucketMetrics.MAX_BITS) - 1]);
+        }
+        finally
+        {
+            metrics.release(factory);
+        }
+    }
+}
@@ -35,6 +35,7 @@ import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.locator.SimpleStrategy;
 
 import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.Util;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.filter.ColumnSlice;
 import org.apache.cassandra.db.filter.SliceQueryFilter;
@@ -71,7 +72,7 @@ public class ResponseResolverTest extends SchemaLoader
         cf.addColumn(column("c1", "v1", 0));
         Row row = new Row(key, cf);
 
-        testReadResponses(new RowDigestResolver(KEYSPACE, key, MAX_RESPONSE_COUNT), row, makeReadResponse("127.0.0.1", row));
+        testReadResponses(new RowDigestResolver(KEYSPACE, Util.dk(key), MAX_RESPONSE_COUNT), row, makeReadResponse("127.0.0.1", row));
     }
 
     @Test
@@ -82,7 +83,7 @@ public class ResponseResolverTest extends SchemaLoader
         cf.addColumn(column("c1", "v1", 0));
         Row row = new Row(key, cf);
 
-        testReadResponses(new RowDigestResolver(KEYSPACE, key, MAX_RESPONSE_COUNT),
+        testReadResponses(new RowDigestResolver(KEYSPACE, Util.dk(key), MAX_RESPONSE_COUNT),
                           row,
                           makeReadResponse("127.0.0.1", row),
                           makeReadResponse("127.0.0.2", row),
@@ -101,7 +102,7 @@ public class ResponseResolverTest extends SchemaLoader
         cf2.addColumn(column("c1", "v2", 1));
         Row row2 = new Row(key, cf2);
 
-        testReadResponses(new RowDigestResolver(KEYSPACE, key, MAX_RESPONSE_COUNT),
+        testReadResponses(new RowDigestResolver(KEYSPACE, Util.dk(key), MAX_RESPONSE_COUNT),
                           row1,
                           makeReadResponse("127.0.0.1", row1),
                           makeReadResponse("127.0.0.2", row2),
@@ -116,7 +117,7 @@ public class ResponseResolverTest extends SchemaLoader
         cf.addColumn(column("c1", "v1", 0));
         Row row = new Row(key, cf);
 
-        testReadResponsesMT(new RowDigestResolver(KEYSPACE, key, MAX_RESPONSE_COUNT),
+        testReadResponsesMT(new RowDigestResolver(KEYSPACE, Util.dk(key), MAX_RESPONSE_COUNT),
                             row,
                             makeReadResponse("127.0.0.1", row),
                             makeReadResponse("127.0.0.2", row),
@@ -132,7 +133,7 @@ public class ResponseResolverTest extends SchemaLoader
         Row row = new Row(key, cf);
 
         testReadResponses(new RowDataResolver(KEYSPACE,
-                                              key,
+                                              Util.dk(key),
                                               new SliceQueryFilter(ColumnSlice.ALL_COLUMNS_ARRAY, false, 10),
                                               System.currentTimeMillis(),
                                               MAX_RESPONSE_COUNT),
@@ -149,7 +150,7 @@ public class ResponseResolverTest extends SchemaLoader
         Row row = new Row(key, cf);
 
         testReadResponses(new RowDataResolver(KEYSPACE,
-                                              key,
+                                              Util.dk(key),
                                               new SliceQueryFilter(ColumnSlice.ALL_COLUMNS_ARRAY, false, 10),
                                               System.currentTimeMillis(),
                                               MAX_RESPONSE_COUNT),
@@ -168,7 +169,7 @@ public class ResponseResolverTest extends SchemaLoader
         Row row = new Row(key, cf);
 
         testReadResponsesMT(new RowDataResolver(KEYSPACE,
-                                                key,
+                                                Util.dk(key),
                                                 new SliceQueryFilter(ColumnSlice.ALL_COLUMNS_ARRAY, false, 10),
                                                 System.currentTimeMillis(),
                                                 MAX_RESPONSE_COUNT),
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.service;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.ArrayBackedSortedColumns;
+import org.apache.cassandra.db.BufferCell;
+import org.apache.cassandra.db.BufferDecoratedKey;
+import org.apache.cassandra.db.BufferDeletedCell;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.Row;
+import org.apache.cassandra.db.composites.CellName;
+import org.apache.cassandra.db.composites.CellNames;
+import org.apache.cassandra.db.marshal.BytesType;
+import org.apache.cassandra.dht.SimilarityPartitioner;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.MultiProbePlanner;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
+
+import static org.junit.Assert.assertEquals;
+
+public class SimilarityBatchTest
+{
+    private static final RandomHyperplaneHash hash = new RandomHyperplaneHash(new double[][]{ { 1, 0 }, { 0, 1 } });
+    private static final MultiProbePlanner planner = new MultiProbePlanner(hash, 0.5);
+    private static final CFMetaData cfm = CFMetaData.denseCFMetaData("ks", "cf", BytesType.instance);
+    private static final CellName name = CellNames.simpleDense(ByteBufferUtil.bytes("c"));
+    private static final long now = 1000;
+
+    @Test
+    public void testSharedBucketsAreScannedOnce()
+    {
+        // both queries are in the same quadrant, and probe the same buckets
+        SimilarityBatch batch = batch(2, vector(3, -1), vector(1, -3));
+        assertEquals(1, batch.ranges());
+
+        // the opposite quadrant is not adjacent in Gray order
+        batch = batch(1, vector(3, -1), vector(-3, 1));
+        assertEquals(2, batch.ranges());
+    }
+
+    @Test
+    public void testNearestFirst()
+    {
+        SimilarityBatch batch = batch(1, vector(3, -1), vector(1, -3));
+        List<Row> rows = Arrays.asList(live(vector(1, -4)),
+                                       live(vector(4, -1)),
+                                       live(vector(2, -2)),
+                                       live(vector(3, -1)));
+
+        List<List<ByteBuffer>> neighbours = batch.getNeighbours(rows, 2, now);
+        assertEquals(Arrays.asList(vector(3, -1), vector(4, -1)), neighbours.get(0));
+        assertEquals(Arrays.asList(vector(1, -4), vector(2, -2)), neighbours.get(1));
+    }
+
+    @Test
+    public void testSkipsDeadAndUnprobedPartitions()
+    {
+        SimilarityBatch batch = batch(1, vector(3, -1));
+        List<Row> rows = Arrays.asList(deleted(vector(3, -1)),
+                                       new Row(key(vector(4, -1)), null),
+                                       live(vector(-3, 1)),
+                                       live(vector(1, -3)));
+
+        assertEquals(Collections.singletonList(Collections.singletonList(vector(1, -3))), batch.getNeighbours(rows, 10, now));
+        assertEquals(Collections.singletonList(Collections.<ByteBuffer>emptyList()), batch.getNeighbours(rows, 0, now));
+    }
+
+    private static SimilarityBatch batch(int budget, ByteBuffer... queries)
+    {
+        List<MultiProbePlanner.Plan> plans = new ArrayList<>();
+        for (ByteBuffer query : queries)
+            plans.add(planner.plan(query, budget, 1.0));
+        return new SimilarityBatch("ks", "cf", null, Arrays.asList(queries), plans);
+    }
+
+    private static ByteBuffer vector(int x, int y)
+    {
+        return ByteBuffer.wrap(new byte[]{ (byte) x, (byte) y });
+    }
+
+    private static BufferDecoratedKey key(ByteBuffer vector)
+    {
+        long[] signature = hash.hash(vector).clone();
+        return new BufferDecoratedKey(new SimilarityPartitioner.BinaryToken(signature, signature.length), vector);
+    }
+
+    private static Row live(ByteBuffer vector)
+    {
+        ColumnFamily cf = ArrayBackedSortedColumns.factory.create(cfm);
+        cf.addColumn(new BufferCell(name, ByteBufferUtil.bytes("v"), 1));
+        return new Row(key(vector), cf);
+    }
+
+    private static Row deleted(ByteBuffer vector)
+    {
+        ColumnFamily cf = ArrayBackedSortedColumns.factory.create(cfm);
+        cf.addColumn(new BufferDeletedCell(name, 1, (int) (now / 1000)));
+        return new Row(key(vector), cf);
+    }
+}
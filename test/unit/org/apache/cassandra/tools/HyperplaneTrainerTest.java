@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.tools;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import org.apache.cassandra.dht.Token;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HyperplaneTrainerTest
+{
+    /**
+     * A cluster far from the origin, stretched along its first axes.
+     */
+    private static double[][] clusteredSample(Random random)
+    {
+        double[][] sample = new double[4000][8];
+        for (double[] vector : sample)
+        {
+            for (int j = 0; j < vector.length; j++)
+                vector[j] = 10 + random.nextGaussian() * (8 - j);
+        }
+        return sample;
+    }
+
+    @Test
+    public void testPrincipalDirectionsBalanceClusteredKeys()
+    {
+        Random random = new Random(1);
+        double[][] sample = clusteredSample(random);
+        List<Token> nodes = HyperplaneTrainer.evenTokens(8, 6);
+
+        // hyperplanes along arbitrary directions leave the whole cluster on a few buckets
+        double[][] arbitrary = new double[6][8];
+        for (double[] vector : arbitrary)
+        {
+            for (int j = 0; j < vector.length; j++)
+                vector[j] = random.nextGaussian();
+        }
+        HyperplaneTrainer.Hyperplanes origin = new HyperplaneTrainer.Hyperplanes(arbitrary, null);
+        HyperplaneTrainer.Report before = new HyperplaneTrainer.Report(origin.hash(), sample, nodes);
+
+        HyperplaneTrainer.Hyperplanes trained = HyperplaneTrainer.fitPrincipalDirections(sample, 6, random);
+        assertNull(trained.offsets);
+        HyperplaneTrainer.Report after = new HyperplaneTrainer.Report(trained.hash(), sample, nodes);
+
+        for (double share : after.positiveShare())
+            assertEquals(0.5, share, 0.01);
+        assertTrue(after.effectiveBuckets() > 2 * before.effectiveBuckets());
+        assertTrue(after.effectiveBuckets() > 32);
+        assertTrue(after.nodeSkew() < 1.2);
+        assertTrue(before.nodeSkew() > 2);
+    }
+
+    @Test
+    public void testRandomDirectionsSplitInHalves()
+    {
+        Random random = new Random(2);
+        double[][] sample = clusteredSample(random);
+        HyperplaneTrainer.Hyperplanes trained = HyperplaneTrainer.fitRandomDirections(sample, 10, random);
+        assertNull(trained.offsets);
+        for (double share : new HyperplaneTrainer.Report(trained.hash(), sample, HyperplaneTrainer.evenTokens(0, 10)).positiveShare())
+            assertEquals(0.5, share, 0.01);
+    }
+
+    @Test
+    public void testEvenTokens()
+    {
+        // with 4 nodes over 2 bit signatures, each node owns exactly one bucket
+        double[][] sample = { { 1, 1 }, { -1, 1 }, { -1, -1 }, { 1, -1 } };
+        HyperplaneTrainer.Hyperplanes axes = new HyperplaneTrainer.Hyperplanes(new double[][]{ { 1, 0 }, { 0, 1 } }, null);
+        HyperplaneTrainer.Report report = new HyperplaneTrainer.Report(axes.hash(), sample, HyperplaneTrainer.evenTokens(4, 2));
+        assertEquals(4.0, report.effectiveBuckets(), 1e-9);
+        assertEquals(1.0, report.nodeSkew(), 1e-9);
+    }
+
+    @Test
+    public void testParseVector()
+    {
+        assertArrayEquals(new double[]{ 1, -2.5, 3 }, HyperplaneTrainer.parseVector(" [1, -2.5,3]"), 0);
+        assertArrayEquals(new double[]{ 1, 2 }, HyperplaneTrainer.parseVector("1 2"), 0);
+        assertNull(HyperplaneTrainer.parseVector("# comment"));
+        assertNull(HyperplaneTrainer.parseVector("  "));
+    }
+}
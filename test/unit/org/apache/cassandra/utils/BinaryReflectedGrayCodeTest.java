@@ -29,9 +29,11 @@ public class BinaryReflectedGrayCodeTest
 {
     private BinaryReflectedGrayCode binaryReflectedGrayCode;
 
-    private static final BitSet MIN   = BitSet.valueOf(new long[]{-4611686018427387904L});
     private static final BitSet ZERO  = BitSet.valueOf(new long[]{0L});
-    private static final BitSet MAX   = BitSet.valueOf(new long[]{4611686018427387904L});
+    private static final BitSet ONE   = BitSet.valueOf(new long[]{1L});
+    private static final BitSet MID   = BitSet.valueOf(new long[]{4611686018427387904L});
+    private static final BitSet MAX   = BitSet.valueOf(new long[]{Long.MIN_VALUE});
+    private static final BitSet WIDE  = BitSet.valueOf(new long[]{0L, 1L});
 
     @Before
     public void init()
@@ -42,8 +44,22 @@ public class BinaryReflectedGrayCodeTest
     @Test
     public void testCompareTo() throws Exception
     {
-        assertEquals(-1, binaryReflectedGrayCode.compare(MIN, ZERO));
+        assertEquals(-1, binaryReflectedGrayCode.compare(ZERO, ONE));
         assertEquals(0, binaryReflectedGrayCode.compare(ZERO, ZERO));
-        assertEquals(1, binaryReflectedGrayCode.compare(MAX, ZERO));
+        assertEquals(1, binaryReflectedGrayCode.compare(MID, ZERO));
+        // 64-bit codes are unsigned: the highest Gray bit alone ranks last
+        assertEquals(1, binaryReflectedGrayCode.compare(MAX, MID));
+        assertEquals(-1, binaryReflectedGrayCode.compare(MAX, WIDE));
+    }
+
+    @Test
+    public void testCompareToBeyondSixtyFourBits() throws Exception
+    {
+        // codes that only differ above bit 63 used to be truncated to the same long
+        BitSet left = BitSet.valueOf(new long[]{ 5L, 2L });
+        BitSet right = BitSet.valueOf(new long[]{ 5L, 3L });
+        assertEquals(1, binaryReflectedGrayCode.compare(left, right));
+        assertEquals(-1, binaryReflectedGrayCode.compare(right, left));
+        assertEquals(0, binaryReflectedGrayCode.compare(left, (BitSet) left.clone()));
     }
 }
\ No newline at end of file
@@ -19,9 +19,11 @@
 package org.apache.cassandra.utils;
 
 import java.util.BitSet;
+import java.util.Random;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class BinaryReflectedGrayCodeUtilTest
@@ -70,4 +72,31 @@ public class BinaryReflectedGrayCodeUtilTest
         assertEquals(FIVE, BinaryReflectedGrayCodeUtil.grayToBinary(SEVEN));
         assertEquals(B_MAX, BinaryReflectedGrayCodeUtil.grayToBinary(MAX));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testWordsRoundTrip() throws Exception
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++)
+        {
+            long[] binary = new long[1 + random.nextInt(4)];
+            for (int j = 0; j < binary.length; j++)
+                binary[j] = random.nextLong();
+            if (binary[binary.length - 1] == 0L)
+                binary[binary.length - 1] = 1L;
+
+            long[] gray = BinaryReflectedGrayCodeUtil.binaryToGray(binary);
+            assertEquals(BitSet.valueOf(gray), BinaryReflectedGrayCodeUtil.binaryToGray(BitSet.valueOf(binary)));
+            assertArrayEquals(binary, BinaryReflectedGrayCodeUtil.grayToBinary(gray));
+        }
+    }
+
+    @Test
+    public void testCompareWords() throws Exception
+    {
+        assertEquals(0, BinaryReflectedGrayCodeUtil.compare(new long[0], new long[0]));
+        assertEquals(-1, BinaryReflectedGrayCodeUtil.compare(new long[]{ -1L }, new long[]{ 0L, 1L }));
+        assertEquals(1, BinaryReflectedGrayCodeUtil.compare(new long[]{ -1L }, new long[]{ Long.MAX_VALUE }));
+        assertEquals(-1, BinaryReflectedGrayCodeUtil.compare(new long[]{ 7L, 1L }, new long[]{ 6L, 2L }));
+    }
+}
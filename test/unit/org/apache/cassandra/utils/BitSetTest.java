@@ -27,10 +27,12 @@ import com.google.common.collect.Lists;
 
 import org.junit.Test;
 import org.junit.Assert;
+import org.apache.cassandra.db.TypeSizes;
 import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.utils.IFilter.FilterKey;
 import org.apache.cassandra.utils.KeyGenerator.RandomStringGenerator;
 import org.apache.cassandra.utils.obs.IBitSet;
+import org.apache.cassandra.utils.obs.LocalitySensitiveBitSet;
 import org.apache.cassandra.utils.obs.OffHeapBitSet;
 import org.apache.cassandra.utils.obs.OpenBitSet;
 
@@ -107,6 +109,40 @@ public class BitSetTest
             Assert.assertEquals(bs.get(i), newbs.get(i));
     }
 
+    @Test
+    public void testLocalitySensitiveSerialization() throws IOException
+    {
+        float[][] lshParamA = { { 0.5F, -1.5F }, { 2.0F, 0.25F } };
+        float[] lshParamB = { 1.0F, 3.0F };
+        LocalitySensitiveBitSet.Parameters parameters = new LocalitySensitiveBitSet.Parameters(lshParamA,
+                                                                                               lshParamB,
+                                                                                               SimilarityHashUtil.LEGACY_BUCKET_WIDTH,
+                                                                                               SimilarityHashUtil.LEGACY_RANDOM_INTS);
+        try (LocalitySensitiveBitSet bs = new LocalitySensitiveBitSet(1000, parameters, true))
+        {
+            for (long i = 0; i < bs.getBitsSize(); i++)
+                if (random.nextBoolean())
+                    bs.set(i);
+            assertEquals(bs.capacity() / 8, bs.offHeapSize());
+
+            DataOutputBuffer out = new DataOutputBuffer();
+            bs.serialize(out);
+            assertEquals(out.getLength(), bs.serializedSize(TypeSizes.NATIVE));
+
+            for (boolean offheap : new boolean[]{ true, false })
+            {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.getData()));
+                try (LocalitySensitiveBitSet newbs = LocalitySensitiveBitSet.deserialize(in, offheap))
+                {
+                    assertEquals(bs.getBitsSize(), newbs.getBitsSize());
+                    assertEquals(offheap ? bs.offHeapSize() : 0, newbs.offHeapSize());
+                    assertEquals(bs.getParameters(), newbs.getParameters());
+                    compare(bs, newbs);
+                }
+            }
+        }
+    }
+
     @Test
     public void testBitClear()
     {
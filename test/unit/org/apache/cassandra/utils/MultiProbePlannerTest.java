@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.utils;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MultiProbePlannerTest
+{
+    // the key (3, -1) is 3 away from the first hyperplane and 1 away from the second one
+    private static final RandomHyperplaneHash hash = new RandomHyperplaneHash(new double[][]{ { 1, 0 }, { 0, 1 } });
+    private static final ByteBuffer key = ByteBuffer.wrap(new byte[]{ 3, -1 });
+
+    @Test
+    public void testFlipsNearestHyperplaneFirst()
+    {
+        MultiProbePlanner.Plan plan = new MultiProbePlanner(hash, 0.5).plan(key, 4, 1.0);
+
+        assertEquals(4, plan.probes.size());
+        assertArrayEquals(new long[]{ 1L }, plan.probes.get(0));
+        assertArrayEquals(new long[]{ 3L }, plan.probes.get(1));
+        assertArrayEquals(new long[]{ 0L }, plan.probes.get(2));
+        assertArrayEquals(new long[]{ 2L }, plan.probes.get(3));
+
+        // all four buckets are adjacent in Gray order
+        assertEquals(1, plan.ranges());
+        assertEquals(1.0, plan.estimatedRecall(), 1e-9);
+        for (int i = 1; i < plan.probes.size(); i++)
+            assertTrue(plan.estimatedRecall(i) < plan.estimatedRecall(i + 1));
+    }
+
+    @Test
+    public void testBudget()
+    {
+        MultiProbePlanner.Plan plan = new MultiProbePlanner(hash, 0.5).plan(key, 2, 1.0);
+        assertEquals(2, plan.probes.size());
+        assertTrue(plan.estimatedRecall() < 1.0);
+
+        plan = new MultiProbePlanner(hash, 0.5).plan(key, 1, 1.0);
+        assertEquals(1, plan.probes.size());
+        assertArrayEquals(new long[]{ 1L }, plan.probes.get(0));
+    }
+
+    @Test
+    public void testTargetRecall()
+    {
+        Random random = new Random(42);
+        double[][] vectors = new double[32][8];
+        for (double[] vector : vectors)
+            for (int j = 0; j < vector.length; j++)
+                vector[j] = random.nextGaussian();
+        MultiProbePlanner planner = new MultiProbePlanner(new RandomHyperplaneHash(vectors), 0.2);
+
+        byte[] bytes = new byte[8];
+        random.nextBytes(bytes);
+        MultiProbePlanner.Plan plan = planner.plan(ByteBuffer.wrap(bytes), 1000, 0.9);
+        assertTrue(plan.estimatedRecall() >= 0.9);
+        assertTrue(plan.estimatedRecall(plan.probes.size() - 1) < 0.9);
+
+        // every bucket is planned once
+        Set<Long> probes = new HashSet<>();
+        for (long[] probe : plan.probes)
+            assertTrue(probes.add(probe[0]));
+    }
+}
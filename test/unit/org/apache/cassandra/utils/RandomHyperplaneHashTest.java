@@ -19,13 +19,17 @@
 package org.apache.cassandra.utils;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Random;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class RandomHyperplaneHashTest
 {
@@ -54,15 +58,16 @@ public class RandomHyperplaneHashTest
         }
         key.flip();
 
+        // the sides of the hyperplanes of the test configuration the first four components are on
         hash = new BitSet(8);
-        hash.set(7, true);
+        hash.set(7, false);
         hash.set(6, false);
         hash.set(5, true);
         hash.set(4, false);
-        hash.set(3, false);
-        hash.set(2, false);
-        hash.set(1, false);
-        hash.set(0, true);
+        hash.set(3, true);
+        hash.set(2, true);
+        hash.set(1, true);
+        hash.set(0, false);
     }
 
     @Test
@@ -78,4 +83,105 @@ public class RandomHyperplaneHashTest
         BitSet rhh = new RandomHyperplaneHash().rhh();
         assertNotNull(rhh);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testHashBatch() throws Exception
+    {
+        double[][] vectors = { { 1.0, 0.0 }, { 0.0, 1.0 }, { -1.0, -1.0 } };
+        RandomHyperplaneHash hash = new RandomHyperplaneHash(vectors);
+
+        ByteBuffer positive = ByteBuffer.wrap(new byte[]{ 3, 4 });
+        ByteBuffer negative = ByteBuffer.wrap(new byte[]{ -3, -4 });
+        long[] signatures = new long[2 * hash.words()];
+        hash.hash(Arrays.asList(positive, negative), null, signatures);
+
+        assertEquals(3L, signatures[0]);
+        assertEquals(4L, signatures[1]);
+        assertEquals(signatures[0], hash.hash(positive)[0]);
+        assertEquals(0, positive.position());
+    }
+
+    @Test
+    public void testCompositeKeysKeepTheirTokens() throws Exception
+    {
+        Random random = new Random(42);
+        double[][] vectors = new double[16][6];
+        for (double[] vector : vectors)
+            for (int j = 0; j < vector.length; j++)
+                vector[j] = random.nextGaussian();
+        RandomHyperplaneHash hash = new RandomHyperplaneHash(vectors);
+
+        int[] lengths = { 0, 1, 2, 3, 4, 8 };
+        for (int i = 0; i < 1000; i++)
+        {
+            int components = 1 + random.nextInt(6);
+            ByteBuffer key = ByteBuffer.allocate(components * 11);
+            for (int j = 0; j < components; j++)
+            {
+                byte[] value = new byte[lengths[random.nextInt(lengths.length)]];
+                random.nextBytes(value);
+                ByteBufferUtil.writeShortLength(key, value.length);
+                key.put(value);
+                key.put((byte) 0);
+            }
+            key.flip();
+
+            double[] vector = legacyVector(key);
+            assertEquals(hash.hash(vector)[0], hash.hash(key)[0]);
+            assertTrue(Arrays.equals(vector, RandomHyperplaneHash.vector(key)));
+        }
+    }
+
+    @Test
+    public void testNativeOrderedKeys() throws Exception
+    {
+        // the keys of off-heap memtables are read through buffers of the native byte order
+        ByteBuffer little = key.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        RandomHyperplaneHash hash = new RandomHyperplaneHash();
+        assertEquals(hash.hash(key)[0], hash.hash(little)[0]);
+        assertTrue(Arrays.equals(RandomHyperplaneHash.vector(key), RandomHyperplaneHash.vector(little)));
+        assertEquals(ByteOrder.LITTLE_ENDIAN, little.order());
+    }
+
+    /**
+     * The key parser keys were placed with before the hashing engine, which reads a component of any other length than
+     * 4 or 8 as one byte followed by the end-of-component byte.
+     */
+    private static double[] legacyVector(ByteBuffer key)
+    {
+        ByteBuffer bytes = key.duplicate();
+        try
+        {
+            int dimension = 0;
+            int position = 0;
+            while (bytes.hasRemaining())
+            {
+                position += 3 + ByteBufferUtil.readShortLength(bytes);
+                bytes.position(position);
+                dimension++;
+            }
+            bytes.rewind();
+
+            double[] vector = new double[dimension];
+            for (int i = 0; i < dimension; i++)
+            {
+                int length = ByteBufferUtil.readShortLength(bytes);
+                if (length == 4)
+                    vector[i] = bytes.getInt();
+                else if (length == 8)
+                    vector[i] = bytes.getDouble();
+                else
+                    vector[i] = bytes.get();
+                bytes.get();
+            }
+            return vector;
+        }
+        catch (RuntimeException e)
+        {
+            double[] vector = new double[key.remaining()];
+            for (int i = 0; i < vector.length; i++)
+                vector[i] = key.get(i);
+            return vector;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import org.apache.cassandra.db.SimilarityDecoratedKey;
+import org.apache.cassandra.dht.SimilarityPartitioner.BinaryToken;
+import org.apache.cassandra.io.util.BufferedDataOutputStreamPlus;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.io.util.DataOutputStreamPlus;
+import org.apache.cassandra.utils.obs.IBitSet;
+import org.apache.cassandra.utils.obs.LocalitySensitiveBitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SimilarityBloomFilterTest
+{
+    private static final SimilarityHashUtil.Specification specification = new SimilarityHashUtil.Specification(42, 4, 3, 4f, 32);
+
+    private static SimilarityBloomFilter newFilter()
+    {
+        return newFilter(1024, specification);
+    }
+
+    private static SimilarityBloomFilter newFilter(long numBits, SimilarityHashUtil.Specification specification)
+    {
+        IBitSet[] bitset = new IBitSet[specification.tables];
+        for (int i = 0; i < bitset.length; i++)
+            bitset[i] = new LocalitySensitiveBitSet(numBits, specification.parameters(i), false);
+        return new SimilarityBloomFilter(0, bitset, specification);
+    }
+
+    /**
+     * @return a filter with the a and b of {@code specification}, but the W and r of the legacy layout
+     */
+    private static SimilarityBloomFilter newLegacyFilter(long numBits, SimilarityHashUtil.Specification specification)
+    {
+        IBitSet[] bitset = new IBitSet[specification.tables];
+        for (int i = 0; i < bitset.length; i++)
+        {
+            LocalitySensitiveBitSet.Parameters parameters = new LocalitySensitiveBitSet.Parameters(specification.parameters(i).getLshParamA(),
+                                                                                                   specification.parameters(i).getLshParamB(),
+                                                                                                   SimilarityHashUtil.LEGACY_BUCKET_WIDTH,
+                                                                                                   SimilarityHashUtil.LEGACY_RANDOM_INTS);
+            bitset[i] = new LocalitySensitiveBitSet(numBits, parameters, false);
+        }
+        return new SimilarityBloomFilter(0, bitset, null);
+    }
+
+    private static SimilarityBloomFilter populate(SimilarityBloomFilter f)
+    {
+        for (long gray = 1; gray < 1 << 16; gray *= 3)
+            f.add(key(gray));
+        return f;
+    }
+
+    private static DataOutputBuffer serialize(SimilarityBloomFilter f) throws IOException
+    {
+        DataOutputBuffer out = new DataOutputBuffer();
+        SimilarityBloomFilter.serializer.serialize(f, out);
+        return out;
+    }
+
+    private static SimilarityBloomFilter deserialize(DataOutputBuffer out, boolean offheap) throws IOException
+    {
+        ByteArrayInputStream in = new ByteArrayInputStream(out.getData(), 0, out.getLength());
+        return SimilarityBloomFilter.serializer.deserialize(new DataInputStream(in), offheap);
+    }
+
+    private static void assertSameBits(SimilarityBloomFilter expected, SimilarityBloomFilter actual)
+    {
+        assertEquals(expected.bitset.length, actual.bitset.length);
+        for (int i = 0; i < expected.bitset.length; i++)
+        {
+            LocalitySensitiveBitSet e = (LocalitySensitiveBitSet) expected.bitset[i];
+            LocalitySensitiveBitSet a = (LocalitySensitiveBitSet) actual.bitset[i];
+            assertEquals(e.getBitsSize(), a.getBitsSize());
+            assertSame(e.getParameters(), a.getParameters());
+            for (long bit = 0; bit < e.getBitsSize(); bit++)
+                assertEquals(e.get(bit), a.get(bit));
+        }
+    }
+
+    private static SimilarityDecoratedKey key(long gray)
+    {
+        return new SimilarityDecoratedKey(new BinaryToken(new long[]{ gray }, 1), ByteBufferUtil.EMPTY_BYTE_BUFFER);
+    }
+
+    @Test
+    public void testBitsPerTable()
+    {
+        long uncapped = SimilarityBloomFilter.bitsPerTable(1000, 0.01, specification, Integer.MAX_VALUE);
+        assertTrue(uncapped > 8000);
+        assertTrue(SimilarityBloomFilter.falsePositiveChance(uncapped / 1000.0, specification) <= 0.01);
+
+        // the four tables share the 32 bits of each key
+        long capped = SimilarityBloomFilter.bitsPerTable(1000, 0.01, specification, 32);
+        assertEquals(8000, capped);
+        double fpChance = SimilarityBloomFilter.falsePositiveChance(capped / 1000.0, specification);
+        assertTrue(fpChance > 0.01 && fpChance < 0.2);
+
+        assertEquals(uncapped, SimilarityBloomFilter.bitsPerTable(1000, 0.01, specification, 4 * 32));
+    }
+
+    @Test
+    public void testSignatureReusedAcrossFilters() throws IOException
+    {
+        SimilarityBloomFilter f1 = newFilter();
+        f1.add(key(0xF0F0F0F0L));
+
+        DataOutputBuffer out = new DataOutputBuffer();
+        SimilarityBloomFilter.serializer.serialize(f1, out);
+        ByteArrayInputStream in = new ByteArrayInputStream(out.getData(), 0, out.getLength());
+        SimilarityBloomFilter f2 = SimilarityBloomFilter.serializer.deserialize(new DataInputStream(in), true);
+
+        SimilarityDecoratedKey key = key(0xF0F0F0F0L);
+        assertTrue(f1.isPresent(key));
+        SimilarityBloomFilter.Signature signature = key.getSignature();
+        assertNotNull(signature);
+
+        // the deserialized filter shares the parameters, hence the buckets of the key
+        assertTrue(f2.isPresent(key));
+        assertFalse(newFilter().isPresent(key));
+        assertSame(signature, key.getSignature());
+
+        f1.close();
+        f2.close();
+    }
+
+    @Test
+    public void testTokenWiderThanIdentifier()
+    {
+        SimilarityBloomFilter f = newFilter();
+        SimilarityDecoratedKey key = key(-1L);
+        f.add(key);
+        assertTrue(f.isPresent(key));
+        f.close();
+    }
+
+    @Test
+    public void testSerialization() throws IOException
+    {
+        // not a multiple of 64 bits, so that the last word is partial
+        SimilarityBloomFilter f = populate(newFilter(10000, specification));
+        DataOutputBuffer out = serialize(f);
+        assertEquals(f.serializedSize(), out.getLength());
+        assertEquals(0, (out.getLength() - 10000 / 64 * 8) % 8);
+
+        for (boolean offheap : new boolean[]{ false, true })
+        {
+            SimilarityBloomFilter f2 = deserialize(out, offheap);
+            assertSameBits(f, f2);
+            f2.close();
+        }
+        f.close();
+    }
+
+    @Test
+    public void testInlineParameters() throws IOException
+    {
+        SimilarityBloomFilter f = populate(newLegacyFilter(4096, specification));
+        DataOutputBuffer out = serialize(f);
+        assertEquals(f.serializedSize(), out.getLength());
+        assertEquals(0, (out.getLength() - 4096 / 8) % 8);
+
+        SimilarityBloomFilter f2 = deserialize(out, true);
+        assertSameBits(f, f2);
+        f.close();
+        f2.close();
+    }
+
+    @Test
+    public void testLoad() throws IOException
+    {
+        SimilarityBloomFilter f = populate(newFilter(10000, specification));
+        File file = File.createTempFile("similarity", "Filter.db");
+        file.deleteOnExit();
+        try (DataOutputStreamPlus out = new BufferedDataOutputStreamPlus(new FileOutputStream(file)))
+        {
+            SimilarityBloomFilter.serializer.serialize(f, out);
+        }
+
+        for (boolean offheap : new boolean[]{ false, true })
+        {
+            SimilarityBloomFilter f2 = SimilarityBloomFilter.serializer.load(file, offheap);
+            assertSameBits(f, f2);
+            f2.close();
+        }
+        f.close();
+    }
+
+    @Test
+    public void testOlderLayoutsRejected() throws IOException
+    {
+        // the filters of sstables older than version lb are rebuilt from the index rather than read
+        SimilarityBloomFilter f = populate(newLegacyFilter(1024, specification));
+        DataOutputBuffer out = new DataOutputBuffer();
+        out.writeInt(f.hashCount);
+        out.writeInt(f.bitset.length);
+        for (IBitSet bs : f.bitset)
+            bs.serialize(out);
+        f.close();
+
+        try
+        {
+            deserialize(out, true).close();
+            fail("a filter without the magic should not be read");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSeededParameters()
+    {
+        SimilarityHashUtil.Specification same = new SimilarityHashUtil.Specification(42, 4, 3, 4f, 32);
+        SimilarityHashUtil.Specification other = new SimilarityHashUtil.Specification(43, 4, 3, 4f, 32);
+        for (int i = 0; i < specification.tables; i++)
+        {
+            assertEquals(specification.parameters(i), same.parameters(i));
+            assertFalse(specification.parameters(i).equals(other.parameters(i)));
+        }
+    }
+
+    @Test
+    public void testWideSignatures() throws IOException
+    {
+        // 64 bit tokens are read in full by 64 wide parameters
+        SimilarityHashUtil.Specification wide = new SimilarityHashUtil.Specification(7, 2, 5, 2f, 64);
+        SimilarityBloomFilter f = newFilter(4096, wide);
+        SimilarityDecoratedKey key = key(0x8000000000000001L);
+        f.add(key);
+        assertTrue(f.isPresent(key));
+        assertEquals(2, f.bitset.length);
+        assertEquals(5, ((LocalitySensitiveBitSet) f.bitset[0]).getnFuncs());
+
+        DataOutputBuffer out = serialize(f);
+        assertEquals(f.serializedSize(), out.getLength());
+        SimilarityBloomFilter f2 = deserialize(out, true);
+        assertEquals(wide, f2.specification);
+        assertSameBits(f, f2);
+        assertTrue(f2.isPresent(key(0x8000000000000001L)));
+        f.close();
+        f2.close();
+    }
+}
@@ -224,6 +224,8 @@ public class StressMetrics
         output.println(String.format("latency 99th percentile   : %.1f %s", history.rankLatency(0.99f), opHistory.rankLatencies(0.99f)));
         output.println(String.format("latency 99.9th percentile : %.1f %s", history.rankLatency(0.999f), opHistory.rankLatencies(0.999f)));
         output.println(String.format("latency max               : %.1f %s", history.maxLatency(), opHistory.maxLatencies()));
+        if (history.recallCount > 0)
+            output.println(String.format("recall@k mean             : %.3f %s", history.meanRecall(), opHistory.recalls()));
         output.println(String.format("Total partitions          : %d %s",   history.partitionCount, opHistory.partitionCounts()));
         output.println(String.format("Total errors              : %d %s",   history.errorCount, opHistory.errorCounts()));
         output.println(String.format("total gc count            : %.0f", totalGcStats.count));
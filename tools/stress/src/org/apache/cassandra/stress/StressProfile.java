@@ -43,6 +43,7 @@ import org.apache.cassandra.stress.generate.*;
 import org.apache.cassandra.stress.generate.values.*;
 import org.apache.cassandra.stress.operations.userdefined.SchemaInsert;
 import org.apache.cassandra.stress.operations.userdefined.SchemaQuery;
+import org.apache.cassandra.stress.operations.userdefined.SchemaSimilarityQuery;
 import org.apache.cassandra.stress.operations.userdefined.ValidatingSchemaQuery;
 import org.apache.cassandra.stress.settings.*;
 import org.apache.cassandra.stress.util.JavaDriverClient;
@@ -67,6 +68,12 @@ public class StressProfile implements Serializable
     private Map<String, StressYaml.QueryDef> queries;
     private Map<String, String> insert;
 
+    // the partition key columns holding the components of the vectors, if the keys are vectors
+    private List<String> vectorColumns;
+    private int vectorClusters;
+    private double vectorSpread;
+    private double vectorRecall;
+
     transient volatile TableMetadata tableMetaData;
 
     transient volatile GeneratorFactory generatorFactory;
@@ -151,6 +158,30 @@ public class StressProfile implements Serializable
                 columnConfigs.put(name, config);
             }
         }
+
+        if (yaml.vector != null)
+        {
+            Map<String, Object> vector = new HashMap<>(yaml.vector);
+            lowerCase(vector);
+            Object columns = vector.remove("columns");
+            Object clusters = vector.remove("clusters");
+            Object spread = vector.remove("spread");
+            Object recall = vector.remove("recall");
+
+            // no columns means all of the partition key columns
+            vectorColumns = new ArrayList<>();
+            if (columns != null)
+                for (String column : columns.toString().split(","))
+                    vectorColumns.add(column.trim());
+            vectorClusters = clusters == null ? 16 : Integer.parseInt(clusters.toString());
+            vectorSpread = spread == null ? 0.1 : Double.parseDouble(spread.toString());
+            vectorRecall = recall == null ? 0.01 : Double.parseDouble(recall.toString());
+
+            if (!vector.isEmpty())
+                throw new IllegalArgumentException("Unrecognised vector option(s): " + vector);
+            if (vectorClusters <= 0 || vectorSpread < 0 || vectorRecall < 0 || vectorRecall > 1)
+                throw new IllegalArgumentException("Invalid vector options: " + yaml.vector);
+        }
     }
 
     public void maybeCreateSchema(StressSettings settings)
@@ -277,6 +308,27 @@ public class StressProfile implements Serializable
         name = name.toLowerCase();
         if (!queryStatements.containsKey(name))
             throw new IllegalArgumentException("No query defined with name " + name);
+        if (argSelects.get(name) == SchemaQuery.ArgSelect.SIMILAR)
+        {
+            if (generatorFactory == null || generatorFactory.mixture == null)
+                throw new IllegalArgumentException("Query " + name + " is a similar query, but the profile defines no vector");
+
+            long min, max;
+            if (settings.generate.sequence != null)
+            {
+                min = settings.generate.sequence[0];
+                max = settings.generate.sequence[1];
+            }
+            else
+            {
+                Distribution population = settings.generate.distribution.get();
+                min = population.minValue();
+                max = population.maxValue();
+            }
+            return new SchemaSimilarityQuery(timer, settings, generator, seeds, queryStatements.get(name),
+                                             ThriftConversion.fromThrift(settings.command.consistencyLevel),
+                                             generatorFactory.mixture, generatorFactory.vectorColumns, vectorRecall, min, max);
+        }
         return new SchemaQuery(timer, settings, generator, seeds, thriftQueryIds.get(name), queryStatements.get(name),
                                ThriftConversion.fromThrift(settings.command.consistencyLevel), argSelects.get(name));
     }
@@ -452,13 +504,38 @@ public class StressProfile implements Serializable
         final List<ColumnInfo> partitionKeys = new ArrayList<>();
         final List<ColumnInfo> clusteringColumns = new ArrayList<>();
         final List<ColumnInfo> valueColumns = new ArrayList<>();
+        final List<String> vectorColumns;
+        final GaussianMixture mixture;
 
         private GeneratorFactory()
         {
             Set<ColumnMetadata> keyColumns = com.google.common.collect.Sets.newHashSet(tableMetaData.getPrimaryKey());
 
+            if (StressProfile.this.vectorColumns != null)
+            {
+                vectorColumns = new ArrayList<>(StressProfile.this.vectorColumns);
+                if (vectorColumns.isEmpty())
+                    for (ColumnMetadata metadata : tableMetaData.getPartitionKey())
+                        vectorColumns.add(metadata.getName());
+
+                for (String column : vectorColumns)
+                {
+                    ColumnMetadata metadata = tableMetaData.getColumn(column);
+                    if (metadata == null || !tableMetaData.getPartitionKey().contains(metadata) || metadata.getType().getName() != DataType.Name.DOUBLE)
+                        throw new IllegalArgumentException("Vector column " + column + " must be a double partition key column");
+                }
+                // the same vectors in every stress process, so that the vectors written can be searched for later
+                mixture = new GaussianMixture(seedStr.hashCode(), vectorColumns.size(), vectorClusters, vectorSpread);
+            }
+            else
+            {
+                vectorColumns = null;
+                mixture = null;
+            }
+
             for (ColumnMetadata metadata : tableMetaData.getPartitionKey())
-                partitionKeys.add(new ColumnInfo(metadata.getName(), metadata.getType(), columnConfigs.get(metadata.getName())));
+                partitionKeys.add(new ColumnInfo(metadata.getName(), metadata.getType(), columnConfigs.get(metadata.getName()),
+                                                 vectorColumns == null ? -1 : vectorColumns.indexOf(metadata.getName())));
             for (ColumnMetadata metadata : tableMetaData.getClusteringColumns())
                 clusteringColumns.add(new ColumnInfo(metadata.getName(), metadata.getType(), columnConfigs.get(metadata.getName())));
             for (ColumnMetadata metadata : tableMetaData.getColumns())
@@ -468,14 +545,15 @@ public class StressProfile implements Serializable
 
         PartitionGenerator newGenerator(StressSettings settings)
         {
-            return new PartitionGenerator(get(partitionKeys), get(clusteringColumns), get(valueColumns), settings.generate.order);
+            GaussianMixture.Sample sample = mixture == null ? null : mixture.newSample();
+            return new PartitionGenerator(get(partitionKeys, sample), get(clusteringColumns, sample), get(valueColumns, sample), settings.generate.order);
         }
 
-        List<Generator> get(List<ColumnInfo> columnInfos)
+        List<Generator> get(List<ColumnInfo> columnInfos, GaussianMixture.Sample sample)
         {
             List<Generator> result = new ArrayList<>();
             for (ColumnInfo columnInfo : columnInfos)
-                result.add(columnInfo.getGenerator());
+                result.add(columnInfo.component < 0 ? columnInfo.getGenerator() : new Vectors(columnInfo.name, columnInfo.config, sample, columnInfo.component));
             return result;
         }
     }
@@ -485,12 +563,20 @@ public class StressProfile implements Serializable
         final String name;
         final DataType type;
         final GeneratorConfig config;
+        // the component of the vectors this column holds, or -1
+        final int component;
 
         ColumnInfo(String name, DataType type, GeneratorConfig config)
+        {
+            this(name, type, config, -1);
+        }
+
+        ColumnInfo(String name, DataType type, GeneratorConfig config, int component)
         {
             this.name = name;
             this.type = type;
             this.config = config;
+            this.component = component;
         }
 
         Generator getGenerator()
@@ -33,6 +33,7 @@ public class StressYaml
     public List<Map<String, Object>> columnspec;
     public Map<String, QueryDef> queries;
     public Map<String, String> insert;
+    public Map<String, Object> vector;
 
     public static class QueryDef
     {
@@ -0,0 +1,90 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.cassandra.stress.generate.values;
+
+import java.util.Random;
+
+/**
+ * A mixture of gaussian clusters of vectors of a fixed dimension, as embeddings tend to be.
+ *
+ * The centers of the clusters are drawn from a standard gaussian; a vector picks one of the clusters uniformly,
+ * and each of its components is the component of the center plus a gaussian of standard deviation {@code spread}.
+ * The vector of a seed is always the same, so that the vectors of a population can be drawn again to compute
+ * the true neighbours of a query.
+ */
+public class GaussianMixture
+{
+    public final int dimension;
+    private final double spread;
+    private final double[][] centers;
+
+    public GaussianMixture(long seed, int dimension, int clusters, double spread)
+    {
+        assert dimension > 0 && clusters > 0 && spread >= 0;
+        this.dimension = dimension;
+        this.spread = spread;
+        this.centers = new double[clusters][dimension];
+        Random random = new Random(seed);
+        for (double[] center : centers)
+            for (int j = 0 ; j < dimension ; j++)
+                center[j] = random.nextGaussian();
+    }
+
+    /**
+     * Draws the vector of {@code seed} into {@code vector}, using {@code random} as scratch.
+     */
+    public void vector(Random random, long seed, double[] vector)
+    {
+        // spread consecutive seeds over the seed space, as the first draws of Random follow the seed closely
+        random.setSeed(seed * 0x9E3779B97F4A7C15L);
+        double[] center = centers[random.nextInt(centers.length)];
+        for (int j = 0 ; j < dimension ; j++)
+            vector[j] = center[j] + spread * random.nextGaussian();
+    }
+
+    public Sample newSample()
+    {
+        return new Sample();
+    }
+
+    /**
+     * The vector of the last seed asked for, shared by the generators of the components of a partition key so that
+     * the vector is only drawn once per partition. Not thread safe.
+     */
+    public final class Sample
+    {
+        private final Random random = new Random();
+        private final double[] vector = new double[dimension];
+        private long seed;
+        private boolean drawn;
+
+        public double component(long seed, int component)
+        {
+            if (!drawn || seed != this.seed)
+            {
+                vector(random, seed, vector);
+                this.seed = seed;
+                drawn = true;
+            }
+            return vector[component];
+        }
+    }
+}
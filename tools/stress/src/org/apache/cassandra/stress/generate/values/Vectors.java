@@ -0,0 +1,54 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.cassandra.stress.generate.values;
+
+import org.apache.cassandra.db.marshal.DoubleType;
+
+/**
+ * One component of the vectors of a {@link GaussianMixture}, the vector being the partition key: each component
+ * is a double column of the key, so that the key is in the composite layout RandomHyperplaneHash reads.
+ */
+public class Vectors extends Generator<Double>
+{
+    final GaussianMixture.Sample sample;
+    final int component;
+    long seed;
+
+    public Vectors(String name, GeneratorConfig config, GaussianMixture.Sample sample, int component)
+    {
+        super(DoubleType.instance, config, name, Double.class);
+        this.sample = sample;
+        this.component = component;
+    }
+
+    public void setSeed(long seed)
+    {
+        super.setSeed(seed);
+        // the components of a partition key are seeded alike, which picks the same vector for all of them
+        this.seed = seed;
+    }
+
+    @Override
+    public Double generate()
+    {
+        return sample.component(seed, component);
+    }
+}
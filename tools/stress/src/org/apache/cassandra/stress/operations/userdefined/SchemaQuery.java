@@ -43,7 +43,7 @@ public class SchemaQuery extends SchemaStatement
 {
     public static enum ArgSelect
     {
-        MULTIROW, SAMEROW;
+        MULTIROW, SAMEROW, SIMILAR;
         //TODO: FIRSTROW, LASTROW
     }
 
@@ -0,0 +1,199 @@
+package org.apache.cassandra.stress.operations.userdefined;
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.primitives.Doubles;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.stress.generate.PartitionGenerator;
+import org.apache.cassandra.stress.generate.SeedManager;
+import org.apache.cassandra.stress.generate.values.GaussianMixture;
+import org.apache.cassandra.stress.settings.StressSettings;
+import org.apache.cassandra.stress.util.JavaDriverClient;
+import org.apache.cassandra.stress.util.ThriftClient;
+import org.apache.cassandra.stress.util.Timer;
+import org.apache.cassandra.utils.RandomHyperplaneHash;
+
+/**
+ * A <code>SIMILAR TO</code> query for the k nearest neighbours of a vector drawn from the same mixture as the
+ * partition keys, k being the LIMIT of the query.
+ *
+ * A fraction of the queries is checked against the true neighbours, found by drawing again every vector of the
+ * population; this happens outside of the timer, and assumes the whole population has been written.
+ */
+public class SchemaSimilarityQuery extends SchemaQuery
+{
+    private static final Pattern LIMIT = Pattern.compile("\\blimit\\s+(\\d+)", Pattern.CASE_INSENSITIVE);
+
+    final GaussianMixture mixture;
+    final List<String> columns;
+    final int[] components;
+    final int k;
+    final double recallChance;
+    final long populationMin;
+    final long populationMax;
+    final double[] query;
+    final double[] scratch;
+    // reseeded by every vector drawn, so kept apart from the random choosing the queries
+    final Random draws = new Random();
+
+    public SchemaSimilarityQuery(Timer timer, StressSettings settings, PartitionGenerator generator, SeedManager seedManager,
+                                 PreparedStatement statement, ConsistencyLevel cl, GaussianMixture mixture, List<String> columns,
+                                 double recallChance, long populationMin, long populationMax)
+    {
+        super(timer, settings, generator, seedManager, null, statement, cl, ArgSelect.SIMILAR);
+        this.mixture = mixture;
+        this.columns = columns;
+        this.recallChance = recallChance;
+        this.populationMin = populationMin;
+        this.populationMax = populationMax;
+        this.query = new double[mixture.dimension];
+        this.scratch = new double[mixture.dimension];
+
+        components = new int[argumentIndex.length];
+        int i = 0;
+        for (ColumnDefinitions.Definition definition : statement.getVariables())
+        {
+            components[i] = columns.indexOf(definition.getName());
+            if (components[i++] < 0)
+                throw new IllegalArgumentException("Bind variable " + definition.getName() + " of a similar query is not a vector column: " + statement.getQueryString());
+        }
+
+        Matcher matcher = LIMIT.matcher(statement.getQueryString());
+        if (!matcher.find())
+            throw new IllegalArgumentException("A similar query needs a LIMIT: " + statement.getQueryString());
+        k = Integer.parseInt(matcher.group(1));
+    }
+
+    private class JavaDriverRun extends Runner
+    {
+        final JavaDriverClient client;
+        List<Row> rows;
+
+        private JavaDriverRun(JavaDriverClient client)
+        {
+            this.client = client;
+        }
+
+        public boolean run() throws Exception
+        {
+            for (int i = 0 ; i < components.length ; i++)
+                bindBuffer[i] = query[components[i]];
+            rows = client.getSession().execute(statement.bind(bindBuffer)).all();
+            rowCount = rows.size();
+            partitionCount = rowCount;
+            return true;
+        }
+    }
+
+    @Override
+    public void run(JavaDriverClient client) throws IOException
+    {
+        // a vector the population was not written with, as a real query would be
+        mixture.vector(draws, random.nextLong(), query);
+        JavaDriverRun run = new JavaDriverRun(client);
+        timeWithRetry(run);
+
+        if (run.rows != null && random.nextDouble() < recallChance)
+            timer.recall(recall(run.rows));
+    }
+
+    @Override
+    public void run(ThriftClient client) throws IOException
+    {
+        throw new UnsupportedOperationException("similar queries are only supported over the native protocol");
+    }
+
+    private double recall(List<Row> rows)
+    {
+        Set<List<Double>> truth = neighbours();
+        if (truth.isEmpty())
+            return 1;
+
+        int found = 0;
+        for (Row row : rows)
+        {
+            for (int i = 0 ; i < columns.size() ; i++)
+                scratch[i] = row.getDouble(columns.get(i));
+            if (truth.contains(Doubles.asList(scratch.clone())))
+                found++;
+        }
+        return Math.min(1d, found / (double) truth.size());
+    }
+
+    // the k vectors of the population nearest to the query, by brute force
+    private Set<List<Double>> neighbours()
+    {
+        PriorityQueue<Neighbour> nearest = new PriorityQueue<>(k + 1, Collections.reverseOrder());
+        for (long seed = populationMin ; seed <= populationMax ; seed++)
+        {
+            mixture.vector(draws, seed, scratch);
+            double distance = RandomHyperplaneHash.cosineDistance(query, scratch);
+            if (nearest.size() < k)
+                nearest.add(new Neighbour(seed, distance));
+            else if (distance < nearest.peek().distance)
+            {
+                nearest.poll();
+                nearest.add(new Neighbour(seed, distance));
+            }
+        }
+
+        Set<List<Double>> truth = new HashSet<>();
+        for (Neighbour neighbour : nearest)
+        {
+            double[] vector = new double[mixture.dimension];
+            mixture.vector(draws, neighbour.seed, vector);
+            truth.add(Doubles.asList(vector));
+        }
+        return truth;
+    }
+
+    private static final class Neighbour implements Comparable<Neighbour>
+    {
+        final long seed;
+        final double distance;
+
+        Neighbour(long seed, double distance)
+        {
+            this.seed = seed;
+            this.distance = distance;
+        }
+
+        public int compareTo(Neighbour that)
+        {
+            return Double.compare(distance, that.distance);
+        }
+    }
+}
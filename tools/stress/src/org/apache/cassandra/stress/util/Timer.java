@@ -42,6 +42,8 @@ public final class Timer
     private long errorCount;
     private long partitionCount;
     private long rowCount;
+    private double recallSum;
+    private long recallCount;
     private long total;
     private long max;
     private long maxStart;
@@ -100,6 +102,14 @@ public final class Timer
         upToDateAsOf = now;
     }
 
+    // records the recall of an operation whose results were checked against the true neighbours
+    public void recall(double recall)
+    {
+        maybeReport();
+        recallSum += recall;
+        recallCount += 1;
+    }
+
     private int index(int count)
     {
         return count & (sample.length - 1);
@@ -112,7 +122,7 @@ public final class Timer
                         new SampleOfLongs(Arrays.copyOfRange(sample, index(opCount), Math.min(opCount, sample.length)), p(opCount) - 1)
                 );
         final TimingInterval report = new TimingInterval(lastSnap, upToDateAsOf, max, maxStart, max, partitionCount,
-                rowCount, total, opCount, errorCount, SampleOfLongs.merge(rnd, sampleLatencies, Integer.MAX_VALUE));
+                rowCount, total, opCount, errorCount, recallSum, recallCount, SampleOfLongs.merge(rnd, sampleLatencies, Integer.MAX_VALUE));
         // reset counters
         opCount = 0;
         partitionCount = 0;
@@ -120,6 +130,8 @@ public final class Timer
         total = 0;
         max = 0;
         errorCount = 0;
+        recallSum = 0;
+        recallCount = 0;
         lastSnap = upToDateAsOf;
         return report;
     }
@@ -107,6 +107,10 @@ public class TimingIntervals
     {
         return str(TimingInterval.TimingParameter.PARTITIONCOUNT);
     }
+    public String recalls()
+    {
+        return str(TimingInterval.TimingParameter.RECALL);
+    }
 
     public long opRate()
     {